@@ -34,12 +34,14 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 @SuppressWarnings({"cast", "rawtypes", "serial", "unchecked"})
-@Generated(value = "Autogenerated by Thrift Compiler (0.9.2)", date = "2015-6-3")
+@Generated(value = "Autogenerated by Thrift Compiler (0.9.2)", date = "2026-10-16")
 public class Consumer {
 
   public interface Iface {
 
-    public List<com.ndpmedia.rocketmq.babel.MessageExt> pull() throws org.apache.thrift.TException;
+    public com.ndpmedia.rocketmq.babel.PullLease pull(int maxNums, long timeoutMs) throws org.apache.thrift.TException;
+
+    public void ack(String token, List<Long> offsets) throws org.apache.thrift.TException;
 
     public void stop() throws org.apache.thrift.TException;
 
@@ -47,7 +49,9 @@ public class Consumer {
 
   public interface AsyncIface {
 
-    public void pull(org.apache.thrift.async.AsyncMethodCallback resultHandler) throws org.apache.thrift.TException;
+    public void pull(int maxNums, long timeoutMs, org.apache.thrift.async.AsyncMethodCallback resultHandler) throws org.apache.thrift.TException;
+
+    public void ack(String token, List<Long> offsets, org.apache.thrift.async.AsyncMethodCallback resultHandler) throws org.apache.thrift.TException;
 
     public void stop(org.apache.thrift.async.AsyncMethodCallback resultHandler) throws org.apache.thrift.TException;
 
@@ -73,19 +77,21 @@ public class Consumer {
       super(iprot, oprot);
     }
 
-    public List<com.ndpmedia.rocketmq.babel.MessageExt> pull() throws org.apache.thrift.TException
+    public com.ndpmedia.rocketmq.babel.PullLease pull(int maxNums, long timeoutMs) throws org.apache.thrift.TException
     {
-      send_pull();
+      send_pull(maxNums, timeoutMs);
       return recv_pull();
     }
 
-    public void send_pull() throws org.apache.thrift.TException
+    public void send_pull(int maxNums, long timeoutMs) throws org.apache.thrift.TException
     {
       pull_args args = new pull_args();
+      args.setMaxNums(maxNums);
+      args.setTimeoutMs(timeoutMs);
       sendBase("pull", args);
     }
 
-    public List<com.ndpmedia.rocketmq.babel.MessageExt> recv_pull() throws org.apache.thrift.TException
+    public com.ndpmedia.rocketmq.babel.PullLease recv_pull() throws org.apache.thrift.TException
     {
       pull_result result = new pull_result();
       receiveBase(result, "pull");
@@ -95,6 +101,27 @@ public class Consumer {
       throw new org.apache.thrift.TApplicationException(org.apache.thrift.TApplicationException.MISSING_RESULT, "pull failed: unknown result");
     }
 
+    public void ack(String token, List<Long> offsets) throws org.apache.thrift.TException
+    {
+      send_ack(token, offsets);
+      recv_ack();
+    }
+
+    public void send_ack(String token, List<Long> offsets) throws org.apache.thrift.TException
+    {
+      ack_args args = new ack_args();
+      args.setToken(token);
+      args.setOffsets(offsets);
+      sendBase("ack", args);
+    }
+
+    public void recv_ack() throws org.apache.thrift.TException
+    {
+      ack_result result = new ack_result();
+      receiveBase(result, "ack");
+      return;
+    }
+
     public void stop() throws org.apache.thrift.TException
     {
       send_stop();
@@ -124,26 +151,32 @@ public class Consumer {
       super(protocolFactory, clientManager, transport);
     }
 
-    public void pull(org.apache.thrift.async.AsyncMethodCallback resultHandler) throws org.apache.thrift.TException {
+    public void pull(int maxNums, long timeoutMs, org.apache.thrift.async.AsyncMethodCallback resultHandler) throws org.apache.thrift.TException {
       checkReady();
-      pull_call method_call = new pull_call(resultHandler, this, ___protocolFactory, ___transport);
+      pull_call method_call = new pull_call(maxNums, timeoutMs, resultHandler, this, ___protocolFactory, ___transport);
       this.___currentMethod = method_call;
       ___manager.call(method_call);
     }
 
     public static class pull_call extends org.apache.thrift.async.TAsyncMethodCall {
-      public pull_call(org.apache.thrift.async.AsyncMethodCallback resultHandler, org.apache.thrift.async.TAsyncClient client, org.apache.thrift.protocol.TProtocolFactory protocolFactory, org.apache.thrift.transport.TNonblockingTransport transport) throws org.apache.thrift.TException {
+      private int maxNums;
+      private long timeoutMs;
+      public pull_call(int maxNums, long timeoutMs, org.apache.thrift.async.AsyncMethodCallback resultHandler, org.apache.thrift.async.TAsyncClient client, org.apache.thrift.protocol.TProtocolFactory protocolFactory, org.apache.thrift.transport.TNonblockingTransport transport) throws org.apache.thrift.TException {
         super(client, protocolFactory, transport, resultHandler, false);
+        this.maxNums = maxNums;
+        this.timeoutMs = timeoutMs;
       }
 
       public void write_args(org.apache.thrift.protocol.TProtocol prot) throws org.apache.thrift.TException {
         prot.writeMessageBegin(new org.apache.thrift.protocol.TMessage("pull", org.apache.thrift.protocol.TMessageType.CALL, 0));
         pull_args args = new pull_args();
+        args.setMaxNums(maxNums);
+        args.setTimeoutMs(timeoutMs);
         args.write(prot);
         prot.writeMessageEnd();
       }
 
-      public List<com.ndpmedia.rocketmq.babel.MessageExt> getResult() throws org.apache.thrift.TException {
+      public com.ndpmedia.rocketmq.babel.PullLease getResult() throws org.apache.thrift.TException {
         if (getState() != org.apache.thrift.async.TAsyncMethodCall.State.RESPONSE_READ) {
           throw new IllegalStateException("Method call not finished!");
         }
@@ -153,6 +186,41 @@ public class Consumer {
       }
     }
 
+    public void ack(String token, List<Long> offsets, org.apache.thrift.async.AsyncMethodCallback resultHandler) throws org.apache.thrift.TException {
+      checkReady();
+      ack_call method_call = new ack_call(token, offsets, resultHandler, this, ___protocolFactory, ___transport);
+      this.___currentMethod = method_call;
+      ___manager.call(method_call);
+    }
+
+    public static class ack_call extends org.apache.thrift.async.TAsyncMethodCall {
+      private String token;
+      private List<Long> offsets;
+      public ack_call(String token, List<Long> offsets, org.apache.thrift.async.AsyncMethodCallback resultHandler, org.apache.thrift.async.TAsyncClient client, org.apache.thrift.protocol.TProtocolFactory protocolFactory, org.apache.thrift.transport.TNonblockingTransport transport) throws org.apache.thrift.TException {
+        super(client, protocolFactory, transport, resultHandler, false);
+        this.token = token;
+        this.offsets = offsets;
+      }
+
+      public void write_args(org.apache.thrift.protocol.TProtocol prot) throws org.apache.thrift.TException {
+        prot.writeMessageBegin(new org.apache.thrift.protocol.TMessage("ack", org.apache.thrift.protocol.TMessageType.CALL, 0));
+        ack_args args = new ack_args();
+        args.setToken(token);
+        args.setOffsets(offsets);
+        args.write(prot);
+        prot.writeMessageEnd();
+      }
+
+      public void getResult() throws org.apache.thrift.TException {
+        if (getState() != org.apache.thrift.async.TAsyncMethodCall.State.RESPONSE_READ) {
+          throw new IllegalStateException("Method call not finished!");
+        }
+        org.apache.thrift.transport.TMemoryInputTransport memoryTransport = new org.apache.thrift.transport.TMemoryInputTransport(getFrameBuffer().array());
+        org.apache.thrift.protocol.TProtocol prot = client.getProtocolFactory().getProtocol(memoryTransport);
+        (new Client(prot)).recv_ack();
+      }
+    }
+
     public void stop(org.apache.thrift.async.AsyncMethodCallback resultHandler) throws org.apache.thrift.TException {
       checkReady();
       stop_call method_call = new stop_call(resultHandler, this, ___protocolFactory, ___transport);
@@ -195,6 +263,7 @@ public class Consumer {
 
     private static <I extends Iface> Map<String,  org.apache.thrift.ProcessFunction<I, ? extends  org.apache.thrift.TBase>> getProcessMap(Map<String,  org.apache.thrift.ProcessFunction<I, ? extends  org.apache.thrift.TBase>> processMap) {
       processMap.put("pull", new pull());
+      processMap.put("ack", new ack());
       processMap.put("stop", new stop());
       return processMap;
     }
@@ -214,7 +283,27 @@ public class Consumer {
 
       public pull_result getResult(I iface, pull_args args) throws org.apache.thrift.TException {
         pull_result result = new pull_result();
-        result.success = iface.pull();
+        result.success = iface.pull(args.maxNums, args.timeoutMs);
+        return result;
+      }
+    }
+
+    public static class ack<I extends Iface> extends org.apache.thrift.ProcessFunction<I, ack_args> {
+      public ack() {
+        super("ack");
+      }
+
+      public ack_args getEmptyArgsInstance() {
+        return new ack_args();
+      }
+
+      protected boolean isOneway() {
+        return false;
+      }
+
+      public ack_result getResult(I iface, ack_args args) throws org.apache.thrift.TException {
+        ack_result result = new ack_result();
+        iface.ack(args.token, args.offsets);
         return result;
       }
     }
@@ -252,11 +341,12 @@ public class Consumer {
 
     private static <I extends AsyncIface> Map<String,  org.apache.thrift.AsyncProcessFunction<I, ? extends  org.apache.thrift.TBase,?>> getProcessMap(Map<String,  org.apache.thrift.AsyncProcessFunction<I, ? extends  org.apache.thrift.TBase, ?>> processMap) {
       processMap.put("pull", new pull());
+      processMap.put("ack", new ack());
       processMap.put("stop", new stop());
       return processMap;
     }
 
-    public static class pull<I extends AsyncIface> extends org.apache.thrift.AsyncProcessFunction<I, pull_args, List<com.ndpmedia.rocketmq.babel.MessageExt>> {
+    public static class pull<I extends AsyncIface> extends org.apache.thrift.AsyncProcessFunction<I, pull_args, com.ndpmedia.rocketmq.babel.PullLease> {
       public pull() {
         super("pull");
       }
@@ -265,10 +355,10 @@ public class Consumer {
         return new pull_args();
       }
 
-      public AsyncMethodCallback<List<com.ndpmedia.rocketmq.babel.MessageExt>> getResultHandler(final AsyncFrameBuffer fb, final int seqid) {
+      public AsyncMethodCallback<com.ndpmedia.rocketmq.babel.PullLease> getResultHandler(final AsyncFrameBuffer fb, final int seqid) {
         final org.apache.thrift.AsyncProcessFunction fcall = this;
-        return new AsyncMethodCallback<List<com.ndpmedia.rocketmq.babel.MessageExt>>() { 
-          public void onComplete(List<com.ndpmedia.rocketmq.babel.MessageExt> o) {
+        return new AsyncMethodCallback<com.ndpmedia.rocketmq.babel.PullLease>() { 
+          public void onComplete(com.ndpmedia.rocketmq.babel.PullLease o) {
             pull_result result = new pull_result();
             result.success = o;
             try {
@@ -302,8 +392,58 @@ public class Consumer {
         return false;
       }
 
-      public void start(I iface, pull_args args, org.apache.thrift.async.AsyncMethodCallback<List<com.ndpmedia.rocketmq.babel.MessageExt>> resultHandler) throws TException {
-        iface.pull(resultHandler);
+      public void start(I iface, pull_args args, org.apache.thrift.async.AsyncMethodCallback<com.ndpmedia.rocketmq.babel.PullLease> resultHandler) throws TException {
+        iface.pull(args.maxNums,args.timeoutMs,resultHandler);
+      }
+    }
+
+    public static class ack<I extends AsyncIface> extends org.apache.thrift.AsyncProcessFunction<I, ack_args, Void> {
+      public ack() {
+        super("ack");
+      }
+
+      public ack_args getEmptyArgsInstance() {
+        return new ack_args();
+      }
+
+      public AsyncMethodCallback<Void> getResultHandler(final AsyncFrameBuffer fb, final int seqid) {
+        final org.apache.thrift.AsyncProcessFunction fcall = this;
+        return new AsyncMethodCallback<Void>() { 
+          public void onComplete(Void o) {
+            ack_result result = new ack_result();
+            try {
+              fcall.sendResponse(fb,result, org.apache.thrift.protocol.TMessageType.REPLY,seqid);
+              return;
+            } catch (Exception e) {
+              LOGGER.error("Exception writing to internal frame buffer", e);
+            }
+            fb.close();
+          }
+          public void onError(Exception e) {
+            byte msgType = org.apache.thrift.protocol.TMessageType.REPLY;
+            org.apache.thrift.TBase msg;
+            ack_result result = new ack_result();
+            {
+              msgType = org.apache.thrift.protocol.TMessageType.EXCEPTION;
+              msg = (org.apache.thrift.TBase)new org.apache.thrift.TApplicationException(org.apache.thrift.TApplicationException.INTERNAL_ERROR, e.getMessage());
+            }
+            try {
+              fcall.sendResponse(fb,msg,msgType,seqid);
+              return;
+            } catch (Exception ex) {
+              LOGGER.error("Exception writing to internal frame buffer", ex);
+            }
+            fb.close();
+          }
+        };
+      }
+
+      protected boolean isOneway() {
+        return false;
+      }
+
+      public void start(I iface, ack_args args, org.apache.thrift.async.AsyncMethodCallback<Void> resultHandler) throws TException {
+        iface.ack(args.token,args.offsets,resultHandler);
       }
     }
 
@@ -340,6 +480,8 @@ public class Consumer {
   public static class pull_args implements org.apache.thrift.TBase<pull_args, pull_args._Fields>, java.io.Serializable, Cloneable, Comparable<pull_args>   {
     private static final org.apache.thrift.protocol.TStruct STRUCT_DESC = new org.apache.thrift.protocol.TStruct("pull_args");
 
+    private static final org.apache.thrift.protocol.TField MAX_NUMS_FIELD_DESC = new org.apache.thrift.protocol.TField("maxNums", org.apache.thrift.protocol.TType.I32, (short)1);
+    private static final org.apache.thrift.protocol.TField TIMEOUT_MS_FIELD_DESC = new org.apache.thrift.protocol.TField("timeoutMs", org.apache.thrift.protocol.TType.I64, (short)2);
 
     private static final Map<Class<? extends IScheme>, SchemeFactory> schemes = new HashMap<Class<? extends IScheme>, SchemeFactory>();
     static {
@@ -347,10 +489,13 @@ public class Consumer {
       schemes.put(TupleScheme.class, new pull_argsTupleSchemeFactory());
     }
 
+    public int maxNums; // required
+    public long timeoutMs; // required
 
     /** The set of fields this struct contains, along with convenience methods for finding and manipulating them. */
     public enum _Fields implements org.apache.thrift.TFieldIdEnum {
-;
+      MAX_NUMS((short)1, "maxNums"),
+      TIMEOUT_MS((short)2, "timeoutMs");
 
       private static final Map<String, _Fields> byName = new HashMap<String, _Fields>();
 
@@ -365,6 +510,10 @@ public class Consumer {
        */
       public static _Fields findByThriftId(int fieldId) {
         switch(fieldId) {
+          case 1: // MAX_NUMS
+            return MAX_NUMS;
+          case 2: // TIMEOUT_MS
+            return TIMEOUT_MS;
           default:
             return null;
         }
@@ -403,9 +552,18 @@ public class Consumer {
         return _fieldName;
       }
     }
+
+    // isset id assignments
+    private static final int __MAXNUMS_ISSET_ID = 0;
+    private static final int __TIMEOUTMS_ISSET_ID = 1;
+    private byte __isset_bitfield = 0;
     public static final Map<_Fields, org.apache.thrift.meta_data.FieldMetaData> metaDataMap;
     static {
       Map<_Fields, org.apache.thrift.meta_data.FieldMetaData> tmpMap = new EnumMap<_Fields, org.apache.thrift.meta_data.FieldMetaData>(_Fields.class);
+      tmpMap.put(_Fields.MAX_NUMS, new org.apache.thrift.meta_data.FieldMetaData("maxNums", org.apache.thrift.TFieldRequirementType.DEFAULT, 
+          new org.apache.thrift.meta_data.FieldValueMetaData(org.apache.thrift.protocol.TType.I32)));
+      tmpMap.put(_Fields.TIMEOUT_MS, new org.apache.thrift.meta_data.FieldMetaData("timeoutMs", org.apache.thrift.TFieldRequirementType.DEFAULT, 
+          new org.apache.thrift.meta_data.FieldValueMetaData(org.apache.thrift.protocol.TType.I64)));
       metaDataMap = Collections.unmodifiableMap(tmpMap);
       org.apache.thrift.meta_data.FieldMetaData.addStructMetaDataMap(pull_args.class, metaDataMap);
     }
@@ -413,10 +571,24 @@ public class Consumer {
     public pull_args() {
     }
 
+    public pull_args(
+      int maxNums,
+      long timeoutMs)
+    {
+      this();
+      this.maxNums = maxNums;
+      setMaxNumsIsSet(true);
+      this.timeoutMs = timeoutMs;
+      setTimeoutMsIsSet(true);
+    }
+
     /**
      * Performs a deep copy on <i>other</i>.
      */
     public pull_args(pull_args other) {
+      __isset_bitfield = other.__isset_bitfield;
+      this.maxNums = other.maxNums;
+      this.timeoutMs = other.timeoutMs;
     }
 
     public pull_args deepCopy() {
@@ -425,15 +597,87 @@ public class Consumer {
 
     @Override
     public void clear() {
+      setMaxNumsIsSet(false);
+      this.maxNums = 0;
+      setTimeoutMsIsSet(false);
+      this.timeoutMs = 0;
+    }
+
+    public int getMaxNums() {
+      return this.maxNums;
+    }
+
+    public pull_args setMaxNums(int maxNums) {
+      this.maxNums = maxNums;
+      setMaxNumsIsSet(true);
+      return this;
+    }
+
+    public void unsetMaxNums() {
+      __isset_bitfield = EncodingUtils.clearBit(__isset_bitfield, __MAXNUMS_ISSET_ID);
+    }
+
+    /** Returns true if field maxNums is set (has been assigned a value) and false otherwise */
+    public boolean isSetMaxNums() {
+      return EncodingUtils.testBit(__isset_bitfield, __MAXNUMS_ISSET_ID);
+    }
+
+    public void setMaxNumsIsSet(boolean value) {
+      __isset_bitfield = EncodingUtils.setBit(__isset_bitfield, __MAXNUMS_ISSET_ID, value);
+    }
+
+    public long getTimeoutMs() {
+      return this.timeoutMs;
+    }
+
+    public pull_args setTimeoutMs(long timeoutMs) {
+      this.timeoutMs = timeoutMs;
+      setTimeoutMsIsSet(true);
+      return this;
+    }
+
+    public void unsetTimeoutMs() {
+      __isset_bitfield = EncodingUtils.clearBit(__isset_bitfield, __TIMEOUTMS_ISSET_ID);
+    }
+
+    /** Returns true if field timeoutMs is set (has been assigned a value) and false otherwise */
+    public boolean isSetTimeoutMs() {
+      return EncodingUtils.testBit(__isset_bitfield, __TIMEOUTMS_ISSET_ID);
+    }
+
+    public void setTimeoutMsIsSet(boolean value) {
+      __isset_bitfield = EncodingUtils.setBit(__isset_bitfield, __TIMEOUTMS_ISSET_ID, value);
     }
 
     public void setFieldValue(_Fields field, Object value) {
       switch (field) {
+      case MAX_NUMS:
+        if (value == null) {
+          unsetMaxNums();
+        } else {
+          setMaxNums((Integer)value);
+        }
+        break;
+
+      case TIMEOUT_MS:
+        if (value == null) {
+          unsetTimeoutMs();
+        } else {
+          setTimeoutMs((Long)value);
+        }
+        break;
+
       }
     }
 
     public Object getFieldValue(_Fields field) {
       switch (field) {
+      case MAX_NUMS:
+        return Integer.valueOf(getMaxNums());
+
+      case TIMEOUT_MS:
+        return Long.valueOf(getTimeoutMs());
+
       }
       throw new IllegalStateException();
     }
@@ -445,6 +689,10 @@ public class Consumer {
       }
 
       switch (field) {
+      case MAX_NUMS:
+        return isSetMaxNums();
+      case TIMEOUT_MS:
+        return isSetTimeoutMs();
       }
       throw new IllegalStateException();
     }
@@ -462,6 +710,24 @@ public class Consumer {
       if (that == null)
         return false;
 
+      boolean this_present_maxNums = true;
+      boolean that_present_maxNums = true;
+      if (this_present_maxNums || that_present_maxNums) {
+        if (!(this_present_maxNums && that_present_maxNums))
+          return false;
+        if (this.maxNums != that.maxNums)
+          return false;
+      }
+
+      boolean this_present_timeoutMs = true;
+      boolean that_present_timeoutMs = true;
+      if (this_present_timeoutMs || that_present_timeoutMs) {
+        if (!(this_present_timeoutMs && that_present_timeoutMs))
+          return false;
+        if (this.timeoutMs != that.timeoutMs)
+          return false;
+      }
+
       return true;
     }
 
@@ -469,6 +735,16 @@ public class Consumer {
     public int hashCode() {
       List<Object> list = new ArrayList<Object>();
 
+      boolean present_maxNums = true;
+      list.add(present_maxNums);
+      if (present_maxNums)
+        list.add(maxNums);
+
+      boolean present_timeoutMs = true;
+      list.add(present_timeoutMs);
+      if (present_timeoutMs)
+        list.add(timeoutMs);
+
       return list.hashCode();
     }
 
@@ -480,6 +756,26 @@ public class Consumer {
 
       int lastComparison = 0;
 
+      lastComparison = Boolean.valueOf(isSetMaxNums()).compareTo(other.isSetMaxNums());
+      if (lastComparison != 0) {
+        return lastComparison;
+      }
+      if (isSetMaxNums()) {
+        lastComparison = org.apache.thrift.TBaseHelper.compareTo(this.maxNums, other.maxNums);
+        if (lastComparison != 0) {
+          return lastComparison;
+        }
+      }
+      lastComparison = Boolean.valueOf(isSetTimeoutMs()).compareTo(other.isSetTimeoutMs());
+      if (lastComparison != 0) {
+        return lastComparison;
+      }
+      if (isSetTimeoutMs()) {
+        lastComparison = org.apache.thrift.TBaseHelper.compareTo(this.timeoutMs, other.timeoutMs);
+        if (lastComparison != 0) {
+          return lastComparison;
+        }
+      }
       return 0;
     }
 
@@ -500,6 +796,13 @@ public class Consumer {
       StringBuilder sb = new StringBuilder("pull_args(");
       boolean first = true;
 
+      sb.append("maxNums:");
+      sb.append(this.maxNums);
+      first = false;
+      if (!first) sb.append(", ");
+      sb.append("timeoutMs:");
+      sb.append(this.timeoutMs);
+      first = false;
       sb.append(")");
       return sb.toString();
     }
@@ -519,6 +822,8 @@ public class Consumer {
 
     private void readObject(java.io.ObjectInputStream in) throws java.io.IOException, ClassNotFoundException {
       try {
+        // it doesn't seem like you should have to do this, but java serialization is wacky, and doesn't call the default constructor.
+        __isset_bitfield = 0;
         read(new org.apache.thrift.protocol.TCompactProtocol(new org.apache.thrift.transport.TIOStreamTransport(in)));
       } catch (org.apache.thrift.TException te) {
         throw new java.io.IOException(te);
@@ -543,6 +848,22 @@ public class Consumer {
             break;
           }
           switch (schemeField.id) {
+            case 1: // MAX_NUMS
+              if (schemeField.type == org.apache.thrift.protocol.TType.I32) {
+                struct.maxNums = iprot.readI32();
+                struct.setMaxNumsIsSet(true);
+              } else { 
+                org.apache.thrift.protocol.TProtocolUtil.skip(iprot, schemeField.type);
+              }
+              break;
+            case 2: // TIMEOUT_MS
+              if (schemeField.type == org.apache.thrift.protocol.TType.I64) {
+                struct.timeoutMs = iprot.readI64();
+                struct.setTimeoutMsIsSet(true);
+              } else { 
+                org.apache.thrift.protocol.TProtocolUtil.skip(iprot, schemeField.type);
+              }
+              break;
             default:
               org.apache.thrift.protocol.TProtocolUtil.skip(iprot, schemeField.type);
           }
@@ -558,6 +879,12 @@ public class Consumer {
         struct.validate();
 
         oprot.writeStructBegin(STRUCT_DESC);
+        oprot.writeFieldBegin(MAX_NUMS_FIELD_DESC);
+        oprot.writeI32(struct.maxNums);
+        oprot.writeFieldEnd();
+        oprot.writeFieldBegin(TIMEOUT_MS_FIELD_DESC);
+        oprot.writeI64(struct.timeoutMs);
+        oprot.writeFieldEnd();
         oprot.writeFieldStop();
         oprot.writeStructEnd();
       }
@@ -575,11 +902,34 @@ public class Consumer {
       @Override
       public void write(org.apache.thrift.protocol.TProtocol prot, pull_args struct) throws org.apache.thrift.TException {
         TTupleProtocol oprot = (TTupleProtocol) prot;
+        BitSet optionals = new BitSet();
+        if (struct.isSetMaxNums()) {
+          optionals.set(0);
+        }
+        if (struct.isSetTimeoutMs()) {
+          optionals.set(1);
+        }
+        oprot.writeBitSet(optionals, 2);
+        if (struct.isSetMaxNums()) {
+          oprot.writeI32(struct.maxNums);
+        }
+        if (struct.isSetTimeoutMs()) {
+          oprot.writeI64(struct.timeoutMs);
+        }
       }
 
       @Override
       public void read(org.apache.thrift.protocol.TProtocol prot, pull_args struct) throws org.apache.thrift.TException {
         TTupleProtocol iprot = (TTupleProtocol) prot;
+        BitSet incoming = iprot.readBitSet(2);
+        if (incoming.get(0)) {
+          struct.maxNums = iprot.readI32();
+          struct.setMaxNumsIsSet(true);
+        }
+        if (incoming.get(1)) {
+          struct.timeoutMs = iprot.readI64();
+          struct.setTimeoutMsIsSet(true);
+        }
       }
     }
 
@@ -588,7 +938,7 @@ public class Consumer {
   public static class pull_result implements org.apache.thrift.TBase<pull_result, pull_result._Fields>, java.io.Serializable, Cloneable, Comparable<pull_result>   {
     private static final org.apache.thrift.protocol.TStruct STRUCT_DESC = new org.apache.thrift.protocol.TStruct("pull_result");
 
-    private static final org.apache.thrift.protocol.TField SUCCESS_FIELD_DESC = new org.apache.thrift.protocol.TField("success", org.apache.thrift.protocol.TType.LIST, (short)0);
+    private static final org.apache.thrift.protocol.TField SUCCESS_FIELD_DESC = new org.apache.thrift.protocol.TField("success", org.apache.thrift.protocol.TType.STRUCT, (short)0);
 
     private static final Map<Class<? extends IScheme>, SchemeFactory> schemes = new HashMap<Class<? extends IScheme>, SchemeFactory>();
     static {
@@ -596,7 +946,7 @@ public class Consumer {
       schemes.put(TupleScheme.class, new pull_resultTupleSchemeFactory());
     }
 
-    public List<com.ndpmedia.rocketmq.babel.MessageExt> success; // required
+    public com.ndpmedia.rocketmq.babel.PullLease success; // required
 
     /** The set of fields this struct contains, along with convenience methods for finding and manipulating them. */
     public enum _Fields implements org.apache.thrift.TFieldIdEnum {
@@ -661,8 +1011,7 @@ public class Consumer {
     static {
       Map<_Fields, org.apache.thrift.meta_data.FieldMetaData> tmpMap = new EnumMap<_Fields, org.apache.thrift.meta_data.FieldMetaData>(_Fields.class);
       tmpMap.put(_Fields.SUCCESS, new org.apache.thrift.meta_data.FieldMetaData("success", org.apache.thrift.TFieldRequirementType.DEFAULT, 
-          new org.apache.thrift.meta_data.ListMetaData(org.apache.thrift.protocol.TType.LIST, 
-              new org.apache.thrift.meta_data.StructMetaData(org.apache.thrift.protocol.TType.STRUCT, com.ndpmedia.rocketmq.babel.MessageExt.class))));
+          new org.apache.thrift.meta_data.StructMetaData(org.apache.thrift.protocol.TType.STRUCT, com.ndpmedia.rocketmq.babel.PullLease.class)));
       metaDataMap = Collections.unmodifiableMap(tmpMap);
       org.apache.thrift.meta_data.FieldMetaData.addStructMetaDataMap(pull_result.class, metaDataMap);
     }
@@ -671,7 +1020,7 @@ public class Consumer {
     }
 
     public pull_result(
-      List<com.ndpmedia.rocketmq.babel.MessageExt> success)
+      com.ndpmedia.rocketmq.babel.PullLease success)
     {
       this();
       this.success = success;
@@ -682,11 +1031,7 @@ public class Consumer {
      */
     public pull_result(pull_result other) {
       if (other.isSetSuccess()) {
-        List<com.ndpmedia.rocketmq.babel.MessageExt> __this__success = new ArrayList<com.ndpmedia.rocketmq.babel.MessageExt>(other.success.size());
-        for (com.ndpmedia.rocketmq.babel.MessageExt other_element : other.success) {
-          __this__success.add(new com.ndpmedia.rocketmq.babel.MessageExt(other_element));
-        }
-        this.success = __this__success;
+        this.success = new com.ndpmedia.rocketmq.babel.PullLease(other.success);
       }
     }
 
@@ -699,26 +1044,11 @@ public class Consumer {
       this.success = null;
     }
 
-    public int getSuccessSize() {
-      return (this.success == null) ? 0 : this.success.size();
-    }
-
-    public java.util.Iterator<com.ndpmedia.rocketmq.babel.MessageExt> getSuccessIterator() {
-      return (this.success == null) ? null : this.success.iterator();
-    }
-
-    public void addToSuccess(com.ndpmedia.rocketmq.babel.MessageExt elem) {
-      if (this.success == null) {
-        this.success = new ArrayList<com.ndpmedia.rocketmq.babel.MessageExt>();
-      }
-      this.success.add(elem);
-    }
-
-    public List<com.ndpmedia.rocketmq.babel.MessageExt> getSuccess() {
+    public com.ndpmedia.rocketmq.babel.PullLease getSuccess() {
       return this.success;
     }
 
-    public pull_result setSuccess(List<com.ndpmedia.rocketmq.babel.MessageExt> success) {
+    public pull_result setSuccess(com.ndpmedia.rocketmq.babel.PullLease success) {
       this.success = success;
       return this;
     }
@@ -744,7 +1074,7 @@ public class Consumer {
         if (value == null) {
           unsetSuccess();
         } else {
-          setSuccess((List<com.ndpmedia.rocketmq.babel.MessageExt>)value);
+          setSuccess((com.ndpmedia.rocketmq.babel.PullLease)value);
         }
         break;
 
@@ -862,6 +1192,9 @@ public class Consumer {
     public void validate() throws org.apache.thrift.TException {
       // check for required fields
       // check for sub-struct validity
+      if (success != null) {
+        success.validate();
+      }
     }
 
     private void writeObject(java.io.ObjectOutputStream out) throws java.io.IOException {
@@ -899,19 +1232,9 @@ public class Consumer {
           }
           switch (schemeField.id) {
             case 0: // SUCCESS
-              if (schemeField.type == org.apache.thrift.protocol.TType.LIST) {
-                {
-                  org.apache.thrift.protocol.TList _list0 = iprot.readListBegin();
-                  struct.success = new ArrayList<com.ndpmedia.rocketmq.babel.MessageExt>(_list0.size);
-                  com.ndpmedia.rocketmq.babel.MessageExt _elem1;
-                  for (int _i2 = 0; _i2 < _list0.size; ++_i2)
-                  {
-                    _elem1 = new com.ndpmedia.rocketmq.babel.MessageExt();
-                    _elem1.read(iprot);
-                    struct.success.add(_elem1);
-                  }
-                  iprot.readListEnd();
-                }
+              if (schemeField.type == org.apache.thrift.protocol.TType.STRUCT) {
+                struct.success = new com.ndpmedia.rocketmq.babel.PullLease();
+                struct.success.read(iprot);
                 struct.setSuccessIsSet(true);
               } else { 
                 org.apache.thrift.protocol.TProtocolUtil.skip(iprot, schemeField.type);
@@ -934,14 +1257,7 @@ public class Consumer {
         oprot.writeStructBegin(STRUCT_DESC);
         if (struct.success != null) {
           oprot.writeFieldBegin(SUCCESS_FIELD_DESC);
-          {
-            oprot.writeListBegin(new org.apache.thrift.protocol.TList(org.apache.thrift.protocol.TType.STRUCT, struct.success.size()));
-            for (com.ndpmedia.rocketmq.babel.MessageExt _iter3 : struct.success)
-            {
-              _iter3.write(oprot);
-            }
-            oprot.writeListEnd();
-          }
+          struct.success.write(oprot);
           oprot.writeFieldEnd();
         }
         oprot.writeFieldStop();
@@ -967,13 +1283,7 @@ public class Consumer {
         }
         oprot.writeBitSet(optionals, 1);
         if (struct.isSetSuccess()) {
-          {
-            oprot.writeI32(struct.success.size());
-            for (com.ndpmedia.rocketmq.babel.MessageExt _iter4 : struct.success)
-            {
-              _iter4.write(oprot);
-            }
-          }
+          struct.success.write(oprot);
         }
       }
 
@@ -982,17 +1292,8 @@ public class Consumer {
         TTupleProtocol iprot = (TTupleProtocol) prot;
         BitSet incoming = iprot.readBitSet(1);
         if (incoming.get(0)) {
-          {
-            org.apache.thrift.protocol.TList _list5 = new org.apache.thrift.protocol.TList(org.apache.thrift.protocol.TType.STRUCT, iprot.readI32());
-            struct.success = new ArrayList<com.ndpmedia.rocketmq.babel.MessageExt>(_list5.size);
-            com.ndpmedia.rocketmq.babel.MessageExt _elem6;
-            for (int _i7 = 0; _i7 < _list5.size; ++_i7)
-            {
-              _elem6 = new com.ndpmedia.rocketmq.babel.MessageExt();
-              _elem6.read(iprot);
-              struct.success.add(_elem6);
-            }
-          }
+          struct.success = new com.ndpmedia.rocketmq.babel.PullLease();
+          struct.success.read(iprot);
           struct.setSuccessIsSet(true);
         }
       }
@@ -1000,6 +1301,769 @@ public class Consumer {
 
   }
 
+  public static class ack_args implements org.apache.thrift.TBase<ack_args, ack_args._Fields>, java.io.Serializable, Cloneable, Comparable<ack_args>   {
+    private static final org.apache.thrift.protocol.TStruct STRUCT_DESC = new org.apache.thrift.protocol.TStruct("ack_args");
+
+    private static final org.apache.thrift.protocol.TField TOKEN_FIELD_DESC = new org.apache.thrift.protocol.TField("token", org.apache.thrift.protocol.TType.STRING, (short)1);
+    private static final org.apache.thrift.protocol.TField OFFSETS_FIELD_DESC = new org.apache.thrift.protocol.TField("offsets", org.apache.thrift.protocol.TType.LIST, (short)2);
+
+    private static final Map<Class<? extends IScheme>, SchemeFactory> schemes = new HashMap<Class<? extends IScheme>, SchemeFactory>();
+    static {
+      schemes.put(StandardScheme.class, new ack_argsStandardSchemeFactory());
+      schemes.put(TupleScheme.class, new ack_argsTupleSchemeFactory());
+    }
+
+    public String token; // required
+    public List<Long> offsets; // required
+
+    /** The set of fields this struct contains, along with convenience methods for finding and manipulating them. */
+    public enum _Fields implements org.apache.thrift.TFieldIdEnum {
+      TOKEN((short)1, "token"),
+      OFFSETS((short)2, "offsets");
+
+      private static final Map<String, _Fields> byName = new HashMap<String, _Fields>();
+
+      static {
+        for (_Fields field : EnumSet.allOf(_Fields.class)) {
+          byName.put(field.getFieldName(), field);
+        }
+      }
+
+      /**
+       * Find the _Fields constant that matches fieldId, or null if its not found.
+       */
+      public static _Fields findByThriftId(int fieldId) {
+        switch(fieldId) {
+          case 1: // TOKEN
+            return TOKEN;
+          case 2: // OFFSETS
+            return OFFSETS;
+          default:
+            return null;
+        }
+      }
+
+      /**
+       * Find the _Fields constant that matches fieldId, throwing an exception
+       * if it is not found.
+       */
+      public static _Fields findByThriftIdOrThrow(int fieldId) {
+        _Fields fields = findByThriftId(fieldId);
+        if (fields == null) throw new IllegalArgumentException("Field " + fieldId + " doesn't exist!");
+        return fields;
+      }
+
+      /**
+       * Find the _Fields constant that matches name, or null if its not found.
+       */
+      public static _Fields findByName(String name) {
+        return byName.get(name);
+      }
+
+      private final short _thriftId;
+      private final String _fieldName;
+
+      _Fields(short thriftId, String fieldName) {
+        _thriftId = thriftId;
+        _fieldName = fieldName;
+      }
+
+      public short getThriftFieldId() {
+        return _thriftId;
+      }
+
+      public String getFieldName() {
+        return _fieldName;
+      }
+    }
+
+    // isset id assignments
+    public static final Map<_Fields, org.apache.thrift.meta_data.FieldMetaData> metaDataMap;
+    static {
+      Map<_Fields, org.apache.thrift.meta_data.FieldMetaData> tmpMap = new EnumMap<_Fields, org.apache.thrift.meta_data.FieldMetaData>(_Fields.class);
+      tmpMap.put(_Fields.TOKEN, new org.apache.thrift.meta_data.FieldMetaData("token", org.apache.thrift.TFieldRequirementType.DEFAULT, 
+          new org.apache.thrift.meta_data.FieldValueMetaData(org.apache.thrift.protocol.TType.STRING)));
+      tmpMap.put(_Fields.OFFSETS, new org.apache.thrift.meta_data.FieldMetaData("offsets", org.apache.thrift.TFieldRequirementType.DEFAULT, 
+          new org.apache.thrift.meta_data.ListMetaData(org.apache.thrift.protocol.TType.LIST, 
+              new org.apache.thrift.meta_data.FieldValueMetaData(org.apache.thrift.protocol.TType.I64))));
+      metaDataMap = Collections.unmodifiableMap(tmpMap);
+      org.apache.thrift.meta_data.FieldMetaData.addStructMetaDataMap(ack_args.class, metaDataMap);
+    }
+
+    public ack_args() {
+    }
+
+    public ack_args(
+      String token,
+      List<Long> offsets)
+    {
+      this();
+      this.token = token;
+      this.offsets = offsets;
+    }
+
+    /**
+     * Performs a deep copy on <i>other</i>.
+     */
+    public ack_args(ack_args other) {
+      if (other.isSetToken()) {
+        this.token = other.token;
+      }
+      if (other.isSetOffsets()) {
+        List<Long> __this__offsets = new ArrayList<Long>(other.offsets);
+        this.offsets = __this__offsets;
+      }
+    }
+
+    public ack_args deepCopy() {
+      return new ack_args(this);
+    }
+
+    @Override
+    public void clear() {
+      this.token = null;
+      this.offsets = null;
+    }
+
+    public String getToken() {
+      return this.token;
+    }
+
+    public ack_args setToken(String token) {
+      this.token = token;
+      return this;
+    }
+
+    public void unsetToken() {
+      this.token = null;
+    }
+
+    /** Returns true if field token is set (has been assigned a value) and false otherwise */
+    public boolean isSetToken() {
+      return this.token != null;
+    }
+
+    public void setTokenIsSet(boolean value) {
+      if (!value) {
+        this.token = null;
+      }
+    }
+
+    public int getOffsetsSize() {
+      return (this.offsets == null) ? 0 : this.offsets.size();
+    }
+
+    public java.util.Iterator<Long> getOffsetsIterator() {
+      return (this.offsets == null) ? null : this.offsets.iterator();
+    }
+
+    public void addToOffsets(long elem) {
+      if (this.offsets == null) {
+        this.offsets = new ArrayList<Long>();
+      }
+      this.offsets.add(elem);
+    }
+
+    public List<Long> getOffsets() {
+      return this.offsets;
+    }
+
+    public ack_args setOffsets(List<Long> offsets) {
+      this.offsets = offsets;
+      return this;
+    }
+
+    public void unsetOffsets() {
+      this.offsets = null;
+    }
+
+    /** Returns true if field offsets is set (has been assigned a value) and false otherwise */
+    public boolean isSetOffsets() {
+      return this.offsets != null;
+    }
+
+    public void setOffsetsIsSet(boolean value) {
+      if (!value) {
+        this.offsets = null;
+      }
+    }
+
+    public void setFieldValue(_Fields field, Object value) {
+      switch (field) {
+      case TOKEN:
+        if (value == null) {
+          unsetToken();
+        } else {
+          setToken((String)value);
+        }
+        break;
+
+      case OFFSETS:
+        if (value == null) {
+          unsetOffsets();
+        } else {
+          setOffsets((List<Long>)value);
+        }
+        break;
+
+      }
+    }
+
+    public Object getFieldValue(_Fields field) {
+      switch (field) {
+      case TOKEN:
+        return getToken();
+
+      case OFFSETS:
+        return getOffsets();
+
+      }
+      throw new IllegalStateException();
+    }
+
+    /** Returns true if field corresponding to fieldID is set (has been assigned a value) and false otherwise */
+    public boolean isSet(_Fields field) {
+      if (field == null) {
+        throw new IllegalArgumentException();
+      }
+
+      switch (field) {
+      case TOKEN:
+        return isSetToken();
+      case OFFSETS:
+        return isSetOffsets();
+      }
+      throw new IllegalStateException();
+    }
+
+    @Override
+    public boolean equals(Object that) {
+      if (that == null)
+        return false;
+      if (that instanceof ack_args)
+        return this.equals((ack_args)that);
+      return false;
+    }
+
+    public boolean equals(ack_args that) {
+      if (that == null)
+        return false;
+
+      boolean this_present_token = true && this.isSetToken();
+      boolean that_present_token = true && that.isSetToken();
+      if (this_present_token || that_present_token) {
+        if (!(this_present_token && that_present_token))
+          return false;
+        if (!this.token.equals(that.token))
+          return false;
+      }
+
+      boolean this_present_offsets = true && this.isSetOffsets();
+      boolean that_present_offsets = true && that.isSetOffsets();
+      if (this_present_offsets || that_present_offsets) {
+        if (!(this_present_offsets && that_present_offsets))
+          return false;
+        if (!this.offsets.equals(that.offsets))
+          return false;
+      }
+
+      return true;
+    }
+
+    @Override
+    public int hashCode() {
+      List<Object> list = new ArrayList<Object>();
+
+      boolean present_token = true && (isSetToken());
+      list.add(present_token);
+      if (present_token)
+        list.add(token);
+
+      boolean present_offsets = true && (isSetOffsets());
+      list.add(present_offsets);
+      if (present_offsets)
+        list.add(offsets);
+
+      return list.hashCode();
+    }
+
+    @Override
+    public int compareTo(ack_args other) {
+      if (!getClass().equals(other.getClass())) {
+        return getClass().getName().compareTo(other.getClass().getName());
+      }
+
+      int lastComparison = 0;
+
+      lastComparison = Boolean.valueOf(isSetToken()).compareTo(other.isSetToken());
+      if (lastComparison != 0) {
+        return lastComparison;
+      }
+      if (isSetToken()) {
+        lastComparison = org.apache.thrift.TBaseHelper.compareTo(this.token, other.token);
+        if (lastComparison != 0) {
+          return lastComparison;
+        }
+      }
+      lastComparison = Boolean.valueOf(isSetOffsets()).compareTo(other.isSetOffsets());
+      if (lastComparison != 0) {
+        return lastComparison;
+      }
+      if (isSetOffsets()) {
+        lastComparison = org.apache.thrift.TBaseHelper.compareTo(this.offsets, other.offsets);
+        if (lastComparison != 0) {
+          return lastComparison;
+        }
+      }
+      return 0;
+    }
+
+    public _Fields fieldForId(int fieldId) {
+      return _Fields.findByThriftId(fieldId);
+    }
+
+    public void read(org.apache.thrift.protocol.TProtocol iprot) throws org.apache.thrift.TException {
+      schemes.get(iprot.getScheme()).getScheme().read(iprot, this);
+    }
+
+    public void write(org.apache.thrift.protocol.TProtocol oprot) throws org.apache.thrift.TException {
+      schemes.get(oprot.getScheme()).getScheme().write(oprot, this);
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder sb = new StringBuilder("ack_args(");
+      boolean first = true;
+
+      sb.append("token:");
+      if (this.token == null) {
+        sb.append("null");
+      } else {
+        sb.append(this.token);
+      }
+      first = false;
+      if (!first) sb.append(", ");
+      sb.append("offsets:");
+      if (this.offsets == null) {
+        sb.append("null");
+      } else {
+        sb.append(this.offsets);
+      }
+      first = false;
+      sb.append(")");
+      return sb.toString();
+    }
+
+    public void validate() throws org.apache.thrift.TException {
+      // check for required fields
+      // check for sub-struct validity
+    }
+
+    private void writeObject(java.io.ObjectOutputStream out) throws java.io.IOException {
+      try {
+        write(new org.apache.thrift.protocol.TCompactProtocol(new org.apache.thrift.transport.TIOStreamTransport(out)));
+      } catch (org.apache.thrift.TException te) {
+        throw new java.io.IOException(te);
+      }
+    }
+
+    private void readObject(java.io.ObjectInputStream in) throws java.io.IOException, ClassNotFoundException {
+      try {
+        read(new org.apache.thrift.protocol.TCompactProtocol(new org.apache.thrift.transport.TIOStreamTransport(in)));
+      } catch (org.apache.thrift.TException te) {
+        throw new java.io.IOException(te);
+      }
+    }
+
+    private static class ack_argsStandardSchemeFactory implements SchemeFactory {
+      public ack_argsStandardScheme getScheme() {
+        return new ack_argsStandardScheme();
+      }
+    }
+
+    private static class ack_argsStandardScheme extends StandardScheme<ack_args> {
+
+      public void read(org.apache.thrift.protocol.TProtocol iprot, ack_args struct) throws org.apache.thrift.TException {
+        org.apache.thrift.protocol.TField schemeField;
+        iprot.readStructBegin();
+        while (true)
+        {
+          schemeField = iprot.readFieldBegin();
+          if (schemeField.type == org.apache.thrift.protocol.TType.STOP) { 
+            break;
+          }
+          switch (schemeField.id) {
+            case 1: // TOKEN
+              if (schemeField.type == org.apache.thrift.protocol.TType.STRING) {
+                struct.token = iprot.readString();
+                struct.setTokenIsSet(true);
+              } else { 
+                org.apache.thrift.protocol.TProtocolUtil.skip(iprot, schemeField.type);
+              }
+              break;
+            case 2: // OFFSETS
+              if (schemeField.type == org.apache.thrift.protocol.TType.LIST) {
+                {
+                  org.apache.thrift.protocol.TList _list0 = iprot.readListBegin();
+                  struct.offsets = new ArrayList<Long>(_list0.size);
+                  long _elem1;
+                  for (int _i2 = 0; _i2 < _list0.size; ++_i2)
+                  {
+                    _elem1 = iprot.readI64();
+                    struct.offsets.add(_elem1);
+                  }
+                  iprot.readListEnd();
+                }
+                struct.setOffsetsIsSet(true);
+              } else { 
+                org.apache.thrift.protocol.TProtocolUtil.skip(iprot, schemeField.type);
+              }
+              break;
+            default:
+              org.apache.thrift.protocol.TProtocolUtil.skip(iprot, schemeField.type);
+          }
+          iprot.readFieldEnd();
+        }
+        iprot.readStructEnd();
+
+        // check for required fields of primitive type, which can't be checked in the validate method
+        struct.validate();
+      }
+
+      public void write(org.apache.thrift.protocol.TProtocol oprot, ack_args struct) throws org.apache.thrift.TException {
+        struct.validate();
+
+        oprot.writeStructBegin(STRUCT_DESC);
+        if (struct.token != null) {
+          oprot.writeFieldBegin(TOKEN_FIELD_DESC);
+          oprot.writeString(struct.token);
+          oprot.writeFieldEnd();
+        }
+        if (struct.offsets != null) {
+          oprot.writeFieldBegin(OFFSETS_FIELD_DESC);
+          {
+            oprot.writeListBegin(new org.apache.thrift.protocol.TList(org.apache.thrift.protocol.TType.I64, struct.offsets.size()));
+            for (long _iter3 : struct.offsets)
+            {
+              oprot.writeI64(_iter3);
+            }
+            oprot.writeListEnd();
+          }
+          oprot.writeFieldEnd();
+        }
+        oprot.writeFieldStop();
+        oprot.writeStructEnd();
+      }
+
+    }
+
+    private static class ack_argsTupleSchemeFactory implements SchemeFactory {
+      public ack_argsTupleScheme getScheme() {
+        return new ack_argsTupleScheme();
+      }
+    }
+
+    private static class ack_argsTupleScheme extends TupleScheme<ack_args> {
+
+      @Override
+      public void write(org.apache.thrift.protocol.TProtocol prot, ack_args struct) throws org.apache.thrift.TException {
+        TTupleProtocol oprot = (TTupleProtocol) prot;
+        BitSet optionals = new BitSet();
+        if (struct.isSetToken()) {
+          optionals.set(0);
+        }
+        if (struct.isSetOffsets()) {
+          optionals.set(1);
+        }
+        oprot.writeBitSet(optionals, 2);
+        if (struct.isSetToken()) {
+          oprot.writeString(struct.token);
+        }
+        if (struct.isSetOffsets()) {
+          {
+            oprot.writeI32(struct.offsets.size());
+            for (long _iter4 : struct.offsets)
+            {
+              oprot.writeI64(_iter4);
+            }
+          }
+        }
+      }
+
+      @Override
+      public void read(org.apache.thrift.protocol.TProtocol prot, ack_args struct) throws org.apache.thrift.TException {
+        TTupleProtocol iprot = (TTupleProtocol) prot;
+        BitSet incoming = iprot.readBitSet(2);
+        if (incoming.get(0)) {
+          struct.token = iprot.readString();
+          struct.setTokenIsSet(true);
+        }
+        if (incoming.get(1)) {
+          {
+            org.apache.thrift.protocol.TList _list5 = new org.apache.thrift.protocol.TList(org.apache.thrift.protocol.TType.I64, iprot.readI32());
+            struct.offsets = new ArrayList<Long>(_list5.size);
+            long _elem6;
+            for (int _i7 = 0; _i7 < _list5.size; ++_i7)
+            {
+              _elem6 = iprot.readI64();
+              struct.offsets.add(_elem6);
+            }
+          }
+          struct.setOffsetsIsSet(true);
+        }
+      }
+    }
+
+  }
+
+  public static class ack_result implements org.apache.thrift.TBase<ack_result, ack_result._Fields>, java.io.Serializable, Cloneable, Comparable<ack_result>   {
+    private static final org.apache.thrift.protocol.TStruct STRUCT_DESC = new org.apache.thrift.protocol.TStruct("ack_result");
+
+
+    private static final Map<Class<? extends IScheme>, SchemeFactory> schemes = new HashMap<Class<? extends IScheme>, SchemeFactory>();
+    static {
+      schemes.put(StandardScheme.class, new ack_resultStandardSchemeFactory());
+      schemes.put(TupleScheme.class, new ack_resultTupleSchemeFactory());
+    }
+
+
+    /** The set of fields this struct contains, along with convenience methods for finding and manipulating them. */
+    public enum _Fields implements org.apache.thrift.TFieldIdEnum {
+;
+
+      private static final Map<String, _Fields> byName = new HashMap<String, _Fields>();
+
+      static {
+        for (_Fields field : EnumSet.allOf(_Fields.class)) {
+          byName.put(field.getFieldName(), field);
+        }
+      }
+
+      /**
+       * Find the _Fields constant that matches fieldId, or null if its not found.
+       */
+      public static _Fields findByThriftId(int fieldId) {
+        switch(fieldId) {
+          default:
+            return null;
+        }
+      }
+
+      /**
+       * Find the _Fields constant that matches fieldId, throwing an exception
+       * if it is not found.
+       */
+      public static _Fields findByThriftIdOrThrow(int fieldId) {
+        _Fields fields = findByThriftId(fieldId);
+        if (fields == null) throw new IllegalArgumentException("Field " + fieldId + " doesn't exist!");
+        return fields;
+      }
+
+      /**
+       * Find the _Fields constant that matches name, or null if its not found.
+       */
+      public static _Fields findByName(String name) {
+        return byName.get(name);
+      }
+
+      private final short _thriftId;
+      private final String _fieldName;
+
+      _Fields(short thriftId, String fieldName) {
+        _thriftId = thriftId;
+        _fieldName = fieldName;
+      }
+
+      public short getThriftFieldId() {
+        return _thriftId;
+      }
+
+      public String getFieldName() {
+        return _fieldName;
+      }
+    }
+    public static final Map<_Fields, org.apache.thrift.meta_data.FieldMetaData> metaDataMap;
+    static {
+      Map<_Fields, org.apache.thrift.meta_data.FieldMetaData> tmpMap = new EnumMap<_Fields, org.apache.thrift.meta_data.FieldMetaData>(_Fields.class);
+      metaDataMap = Collections.unmodifiableMap(tmpMap);
+      org.apache.thrift.meta_data.FieldMetaData.addStructMetaDataMap(ack_result.class, metaDataMap);
+    }
+
+    public ack_result() {
+    }
+
+    /**
+     * Performs a deep copy on <i>other</i>.
+     */
+    public ack_result(ack_result other) {
+    }
+
+    public ack_result deepCopy() {
+      return new ack_result(this);
+    }
+
+    @Override
+    public void clear() {
+    }
+
+    public void setFieldValue(_Fields field, Object value) {
+      switch (field) {
+      }
+    }
+
+    public Object getFieldValue(_Fields field) {
+      switch (field) {
+      }
+      throw new IllegalStateException();
+    }
+
+    /** Returns true if field corresponding to fieldID is set (has been assigned a value) and false otherwise */
+    public boolean isSet(_Fields field) {
+      if (field == null) {
+        throw new IllegalArgumentException();
+      }
+
+      switch (field) {
+      }
+      throw new IllegalStateException();
+    }
+
+    @Override
+    public boolean equals(Object that) {
+      if (that == null)
+        return false;
+      if (that instanceof ack_result)
+        return this.equals((ack_result)that);
+      return false;
+    }
+
+    public boolean equals(ack_result that) {
+      if (that == null)
+        return false;
+
+      return true;
+    }
+
+    @Override
+    public int hashCode() {
+      List<Object> list = new ArrayList<Object>();
+
+      return list.hashCode();
+    }
+
+    @Override
+    public int compareTo(ack_result other) {
+      if (!getClass().equals(other.getClass())) {
+        return getClass().getName().compareTo(other.getClass().getName());
+      }
+
+      int lastComparison = 0;
+
+      return 0;
+    }
+
+    public _Fields fieldForId(int fieldId) {
+      return _Fields.findByThriftId(fieldId);
+    }
+
+    public void read(org.apache.thrift.protocol.TProtocol iprot) throws org.apache.thrift.TException {
+      schemes.get(iprot.getScheme()).getScheme().read(iprot, this);
+    }
+
+    public void write(org.apache.thrift.protocol.TProtocol oprot) throws org.apache.thrift.TException {
+      schemes.get(oprot.getScheme()).getScheme().write(oprot, this);
+      }
+
+    @Override
+    public String toString() {
+      StringBuilder sb = new StringBuilder("ack_result(");
+      boolean first = true;
+
+      sb.append(")");
+      return sb.toString();
+    }
+
+    public void validate() throws org.apache.thrift.TException {
+      // check for required fields
+      // check for sub-struct validity
+    }
+
+    private void writeObject(java.io.ObjectOutputStream out) throws java.io.IOException {
+      try {
+        write(new org.apache.thrift.protocol.TCompactProtocol(new org.apache.thrift.transport.TIOStreamTransport(out)));
+      } catch (org.apache.thrift.TException te) {
+        throw new java.io.IOException(te);
+      }
+    }
+
+    private void readObject(java.io.ObjectInputStream in) throws java.io.IOException, ClassNotFoundException {
+      try {
+        read(new org.apache.thrift.protocol.TCompactProtocol(new org.apache.thrift.transport.TIOStreamTransport(in)));
+      } catch (org.apache.thrift.TException te) {
+        throw new java.io.IOException(te);
+      }
+    }
+
+    private static class ack_resultStandardSchemeFactory implements SchemeFactory {
+      public ack_resultStandardScheme getScheme() {
+        return new ack_resultStandardScheme();
+      }
+    }
+
+    private static class ack_resultStandardScheme extends StandardScheme<ack_result> {
+
+      public void read(org.apache.thrift.protocol.TProtocol iprot, ack_result struct) throws org.apache.thrift.TException {
+        org.apache.thrift.protocol.TField schemeField;
+        iprot.readStructBegin();
+        while (true)
+        {
+          schemeField = iprot.readFieldBegin();
+          if (schemeField.type == org.apache.thrift.protocol.TType.STOP) { 
+            break;
+          }
+          switch (schemeField.id) {
+            default:
+              org.apache.thrift.protocol.TProtocolUtil.skip(iprot, schemeField.type);
+          }
+          iprot.readFieldEnd();
+        }
+        iprot.readStructEnd();
+
+        // check for required fields of primitive type, which can't be checked in the validate method
+        struct.validate();
+      }
+
+      public void write(org.apache.thrift.protocol.TProtocol oprot, ack_result struct) throws org.apache.thrift.TException {
+        struct.validate();
+
+        oprot.writeStructBegin(STRUCT_DESC);
+        oprot.writeFieldStop();
+        oprot.writeStructEnd();
+      }
+
+    }
+
+    private static class ack_resultTupleSchemeFactory implements SchemeFactory {
+      public ack_resultTupleScheme getScheme() {
+        return new ack_resultTupleScheme();
+      }
+    }
+
+    private static class ack_resultTupleScheme extends TupleScheme<ack_result> {
+
+      @Override
+      public void write(org.apache.thrift.protocol.TProtocol prot, ack_result struct) throws org.apache.thrift.TException {
+        TTupleProtocol oprot = (TTupleProtocol) prot;
+      }
+
+      @Override
+      public void read(org.apache.thrift.protocol.TProtocol prot, ack_result struct) throws org.apache.thrift.TException {
+        TTupleProtocol iprot = (TTupleProtocol) prot;
+      }
+    }
+
+  }
+
   public static class stop_args implements org.apache.thrift.TBase<stop_args, stop_args._Fields>, java.io.Serializable, Cloneable, Comparable<stop_args>   {
     private static final org.apache.thrift.protocol.TStruct STRUCT_DESC = new org.apache.thrift.protocol.TStruct("stop_args");
 
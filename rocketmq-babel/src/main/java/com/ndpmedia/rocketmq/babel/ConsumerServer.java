@@ -5,30 +5,38 @@ import com.alibaba.rocketmq.client.log.ClientLogger;
 import org.apache.thrift.protocol.TBinaryProtocol;
 import org.apache.thrift.protocol.TProtocolFactory;
 import org.apache.thrift.server.TServer;
-import org.apache.thrift.server.TThreadPoolServer;
-import org.apache.thrift.transport.TServerSocket;
+import org.apache.thrift.server.TThreadedSelectorServer;
+import org.apache.thrift.transport.TFramedTransport;
+import org.apache.thrift.transport.TNonblockingServerSocket;
 import org.apache.thrift.transport.TTransportException;
 import org.slf4j.Logger;
 
 public class ConsumerServer {
     private static final Logger LOGGER = ClientLogger.getLog();
     private static final int PORT = Integer.parseInt(System.getProperty("RocketMQConsumerPort", "10922"));
+    private static final int SELECTOR_THREADS =
+            Integer.parseInt(System.getProperty("RocketMQConsumerSelectorThreads", "2"));
+    // pull() parks without holding a worker while waiting for messages.
+    private static final int WORKER_THREADS =
+            Integer.parseInt(System.getProperty("RocketMQConsumerWorkerThreads", "8"));
 
     public static void main(String[] args) {
         TServer server = null;
         try {
             TProtocolFactory protocolFactory = new TBinaryProtocol.Factory();
-            Consumer.Processor processor = new Consumer.Processor<ConsumerService>(new ConsumerService());
-            TThreadPoolServer.Args serverArgs =
-                    new TThreadPoolServer.Args(new TServerSocket(PORT))
+            Consumer.AsyncProcessor processor = new Consumer.AsyncProcessor<ConsumerService>(new ConsumerService());
+            TThreadedSelectorServer.Args serverArgs =
+                    new TThreadedSelectorServer.Args(new TNonblockingServerSocket(PORT))
+                            .selectorThreads(SELECTOR_THREADS)
+                            .workerThreads(WORKER_THREADS)
                             .protocolFactory(protocolFactory)
+                            .transportFactory(new TFramedTransport.Factory())
                             .processor(processor);
-            server = new TThreadPoolServer(serverArgs);
+            server = new TThreadedSelectorServer(serverArgs);
+            LOGGER.info("Consumer Thrift Server starts. Port: " + PORT);
             server.serve();
         } catch (TTransportException e) {
             LOGGER.error("Client Thrift Server got an error", e);
-        } catch (InterruptedException e) {
-            LOGGER.error("Client Thrift Server got an error", e);
         } catch (MQClientException e) {
             LOGGER.error("Client Thrift Server got an error", e);
         } finally {
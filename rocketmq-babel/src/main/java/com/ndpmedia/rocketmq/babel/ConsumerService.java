@@ -1,55 +1,339 @@
 package com.ndpmedia.rocketmq.babel;
 
-import com.alibaba.rocketmq.client.consumer.buffered.MessageHandler;
+import com.alibaba.rocketmq.client.consumer.DefaultMQPullConsumer;
+import com.alibaba.rocketmq.client.consumer.MessageQueueListener;
+import com.alibaba.rocketmq.client.consumer.PullCallback;
+import com.alibaba.rocketmq.client.consumer.PullResult;
 import com.alibaba.rocketmq.client.exception.MQClientException;
 import com.alibaba.rocketmq.client.log.ClientLogger;
+import com.alibaba.rocketmq.common.ThreadFactoryImpl;
 import com.alibaba.rocketmq.common.message.MessageExt;
+import com.alibaba.rocketmq.common.message.MessageQueue;
 import com.alibaba.rocketmq.common.protocol.heartbeat.MessageModel;
 import org.apache.thrift.TException;
+import org.apache.thrift.async.AsyncMethodCallback;
 import org.slf4j.Logger;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
-public class ConsumerService implements Consumer.Iface {
+/**
+ * Consumer gateway. Messages are pulled ahead of Thrift clients into a per-queue {@link InFlightWindow},
+ * leased to clients by {@link #pull(int, long, AsyncMethodCallback)} and committed to the broker only after
+ * {@link #ack(String, List, AsyncMethodCallback)}. Leases not acknowledged in time are delivered again.
+ * <p>
+ * A pull that finds no message is parked and completed later from the thread that makes messages ready, or by its
+ * timeout, so long-polling clients do not hold Thrift server threads.
+ */
+public class ConsumerService implements Consumer.AsyncIface {
 
     private static final Logger LOGGER = ClientLogger.getLog();
 
     private static final String CLASS_NAME = ConsumerService.class.getName();
 
-    private static final int DEFAULT_MESSAGE_BATCH_SIZE = 128;
-    private int messageBatchSize = DEFAULT_MESSAGE_BATCH_SIZE;
-    private CustomBufferedMQConsumer consumer;
-    private LinkedBlockingQueue<MessageExt> messageQueue = new LinkedBlockingQueue<MessageExt>(1024);
+    private static final int DEFAULT_PULL_BATCH_SIZE = 32;
 
-    public ConsumerService() throws MQClientException, InterruptedException {
-        Properties properties = Helper.getConfig();
-        String consumerGroup = properties.getProperty("consumer_group");
-        String topicInfo = properties.getProperty("topic_info");
-        consumer = new CustomBufferedMQConsumer(consumerGroup);
+    private static final int DEFAULT_MAX_IN_FLIGHT_PER_QUEUE = 1024;
 
-        if("cluster".equals(properties.getProperty("message_model"))) {
+    private static final long DEFAULT_LEASE_TIMEOUT_MILLIS = 30 * 1000;
+
+    private static final long MAX_PULL_TIMEOUT_MILLIS = 10 * 1000;
+
+    private static final long PULL_DELAY_MILLIS_WHEN_WINDOW_FULL = 50;
+
+    private static final long PULL_DELAY_MILLIS_WHEN_EXCEPTION = 3 * 1000;
+
+    private static final PullLease EMPTY_LEASE =
+            new PullLease("", Collections.<com.ndpmedia.rocketmq.babel.MessageExt>emptyList());
+
+    private final int pullBatchSize;
+
+    private final int maxInFlightPerQueue;
+
+    private final long leaseTimeoutMillis;
+
+    private final DefaultMQPullConsumer consumer;
+
+    // topic -> tag expression
+    private final Map<String, String> subscriptions = new HashMap<String, String>();
+
+    private final ConcurrentHashMap<MessageQueue, InFlightWindow> windowTable =
+            new ConcurrentHashMap<MessageQueue, InFlightWindow>();
+
+    private final ConcurrentHashMap<String, Lease> leaseTable = new ConcurrentHashMap<String, Lease>();
+
+    // Tokens stay unique across restarts of the gateway.
+    private final String tokenPrefix = Long.toString(System.currentTimeMillis(), 36) + "-";
+
+    private final AtomicLong leaseIdGenerator = new AtomicLong(0);
+
+    private final AtomicInteger roundRobin = new AtomicInteger(0);
+
+    // Pulls waiting for messages in arrival order, guarded by itself.
+    private final LinkedList<PendingPull> pendingPulls = new LinkedList<PendingPull>();
+
+    private final ScheduledExecutorService scheduledExecutorService =
+            Executors.newSingleThreadScheduledExecutor(new ThreadFactoryImpl("ConsumerServiceScheduledThread"));
+
+    public ConsumerService() throws MQClientException {
+        this(Helper.getConfig());
+    }
+
+    private ConsumerService(Properties properties) throws MQClientException {
+        this(createConsumer(properties), parseSubscriptions(properties.getProperty("topic_info")),
+                Integer.parseInt(properties.getProperty("pull_batch_size", String.valueOf(DEFAULT_PULL_BATCH_SIZE))),
+                Integer.parseInt(properties.getProperty("max_in_flight_per_queue",
+                        String.valueOf(DEFAULT_MAX_IN_FLIGHT_PER_QUEUE))),
+                Long.parseLong(properties.getProperty("lease_timeout_ms",
+                        String.valueOf(DEFAULT_LEASE_TIMEOUT_MILLIS))));
+    }
+
+    /**
+     * Consumes the given topics through the given consumer, which is started here.
+     *
+     * @param subscriptions topic -> tag expression.
+     */
+    ConsumerService(DefaultMQPullConsumer consumer, Map<String, String> subscriptions, int pullBatchSize,
+                    int maxInFlightPerQueue, long leaseTimeoutMillis) throws MQClientException {
+        this.consumer = consumer;
+        this.subscriptions.putAll(subscriptions);
+        this.pullBatchSize = pullBatchSize;
+        this.maxInFlightPerQueue = maxInFlightPerQueue;
+        this.leaseTimeoutMillis = leaseTimeoutMillis;
+
+        MessageQueueListener messageQueueListener = new MessageQueueListener() {
+            @Override
+            public void messageQueueChanged(String topic, Set<MessageQueue> mqAll, Set<MessageQueue> mqDivided) {
+                onMessageQueueChanged(topic, mqDivided);
+            }
+        };
+        for (String topic : subscriptions.keySet()) {
+            consumer.registerMessageQueueListener(topic, messageQueueListener);
+        }
+
+        consumer.start();
+
+        scheduledExecutorService.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    releaseExpiredLeases(System.currentTimeMillis());
+                } catch (Exception e) {
+                    LOGGER.error("Failed to release expired leases", e);
+                }
+            }
+        }, 1000, 1000, TimeUnit.MILLISECONDS);
+    }
+
+    private static DefaultMQPullConsumer createConsumer(Properties properties) {
+        DefaultMQPullConsumer consumer = new DefaultMQPullConsumer(properties.getProperty("consumer_group"));
+        consumer.changeInstanceNameToPID();
+
+        if ("cluster".equals(properties.getProperty("message_model"))) {
             consumer.setMessageModel(MessageModel.CLUSTERING);
         } else {
             consumer.setMessageModel(MessageModel.BROADCASTING);
         }
+        return consumer;
+    }
 
-        String[] topicList = topicInfo.split(";");
-        for (String topicItem : topicList) {
+    private static Map<String, String> parseSubscriptions(String topicInfo) {
+        Map<String, String> subscriptions = new LinkedHashMap<String, String>();
+        for (String topicItem : topicInfo.split(";")) {
             String[] topicAndTag = topicItem.split(",");
             if (topicAndTag.length != 2) {
                 throw new RuntimeException("Configuration file format illegal. Please refer to sample_rocketmq_client_setting.properties file");
             }
 
-            MessageHandler messageHandler = new ThriftMessageHandler(this);
-            messageHandler.setTopic(topicAndTag[0]);
-            messageHandler.setTag(topicAndTag[1]);
-            consumer.registerMessageHandler(messageHandler);
+            subscriptions.put(topicAndTag[0], topicAndTag[1]);
         }
+        return subscriptions;
+    }
 
-        consumer.start();
+    private void onMessageQueueChanged(String topic, Set<MessageQueue> mqDivided) {
+        for (Map.Entry<MessageQueue, InFlightWindow> entry : windowTable.entrySet()) {
+            MessageQueue mq = entry.getKey();
+            if (mq.getTopic().equals(topic) && !mqDivided.contains(mq)) {
+                // Unacknowledged messages will be consumed again by the new owner of the queue.
+                entry.getValue().setDropped(true);
+                windowTable.remove(mq);
+                LOGGER.info("Message queue {} is no longer assigned, {} in-flight messages dropped", mq,
+                        entry.getValue().size());
+            }
+        }
+
+        for (MessageQueue mq : mqDivided) {
+            if (!windowTable.containsKey(mq)) {
+                InFlightWindow window = new InFlightWindow(mq);
+                if (null == windowTable.putIfAbsent(mq, window)) {
+                    LOGGER.info("Message queue {} assigned", mq);
+                    pullMessage(window);
+                }
+            }
+        }
+    }
+
+    private void pullMessage(final InFlightWindow window) {
+        if (window.isDropped()) {
+            return;
+        }
+
+        if (window.size() >= maxInFlightPerQueue) {
+            pullMessageLater(window, PULL_DELAY_MILLIS_WHEN_WINDOW_FULL);
+            return;
+        }
+
+        final MessageQueue mq = window.getMessageQueue();
+        try {
+            long offset = window.getNextPullOffset();
+            if (offset < 0) {
+                offset = consumer.fetchConsumeOffset(mq, true);
+                if (offset < 0) {
+                    offset = consumer.maxOffset(mq);
+                }
+                window.setNextPullOffset(offset);
+            }
+
+            consumer.pullBlockIfNotFound(mq, subscriptions.get(mq.getTopic()), offset, pullBatchSize,
+                    new PullCallback() {
+                        @Override
+                        public void onSuccess(PullResult pullResult) {
+                            switch (pullResult.getPullStatus()) {
+                                case FOUND:
+                                    window.putMessages(pullResult.getMsgFoundList(), pullResult.getNextBeginOffset());
+                                    signalReady();
+                                    break;
+                                case NO_NEW_MSG:
+                                case NO_MATCHED_MSG:
+                                case OFFSET_ILLEGAL:
+                                    window.setNextPullOffset(pullResult.getNextBeginOffset());
+                                    break;
+                                default:
+                                    break;
+                            }
+                            pullMessage(window);
+                        }
+
+                        @Override
+                        public void onException(Throwable e) {
+                            LOGGER.warn("Failed to pull message from " + mq, e);
+                            pullMessageLater(window, PULL_DELAY_MILLIS_WHEN_EXCEPTION);
+                        }
+                    });
+        } catch (Exception e) {
+            LOGGER.warn("Failed to pull message from " + mq, e);
+            pullMessageLater(window, PULL_DELAY_MILLIS_WHEN_EXCEPTION);
+        }
+    }
+
+    private void pullMessageLater(final InFlightWindow window, long delayMillis) {
+        if (scheduledExecutorService.isShutdown()) {
+            return;
+        }
+
+        scheduledExecutorService.schedule(new Runnable() {
+            @Override
+            public void run() {
+                pullMessage(window);
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Hands ready messages to waiting pulls, the earliest first.
+     */
+    private void signalReady() {
+        synchronized (pendingPulls) {
+            Iterator<PendingPull> iterator = pendingPulls.iterator();
+            while (iterator.hasNext()) {
+                PendingPull pendingPull = iterator.next();
+                if (pendingPull.isCompleted()) {
+                    iterator.remove();
+                    continue;
+                }
+
+                PullLease lease = tryLease(pendingPull.getMaxNums());
+                if (null == lease) {
+                    break;
+                }
+
+                iterator.remove();
+                if (!pendingPull.complete(lease)) {
+                    // The pull timed out meanwhile, let the next one take the messages.
+                    cancelLease(lease.getToken());
+                }
+            }
+        }
+    }
+
+    private void cancelLease(String token) {
+        Lease lease = leaseTable.remove(token);
+        if (null != lease) {
+            lease.getWindow().release(lease.getOffsets());
+        }
+    }
+
+    private PullLease tryLease(int maxNums) {
+        List<InFlightWindow> windows = new ArrayList<InFlightWindow>(windowTable.values());
+        if (windows.isEmpty()) {
+            return null;
+        }
+
+        // Start from a different queue each time so that no queue is starved.
+        int start = Math.abs(roundRobin.getAndIncrement() % windows.size());
+        for (int i = 0; i < windows.size(); i++) {
+            InFlightWindow window = windows.get((start + i) % windows.size());
+            List<MessageExt> messages = window.lease(maxNums);
+            if (messages.isEmpty()) {
+                continue;
+            }
+
+            List<Long> offsets = new ArrayList<Long>(messages.size());
+            List<com.ndpmedia.rocketmq.babel.MessageExt> messageList =
+                    new ArrayList<com.ndpmedia.rocketmq.babel.MessageExt>(messages.size());
+            for (MessageExt message : messages) {
+                offsets.add(message.getQueueOffset());
+                messageList.add(wrap(message));
+            }
+
+            String token = tokenPrefix + leaseIdGenerator.incrementAndGet();
+            leaseTable.put(token, new Lease(token, window, offsets, System.currentTimeMillis() + leaseTimeoutMillis));
+            return new PullLease(token, messageList);
+        }
+
+        return null;
+    }
+
+    void releaseExpiredLeases(long now) {
+        boolean released = false;
+        for (Lease lease : leaseTable.values()) {
+            if (lease.isExpired(now) && leaseTable.remove(lease.getToken(), lease)) {
+                lease.getWindow().release(lease.getOffsets());
+                released = true;
+                LOGGER.warn("Lease {} of {} expired, {} messages will be delivered again", lease.getToken(),
+                        lease.getWindow().getMessageQueue(), lease.getOffsets().size());
+            }
+        }
+
+        if (released) {
+            signalReady();
+        }
     }
 
     private com.ndpmedia.rocketmq.babel.MessageExt wrap(MessageExt msg) {
@@ -73,42 +357,134 @@ public class ConsumerService implements Consumer.Iface {
         return message;
     }
 
-    public LinkedBlockingQueue<MessageExt> getMessageQueue() {
-        return messageQueue;
+    @Override
+    public void pull(int maxNums, long timeoutMs, AsyncMethodCallback resultHandler) throws TException {
+        int nums = Math.max(1, Math.min(maxNums, maxInFlightPerQueue));
+        PullLease lease = tryLease(nums);
+        if (null != lease) {
+            resultHandler.onComplete(lease);
+            return;
+        }
+
+        long waitMillis = Math.min(Math.max(timeoutMs, 0), MAX_PULL_TIMEOUT_MILLIS);
+        if (waitMillis <= 0) {
+            resultHandler.onComplete(EMPTY_LEASE);
+            return;
+        }
+
+        final PendingPull pendingPull = new PendingPull(nums, resultHandler);
+        synchronized (pendingPulls) {
+            pendingPulls.add(pendingPull);
+        }
+
+        try {
+            scheduledExecutorService.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (pendingPull.complete(EMPTY_LEASE)) {
+                        synchronized (pendingPulls) {
+                            pendingPulls.remove(pendingPull);
+                        }
+                    }
+                }
+            }, waitMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Stopped.
+            pendingPull.complete(EMPTY_LEASE);
+            return;
+        }
+
+        // Messages may have become ready before the pull was parked.
+        signalReady();
     }
 
+    /**
+     * Offsets of the lease that are not acknowledged here are delivered again. A lease can be acknowledged only once.
+     */
     @Override
-    public List<com.ndpmedia.rocketmq.babel.MessageExt> pull() throws TException {
-        List<com.ndpmedia.rocketmq.babel.MessageExt> messageList =
-                new ArrayList<com.ndpmedia.rocketmq.babel.MessageExt>(messageBatchSize);
-        MessageExt msg = messageQueue.poll();
+    public void ack(String token, List<Long> offsets, AsyncMethodCallback resultHandler) throws TException {
+        Lease lease = leaseTable.remove(token);
+        if (null == lease) {
+            LOGGER.warn("Lease {} is unknown or expired, its messages will be delivered again", token);
+            resultHandler.onComplete(null);
+            return;
+        }
+
+        InFlightWindow window = lease.getWindow();
+        List<Long> acked = new ArrayList<Long>(offsets.size());
+        List<Long> unacked = new ArrayList<Long>(lease.getOffsets());
+        for (Long offset : offsets) {
+            if (unacked.remove(offset)) {
+                acked.add(offset);
+            }
+        }
 
-        int count = 0;
-        while (null != msg && count++ < messageBatchSize) {
-            messageList.add(wrap(msg));
-            msg = messageQueue.poll();
+        long commitOffset = window.ack(acked);
+        if (!unacked.isEmpty()) {
+            window.release(unacked);
+            signalReady();
         }
 
-        return messageList;
+        if (!window.isDropped()) {
+            try {
+                consumer.updateConsumeOffset(window.getMessageQueue(), commitOffset);
+            } catch (MQClientException e) {
+                LOGGER.error("Failed to commit offset of " + window.getMessageQueue(), e);
+                resultHandler.onError(new TException("Failed to commit offset", e));
+                return;
+            }
+        }
+        resultHandler.onComplete(null);
     }
 
     @Override
-    public void stop() throws TException {
+    public void stop(AsyncMethodCallback resultHandler) throws TException {
         final String signature = CLASS_NAME + "#stop()";
         LOGGER.debug("Enter " + signature);
-        try {
-            consumer.stopReceiving();
-
-            MessageExt msg = messageQueue.poll();
-            while (null != msg) {
-                msg = messageQueue.poll();
+        scheduledExecutorService.shutdown();
+        for (InFlightWindow window : windowTable.values()) {
+            window.setDropped(true);
+        }
+        synchronized (pendingPulls) {
+            for (PendingPull pendingPull : pendingPulls) {
+                pendingPull.complete(EMPTY_LEASE);
             }
-            consumer.shutdown();
-        } catch (InterruptedException e) {
-            LOGGER.error("Failed to stop", e);
-            throw new TException("Failed to stop", e);
+            pendingPulls.clear();
         }
+        consumer.shutdown();
         LOGGER.debug("Exit " + signature);
     }
-}
 
+    /**
+     * A pull waiting for messages. It is completed exactly once, with a lease or with an empty lease on timeout.
+     */
+    static class PendingPull {
+
+        private final int maxNums;
+
+        private final AsyncMethodCallback resultHandler;
+
+        private final AtomicBoolean completed = new AtomicBoolean(false);
+
+        PendingPull(int maxNums, AsyncMethodCallback resultHandler) {
+            this.maxNums = maxNums;
+            this.resultHandler = resultHandler;
+        }
+
+        int getMaxNums() {
+            return maxNums;
+        }
+
+        boolean isCompleted() {
+            return completed.get();
+        }
+
+        boolean complete(PullLease lease) {
+            if (completed.compareAndSet(false, true)) {
+                resultHandler.onComplete(lease);
+                return true;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.ndpmedia.rocketmq.babel;
+
+import com.alibaba.rocketmq.common.message.MessageExt;
+import com.alibaba.rocketmq.common.message.MessageQueue;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Messages pulled from one message queue that are not acknowledged by any Thrift client yet.
+ * Consume progress of the queue never passes the smallest offset still held here.
+ */
+public class InFlightWindow {
+
+    private final MessageQueue messageQueue;
+
+    // Pulled but not acknowledged messages, keyed by queue offset.
+    private final TreeMap<Long, MessageExt> inFlight = new TreeMap<Long, MessageExt>();
+
+    // Pulled messages not leased to any client.
+    private final ArrayDeque<MessageExt> ready = new ArrayDeque<MessageExt>();
+
+    // -1 until the start offset is fetched from the offset store.
+    private long nextPullOffset = -1;
+
+    private volatile boolean dropped = false;
+
+    public InFlightWindow(MessageQueue messageQueue) {
+        this.messageQueue = messageQueue;
+    }
+
+    public MessageQueue getMessageQueue() {
+        return messageQueue;
+    }
+
+    public synchronized long getNextPullOffset() {
+        return nextPullOffset;
+    }
+
+    public synchronized void setNextPullOffset(long nextPullOffset) {
+        this.nextPullOffset = nextPullOffset;
+    }
+
+    public synchronized void putMessages(List<MessageExt> messages, long nextBeginOffset) {
+        for (MessageExt message : messages) {
+            if (null == inFlight.put(message.getQueueOffset(), message)) {
+                ready.offer(message);
+            }
+        }
+        nextPullOffset = nextBeginOffset;
+    }
+
+    public synchronized List<MessageExt> lease(int maxNums) {
+        if (ready.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        List<MessageExt> messages = new ArrayList<MessageExt>(Math.min(maxNums, ready.size()));
+        while (messages.size() < maxNums && !ready.isEmpty()) {
+            messages.add(ready.poll());
+        }
+        return messages;
+    }
+
+    /**
+     * Put leased but unacknowledged messages back so that they are delivered again, oldest first.
+     */
+    public synchronized void release(Collection<Long> offsets) {
+        List<Long> sorted = new ArrayList<Long>(offsets);
+        Collections.sort(sorted, Collections.reverseOrder());
+        for (Long offset : sorted) {
+            MessageExt message = inFlight.get(offset);
+            if (null != message) {
+                ready.offerFirst(message);
+            }
+        }
+    }
+
+    /**
+     * @return offset up to which all messages of this queue are acknowledged.
+     */
+    public synchronized long ack(Collection<Long> offsets) {
+        for (Long offset : offsets) {
+            inFlight.remove(offset);
+        }
+        return inFlight.isEmpty() ? nextPullOffset : inFlight.firstKey();
+    }
+
+    public synchronized int size() {
+        return inFlight.size();
+    }
+
+    public boolean isDropped() {
+        return dropped;
+    }
+
+    public void setDropped(boolean dropped) {
+        this.dropped = dropped;
+    }
+}
@@ -0,0 +1,40 @@
+package com.ndpmedia.rocketmq.babel;
+
+import java.util.List;
+
+/**
+ * Messages of one message queue handed to a Thrift client and waiting for acknowledgement.
+ */
+public class Lease {
+
+    private final String token;
+
+    private final InFlightWindow window;
+
+    private final List<Long> offsets;
+
+    private final long expireTimestamp;
+
+    public Lease(String token, InFlightWindow window, List<Long> offsets, long expireTimestamp) {
+        this.token = token;
+        this.window = window;
+        this.offsets = offsets;
+        this.expireTimestamp = expireTimestamp;
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    public InFlightWindow getWindow() {
+        return window;
+    }
+
+    public List<Long> getOffsets() {
+        return offsets;
+    }
+
+    public boolean isExpired(long now) {
+        return now >= expireTimestamp;
+    }
+}
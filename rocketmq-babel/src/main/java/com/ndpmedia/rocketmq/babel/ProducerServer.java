@@ -4,26 +4,35 @@ import com.alibaba.rocketmq.client.log.ClientLogger;
 import org.apache.thrift.protocol.TBinaryProtocol;
 import org.apache.thrift.protocol.TProtocolFactory;
 import org.apache.thrift.server.TServer;
-import org.apache.thrift.server.TThreadPoolServer;
-import org.apache.thrift.transport.TServerSocket;
+import org.apache.thrift.server.TThreadedSelectorServer;
+import org.apache.thrift.transport.TFramedTransport;
+import org.apache.thrift.transport.TNonblockingServerSocket;
 import org.apache.thrift.transport.TTransportException;
 import org.slf4j.Logger;
 
 public class ProducerServer {
     private static final Logger LOGGER = ClientLogger.getLog();
     private static final int PORT = Integer.parseInt(System.getProperty("RocketMQProducerPort", "10921"));
+    private static final int SELECTOR_THREADS =
+            Integer.parseInt(System.getProperty("RocketMQProducerSelectorThreads", "2"));
+    // Workers only decode requests and hand messages to the producer; responses are written from send callbacks.
+    private static final int WORKER_THREADS =
+            Integer.parseInt(System.getProperty("RocketMQProducerWorkerThreads", "8"));
 
     public static void main(String[] args) {
         TServer server = null;
         try {
             TProtocolFactory protocolFactory = new TBinaryProtocol.Factory();
-            Producer.Processor processor = new Producer.Processor<ProducerService>(new ProducerService());
-            TThreadPoolServer.Args serverArgs =
-                    new TThreadPoolServer.Args(new TServerSocket(PORT))
+            Producer.AsyncProcessor processor = new Producer.AsyncProcessor<ProducerService>(new ProducerService());
+            TThreadedSelectorServer.Args serverArgs =
+                    new TThreadedSelectorServer.Args(new TNonblockingServerSocket(PORT))
+                            .selectorThreads(SELECTOR_THREADS)
+                            .workerThreads(WORKER_THREADS)
                             .protocolFactory(protocolFactory)
+                            .transportFactory(new TFramedTransport.Factory())
                             .processor(processor);
 
-            server = new TThreadPoolServer(serverArgs);
+            server = new TThreadedSelectorServer(serverArgs);
             LOGGER.info("Thrift Server starts. Port: " + PORT);
             System.out.println("Thrift Server starts. Port: " + PORT);
             server.serve();
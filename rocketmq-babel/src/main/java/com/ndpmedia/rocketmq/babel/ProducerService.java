@@ -1,23 +1,47 @@
 package com.ndpmedia.rocketmq.babel;
 
+import com.alibaba.rocketmq.client.exception.MQBrokerException;
 import com.alibaba.rocketmq.client.exception.MQClientException;
 import com.alibaba.rocketmq.client.log.ClientLogger;
 import com.alibaba.rocketmq.client.producer.DefaultMQProducer;
+import com.alibaba.rocketmq.client.producer.MessageQueueSelector;
+import com.alibaba.rocketmq.client.producer.SendCallback;
 import com.alibaba.rocketmq.client.producer.SendResult;
+import com.alibaba.rocketmq.common.message.MessageQueue;
+import com.alibaba.rocketmq.common.protocol.ResponseCode;
 import org.apache.thrift.TException;
+import org.apache.thrift.async.AsyncMethodCallback;
 import org.slf4j.Logger;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
-public class ProducerService implements Producer.Iface {
+/**
+ * Completes every Thrift call from the {@link SendCallback} of the producer, so no server thread waits for brokers.
+ * <p>
+ * The asynchronous send of {@link DefaultMQProducer} makes a single attempt, so failed sends are retried here up to
+ * <code>retryTimesWhenSendFailed</code> times, each time on a queue of another broker when the topic has one. Like the
+ * synchronous send, a message may be stored more than once when a broker stores it but its response is lost.
+ */
+public class ProducerService implements Producer.AsyncIface {
 
     private static final Logger LOG = ClientLogger.getLog();
 
-    private DefaultMQProducer producer;
+    // Encoded size of a message in a batch apart from its body and properties.
+    private static final int MESSAGE_OVERHEAD = 64;
+
+    private final DefaultMQProducer producer;
+
+    private final RetryQueueSelector queueSelector = new RetryQueueSelector();
 
     public ProducerService() {
-        producer = new DefaultMQProducer(Helper.getConfig().getProperty("producer_group"));
+        this(new DefaultMQProducer(Helper.getConfig().getProperty("producer_group")));
         try {
             producer.start();
         } catch (MQClientException e) {
@@ -25,30 +49,281 @@ public class ProducerService implements Producer.Iface {
         }
     }
 
-
+    /**
+     * Sends through the given producer, which must already be started.
+     */
+    ProducerService(DefaultMQProducer producer) {
+        this.producer = producer;
+    }
 
     @Override
-    public String send(Message message) throws TException {
-        try {
-            SendResult sendResult = producer.send(Helper.wrap(message));
-            return sendResult.getMsgId();
-        } catch (Exception e) {
-            LOG.error("Send message error", e);
-            throw new TException("Send message failed", e);
-        }
+    public void send(Message message, final AsyncMethodCallback resultHandler) throws TException {
+        final com.alibaba.rocketmq.common.message.Message msg = Helper.wrap(message);
+        RetrySendCallback callback = new RetrySendCallback() {
+            @Override
+            void doSend() throws Exception {
+                producer.send(msg, queueSelector, this, this);
+            }
+
+            @Override
+            public void onSuccess(SendResult sendResult) {
+                resultHandler.onComplete(sendResult.getMsgId());
+            }
+
+            @Override
+            void onFailure(Throwable e) {
+                LOG.error("Send message error", e);
+                resultHandler.onError(new Exception("Send message failed", e));
+            }
+        };
+        callback.send();
     }
 
+    /**
+     * Messages are grouped by topic and each group is written by the broker as one batch. Message IDs are returned
+     * in the order of <code>messageList</code>.
+     */
     @Override
-    public List<String> batchSend(List<Message> messageList) throws TException {
-        List<String> result = new ArrayList<String>(messageList.size());
-        for (Message msg : messageList) {
-            result.add(send(msg));
+    public void batchSend(List<Message> messageList, AsyncMethodCallback resultHandler) throws TException {
+        if (null == messageList || messageList.isEmpty()) {
+            resultHandler.onComplete(new ArrayList<String>(0));
+            return;
+        }
+
+        List<Batch> batches = split(messageList);
+        BatchSendContext context = new BatchSendContext(messageList.size(), batches.size(), resultHandler);
+        for (Batch batch : batches) {
+            new BatchSendCallback(context, batch).send();
         }
-        return result;
     }
 
     @Override
-    public void stop() throws TException {
+    public void stop(AsyncMethodCallback resultHandler) throws TException {
         producer.shutdown();
     }
+
+    private List<Batch> split(List<Message> messageList) {
+        int maxBatchSize = producer.getMaxMessageSize();
+        Map<String, Batch> openBatches = new LinkedHashMap<String, Batch>();
+        List<Batch> batches = new ArrayList<Batch>();
+        for (int i = 0; i < messageList.size(); i++) {
+            com.alibaba.rocketmq.common.message.Message msg = Helper.wrap(messageList.get(i));
+            int size = estimateSize(msg);
+            Batch batch = openBatches.get(msg.getTopic());
+            if (null == batch || (batch.getSize() + size > maxBatchSize && !batch.getMessages().isEmpty())) {
+                batch = new Batch();
+                openBatches.put(msg.getTopic(), batch);
+                batches.add(batch);
+            }
+            batch.add(i, msg, size);
+        }
+        return batches;
+    }
+
+    private static int estimateSize(com.alibaba.rocketmq.common.message.Message msg) {
+        int size = MESSAGE_OVERHEAD + (null == msg.getBody() ? 0 : msg.getBody().length);
+        if (null != msg.getProperties()) {
+            for (Map.Entry<String, String> entry : msg.getProperties().entrySet()) {
+                size += entry.getKey().length() + entry.getValue().length() + 2;
+            }
+        }
+        return size;
+    }
+
+    static class Batch {
+
+        private final List<Integer> indexes = new ArrayList<Integer>();
+
+        private final List<com.alibaba.rocketmq.common.message.Message> messages =
+                new ArrayList<com.alibaba.rocketmq.common.message.Message>();
+
+        private int size;
+
+        void add(int index, com.alibaba.rocketmq.common.message.Message message, int messageSize) {
+            indexes.add(index);
+            messages.add(message);
+            size += messageSize;
+        }
+
+        List<Integer> getIndexes() {
+            return indexes;
+        }
+
+        List<com.alibaba.rocketmq.common.message.Message> getMessages() {
+            return messages;
+        }
+
+        int getSize() {
+            return size;
+        }
+    }
+
+    static class BatchSendContext {
+
+        private final String[] msgIds;
+
+        private final AtomicInteger remainingBatches;
+
+        private final AtomicBoolean done = new AtomicBoolean(false);
+
+        private final AsyncMethodCallback resultHandler;
+
+        BatchSendContext(int messageCount, int batchCount, AsyncMethodCallback resultHandler) {
+            this.msgIds = new String[messageCount];
+            this.remainingBatches = new AtomicInteger(batchCount);
+            this.resultHandler = resultHandler;
+        }
+
+        void onSuccess(Batch batch, String[] batchMsgIds) {
+            List<Integer> indexes = batch.getIndexes();
+            synchronized (msgIds) {
+                for (int i = 0; i < indexes.size() && i < batchMsgIds.length; i++) {
+                    msgIds[indexes.get(i)] = batchMsgIds[i];
+                }
+            }
+
+            if (remainingBatches.decrementAndGet() == 0 && done.compareAndSet(false, true)) {
+                List<String> result;
+                synchronized (msgIds) {
+                    result = new ArrayList<String>(Arrays.asList(msgIds));
+                }
+                resultHandler.onComplete(result);
+            }
+        }
+
+        void onError(Throwable e) {
+            if (done.compareAndSet(false, true)) {
+                resultHandler.onError(new Exception("Batch send failed", e));
+            }
+        }
+    }
+
+    /**
+     * Picks queues in turn like the producer does, skipping the broker of the failed attempt when retrying.
+     */
+    static class RetryQueueSelector implements MessageQueueSelector {
+
+        private final AtomicInteger sendWhichQueue = new AtomicInteger(new Random().nextInt(Short.MAX_VALUE));
+
+        @Override
+        public MessageQueue select(List<MessageQueue> mqs, com.alibaba.rocketmq.common.message.Message msg,
+                                   Object arg) {
+            RetrySendCallback callback = (RetrySendCallback) arg;
+            String lastBrokerName = callback.getLastBrokerName();
+            int index = sendWhichQueue.getAndIncrement();
+            MessageQueue selected = mqs.get(Math.abs(index % mqs.size()));
+            if (null != lastBrokerName) {
+                for (int i = 0; i < mqs.size(); i++) {
+                    MessageQueue mq = mqs.get(Math.abs((index + i) % mqs.size()));
+                    if (!mq.getBrokerName().equals(lastBrokerName)) {
+                        selected = mq;
+                        break;
+                    }
+                }
+            }
+            callback.setLastBrokerName(selected.getBrokerName());
+            return selected;
+        }
+    }
+
+    /**
+     * Sends through {@link RetryQueueSelector} and resends on failure until the retry times run out. Errors the
+     * synchronous send does not retry, like an illegal message rejected by the broker, fail at once.
+     */
+    abstract class RetrySendCallback implements SendCallback {
+
+        private final int maxAttempts = producer.getRetryTimesWhenSendFailed() + 1;
+
+        private final AtomicInteger attempts = new AtomicInteger(0);
+
+        private volatile String lastBrokerName;
+
+        /**
+         * Makes one attempt. Exceptions the producer throws before sending, like too many requests in flight, take
+         * the same retry path as failures reported to the callback.
+         */
+        void send() {
+            attempts.incrementAndGet();
+            try {
+                doSend();
+            } catch (Exception e) {
+                onException(e);
+            }
+        }
+
+        abstract void doSend() throws Exception;
+
+        abstract void onFailure(Throwable e);
+
+        String getLastBrokerName() {
+            return lastBrokerName;
+        }
+
+        void setLastBrokerName(String lastBrokerName) {
+            this.lastBrokerName = lastBrokerName;
+        }
+
+        @Override
+        public void onException(Throwable e) {
+            if (attempts.get() < maxAttempts && isRetryable(e)) {
+                LOG.warn("Send to broker " + lastBrokerName + " failed, resend at once, attempts: " + attempts.get(),
+                        e);
+                send();
+                return;
+            }
+            onFailure(e);
+        }
+
+        private boolean isRetryable(Throwable e) {
+            // A message rejected by the client side checks fails the same way on every attempt.
+            if (e instanceof MQClientException) {
+                return ((MQClientException) e).getResponseCode() != ResponseCode.MESSAGE_ILLEGAL;
+            }
+
+            if (!(e instanceof MQBrokerException)) {
+                return true;
+            }
+
+            switch (((MQBrokerException) e).getResponseCode()) {
+                case ResponseCode.TOPIC_NOT_EXIST:
+                case ResponseCode.SERVICE_NOT_AVAILABLE:
+                case ResponseCode.SYSTEM_ERROR:
+                case ResponseCode.NO_PERMISSION:
+                case ResponseCode.NO_BUYER_ID:
+                case ResponseCode.NOT_IN_CURRENT_UNIT:
+                    return true;
+                default:
+                    return false;
+            }
+        }
+    }
+
+    class BatchSendCallback extends RetrySendCallback {
+
+        private final BatchSendContext context;
+
+        private final Batch batch;
+
+        BatchSendCallback(BatchSendContext context, Batch batch) {
+            this.context = context;
+            this.batch = batch;
+        }
+
+        @Override
+        void doSend() throws Exception {
+            producer.send(batch.getMessages(), queueSelector, this, this);
+        }
+
+        @Override
+        public void onSuccess(SendResult sendResult) {
+            // Message IDs of a batch are separated by comma.
+            context.onSuccess(batch, sendResult.getMsgId().split(","));
+        }
+
+        @Override
+        void onFailure(Throwable e) {
+            LOG.error("Batch send error", e);
+            context.onError(e);
+        }
+    }
 }
@@ -2,31 +2,38 @@ package com.ndpmedia.rocketmq.babel.example;
 
 import com.ndpmedia.rocketmq.babel.Consumer;
 import com.ndpmedia.rocketmq.babel.MessageExt;
+import com.ndpmedia.rocketmq.babel.PullLease;
 import org.apache.thrift.TException;
 import org.apache.thrift.protocol.TBinaryProtocol;
 import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.transport.TFramedTransport;
 import org.apache.thrift.transport.TSocket;
 import org.apache.thrift.transport.TTransport;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 
 public class ConsumerClient {
     private static final int PORT = Integer.parseInt(System.getProperty("RocketMQConsumerPort", "10922"));
     public static void main(String[] args) throws TException, IOException, InterruptedException {
-        TTransport transport = new TSocket("localhost", PORT);
+        TTransport transport = new TFramedTransport(new TSocket("localhost", PORT));
         transport.open();
 
         TProtocol protocol = new TBinaryProtocol(transport);
         Consumer.Client client = new Consumer.Client(protocol);
         while(true) {
-            List<MessageExt> messageList = client.pull();
-            if (!messageList.isEmpty()) {
-                for (MessageExt msg : messageList) {
+            // Wait up to 1 second for at most 32 messages.
+            PullLease lease = client.pull(32, 1000);
+            if (!lease.getMessages().isEmpty()) {
+                List<Long> offsets = new ArrayList<Long>(lease.getMessagesSize());
+                for (MessageExt msg : lease.getMessages()) {
                     System.out.println(msg.getMsgId());
+                    offsets.add(msg.getQueueOffset());
                 }
+                // Only acknowledged messages are committed, the rest are delivered again.
+                client.ack(lease.getToken(), offsets);
             }
-            Thread.sleep(1000);
         }
     }
-}
\ No newline at end of file
+}
@@ -27,7 +27,8 @@ class ProducerClient:
         self.__server_port = server_port
         try:
             self.__transport = TSocket.TSocket(server_ip, server_port)
-            self.__transport = TTransport.TBufferedTransport(self.__transport)
+            # producer server is non-blocking and requires framed transport
+            self.__transport = TTransport.TFramedTransport(self.__transport)
             protocol = TBinaryProtocol.TBinaryProtocol(self.__transport)
             self.__client = Producer.Client(protocol)
             self.__transport.open()
@@ -102,7 +103,8 @@ class ConsumerClient(Thread):
         self.__stop = False
         try:
             self.__transport = TSocket.TSocket(server_ip, server_port)
-            self.__transport = TTransport.TBufferedTransport(self.__transport)
+            # consumer server is non-blocking and requires framed transport
+            self.__transport = TTransport.TFramedTransport(self.__transport)
             protocol = TBinaryProtocol.TBinaryProtocol(self.__transport)
             self.__client = Consumer.Client(protocol)
             self.__transport.open()
@@ -114,12 +116,18 @@ class ConsumerClient(Thread):
     def pull(self):
         try:
             if self.__client:
-                result = self.__client.pull()
+                # wait up to 1 second for at most 32 messages
+                lease = self.__client.pull(32, 1000)
+                result = lease.messages
                 if result and len(result) > 0:
                     logger.info('ConsumerClient Success Pull Result:%s', len(result))
+                    offsets = []
                     for message in result:
                         if message and message.data:
                             # TODO something
+                            offsets.append(message.queueOffset)
+                    # messages not acknowledged are delivered again
+                    self.__client.ack(lease.token, offsets)
                 return result
         except Thrift.TException, e:
             logger.error(e)
@@ -5,6 +5,7 @@ import com.ndpmedia.rocketmq.babel.Producer;
 import org.apache.thrift.TException;
 import org.apache.thrift.protocol.TBinaryProtocol;
 import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.transport.TFramedTransport;
 import org.apache.thrift.transport.TSocket;
 import org.apache.thrift.transport.TTransport;
 
@@ -14,7 +15,7 @@ public class ProducerClient {
     public static void main(String[] args) throws TException {
         TTransport transport = null;
         try {
-            transport = new TSocket("localhost", PORT);
+            transport = new TFramedTransport(new TSocket("localhost", PORT));
             transport.open();
 
             TProtocol protocol = new TBinaryProtocol(transport);
@@ -0,0 +1,184 @@
+package com.ndpmedia.rocketmq.babel;
+
+import com.alibaba.rocketmq.client.consumer.DefaultMQPullConsumer;
+import com.alibaba.rocketmq.client.consumer.MessageQueueListener;
+import com.alibaba.rocketmq.client.consumer.PullCallback;
+import com.alibaba.rocketmq.client.consumer.PullResult;
+import com.alibaba.rocketmq.client.consumer.PullStatus;
+import com.alibaba.rocketmq.common.message.MessageQueue;
+import org.apache.thrift.async.AsyncMethodCallback;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+
+public class ConsumerServiceTest {
+
+    private static final String TOPIC = "TopicTest";
+
+    private static final long LEASE_TIMEOUT_MILLIS = 60 * 1000;
+
+    /**
+     * Keeps pulls pending until the test completes them and records committed offsets.
+     */
+    static class StubPullConsumer extends DefaultMQPullConsumer {
+
+        private final Map<String, MessageQueueListener> listeners = new HashMap<String, MessageQueueListener>();
+
+        private final List<PullCallback> pullCallbacks = new ArrayList<PullCallback>();
+
+        private final Map<MessageQueue, Long> committedOffsets = new HashMap<MessageQueue, Long>();
+
+        StubPullConsumer() {
+            super("StubConsumerGroup");
+        }
+
+        @Override
+        public void registerMessageQueueListener(String topic, MessageQueueListener listener) {
+            listeners.put(topic, listener);
+        }
+
+        @Override
+        public void start() {
+        }
+
+        @Override
+        public void shutdown() {
+        }
+
+        @Override
+        public long fetchConsumeOffset(MessageQueue mq, boolean fromStore) {
+            return 0;
+        }
+
+        @Override
+        public void pullBlockIfNotFound(MessageQueue mq, String subExpression, long offset, int maxNums,
+                                        PullCallback pullCallback) {
+            pullCallbacks.add(pullCallback);
+        }
+
+        @Override
+        public void updateConsumeOffset(MessageQueue mq, long offset) {
+            committedOffsets.put(mq, offset);
+        }
+
+        void assign(MessageQueue mq) {
+            HashSet<MessageQueue> mqs = new HashSet<MessageQueue>(Collections.singleton(mq));
+            listeners.get(mq.getTopic()).messageQueueChanged(mq.getTopic(), mqs, mqs);
+        }
+
+        void completeLastPull(long... offsets) {
+            List<com.alibaba.rocketmq.common.message.MessageExt> msgs =
+                    new ArrayList<com.alibaba.rocketmq.common.message.MessageExt>();
+            for (long offset : offsets) {
+                com.alibaba.rocketmq.common.message.MessageExt msg = new com.alibaba.rocketmq.common.message.MessageExt();
+                msg.setTopic(TOPIC);
+                msg.setQueueOffset(offset);
+                msg.setBody(("body" + offset).getBytes());
+                msgs.add(msg);
+            }
+            long nextBeginOffset = offsets[offsets.length - 1] + 1;
+            pullCallbacks.get(pullCallbacks.size() - 1)
+                    .onSuccess(new PullResult(PullStatus.FOUND, nextBeginOffset, 0, nextBeginOffset, msgs));
+        }
+    }
+
+    static class RecordingHandler implements AsyncMethodCallback {
+
+        private final List<Object> responses = new ArrayList<Object>();
+
+        private final List<Exception> errors = new ArrayList<Exception>();
+
+        @Override
+        public void onComplete(Object response) {
+            responses.add(response);
+        }
+
+        @Override
+        public void onError(Exception exception) {
+            errors.add(exception);
+        }
+
+        Object last() {
+            return responses.get(responses.size() - 1);
+        }
+    }
+
+    private static PullLease pull(ConsumerService service) throws Exception {
+        RecordingHandler handler = new RecordingHandler();
+        service.pull(10, 0, handler);
+        assertEquals(1, handler.responses.size());
+        return (PullLease) handler.last();
+    }
+
+    private static List<Long> offsetsOf(PullLease lease) {
+        List<Long> offsets = new ArrayList<Long>();
+        for (MessageExt message : lease.getMessages()) {
+            offsets.add(message.getQueueOffset());
+        }
+        return offsets;
+    }
+
+    private static void ack(ConsumerService service, String token, Long... offsets) throws Exception {
+        RecordingHandler handler = new RecordingHandler();
+        service.ack(token, Arrays.asList(offsets), handler);
+        assertTrue(handler.errors.isEmpty());
+        assertEquals(1, handler.responses.size());
+        assertNull(handler.last());
+    }
+
+    @Test
+    public void testLeaseExpiryRedeliveryAndAck() throws Exception {
+        StubPullConsumer consumer = new StubPullConsumer();
+        ConsumerService service = new ConsumerService(consumer, Collections.singletonMap(TOPIC, "*"), 32, 1024,
+                LEASE_TIMEOUT_MILLIS);
+        MessageQueue mq = new MessageQueue(TOPIC, "BrokerA", 0);
+        try {
+            consumer.assign(mq);
+            assertEquals(1, consumer.pullCallbacks.size());
+            consumer.completeLastPull(0, 1, 2);
+            // The next pull is issued as soon as the first one completes.
+            assertEquals(2, consumer.pullCallbacks.size());
+
+            PullLease first = pull(service);
+            assertEquals(Arrays.asList(0L, 1L, 2L), offsetsOf(first));
+            // Leased messages are not handed out twice while the lease holds.
+            assertTrue(pull(service).getMessages().isEmpty());
+            service.releaseExpiredLeases(System.currentTimeMillis());
+            assertTrue(pull(service).getMessages().isEmpty());
+
+            // Once the lease expires, its messages are delivered again under a new token.
+            service.releaseExpiredLeases(System.currentTimeMillis() + LEASE_TIMEOUT_MILLIS);
+            PullLease second = pull(service);
+            assertEquals(Arrays.asList(0L, 1L, 2L), offsetsOf(second));
+            assertFalse(first.getToken().equals(second.getToken()));
+
+            // The expired lease can no longer be acknowledged and commits nothing.
+            ack(service, first.getToken(), 0L, 1L, 2L);
+            assertTrue(consumer.committedOffsets.isEmpty());
+
+            // Progress stops at the first unacknowledged message, which is delivered again.
+            ack(service, second.getToken(), 0L, 2L);
+            assertEquals(Long.valueOf(1), consumer.committedOffsets.get(mq));
+            PullLease third = pull(service);
+            assertEquals(Arrays.asList(1L), offsetsOf(third));
+
+            ack(service, third.getToken(), 1L);
+            assertEquals(Long.valueOf(3), consumer.committedOffsets.get(mq));
+            assertTrue(pull(service).getMessages().isEmpty());
+        } finally {
+            service.stop(new RecordingHandler());
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.ndpmedia.rocketmq.babel;
+
+import com.alibaba.rocketmq.client.exception.MQBrokerException;
+import com.alibaba.rocketmq.client.exception.MQClientException;
+import com.alibaba.rocketmq.client.producer.DefaultMQProducer;
+import com.alibaba.rocketmq.client.producer.MessageQueueSelector;
+import com.alibaba.rocketmq.client.producer.SendCallback;
+import com.alibaba.rocketmq.client.producer.SendResult;
+import com.alibaba.rocketmq.client.producer.SendStatus;
+import com.alibaba.rocketmq.common.message.MessageQueue;
+import com.alibaba.rocketmq.common.protocol.ResponseCode;
+import com.alibaba.rocketmq.remoting.exception.RemotingException;
+import com.alibaba.rocketmq.remoting.exception.RemotingTooMuchRequestException;
+import org.apache.thrift.async.AsyncMethodCallback;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class ProducerServiceTest {
+
+    private static final Object SUCCESS = new Object();
+
+    /**
+     * Plays a scripted outcome for each attempt: a synchronous throw, a failure reported to the callback, or
+     * {@link #SUCCESS}. Queues of two brokers are offered to the selector.
+     */
+    static class StubProducer extends DefaultMQProducer {
+
+        private final LinkedList<Object> outcomes = new LinkedList<Object>();
+
+        private final List<String> selectedBrokers = new ArrayList<String>();
+
+        private final List<MessageQueue> mqs = Arrays.asList(new MessageQueue("TopicTest", "BrokerA", 0),
+                new MessageQueue("TopicTest", "BrokerB", 0));
+
+        StubProducer(Object... outcomes) {
+            super("StubProducerGroup");
+            this.outcomes.addAll(Arrays.asList(outcomes));
+        }
+
+        @Override
+        public void send(com.alibaba.rocketmq.common.message.Message msg, MessageQueueSelector selector, Object arg,
+                         SendCallback sendCallback) throws MQClientException, RemotingException {
+            attempt(msg, selector, arg, sendCallback, "MSG_ID");
+        }
+
+        @Override
+        public void send(Collection<com.alibaba.rocketmq.common.message.Message> msgs, MessageQueueSelector selector,
+                         Object arg, SendCallback sendCallback) throws MQClientException, RemotingException {
+            StringBuilder msgIds = new StringBuilder();
+            for (com.alibaba.rocketmq.common.message.Message msg : msgs) {
+                msgIds.append(msgIds.length() > 0 ? "," : "").append(new String(msg.getBody()));
+            }
+            attempt(msgs.iterator().next(), selector, arg, sendCallback, msgIds.toString());
+        }
+
+        private void attempt(com.alibaba.rocketmq.common.message.Message msg, MessageQueueSelector selector,
+                             Object arg, SendCallback sendCallback, String msgId)
+                throws MQClientException, RemotingException {
+            MessageQueue mq = selector.select(mqs, msg, arg);
+            selectedBrokers.add(mq.getBrokerName());
+
+            Object outcome = outcomes.poll();
+            if (outcome instanceof MQClientException) {
+                throw (MQClientException) outcome;
+            } else if (outcome instanceof RemotingException) {
+                throw (RemotingException) outcome;
+            } else if (outcome instanceof Throwable) {
+                sendCallback.onException((Throwable) outcome);
+            } else {
+                sendCallback.onSuccess(new SendResult(SendStatus.SEND_OK, msgId, mq, 0, null));
+            }
+        }
+    }
+
+    static class RecordingHandler implements AsyncMethodCallback {
+
+        private final List<Object> responses = new ArrayList<Object>();
+
+        private final List<Exception> errors = new ArrayList<Exception>();
+
+        @Override
+        public void onComplete(Object response) {
+            responses.add(response);
+        }
+
+        @Override
+        public void onError(Exception exception) {
+            errors.add(exception);
+        }
+    }
+
+    private static Message message(String topic, String body) {
+        return new Message(topic, ByteBuffer.wrap(body.getBytes()));
+    }
+
+    @Test
+    public void testSyncThrowRetried() throws Exception {
+        StubProducer producer = new StubProducer(new RemotingTooMuchRequestException("invoke too fast"),
+                new MQBrokerException(ResponseCode.SYSTEM_ERROR, "store busy"), SUCCESS);
+        RecordingHandler handler = new RecordingHandler();
+        new ProducerService(producer).send(message("TopicTest", "body"), handler);
+
+        // A synchronous throw and a callback failure are both retried, each time on the other broker.
+        assertEquals(3, producer.selectedBrokers.size());
+        for (int i = 1; i < producer.selectedBrokers.size(); i++) {
+            assertFalse(producer.selectedBrokers.get(i).equals(producer.selectedBrokers.get(i - 1)));
+        }
+        assertEquals(Arrays.<Object>asList("MSG_ID"), handler.responses);
+        assertTrue(handler.errors.isEmpty());
+    }
+
+    @Test
+    public void testSyncThrowExhaustsRetries() throws Exception {
+        MQClientException error = new MQClientException("No route info of this topic, TopicTest", null);
+        StubProducer producer = new StubProducer(error, error, error, SUCCESS);
+        RecordingHandler handler = new RecordingHandler();
+        new ProducerService(producer).send(message("TopicTest", "body"), handler);
+
+        assertEquals(producer.getRetryTimesWhenSendFailed() + 1, producer.selectedBrokers.size());
+        assertTrue(handler.responses.isEmpty());
+        assertEquals(1, handler.errors.size());
+        assertEquals(error, handler.errors.get(0).getCause());
+    }
+
+    @Test
+    public void testIllegalMessageNotRetried() throws Exception {
+        StubProducer producer =
+                new StubProducer(new MQClientException(ResponseCode.MESSAGE_ILLEGAL, "the message body is null"));
+        RecordingHandler handler = new RecordingHandler();
+        new ProducerService(producer).send(message("TopicTest", "body"), handler);
+
+        assertEquals(1, producer.selectedBrokers.size());
+        assertTrue(handler.responses.isEmpty());
+        assertEquals(1, handler.errors.size());
+    }
+
+    @Test
+    public void testBatchSendRetried() throws Exception {
+        // The first batch is thrown back once, the second fails in the callback once.
+        StubProducer producer = new StubProducer(new RemotingTooMuchRequestException("invoke too fast"), SUCCESS,
+                new MQBrokerException(ResponseCode.SYSTEM_ERROR, "store busy"), SUCCESS);
+        RecordingHandler handler = new RecordingHandler();
+        new ProducerService(producer).batchSend(Arrays.asList(message("TopicA", "a1"), message("TopicB", "b1"),
+                message("TopicA", "a2")), handler);
+
+        assertEquals(4, producer.selectedBrokers.size());
+        assertTrue(handler.errors.isEmpty());
+        assertEquals(1, handler.responses.size());
+        assertEquals(Arrays.asList("a1", "b1", "a2"), handler.responses.get(0));
+    }
+}
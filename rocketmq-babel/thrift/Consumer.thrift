@@ -7,7 +7,12 @@ include "Model.thrift"
 
 service Consumer {
 
-   list<Model.MessageExt> pull(),
+   // Lease at most maxNums messages of one message queue, waiting up to timeoutMs if none is ready.
+   // Messages not acknowledged before the lease expires are delivered again.
+   Model.PullLease pull(1: i32 maxNums, 2: i64 timeoutMs),
+
+   // Acknowledge queue offsets of a lease. Consume progress is committed only after acknowledgement.
+   void ack(1: string token, 2: list<i64> offsets),
 
    oneway void stop()
-}
\ No newline at end of file
+}
@@ -28,3 +28,8 @@ struct Message {
    3: optional map<string, string> properties,
    4: required binary data,
 }
+
+struct PullLease {
+   1: required string token,
+   2: required list<MessageExt> messages,
+}
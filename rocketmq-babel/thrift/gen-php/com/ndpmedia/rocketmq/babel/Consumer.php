@@ -18,9 +18,16 @@ use Thrift\Exception\TApplicationException;
 
 interface ConsumerIf {
   /**
-   * @return \com\ndpmedia\rocketmq\babel\MessageExt[]
+   * @param int $maxNums
+   * @param int $timeoutMs
+   * @return \com\ndpmedia\rocketmq\babel\PullLease
    */
-  public function pull();
+  public function pull($maxNums, $timeoutMs);
+  /**
+   * @param string $token
+   * @param int[] $offsets
+   */
+  public function ack($token, array $offsets);
   /**
    */
   public function stop();
@@ -37,15 +44,17 @@ class ConsumerClient implements \com\ndpmedia\rocketmq\babel\ConsumerIf {
     $this->output_ = $output ? $output : $input;
   }
 
-  public function pull()
+  public function pull($maxNums, $timeoutMs)
   {
-    $this->send_pull();
+    $this->send_pull($maxNums, $timeoutMs);
     return $this->recv_pull();
   }
 
-  public function send_pull()
+  public function send_pull($maxNums, $timeoutMs)
   {
     $args = new \com\ndpmedia\rocketmq\babel\Consumer_pull_args();
+    $args->maxNums = $maxNums;
+    $args->timeoutMs = $timeoutMs;
     $bin_accel = ($this->output_ instanceof TBinaryProtocolAccelerated) && function_exists('thrift_protocol_write_binary');
     if ($bin_accel)
     {
@@ -87,6 +96,55 @@ class ConsumerClient implements \com\ndpmedia\rocketmq\babel\ConsumerIf {
     throw new \Exception("pull failed: unknown result");
   }
 
+  public function ack($token, array $offsets)
+  {
+    $this->send_ack($token, $offsets);
+    $this->recv_ack();
+  }
+
+  public function send_ack($token, array $offsets)
+  {
+    $args = new \com\ndpmedia\rocketmq\babel\Consumer_ack_args();
+    $args->token = $token;
+    $args->offsets = $offsets;
+    $bin_accel = ($this->output_ instanceof TBinaryProtocolAccelerated) && function_exists('thrift_protocol_write_binary');
+    if ($bin_accel)
+    {
+      thrift_protocol_write_binary($this->output_, 'ack', TMessageType::CALL, $args, $this->seqid_, $this->output_->isStrictWrite());
+    }
+    else
+    {
+      $this->output_->writeMessageBegin('ack', TMessageType::CALL, $this->seqid_);
+      $args->write($this->output_);
+      $this->output_->writeMessageEnd();
+      $this->output_->getTransport()->flush();
+    }
+  }
+
+  public function recv_ack()
+  {
+    $bin_accel = ($this->input_ instanceof TBinaryProtocolAccelerated) && function_exists('thrift_protocol_read_binary');
+    if ($bin_accel) $result = thrift_protocol_read_binary($this->input_, '\com\ndpmedia\rocketmq\babel\Consumer_ack_result', $this->input_->isStrictRead());
+    else
+    {
+      $rseqid = 0;
+      $fname = null;
+      $mtype = 0;
+
+      $this->input_->readMessageBegin($fname, $mtype, $rseqid);
+      if ($mtype == TMessageType::EXCEPTION) {
+        $x = new TApplicationException();
+        $x->read($this->input_);
+        $this->input_->readMessageEnd();
+        throw $x;
+      }
+      $result = new \com\ndpmedia\rocketmq\babel\Consumer_ack_result();
+      $result->read($this->input_);
+      $this->input_->readMessageEnd();
+    }
+    return;
+  }
+
   public function stop()
   {
     $this->send_stop();
@@ -115,12 +173,36 @@ class ConsumerClient implements \com\ndpmedia\rocketmq\babel\ConsumerIf {
 class Consumer_pull_args {
   static $_TSPEC;
 
+  /**
+   * @var int
+   */
+  public $maxNums = null;
+  /**
+   * @var int
+   */
+  public $timeoutMs = null;
 
-  public function __construct() {
+  public function __construct($vals=null) {
     if (!isset(self::$_TSPEC)) {
       self::$_TSPEC = array(
+        1 => array(
+          'var' => 'maxNums',
+          'type' => TType::I32,
+          ),
+        2 => array(
+          'var' => 'timeoutMs',
+          'type' => TType::I64,
+          ),
         );
     }
+    if (is_array($vals)) {
+      if (isset($vals['maxNums'])) {
+        $this->maxNums = $vals['maxNums'];
+      }
+      if (isset($vals['timeoutMs'])) {
+        $this->timeoutMs = $vals['timeoutMs'];
+      }
+    }
   }
 
   public function getName() {
@@ -142,6 +224,20 @@ class Consumer_pull_args {
       }
       switch ($fid)
       {
+        case 1:
+          if ($ftype == TType::I32) {
+            $xfer += $input->readI32($this->maxNums);
+          } else {
+            $xfer += $input->skip($ftype);
+          }
+          break;
+        case 2:
+          if ($ftype == TType::I64) {
+            $xfer += $input->readI64($this->timeoutMs);
+          } else {
+            $xfer += $input->skip($ftype);
+          }
+          break;
         default:
           $xfer += $input->skip($ftype);
           break;
@@ -155,6 +251,16 @@ class Consumer_pull_args {
   public function write($output) {
     $xfer = 0;
     $xfer += $output->writeStructBegin('Consumer_pull_args');
+    if ($this->maxNums !== null) {
+      $xfer += $output->writeFieldBegin('maxNums', TType::I32, 1);
+      $xfer += $output->writeI32($this->maxNums);
+      $xfer += $output->writeFieldEnd();
+    }
+    if ($this->timeoutMs !== null) {
+      $xfer += $output->writeFieldBegin('timeoutMs', TType::I64, 2);
+      $xfer += $output->writeI64($this->timeoutMs);
+      $xfer += $output->writeFieldEnd();
+    }
     $xfer += $output->writeFieldStop();
     $xfer += $output->writeStructEnd();
     return $xfer;
@@ -166,7 +272,7 @@ class Consumer_pull_result {
   static $_TSPEC;
 
   /**
-   * @var \com\ndpmedia\rocketmq\babel\MessageExt[]
+   * @var \com\ndpmedia\rocketmq\babel\PullLease
    */
   public $success = null;
 
@@ -175,12 +281,8 @@ class Consumer_pull_result {
       self::$_TSPEC = array(
         0 => array(
           'var' => 'success',
-          'type' => TType::LST,
-          'etype' => TType::STRUCT,
-          'elem' => array(
-            'type' => TType::STRUCT,
-            'class' => '\com\ndpmedia\rocketmq\babel\MessageExt',
-            ),
+          'type' => TType::STRUCT,
+          'class' => '\com\ndpmedia\rocketmq\babel\PullLease',
           ),
         );
     }
@@ -211,17 +313,117 @@ class Consumer_pull_result {
       switch ($fid)
       {
         case 0:
+          if ($ftype == TType::STRUCT) {
+            $this->success = new \com\ndpmedia\rocketmq\babel\PullLease();
+            $xfer += $this->success->read($input);
+          } else {
+            $xfer += $input->skip($ftype);
+          }
+          break;
+        default:
+          $xfer += $input->skip($ftype);
+          break;
+      }
+      $xfer += $input->readFieldEnd();
+    }
+    $xfer += $input->readStructEnd();
+    return $xfer;
+  }
+
+  public function write($output) {
+    $xfer = 0;
+    $xfer += $output->writeStructBegin('Consumer_pull_result');
+    if ($this->success !== null) {
+      if (!is_object($this->success)) {
+        throw new TProtocolException('Bad type in structure.', TProtocolException::INVALID_DATA);
+      }
+      $xfer += $output->writeFieldBegin('success', TType::STRUCT, 0);
+      $xfer += $this->success->write($output);
+      $xfer += $output->writeFieldEnd();
+    }
+    $xfer += $output->writeFieldStop();
+    $xfer += $output->writeStructEnd();
+    return $xfer;
+  }
+
+}
+
+class Consumer_ack_args {
+  static $_TSPEC;
+
+  /**
+   * @var string
+   */
+  public $token = null;
+  /**
+   * @var int[]
+   */
+  public $offsets = null;
+
+  public function __construct($vals=null) {
+    if (!isset(self::$_TSPEC)) {
+      self::$_TSPEC = array(
+        1 => array(
+          'var' => 'token',
+          'type' => TType::STRING,
+          ),
+        2 => array(
+          'var' => 'offsets',
+          'type' => TType::LST,
+          'etype' => TType::I64,
+          'elem' => array(
+            'type' => TType::I64,
+            ),
+          ),
+        );
+    }
+    if (is_array($vals)) {
+      if (isset($vals['token'])) {
+        $this->token = $vals['token'];
+      }
+      if (isset($vals['offsets'])) {
+        $this->offsets = $vals['offsets'];
+      }
+    }
+  }
+
+  public function getName() {
+    return 'Consumer_ack_args';
+  }
+
+  public function read($input)
+  {
+    $xfer = 0;
+    $fname = null;
+    $ftype = 0;
+    $fid = 0;
+    $xfer += $input->readStructBegin($fname);
+    while (true)
+    {
+      $xfer += $input->readFieldBegin($fname, $ftype, $fid);
+      if ($ftype == TType::STOP) {
+        break;
+      }
+      switch ($fid)
+      {
+        case 1:
+          if ($ftype == TType::STRING) {
+            $xfer += $input->readString($this->token);
+          } else {
+            $xfer += $input->skip($ftype);
+          }
+          break;
+        case 2:
           if ($ftype == TType::LST) {
-            $this->success = array();
+            $this->offsets = array();
             $_size0 = 0;
             $_etype3 = 0;
             $xfer += $input->readListBegin($_etype3, $_size0);
             for ($_i4 = 0; $_i4 < $_size0; ++$_i4)
             {
               $elem5 = null;
-              $elem5 = new \com\ndpmedia\rocketmq\babel\MessageExt();
-              $xfer += $elem5->read($input);
-              $this->success []= $elem5;
+              $xfer += $input->readI64($elem5);
+              $this->offsets []= $elem5;
             }
             $xfer += $input->readListEnd();
           } else {
@@ -240,18 +442,23 @@ class Consumer_pull_result {
 
   public function write($output) {
     $xfer = 0;
-    $xfer += $output->writeStructBegin('Consumer_pull_result');
-    if ($this->success !== null) {
-      if (!is_array($this->success)) {
+    $xfer += $output->writeStructBegin('Consumer_ack_args');
+    if ($this->token !== null) {
+      $xfer += $output->writeFieldBegin('token', TType::STRING, 1);
+      $xfer += $output->writeString($this->token);
+      $xfer += $output->writeFieldEnd();
+    }
+    if ($this->offsets !== null) {
+      if (!is_array($this->offsets)) {
         throw new TProtocolException('Bad type in structure.', TProtocolException::INVALID_DATA);
       }
-      $xfer += $output->writeFieldBegin('success', TType::LST, 0);
+      $xfer += $output->writeFieldBegin('offsets', TType::LST, 2);
       {
-        $output->writeListBegin(TType::STRUCT, count($this->success));
+        $output->writeListBegin(TType::I64, count($this->offsets));
         {
-          foreach ($this->success as $iter6)
+          foreach ($this->offsets as $iter6)
           {
-            $xfer += $iter6->write($output);
+            $xfer += $output->writeI64($iter6);
           }
         }
         $output->writeListEnd();
@@ -265,6 +472,56 @@ class Consumer_pull_result {
 
 }
 
+class Consumer_ack_result {
+  static $_TSPEC;
+
+
+  public function __construct() {
+    if (!isset(self::$_TSPEC)) {
+      self::$_TSPEC = array(
+        );
+    }
+  }
+
+  public function getName() {
+    return 'Consumer_ack_result';
+  }
+
+  public function read($input)
+  {
+    $xfer = 0;
+    $fname = null;
+    $ftype = 0;
+    $fid = 0;
+    $xfer += $input->readStructBegin($fname);
+    while (true)
+    {
+      $xfer += $input->readFieldBegin($fname, $ftype, $fid);
+      if ($ftype == TType::STOP) {
+        break;
+      }
+      switch ($fid)
+      {
+        default:
+          $xfer += $input->skip($ftype);
+          break;
+      }
+      $xfer += $input->readFieldEnd();
+    }
+    $xfer += $input->readStructEnd();
+    return $xfer;
+  }
+
+  public function write($output) {
+    $xfer = 0;
+    $xfer += $output->writeStructBegin('Consumer_ack_result');
+    $xfer += $output->writeFieldStop();
+    $xfer += $output->writeStructEnd();
+    return $xfer;
+  }
+
+}
+
 class Consumer_stop_args {
   static $_TSPEC;
 
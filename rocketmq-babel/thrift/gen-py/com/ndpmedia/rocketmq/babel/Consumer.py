@@ -18,7 +18,20 @@ except:
 
 
 class Iface:
-  def pull(self):
+  def pull(self, maxNums, timeoutMs):
+    """
+    Parameters:
+     - maxNums
+     - timeoutMs
+    """
+    pass
+
+  def ack(self, token, offsets):
+    """
+    Parameters:
+     - token
+     - offsets
+    """
     pass
 
   def stop(self):
@@ -32,13 +45,20 @@ class Client(Iface):
       self._oprot = oprot
     self._seqid = 0
 
-  def pull(self):
-    self.send_pull()
+  def pull(self, maxNums, timeoutMs):
+    """
+    Parameters:
+     - maxNums
+     - timeoutMs
+    """
+    self.send_pull(maxNums, timeoutMs)
     return self.recv_pull()
 
-  def send_pull(self):
+  def send_pull(self, maxNums, timeoutMs):
     self._oprot.writeMessageBegin('pull', TMessageType.CALL, self._seqid)
     args = pull_args()
+    args.maxNums = maxNums
+    args.timeoutMs = timeoutMs
     args.write(self._oprot)
     self._oprot.writeMessageEnd()
     self._oprot.trans.flush()
@@ -58,6 +78,37 @@ class Client(Iface):
       return result.success
     raise TApplicationException(TApplicationException.MISSING_RESULT, "pull failed: unknown result");
 
+  def ack(self, token, offsets):
+    """
+    Parameters:
+     - token
+     - offsets
+    """
+    self.send_ack(token, offsets)
+    self.recv_ack()
+
+  def send_ack(self, token, offsets):
+    self._oprot.writeMessageBegin('ack', TMessageType.CALL, self._seqid)
+    args = ack_args()
+    args.token = token
+    args.offsets = offsets
+    args.write(self._oprot)
+    self._oprot.writeMessageEnd()
+    self._oprot.trans.flush()
+
+  def recv_ack(self):
+    iprot = self._iprot
+    (fname, mtype, rseqid) = iprot.readMessageBegin()
+    if mtype == TMessageType.EXCEPTION:
+      x = TApplicationException()
+      x.read(iprot)
+      iprot.readMessageEnd()
+      raise x
+    result = ack_result()
+    result.read(iprot)
+    iprot.readMessageEnd()
+    return
+
   def stop(self):
     self.send_stop()
 
@@ -73,6 +124,7 @@ class Processor(Iface, TProcessor):
     self._handler = handler
     self._processMap = {}
     self._processMap["pull"] = Processor.process_pull
+    self._processMap["ack"] = Processor.process_ack
     self._processMap["stop"] = Processor.process_stop
 
   def process(self, iprot, oprot):
@@ -95,12 +147,23 @@ class Processor(Iface, TProcessor):
     args.read(iprot)
     iprot.readMessageEnd()
     result = pull_result()
-    result.success = self._handler.pull()
+    result.success = self._handler.pull(args.maxNums, args.timeoutMs)
     oprot.writeMessageBegin("pull", TMessageType.REPLY, seqid)
     result.write(oprot)
     oprot.writeMessageEnd()
     oprot.trans.flush()
 
+  def process_ack(self, seqid, iprot, oprot):
+    args = ack_args()
+    args.read(iprot)
+    iprot.readMessageEnd()
+    result = ack_result()
+    self._handler.ack(args.token, args.offsets)
+    oprot.writeMessageBegin("ack", TMessageType.REPLY, seqid)
+    result.write(oprot)
+    oprot.writeMessageEnd()
+    oprot.trans.flush()
+
   def process_stop(self, seqid, iprot, oprot):
     args = stop_args()
     args.read(iprot)
@@ -112,10 +175,22 @@ class Processor(Iface, TProcessor):
 # HELPER FUNCTIONS AND STRUCTURES
 
 class pull_args:
+  """
+  Attributes:
+   - maxNums
+   - timeoutMs
+  """
 
   thrift_spec = (
+    None, # 0
+    (1, TType.I32, 'maxNums', None, None, ), # 1
+    (2, TType.I64, 'timeoutMs', None, None, ), # 2
   )
 
+  def __init__(self, maxNums=None, timeoutMs=None,):
+    self.maxNums = maxNums
+    self.timeoutMs = timeoutMs
+
   def read(self, iprot):
     if iprot.__class__ == TBinaryProtocol.TBinaryProtocolAccelerated and isinstance(iprot.trans, TTransport.CReadableTransport) and self.thrift_spec is not None and fastbinary is not None:
       fastbinary.decode_binary(self, iprot.trans, (self.__class__, self.thrift_spec))
@@ -125,6 +200,16 @@ class pull_args:
       (fname, ftype, fid) = iprot.readFieldBegin()
       if ftype == TType.STOP:
         break
+      if fid == 1:
+        if ftype == TType.I32:
+          self.maxNums = iprot.readI32();
+        else:
+          iprot.skip(ftype)
+      elif fid == 2:
+        if ftype == TType.I64:
+          self.timeoutMs = iprot.readI64();
+        else:
+          iprot.skip(ftype)
       else:
         iprot.skip(ftype)
       iprot.readFieldEnd()
@@ -135,6 +220,14 @@ class pull_args:
       oprot.trans.write(fastbinary.encode_binary(self, (self.__class__, self.thrift_spec)))
       return
     oprot.writeStructBegin('pull_args')
+    if self.maxNums is not None:
+      oprot.writeFieldBegin('maxNums', TType.I32, 1)
+      oprot.writeI32(self.maxNums)
+      oprot.writeFieldEnd()
+    if self.timeoutMs is not None:
+      oprot.writeFieldBegin('timeoutMs', TType.I64, 2)
+      oprot.writeI64(self.timeoutMs)
+      oprot.writeFieldEnd()
     oprot.writeFieldStop()
     oprot.writeStructEnd()
 
@@ -144,6 +237,8 @@ class pull_args:
 
   def __hash__(self):
     value = 17
+    value = (value * 31) ^ hash(self.maxNums)
+    value = (value * 31) ^ hash(self.timeoutMs)
     return value
 
   def __repr__(self):
@@ -164,7 +259,7 @@ class pull_result:
   """
 
   thrift_spec = (
-    (0, TType.LIST, 'success', (TType.STRUCT,(MessageExt, MessageExt.thrift_spec)), None, ), # 0
+    (0, TType.STRUCT, 'success', (PullLease, PullLease.thrift_spec), None, ), # 0
   )
 
   def __init__(self, success=None,):
@@ -180,13 +275,86 @@ class pull_result:
       if ftype == TType.STOP:
         break
       if fid == 0:
+        if ftype == TType.STRUCT:
+          self.success = PullLease()
+          self.success.read(iprot)
+        else:
+          iprot.skip(ftype)
+      else:
+        iprot.skip(ftype)
+      iprot.readFieldEnd()
+    iprot.readStructEnd()
+
+  def write(self, oprot):
+    if oprot.__class__ == TBinaryProtocol.TBinaryProtocolAccelerated and self.thrift_spec is not None and fastbinary is not None:
+      oprot.trans.write(fastbinary.encode_binary(self, (self.__class__, self.thrift_spec)))
+      return
+    oprot.writeStructBegin('pull_result')
+    if self.success is not None:
+      oprot.writeFieldBegin('success', TType.STRUCT, 0)
+      self.success.write(oprot)
+      oprot.writeFieldEnd()
+    oprot.writeFieldStop()
+    oprot.writeStructEnd()
+
+  def validate(self):
+    return
+
+
+  def __hash__(self):
+    value = 17
+    value = (value * 31) ^ hash(self.success)
+    return value
+
+  def __repr__(self):
+    L = ['%s=%r' % (key, value)
+      for key, value in self.__dict__.iteritems()]
+    return '%s(%s)' % (self.__class__.__name__, ', '.join(L))
+
+  def __eq__(self, other):
+    return isinstance(other, self.__class__) and self.__dict__ == other.__dict__
+
+  def __ne__(self, other):
+    return not (self == other)
+
+class ack_args:
+  """
+  Attributes:
+   - token
+   - offsets
+  """
+
+  thrift_spec = (
+    None, # 0
+    (1, TType.STRING, 'token', None, None, ), # 1
+    (2, TType.LIST, 'offsets', (TType.I64,None), None, ), # 2
+  )
+
+  def __init__(self, token=None, offsets=None,):
+    self.token = token
+    self.offsets = offsets
+
+  def read(self, iprot):
+    if iprot.__class__ == TBinaryProtocol.TBinaryProtocolAccelerated and isinstance(iprot.trans, TTransport.CReadableTransport) and self.thrift_spec is not None and fastbinary is not None:
+      fastbinary.decode_binary(self, iprot.trans, (self.__class__, self.thrift_spec))
+      return
+    iprot.readStructBegin()
+    while True:
+      (fname, ftype, fid) = iprot.readFieldBegin()
+      if ftype == TType.STOP:
+        break
+      if fid == 1:
+        if ftype == TType.STRING:
+          self.token = iprot.readString();
+        else:
+          iprot.skip(ftype)
+      elif fid == 2:
         if ftype == TType.LIST:
-          self.success = []
+          self.offsets = []
           (_etype3, _size0) = iprot.readListBegin()
           for _i4 in xrange(_size0):
-            _elem5 = com.ndpmedia.rocketmq.babel.ttypes.MessageExt()
-            _elem5.read(iprot)
-            self.success.append(_elem5)
+            _elem5 = iprot.readI64();
+            self.offsets.append(_elem5)
           iprot.readListEnd()
         else:
           iprot.skip(ftype)
@@ -199,12 +367,16 @@ class pull_result:
     if oprot.__class__ == TBinaryProtocol.TBinaryProtocolAccelerated and self.thrift_spec is not None and fastbinary is not None:
       oprot.trans.write(fastbinary.encode_binary(self, (self.__class__, self.thrift_spec)))
       return
-    oprot.writeStructBegin('pull_result')
-    if self.success is not None:
-      oprot.writeFieldBegin('success', TType.LIST, 0)
-      oprot.writeListBegin(TType.STRUCT, len(self.success))
-      for iter6 in self.success:
-        iter6.write(oprot)
+    oprot.writeStructBegin('ack_args')
+    if self.token is not None:
+      oprot.writeFieldBegin('token', TType.STRING, 1)
+      oprot.writeString(self.token)
+      oprot.writeFieldEnd()
+    if self.offsets is not None:
+      oprot.writeFieldBegin('offsets', TType.LIST, 2)
+      oprot.writeListBegin(TType.I64, len(self.offsets))
+      for iter6 in self.offsets:
+        oprot.writeI64(iter6)
       oprot.writeListEnd()
       oprot.writeFieldEnd()
     oprot.writeFieldStop()
@@ -216,7 +388,54 @@ class pull_result:
 
   def __hash__(self):
     value = 17
-    value = (value * 31) ^ hash(self.success)
+    value = (value * 31) ^ hash(self.token)
+    value = (value * 31) ^ hash(self.offsets)
+    return value
+
+  def __repr__(self):
+    L = ['%s=%r' % (key, value)
+      for key, value in self.__dict__.iteritems()]
+    return '%s(%s)' % (self.__class__.__name__, ', '.join(L))
+
+  def __eq__(self, other):
+    return isinstance(other, self.__class__) and self.__dict__ == other.__dict__
+
+  def __ne__(self, other):
+    return not (self == other)
+
+class ack_result:
+
+  thrift_spec = (
+  )
+
+  def read(self, iprot):
+    if iprot.__class__ == TBinaryProtocol.TBinaryProtocolAccelerated and isinstance(iprot.trans, TTransport.CReadableTransport) and self.thrift_spec is not None and fastbinary is not None:
+      fastbinary.decode_binary(self, iprot.trans, (self.__class__, self.thrift_spec))
+      return
+    iprot.readStructBegin()
+    while True:
+      (fname, ftype, fid) = iprot.readFieldBegin()
+      if ftype == TType.STOP:
+        break
+      else:
+        iprot.skip(ftype)
+      iprot.readFieldEnd()
+    iprot.readStructEnd()
+
+  def write(self, oprot):
+    if oprot.__class__ == TBinaryProtocol.TBinaryProtocolAccelerated and self.thrift_spec is not None and fastbinary is not None:
+      oprot.trans.write(fastbinary.encode_binary(self, (self.__class__, self.thrift_spec)))
+      return
+    oprot.writeStructBegin('ack_result')
+    oprot.writeFieldStop()
+    oprot.writeStructEnd()
+
+  def validate(self):
+    return
+
+
+  def __hash__(self):
+    value = 17
     return value
 
   def __repr__(self):
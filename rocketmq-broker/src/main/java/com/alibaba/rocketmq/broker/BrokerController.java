@@ -23,6 +23,7 @@ import com.alibaba.rocketmq.broker.client.ProducerManager;
 import com.alibaba.rocketmq.broker.client.net.Broker2Client;
 import com.alibaba.rocketmq.broker.client.rebalance.RebalanceLockManager;
 import com.alibaba.rocketmq.broker.filtersrv.FilterServerManager;
+import com.alibaba.rocketmq.broker.longpolling.NotifyMessageArrivingListener;
 import com.alibaba.rocketmq.broker.longpolling.PullRequestHoldService;
 import com.alibaba.rocketmq.broker.mqtrace.ConsumeMessageHook;
 import com.alibaba.rocketmq.broker.mqtrace.SendMessageHook;
@@ -233,7 +234,9 @@ public class BrokerController {
         // 初始化存储层
         if (result) {
             try {
-                this.messageStore = new DefaultMessageStore(this.messageStoreConfig, this.brokerStatsManager);
+                this.messageStore =
+                        new DefaultMessageStore(this.messageStoreConfig, this.brokerStatsManager,
+                            new NotifyMessageArrivingListener(this));
             }
             catch (IOException e) {
                 result = false;
@@ -395,8 +398,12 @@ public class BrokerController {
             this.sendMessageExecutor);
         this.remotingServer.registerProcessor(RequestCode.SEND_MESSAGE_V2, sendProcessor,
             this.sendMessageExecutor);
+        this.remotingServer.registerProcessor(RequestCode.SEND_BATCH_MESSAGE, sendProcessor,
+            this.sendMessageExecutor);
         this.remotingServer.registerProcessor(RequestCode.CONSUMER_SEND_MSG_BACK, sendProcessor,
             this.sendMessageExecutor);
+        this.remotingServer.registerProcessor(RequestCode.CONSUMER_SEND_MSG_BACK_BATCH, sendProcessor,
+            this.sendMessageExecutor);
 
         /**
          * PullMessageProcessor
@@ -431,6 +438,8 @@ public class BrokerController {
          */
         this.remotingServer.registerProcessor(RequestCode.UPDATE_CONSUMER_OFFSET, clientProcessor,
             this.clientManageExecutor);
+        this.remotingServer.registerProcessor(RequestCode.UPDATE_CONSUMER_OFFSET_BATCH, clientProcessor,
+            this.clientManageExecutor);
         this.remotingServer.registerProcessor(RequestCode.QUERY_CONSUMER_OFFSET, clientProcessor,
             this.clientManageExecutor);
 
@@ -569,7 +578,7 @@ public class BrokerController {
             this.brokerOuterAPI.shutdown();
         }
 
-        this.consumerOffsetManager.persist();
+        this.consumerOffsetManager.shutdown();
 
         if (this.filterServerManager != null) {
             this.filterServerManager.shutdown();
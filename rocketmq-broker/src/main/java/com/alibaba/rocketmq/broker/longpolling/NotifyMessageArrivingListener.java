@@ -0,0 +1,40 @@
+/**
+ * Copyright (C) 2010-2013 Alibaba Group Holding Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.rocketmq.broker.longpolling;
+
+import com.alibaba.rocketmq.broker.BrokerController;
+import com.alibaba.rocketmq.store.MessageArrivingListener;
+
+
+/**
+ * 消息写入ConsumeQueue后唤醒Hold住的拉消息请求，Master与Slave都生效
+ */
+public class NotifyMessageArrivingListener implements MessageArrivingListener {
+    private final BrokerController brokerController;
+
+
+    public NotifyMessageArrivingListener(final BrokerController brokerController) {
+        this.brokerController = brokerController;
+    }
+
+
+    @Override
+    public void arriving(String topic, int queueId, long maxOffset, long tagsCode) {
+        if (this.brokerController.getBrokerConfig().isLongPollingEnable()) {
+            this.brokerController.getPullRequestHoldService().notifyMessageArriving(topic, queueId, maxOffset);
+        }
+    }
+}
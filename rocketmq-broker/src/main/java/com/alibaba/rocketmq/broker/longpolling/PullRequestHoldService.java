@@ -24,6 +24,7 @@ import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
 
@@ -35,9 +36,10 @@ import java.util.concurrent.ConcurrentHashMap;
  */
 public class PullRequestHoldService extends ServiceThread {
     private static final Logger log = LoggerFactory.getLogger(LoggerName.BrokerLoggerName);
-    private static final String TOPIC_QUEUE_ID_SEPARATOR = "@";
 
-    private ConcurrentHashMap<String/* topic@queueid */, ManyPullRequest> pullRequestTable = new ConcurrentHashMap<String, ManyPullRequest>(1024);
+    // 按topic、queueId两级索引，每条消息唤醒时查表不需要构造Key对象
+    private final ConcurrentHashMap<String/* topic */, ConcurrentHashMap<Integer/* queueId */, ManyPullRequest>> pullRequestTable =
+            new ConcurrentHashMap<String, ConcurrentHashMap<Integer, ManyPullRequest>>(1024);
 
     private final BrokerController brokerController;
 
@@ -47,21 +49,20 @@ public class PullRequestHoldService extends ServiceThread {
     }
 
 
-    private String buildKey(final String topic, final int queueId) {
-        StringBuilder sb = new StringBuilder();
-        sb.append(topic);
-        sb.append(TOPIC_QUEUE_ID_SEPARATOR);
-        sb.append(queueId);
-        return sb.toString();
-    }
-
-
     public void suspendPullRequest(final String topic, final int queueId, final PullRequest pullRequest) {
-        String key = this.buildKey(topic, queueId);
-        ManyPullRequest mpr = this.pullRequestTable.get(key);
+        ConcurrentHashMap<Integer, ManyPullRequest> queueTable = this.pullRequestTable.get(topic);
+        if (null == queueTable) {
+            queueTable = new ConcurrentHashMap<Integer, ManyPullRequest>(16);
+            ConcurrentHashMap<Integer, ManyPullRequest> prev = this.pullRequestTable.putIfAbsent(topic, queueTable);
+            if (prev != null) {
+                queueTable = prev;
+            }
+        }
+
+        ManyPullRequest mpr = queueTable.get(queueId);
         if (null == mpr) {
             mpr = new ManyPullRequest();
-            ManyPullRequest prev = this.pullRequestTable.putIfAbsent(key, mpr);
+            ManyPullRequest prev = queueTable.putIfAbsent(queueId, mpr);
             if (prev != null) {
                 mpr = prev;
             }
@@ -71,75 +72,86 @@ public class PullRequestHoldService extends ServiceThread {
     }
 
 
+    /**
+     * 新消息由MessageArrivingListener及时唤醒，这里定时扫描主要处理超时的请求
+     */
     private void checkHoldRequest() {
-        for (String key : this.pullRequestTable.keySet()) {
-            String[] kArray = key.split(TOPIC_QUEUE_ID_SEPARATOR);
-            if (2 == kArray.length) {
-                String topic = kArray[0];
-                int queueId = Integer.parseInt(kArray[1]);
-                final long offset = this.brokerController.getMessageStore().getMaxOffsetInQueue(topic, queueId);
-                notifyMessageArriving(topic, queueId, offset);
+        for (Map.Entry<String, ConcurrentHashMap<Integer, ManyPullRequest>> entry : this.pullRequestTable.entrySet()) {
+            final String topic = entry.getKey();
+            for (Map.Entry<Integer, ManyPullRequest> next : entry.getValue().entrySet()) {
+                final int queueId = next.getKey();
+                final long offset = this.getMaxOffsetInQueue(topic, queueId);
+                this.notifyMessageArriving(topic, queueId, next.getValue(), offset);
             }
         }
     }
 
 
+    /**
+     * 每条消息写入ConsumeQueue后都会调用，没有Hold住的请求时只查两次表
+     */
     public void notifyMessageArriving(final String topic, final int queueId, final long maxOffset) {
-        String key = this.buildKey(topic, queueId);
-        ManyPullRequest mpr = this.pullRequestTable.get(key);
-        if (mpr != null) {
-            List<PullRequest> requestList = mpr.cloneListAndClear();
-            if (requestList != null) {
-                List<PullRequest> replayList = new ArrayList<PullRequest>();
-
-                for (PullRequest request : requestList) {
-                    // 查看是否offset OK
-                    if (maxOffset > request.getPullFromThisOffset()) {
-                        try {
-                            this.brokerController.getPullMessageProcessor().executeRequestWhenWakeUp(
-                                    request.getClientChannel(), request.getRequestCommand());
-                        }
-                        catch (RemotingCommandException e) {
-                            log.error("", e);
-                        }
-                        continue;
-                    }
-                    // 尝试取最新Offset
-                    else {
-                        final long newestOffset =
-                                this.brokerController.getMessageStore().getMaxOffsetInQueue(topic, queueId);
-                        if (newestOffset > request.getPullFromThisOffset()) {
-                            try {
-                                this.brokerController.getPullMessageProcessor().executeRequestWhenWakeUp(
-                                        request.getClientChannel(), request.getRequestCommand());
-                            }
-                            catch (RemotingCommandException e) {
-                                log.error("", e);
-                            }
-                            continue;
-                        }
-                    }
+        ConcurrentHashMap<Integer, ManyPullRequest> queueTable = this.pullRequestTable.get(topic);
+        if (queueTable != null) {
+            // queueId较小时装箱使用Integer缓存，不分配对象
+            ManyPullRequest mpr = queueTable.get(queueId);
+            if (mpr != null) {
+                this.notifyMessageArriving(topic, queueId, mpr, maxOffset);
+            }
+        }
+    }
+
 
-                    // 查看是否超时
-                    if (System.currentTimeMillis() >= (request.getSuspendTimestamp() + request.getTimeoutMillis())) {
-                        try {
-                            this.brokerController.getPullMessageProcessor().executeRequestWhenWakeUp(
-                                    request.getClientChannel(), request.getRequestCommand());
-                        }
-                        catch (RemotingCommandException e) {
-                            log.error("", e);
-                        }
+    private void notifyMessageArriving(final String topic, final int queueId, final ManyPullRequest mpr,
+            final long maxOffset) {
+        List<PullRequest> requestList = mpr.cloneListAndClear();
+        if (requestList != null) {
+            List<PullRequest> replayList = new ArrayList<PullRequest>();
+
+            for (PullRequest request : requestList) {
+                // 查看是否offset OK
+                if (maxOffset > request.getPullFromThisOffset()) {
+                    this.executeRequestWhenWakeUp(request);
+                    continue;
+                }
+                // 尝试取最新Offset
+                else {
+                    final long newestOffset = this.getMaxOffsetInQueue(topic, queueId);
+                    if (newestOffset > request.getPullFromThisOffset()) {
+                        this.executeRequestWhenWakeUp(request);
                         continue;
                     }
-
-                    // 当前不满足要求，重新放回Hold列表中
-                    replayList.add(request);
                 }
 
-                if (!replayList.isEmpty()) {
-                    mpr.addPullRequest(replayList);
+                // 查看是否超时
+                if (System.currentTimeMillis() >= (request.getSuspendTimestamp() + request.getTimeoutMillis())) {
+                    this.executeRequestWhenWakeUp(request);
+                    continue;
                 }
+
+                // 当前不满足要求，重新放回Hold列表中
+                replayList.add(request);
             }
+
+            if (!replayList.isEmpty()) {
+                mpr.addPullRequest(replayList);
+            }
+        }
+    }
+
+
+    long getMaxOffsetInQueue(final String topic, final int queueId) {
+        return this.brokerController.getMessageStore().getMaxOffsetInQueue(topic, queueId);
+    }
+
+
+    void executeRequestWhenWakeUp(final PullRequest request) {
+        try {
+            this.brokerController.getPullMessageProcessor().executeRequestWhenWakeUp(request.getClientChannel(),
+                request.getRequestCommand());
+        }
+        catch (RemotingCommandException e) {
+            log.error("", e);
         }
     }
 
@@ -0,0 +1,379 @@
+/**
+ * Copyright (C) 2010-2013 Alibaba Group Holding Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.rocketmq.broker.offset;
+
+import com.alibaba.rocketmq.common.UtilAll;
+import com.alibaba.rocketmq.common.constant.LoggerName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * 消费进度日志，每次持久化只追加发生变化的消费进度，日志过大时按当前全部进度压缩重写<br>
+ * 消费进度记录定长 <Type> <Key Id> <Queue Id> <Offset> <CRC>，topic@group只在DEFINE记录中出现一次<br>
+ * DEFINE记录 <Type> <Key Id> <Key Length> <Reserved> <Key> <CRC>
+ */
+public class ConsumerOffsetJournal {
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.BrokerLoggerName);
+    private static final Charset CHARSET_UTF8 = Charset.forName("UTF-8");
+    private static final int TypeOffset = 1;
+    private static final int TypeDefine = 2;
+    // Queue Id为-1时删除整个topic@group
+    private static final int TypeRemove = 3;
+    // 类型(4) + key id(4) + queueId或key长度(4) + offset(8) + CRC(4)
+    public static final int RecordSize = 4 + 4 + 4 + 8 + 4;
+    // 日志小于此大小时不压缩
+    private static final long MinCompactSize = 1024 * 1024 * 4;
+
+    private final String journalPath;
+    private FileChannel fileChannel;
+    private long journalSize = 0;
+    // topic@group -> key id
+    private HashMap<String, Integer> keyIdTable = new HashMap<String, Integer>();
+    private int nextKeyId = 0;
+    // 已经写入日志的消费进度，持久化时与内存中的消费进度比较找出变化
+    private HashMap<String, HashMap<Integer, Long>> journaledTable = new HashMap<String, HashMap<Integer, Long>>();
+    // 上次追加失败，日志可能缺少记录，需要压缩重写
+    private boolean needCompact = false;
+
+
+    public ConsumerOffsetJournal(final String journalPath) {
+        this.journalPath = journalPath;
+    }
+
+
+    public boolean exists() {
+        return new File(this.journalPath).exists();
+    }
+
+
+    public long lastModified() {
+        return new File(this.journalPath).lastModified();
+    }
+
+
+    /**
+     * 回放日志恢复消费进度，尾部不完整或者校验失败的记录被截掉
+     */
+    public ConcurrentHashMap<String, ConcurrentHashMap<Integer, Long>> load() throws IOException {
+        File file = new File(this.journalPath);
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+
+        this.fileChannel = new RandomAccessFile(file, "rw").getChannel();
+        long fileSize = this.fileChannel.size();
+        ByteBuffer byteBuffer = ByteBuffer.allocate((int) fileSize);
+        while (byteBuffer.hasRemaining() && this.fileChannel.read(byteBuffer, byteBuffer.position()) >= 0) {
+        }
+        byteBuffer.flip();
+
+        ConcurrentHashMap<String, ConcurrentHashMap<Integer, Long>> offsetTable =
+                new ConcurrentHashMap<String, ConcurrentHashMap<Integer, Long>>(512);
+        HashMap<Integer, String> idKeyTable = new HashMap<Integer, String>();
+        int pos = 0;
+        while (pos + RecordSize <= fileSize) {
+            int type = byteBuffer.getInt(pos);
+            int keyId = byteBuffer.getInt(pos + 4);
+            int queueId = byteBuffer.getInt(pos + 8);
+            int recordSize = RecordSize;
+            if (TypeDefine == type) {
+                recordSize += queueId;
+                if (queueId <= 0 || pos + recordSize > fileSize) {
+                    break;
+                }
+            }
+
+            int crc = byteBuffer.getInt(pos + recordSize - 4);
+            if (crc != UtilAll.crc32(byteBuffer.array(), pos, recordSize - 4)) {
+                break;
+            }
+
+            if (TypeDefine == type) {
+                String key = new String(byteBuffer.array(), pos + 20, queueId, CHARSET_UTF8);
+                idKeyTable.put(keyId, key);
+                this.keyIdTable.put(key, keyId);
+                this.nextKeyId = Math.max(this.nextKeyId, keyId + 1);
+                if (!offsetTable.containsKey(key)) {
+                    offsetTable.put(key, new ConcurrentHashMap<Integer, Long>(32));
+                }
+            }
+            else {
+                String key = idKeyTable.get(keyId);
+                if (null == key) {
+                    log.warn("consumer offset journal key id {} not defined, pos {}", keyId, pos);
+                }
+                else if (TypeOffset == type) {
+                    offsetTable.get(key).put(queueId, byteBuffer.getLong(pos + 12));
+                }
+                else if (TypeRemove == type) {
+                    if (queueId < 0) {
+                        offsetTable.remove(key);
+                        idKeyTable.remove(keyId);
+                        this.keyIdTable.remove(key);
+                    }
+                    else {
+                        offsetTable.get(key).remove(queueId);
+                    }
+                }
+            }
+
+            pos += recordSize;
+        }
+
+        if (pos < fileSize) {
+            log.warn("consumer offset journal truncated from {} to {}", fileSize, pos);
+            this.fileChannel.truncate(pos);
+        }
+        this.journalSize = pos;
+
+        for (Entry<String, ConcurrentHashMap<Integer, Long>> entry : offsetTable.entrySet()) {
+            this.journaledTable.put(entry.getKey(), new HashMap<Integer, Long>(entry.getValue()));
+        }
+
+        log.info("load consumer offset journal OK, size {}, topic@group count {}", pos, offsetTable.size());
+        return offsetTable;
+    }
+
+
+    /**
+     * 追加与上次持久化相比发生变化的消费进度
+     */
+    public void append(final ConcurrentHashMap<String, ConcurrentHashMap<Integer, Long>> offsetTable) {
+        if (this.needCompact) {
+            this.compact(offsetTable);
+            return;
+        }
+
+        RecordBuffer recordBuffer = new RecordBuffer(RecordSize * 64);
+        long liveSize = 0;
+        for (Entry<String, ConcurrentHashMap<Integer, Long>> entry : offsetTable.entrySet()) {
+            String key = entry.getKey();
+            Integer keyId = this.keyIdTable.get(key);
+            HashMap<Integer, Long> journaled;
+            if (null == keyId) {
+                keyId = this.nextKeyId++;
+                this.keyIdTable.put(key, keyId);
+                journaled = new HashMap<Integer, Long>();
+                this.journaledTable.put(key, journaled);
+                recordBuffer.putDefine(keyId, key);
+            }
+            else {
+                journaled = this.journaledTable.get(key);
+            }
+
+            for (Entry<Integer, Long> queueOffset : entry.getValue().entrySet()) {
+                Long offset = queueOffset.getValue();
+                if (!offset.equals(journaled.get(queueOffset.getKey()))) {
+                    journaled.put(queueOffset.getKey(), offset);
+                    recordBuffer.putRecord(TypeOffset, keyId, queueOffset.getKey(), offset);
+                }
+            }
+
+            // journaled包含内存中的全部队列，数量不同说明有队列被删除
+            if (journaled.size() > entry.getValue().size()) {
+                Iterator<Integer> it = journaled.keySet().iterator();
+                while (it.hasNext()) {
+                    Integer queueId = it.next();
+                    if (!entry.getValue().containsKey(queueId)) {
+                        it.remove();
+                        recordBuffer.putRecord(TypeRemove, keyId, queueId, -1);
+                    }
+                }
+            }
+
+            liveSize += RecordSize + key.length() + (long) journaled.size() * RecordSize;
+        }
+
+        if (this.journaledTable.size() > offsetTable.size()) {
+            Iterator<Entry<String, HashMap<Integer, Long>>> it = this.journaledTable.entrySet().iterator();
+            while (it.hasNext()) {
+                String key = it.next().getKey();
+                if (!offsetTable.containsKey(key)) {
+                    it.remove();
+                    recordBuffer.putRecord(TypeRemove, this.keyIdTable.remove(key), -1, -1);
+                }
+            }
+        }
+
+        if (recordBuffer.size() > 0) {
+            try {
+                ByteBuffer byteBuffer = recordBuffer.flip();
+                while (byteBuffer.hasRemaining()) {
+                    this.fileChannel.write(byteBuffer, this.journalSize + byteBuffer.position());
+                }
+                this.fileChannel.force(false);
+                this.journalSize += recordBuffer.size();
+            }
+            catch (IOException e) {
+                log.error("append consumer offset journal failed, compact it next time", e);
+                this.needCompact = true;
+                return;
+            }
+        }
+
+        if (this.journalSize > MinCompactSize && this.journalSize > liveSize * 4) {
+            this.compact(offsetTable);
+        }
+    }
+
+
+    /**
+     * 按全部消费进度重写日志，先写临时文件再替换
+     */
+    public void compact(final ConcurrentHashMap<String, ConcurrentHashMap<Integer, Long>> offsetTable) {
+        HashMap<String, Integer> newKeyIdTable = new HashMap<String, Integer>();
+        HashMap<String, HashMap<Integer, Long>> newJournaledTable = new HashMap<String, HashMap<Integer, Long>>();
+        RecordBuffer recordBuffer = new RecordBuffer(RecordSize * 1024);
+        for (Entry<String, ConcurrentHashMap<Integer, Long>> entry : offsetTable.entrySet()) {
+            int keyId = newKeyIdTable.size();
+            HashMap<Integer, Long> journaled = new HashMap<Integer, Long>(entry.getValue());
+            newKeyIdTable.put(entry.getKey(), keyId);
+            newJournaledTable.put(entry.getKey(), journaled);
+            recordBuffer.putDefine(keyId, entry.getKey());
+            for (Entry<Integer, Long> queueOffset : journaled.entrySet()) {
+                recordBuffer.putRecord(TypeOffset, keyId, queueOffset.getKey(), queueOffset.getValue());
+            }
+        }
+
+        File tmpFile = new File(this.journalPath + ".tmp");
+        FileChannel tmpChannel = null;
+        try {
+            tmpChannel = new RandomAccessFile(tmpFile, "rw").getChannel();
+            tmpChannel.truncate(0);
+            ByteBuffer byteBuffer = recordBuffer.flip();
+            while (byteBuffer.hasRemaining()) {
+                tmpChannel.write(byteBuffer);
+            }
+            tmpChannel.force(true);
+            Files.move(tmpFile.toPath(), new File(this.journalPath).toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException e) {
+            log.error("compact consumer offset journal failed", e);
+            this.closeQuietly(tmpChannel);
+            this.needCompact = true;
+            return;
+        }
+
+        long oldSize = this.journalSize;
+        this.closeQuietly(this.fileChannel);
+        this.fileChannel = tmpChannel;
+        this.journalSize = recordBuffer.size();
+        this.keyIdTable = newKeyIdTable;
+        this.nextKeyId = newKeyIdTable.size();
+        this.journaledTable = newJournaledTable;
+        this.needCompact = false;
+        log.info("compact consumer offset journal from {} to {}", oldSize, this.journalSize);
+    }
+
+
+    /**
+     * 刷新修改时间，保证不比同时写入的json文件旧
+     */
+    public void shutdown() {
+        this.closeQuietly(this.fileChannel);
+        if (!new File(this.journalPath).setLastModified(System.currentTimeMillis())) {
+            log.warn("set consumer offset journal last modified failed");
+        }
+    }
+
+
+    private void closeQuietly(final FileChannel channel) {
+        if (channel != null) {
+            try {
+                channel.close();
+            }
+            catch (IOException e) {
+                log.warn("close consumer offset journal failed", e);
+            }
+        }
+    }
+
+    /**
+     * 在内存中攒一批记录，一次写入
+     */
+    private static class RecordBuffer {
+        private ByteBuffer byteBuffer;
+
+
+        public RecordBuffer(final int capacity) {
+            this.byteBuffer = ByteBuffer.allocate(capacity);
+        }
+
+
+        public void putRecord(final int type, final int keyId, final int queueId, final long offset) {
+            this.ensureRemaining(RecordSize);
+            int pos = this.byteBuffer.position();
+            this.byteBuffer.putInt(type);
+            this.byteBuffer.putInt(keyId);
+            this.byteBuffer.putInt(queueId);
+            this.byteBuffer.putLong(offset);
+            this.byteBuffer.putInt(UtilAll.crc32(this.byteBuffer.array(), pos, RecordSize - 4));
+        }
+
+
+        public void putDefine(final int keyId, final String key) {
+            byte[] keyBytes = key.getBytes(CHARSET_UTF8);
+            this.ensureRemaining(RecordSize + keyBytes.length);
+            int pos = this.byteBuffer.position();
+            this.byteBuffer.putInt(TypeDefine);
+            this.byteBuffer.putInt(keyId);
+            this.byteBuffer.putInt(keyBytes.length);
+            this.byteBuffer.putLong(0);
+            this.byteBuffer.put(keyBytes);
+            this.byteBuffer.putInt(UtilAll.crc32(this.byteBuffer.array(), pos, RecordSize - 4 + keyBytes.length));
+        }
+
+
+        private void ensureRemaining(final int size) {
+            if (this.byteBuffer.remaining() < size) {
+                int capacity = Math.max(this.byteBuffer.capacity() * 2, this.byteBuffer.position() + size);
+                ByteBuffer newBuffer = ByteBuffer.allocate(capacity);
+                this.byteBuffer.flip();
+                newBuffer.put(this.byteBuffer);
+                this.byteBuffer = newBuffer;
+            }
+        }
+
+
+        public int size() {
+            return this.byteBuffer.position();
+        }
+
+
+        public ByteBuffer flip() {
+            ByteBuffer result = this.byteBuffer.duplicate();
+            result.flip();
+            return result;
+        }
+    }
+}
@@ -24,6 +24,8 @@ import com.alibaba.rocketmq.remoting.protocol.RemotingSerializable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.*;
 import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
@@ -44,6 +46,9 @@ public class ConsumerOffsetManager extends ConfigManager {
 
     private transient BrokerController brokerController;
 
+    // 启用消费进度日志时，定时持久化只追加变化的消费进度
+    private transient ConsumerOffsetJournal offsetJournal;
+
 
     public ConsumerOffsetManager() {
     }
@@ -51,6 +56,66 @@ public class ConsumerOffsetManager extends ConfigManager {
 
     public ConsumerOffsetManager(BrokerController brokerController) {
         this.brokerController = brokerController;
+        if (brokerController.getBrokerConfig().isConsumerOffsetJournalEnable()) {
+            this.offsetJournal =
+                    new ConsumerOffsetJournal(BrokerPathConfigHelper.getConsumerOffsetJournalPath(brokerController
+                        .getMessageStoreConfig().getStorePathRootDir()));
+        }
+    }
+
+
+    /**
+     * 优先回放消费进度日志，日志不存在或者比json文件旧（期间未启用日志）时从json文件加载并重写日志
+     */
+    @Override
+    public boolean load() {
+        if (null == this.offsetJournal) {
+            return super.load();
+        }
+
+        boolean fromJson =
+                !this.offsetJournal.exists()
+                        || new File(this.configFilePath()).lastModified() > this.offsetJournal.lastModified();
+        try {
+            ConcurrentHashMap<String, ConcurrentHashMap<Integer, Long>> table = this.offsetJournal.load();
+            if (!fromJson) {
+                this.offsetTable = table;
+                return true;
+            }
+        }
+        catch (IOException e) {
+            log.error("load consumer offset journal failed", e);
+            return false;
+        }
+
+        boolean result = super.load();
+        if (result) {
+            this.offsetJournal.compact(this.offsetTable);
+        }
+        return result;
+    }
+
+
+    @Override
+    public synchronized void persist() {
+        if (null == this.offsetJournal) {
+            super.persist();
+        }
+        else {
+            this.offsetJournal.append(this.offsetTable);
+        }
+    }
+
+
+    /**
+     * 停止时额外写一次json文件，便于关闭日志或者回滚版本
+     */
+    public synchronized void shutdown() {
+        this.persist();
+        if (this.offsetJournal != null) {
+            super.persist();
+            this.offsetJournal.shutdown();
+        }
     }
 
 
@@ -135,6 +200,24 @@ public class ConsumerOffsetManager extends ConfigManager {
     }
 
 
+    /**
+     * 批量提交同一Topic下多个队列的消费进度，只构造一次key
+     */
+    public void commitOffsets(final String group, final String topic, final Map<Integer, Long> queueOffsets) {
+        // topic@group
+        String key = topic + TOPIC_GROUP_SEPARATOR + group;
+        ConcurrentHashMap<Integer, Long> map = this.offsetTable.get(key);
+        if (null == map) {
+            map = new ConcurrentHashMap<Integer, Long>(Math.max(32, queueOffsets.size() * 2));
+            map.putAll(queueOffsets);
+            this.offsetTable.put(key, map);
+        }
+        else {
+            map.putAll(queueOffsets);
+        }
+    }
+
+
     public long queryOffset(final String group, final String topic, final int queueId) {
         // topic@group
         String key = topic + TOPIC_GROUP_SEPARATOR + group;
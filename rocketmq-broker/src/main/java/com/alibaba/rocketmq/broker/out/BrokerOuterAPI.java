@@ -16,7 +16,10 @@
 package com.alibaba.rocketmq.broker.out;
 
 import com.alibaba.rocketmq.client.exception.MQBrokerException;
+import com.alibaba.rocketmq.common.DataVersion;
 import com.alibaba.rocketmq.common.MixAll;
+import com.alibaba.rocketmq.common.ThreadFactoryImpl;
+import com.alibaba.rocketmq.common.UtilAll;
 import com.alibaba.rocketmq.common.constant.LoggerName;
 import com.alibaba.rocketmq.common.namesrv.RegisterBrokerResult;
 import com.alibaba.rocketmq.common.namesrv.TopAddressing;
@@ -41,6 +44,12 @@ import org.slf4j.LoggerFactory;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 
 /**
@@ -52,11 +61,18 @@ import java.util.List;
  */
 public class BrokerOuterAPI {
     private static final Logger log = LoggerFactory.getLogger(LoggerName.BrokerLoggerName);
+    // 注册时压缩Topic配置的级别
+    private static final int RegisterCompressLevel = 5;
     private final RemotingClient remotingClient;
     private final TopAddressing topAddressing = new TopAddressing(MixAll.WS_ADDR);
     private String nameSrvAddr = null;
     private final NettyClientConfig nettyClientConfig;
-
+    // 并行向各Name Server注册
+    private final ExecutorService registerExecutor = Executors.newFixedThreadPool(4, new ThreadFactoryImpl(
+        "BrokerRegisterThread_"));
+    // 支持增量注册的Name Server已经收到的Topic配置版本，版本没变时只发送版本号
+    private final ConcurrentHashMap<String/* namesrvAddr */, DataVersion> namesrvDataVersionTable =
+            new ConcurrentHashMap<String, DataVersion>();
 
     public BrokerOuterAPI(final NettyClientConfig nettyClientConfig, RPCHook rpcHook) {
         this.nettyClientConfig = nettyClientConfig;
@@ -77,6 +93,7 @@ public class BrokerOuterAPI {
 
     public void shutdown() {
         this.remotingClient.shutdown();
+        this.registerExecutor.shutdown();
     }
 
 
@@ -108,15 +125,16 @@ public class BrokerOuterAPI {
     }
 
 
-    private RegisterBrokerResult registerBroker(//
+    RegisterBrokerResult registerBroker(//
             final String namesrvAddr,//
             final String clusterName,// 1
             final String brokerAddr,// 2
             final String brokerName,// 3
             final long brokerId,// 4
             final String haServerAddr,// 5
-            final TopicConfigSerializeWrapper topicConfigWrapper, // 6
-            final List<String> filterServerList // 7
+            final byte[] body, // 6
+            final boolean compressed, // 7
+            final boolean topicConfigOmitted // 8
     ) throws RemotingCommandException, MQBrokerException, RemotingConnectException,
             RemotingSendRequestException, RemotingTimeoutException, InterruptedException {
         RegisterBrokerRequestHeader requestHeader = new RegisterBrokerRequestHeader();
@@ -125,12 +143,10 @@ public class BrokerOuterAPI {
         requestHeader.setBrokerName(brokerName);
         requestHeader.setClusterName(clusterName);
         requestHeader.setHaServerAddr(haServerAddr);
+        requestHeader.setCompressed(compressed);
+        requestHeader.setTopicConfigOmitted(topicConfigOmitted);
         RemotingCommand request = RemotingCommand.createRequestCommand(RequestCode.REGISTER_BROKER, requestHeader);
-
-        RegisterBrokerBody requestBody = new RegisterBrokerBody();
-        requestBody.setTopicConfigSerializeWrapper(topicConfigWrapper);
-        requestBody.setFilterServerList(filterServerList);
-        request.setBody(requestBody.encode());
+        request.setBody(body);
 
         RemotingCommand response = this.remotingClient.invokeSync(namesrvAddr, request, nettyClientConfig.getIoTimeoutMillis());
         assert response != null;
@@ -142,6 +158,9 @@ public class BrokerOuterAPI {
             RegisterBrokerResult result = new RegisterBrokerResult();
             result.setMasterAddr(responseHeader.getMasterAddr());
             result.setHaServerAddr(responseHeader.getHaServerAddr());
+            result.setIncrementalRegisterSupported(Boolean.TRUE.equals(responseHeader
+                .getIncrementalRegisterSupported()));
+            result.setTopicConfigRequired(Boolean.TRUE.equals(responseHeader.getTopicConfigRequired()));
             if (response.getBody() != null) {
                 result.setKvTable(KVTable.decode(response.getBody(), KVTable.class));
             }
@@ -155,6 +174,62 @@ public class BrokerOuterAPI {
     }
 
 
+    /**
+     * 向一个Name Server注册<br>
+     * 1. 不支持增量注册或者第一次注册的Name Server，发送不压缩的全量配置<br>
+     * 2. 已经收到当前版本的Name Server，只发送版本号和Filter Server列表<br>
+     * 3. 版本变化或者Name Server要求时，发送压缩后的全量配置
+     */
+    RegisterBrokerResult registerBrokerIncrementally(//
+            final String namesrvAddr,//
+            final String clusterName,// 1
+            final String brokerAddr,// 2
+            final String brokerName,// 3
+            final long brokerId,// 4
+            final String haServerAddr,// 5
+            final RegisterBodyCache bodyCache// 6
+    ) throws RemotingCommandException, MQBrokerException, RemotingConnectException,
+            RemotingSendRequestException, RemotingTimeoutException, InterruptedException {
+        DataVersion registered = this.namesrvDataVersionTable.get(namesrvAddr);
+        boolean omitted = registered != null && registered.equals(bodyCache.getDataVersion());
+        byte[] body = omitted ? bodyCache.getHeartbeatBody() : null;
+        if (!omitted && registered != null) {
+            body = bodyCache.getCompressedBody();
+        }
+
+        RegisterBrokerResult result = null;
+        if (body != null) {
+            result = this.registerBroker(namesrvAddr, clusterName, brokerAddr, brokerName, brokerId,
+                haServerAddr, body, !omitted, omitted);
+            // Name Server重启等原因没有当前版本的配置，立即补发全量配置
+            if (omitted && result.isTopicConfigRequired()) {
+                omitted = false;
+                body = bodyCache.getCompressedBody();
+                result = null;
+                if (body != null) {
+                    result = this.registerBroker(namesrvAddr, clusterName, brokerAddr, brokerName, brokerId,
+                        haServerAddr, body, true, false);
+                }
+            }
+        }
+
+        // 压缩失败时也走这里
+        if (null == result) {
+            result = this.registerBroker(namesrvAddr, clusterName, brokerAddr, brokerName, brokerId,
+                haServerAddr, bodyCache.getFullBody(), false, false);
+        }
+
+        if (!result.isIncrementalRegisterSupported()) {
+            this.namesrvDataVersionTable.remove(namesrvAddr);
+        }
+        else if (!omitted) {
+            this.namesrvDataVersionTable.put(namesrvAddr, bodyCache.getDataVersion());
+        }
+
+        return result;
+    }
+
+
     public RegisterBrokerResult registerBrokerAll(//
             final String clusterName,// 1
             final String brokerAddr,// 2
@@ -164,27 +239,120 @@ public class BrokerOuterAPI {
             final TopicConfigSerializeWrapper topicConfigWrapper,// 6
             final List<String> filterServerList // 7
     ) {
-        RegisterBrokerResult registerBrokerResult = null;
+        final AtomicReference<RegisterBrokerResult> registerBrokerResult =
+                new AtomicReference<RegisterBrokerResult>();
 
         List<String> nameServerAddressList = this.remotingClient.getNameServerAddressList();
-        if (nameServerAddressList != null) {
-            for (String namesrvAddr : nameServerAddressList) {
-                try {
-                    RegisterBrokerResult result = registerBroker(namesrvAddr, clusterName, brokerAddr, brokerName,
-                            brokerId, haServerAddr, topicConfigWrapper, filterServerList);
-                    if (result != null) {
-                        registerBrokerResult = result;
+        if (nameServerAddressList != null && !nameServerAddressList.isEmpty()) {
+            final RegisterBodyCache bodyCache = new RegisterBodyCache(topicConfigWrapper, filterServerList);
+            final CountDownLatch countDownLatch = new CountDownLatch(nameServerAddressList.size());
+            for (final String namesrvAddr : nameServerAddressList) {
+                this.registerExecutor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            RegisterBrokerResult result =
+                                    registerBrokerIncrementally(namesrvAddr, clusterName, brokerAddr,
+                                        brokerName, brokerId, haServerAddr, bodyCache);
+                            if (result != null) {
+                                registerBrokerResult.set(result);
+                            }
+
+                            log.info("register broker to name server {} OK", namesrvAddr);
+                        }
+                        catch (Exception e) {
+                            // 下次重新发送全量配置
+                            namesrvDataVersionTable.remove(namesrvAddr);
+                            log.warn("registerBroker Exception, " + namesrvAddr, e);
+                        }
+                        finally {
+                            countDownLatch.countDown();
+                        }
                     }
+                });
+            }
 
-                    log.info("register broker to name server {} OK", namesrvAddr);
+            try {
+                // 每个Name Server最多发送两次请求
+                if (!countDownLatch.await(this.nettyClientConfig.getIoTimeoutMillis() * 2, TimeUnit.MILLISECONDS)) {
+                    log.warn("register broker to name servers timeout, {}", nameServerAddressList);
+                }
+            }
+            catch (InterruptedException e) {
+                log.warn("register broker to name servers interrupted", e);
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        return registerBrokerResult.get();
+    }
+
+
+    /**
+     * 一次注册中各Name Server共用的请求Body，需要时才序列化，每种只序列化一次
+     */
+    static class RegisterBodyCache {
+        private final TopicConfigSerializeWrapper topicConfigWrapper;
+        private final List<String> filterServerList;
+        // 注册开始时的版本快照，TopicConfigManager会原地修改版本号
+        private final DataVersion dataVersion = new DataVersion();
+        private byte[] fullBody;
+        private byte[] compressedBody;
+        private boolean compressFailed = false;
+        private byte[] heartbeatBody;
+
+
+        RegisterBodyCache(TopicConfigSerializeWrapper topicConfigWrapper, List<String> filterServerList) {
+            this.topicConfigWrapper = topicConfigWrapper;
+            this.filterServerList = filterServerList;
+            this.dataVersion.assignNewOne(topicConfigWrapper.getDataVersion());
+        }
+
+
+        DataVersion getDataVersion() {
+            return dataVersion;
+        }
+
+
+        synchronized byte[] getFullBody() {
+            if (null == this.fullBody) {
+                RegisterBrokerBody requestBody = new RegisterBrokerBody();
+                requestBody.setTopicConfigSerializeWrapper(this.topicConfigWrapper);
+                requestBody.setFilterServerList(this.filterServerList);
+                this.fullBody = requestBody.encode();
+            }
+            return this.fullBody;
+        }
+
+
+        /**
+         * @return 压缩失败时返回null
+         */
+        synchronized byte[] getCompressedBody() {
+            if (null == this.compressedBody && !this.compressFailed) {
+                try {
+                    this.compressedBody = UtilAll.compress(this.getFullBody(), RegisterCompressLevel);
                 }
                 catch (Exception e) {
-                    log.warn("registerBroker Exception, " + namesrvAddr, e);
+                    this.compressFailed = true;
+                    log.warn("compress register broker body failed", e);
                 }
             }
+            return this.compressedBody;
         }
 
-        return registerBrokerResult;
+
+        synchronized byte[] getHeartbeatBody() {
+            if (null == this.heartbeatBody) {
+                TopicConfigSerializeWrapper wrapper = new TopicConfigSerializeWrapper();
+                wrapper.setDataVersion(this.dataVersion);
+                RegisterBrokerBody requestBody = new RegisterBrokerBody();
+                requestBody.setTopicConfigSerializeWrapper(wrapper);
+                requestBody.setFilterServerList(this.filterServerList);
+                this.heartbeatBody = requestBody.encode();
+            }
+            return this.heartbeatBody;
+        }
     }
 
 
@@ -26,6 +26,7 @@ import com.alibaba.rocketmq.common.constant.LoggerName;
 import com.alibaba.rocketmq.common.constant.PermName;
 import com.alibaba.rocketmq.common.protocol.RequestCode;
 import com.alibaba.rocketmq.common.protocol.ResponseCode;
+import com.alibaba.rocketmq.common.protocol.body.UpdateConsumerOffsetBatchBody;
 import com.alibaba.rocketmq.common.protocol.header.*;
 import com.alibaba.rocketmq.common.protocol.heartbeat.ConsumerData;
 import com.alibaba.rocketmq.common.protocol.heartbeat.HeartbeatData;
@@ -76,6 +77,8 @@ public class ClientManageProcessor implements NettyRequestProcessor {
             // 更新Consumer Offset
         case RequestCode.UPDATE_CONSUMER_OFFSET:
             return this.updateConsumerOffset(ctx, request);
+        case RequestCode.UPDATE_CONSUMER_OFFSET_BATCH:
+            return this.updateConsumerOffsetBatch(ctx, request);
         case RequestCode.QUERY_CONSUMER_OFFSET:
             return this.queryConsumerOffset(ctx, request);
         default:
@@ -124,24 +127,8 @@ public class ClientManageProcessor implements NettyRequestProcessor {
 
         // 消息轨迹：记录已经消费成功并提交 offset 的消息记录
         if (this.hasConsumeMessageHook()) {
-            // 执行hook
-            ConsumeMessageContext context = new ConsumeMessageContext();
-            context.setConsumerGroup(requestHeader.getConsumerGroup());
-            context.setTopic(requestHeader.getTopic());
-            context.setClientHost(RemotingHelper.parseChannelRemoteAddr(ctx.channel()));
-            context.setSuccess(true);
-            context.setStatus(ConsumeConcurrentlyStatus.CONSUME_SUCCESS.toString());
-            final SocketAddress storeHost = new InetSocketAddress(brokerController.getBrokerConfig().getBrokerIP1(),
-                    brokerController.getNettyServerConfig().getListenPort());
-
-            long preOffset = this.brokerController.getConsumerOffsetManager().queryOffset(
-                        requestHeader.getConsumerGroup(), requestHeader.getTopic(),
-                        requestHeader.getQueueId());
-            Map<String, Long> messageIds = this.brokerController.getMessageStore()
-                    .getMessageIds(requestHeader.getTopic(), requestHeader.getQueueId(), preOffset,
-                            requestHeader.getCommitOffset(), storeHost);
-            context.setMessageIds(messageIds);
-            this.executeConsumeMessageHookAfter(context);
+            this.executeCommitOffsetHook(ctx, requestHeader.getConsumerGroup(), requestHeader.getTopic(),
+                requestHeader.getQueueId(), requestHeader.getCommitOffset());
         }
         this.brokerController.getConsumerOffsetManager().commitOffset(requestHeader.getConsumerGroup(),
             requestHeader.getTopic(), requestHeader.getQueueId(), requestHeader.getCommitOffset());
@@ -151,6 +138,55 @@ public class ClientManageProcessor implements NettyRequestProcessor {
     }
 
 
+    private RemotingCommand updateConsumerOffsetBatch(ChannelHandlerContext ctx, RemotingCommand request)
+            throws RemotingCommandException {
+        final RemotingCommand response = RemotingCommand.createResponseCommand(null);
+        if (null == request.getBody()) {
+            response.setCode(ResponseCode.SYSTEM_ERROR);
+            response.setRemark("the request body is null");
+            return response;
+        }
+
+        final UpdateConsumerOffsetBatchBody requestBody = UpdateConsumerOffsetBatchBody.decode(request.getBody());
+        final String group = requestBody.getConsumerGroup();
+        for (Map.Entry<String, Map<Integer, Long>> entry : requestBody.getOffsetTable().entrySet()) {
+            // 消息轨迹：记录已经消费成功并提交 offset 的消息记录
+            if (this.hasConsumeMessageHook()) {
+                for (Map.Entry<Integer, Long> queueOffset : entry.getValue().entrySet()) {
+                    this.executeCommitOffsetHook(ctx, group, entry.getKey(), queueOffset.getKey(),
+                        queueOffset.getValue());
+                }
+            }
+            this.brokerController.getConsumerOffsetManager().commitOffsets(group, entry.getKey(),
+                entry.getValue());
+        }
+
+        response.setCode(ResponseCode.SUCCESS);
+        response.setRemark(null);
+        return response;
+    }
+
+
+    private void executeCommitOffsetHook(final ChannelHandlerContext ctx, final String group, final String topic,
+            final int queueId, final long commitOffset) {
+        // 执行hook
+        ConsumeMessageContext context = new ConsumeMessageContext();
+        context.setConsumerGroup(group);
+        context.setTopic(topic);
+        context.setClientHost(RemotingHelper.parseChannelRemoteAddr(ctx.channel()));
+        context.setSuccess(true);
+        context.setStatus(ConsumeConcurrentlyStatus.CONSUME_SUCCESS.toString());
+        final SocketAddress storeHost = new InetSocketAddress(brokerController.getBrokerConfig().getBrokerIP1(),
+                brokerController.getNettyServerConfig().getListenPort());
+
+        long preOffset = this.brokerController.getConsumerOffsetManager().queryOffset(group, topic, queueId);
+        Map<String, Long> messageIds = this.brokerController.getMessageStore()
+                .getMessageIds(topic, queueId, preOffset, commitOffset, storeHost);
+        context.setMessageIds(messageIds);
+        this.executeConsumeMessageHookAfter(context);
+    }
+
+
     private RemotingCommand queryConsumerOffset(ChannelHandlerContext ctx, RemotingCommand request)
             throws RemotingCommandException {
         final RemotingCommand response =
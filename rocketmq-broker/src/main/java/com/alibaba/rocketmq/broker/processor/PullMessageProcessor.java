@@ -92,6 +92,7 @@ public class PullMessageProcessor implements NettyRequestProcessor {
                     if (response != null) {
                         response.setOpaque(request.getOpaque());
                         response.markResponseType();
+                        response.setSerializeTypeCurrentRPC(request.getSerializeTypeCurrentRPC());
                         try {
                             channel.writeAndFlush(response).addListener(new ChannelFutureListener() {
                                 @Override
@@ -393,6 +394,8 @@ public class PullMessageProcessor implements NettyRequestProcessor {
                     this.brokerController.getBrokerStatsManager().incBrokerGetNums(
                             getMessageResult.getMessageCount());
 
+                    // 直接写FileRegion不经过NettyEncoder，Header序列化方式与请求一致
+                    response.setSerializeTypeCurrentRPC(request.getSerializeTypeCurrentRPC());
                     try {
                         FileRegion fileRegion =
                                 new ManyMessageTransfer(response.encodeHeader(getMessageResult
@@ -83,10 +83,19 @@ public class QueryMessageProcessor implements NettyRequestProcessor {
         // 由于使用sendfile，所以必须要设置
         response.setOpaque(request.getOpaque());
 
-        final QueryMessageResult queryMessageResult =
-                this.brokerController.getMessageStore().queryMessage(requestHeader.getTopic(),
+        final QueryMessageResult queryMessageResult;
+        if (requestHeader.getPropertyName() != null) {
+            queryMessageResult =
+                    this.brokerController.getMessageStore().queryMessageByProperty(requestHeader.getTopic(),
+                        requestHeader.getPropertyName(), requestHeader.getKey(), requestHeader.getMaxNum(),
+                        requestHeader.getBeginTimestamp(), requestHeader.getEndTimestamp());
+        }
+        else {
+            queryMessageResult =
+                    this.brokerController.getMessageStore().queryMessage(requestHeader.getTopic(),
                         requestHeader.getKey(), requestHeader.getMaxNum(), requestHeader.getBeginTimestamp(),
                         requestHeader.getEndTimestamp());
+        }
         assert queryMessageResult != null;
 
         responseHeader.setIndexLastUpdatePhyoffset(queryMessageResult.getIndexLastUpdatePhyOffset());
@@ -97,6 +106,8 @@ public class QueryMessageProcessor implements NettyRequestProcessor {
             response.setCode(ResponseCode.SUCCESS);
             response.setRemark(null);
 
+            // 直接写FileRegion不经过NettyEncoder，Header序列化方式与请求一致
+            response.setSerializeTypeCurrentRPC(request.getSerializeTypeCurrentRPC());
             try {
                 FileRegion fileRegion =
                         new QueryMessageTransfer(response.encodeHeader(queryMessageResult
@@ -119,7 +130,13 @@ public class QueryMessageProcessor implements NettyRequestProcessor {
         }
 
         response.setCode(ResponseCode.QUERY_NOT_FOUND);
-        response.setRemark("can not find message, maybe time range not correct");
+        if (requestHeader.getPropertyName() != null) {
+            response.setRemark("can not find message, maybe time range not correct or property "
+                    + requestHeader.getPropertyName() + " not indexed");
+        }
+        else {
+            response.setRemark("can not find message, maybe time range not correct");
+        }
         return response;
     }
 
@@ -139,6 +156,7 @@ public class QueryMessageProcessor implements NettyRequestProcessor {
             response.setCode(ResponseCode.SUCCESS);
             response.setRemark(null);
 
+            response.setSerializeTypeCurrentRPC(request.getSerializeTypeCurrentRPC());
             try {
                 FileRegion fileRegion =
                         new OneMessageTransfer(response.encodeHeader(selectMappedBufferResult.getSize()),
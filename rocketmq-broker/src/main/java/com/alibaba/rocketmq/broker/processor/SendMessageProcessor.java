@@ -28,12 +28,16 @@ import com.alibaba.rocketmq.common.UtilAll;
 import com.alibaba.rocketmq.common.constant.LoggerName;
 import com.alibaba.rocketmq.common.constant.PermName;
 import com.alibaba.rocketmq.common.help.FAQUrl;
+import com.alibaba.rocketmq.common.message.Message;
 import com.alibaba.rocketmq.common.message.MessageAccessor;
 import com.alibaba.rocketmq.common.message.MessageConst;
 import com.alibaba.rocketmq.common.message.MessageDecoder;
 import com.alibaba.rocketmq.common.message.MessageExt;
 import com.alibaba.rocketmq.common.protocol.RequestCode;
 import com.alibaba.rocketmq.common.protocol.ResponseCode;
+import com.alibaba.rocketmq.common.protocol.body.ConsumerSendMsgBackBatchRequestBody;
+import com.alibaba.rocketmq.common.protocol.body.ConsumerSendMsgBackBatchResponseBody;
+import com.alibaba.rocketmq.common.protocol.body.SendMsgBackEntry;
 import com.alibaba.rocketmq.common.protocol.header.ConsumerSendMsgBackRequestHeader;
 import com.alibaba.rocketmq.common.protocol.header.SendMessageRequestHeader;
 import com.alibaba.rocketmq.common.protocol.header.SendMessageRequestHeaderV2;
@@ -45,7 +49,10 @@ import com.alibaba.rocketmq.remoting.common.RemotingHelper;
 import com.alibaba.rocketmq.remoting.exception.RemotingCommandException;
 import com.alibaba.rocketmq.remoting.netty.NettyRequestProcessor;
 import com.alibaba.rocketmq.remoting.protocol.RemotingCommand;
+import com.alibaba.rocketmq.store.MessageExtBatch;
 import com.alibaba.rocketmq.store.MessageExtBrokerInner;
+import com.alibaba.rocketmq.store.PutMessageCallback;
+import com.alibaba.rocketmq.store.PutMessageFuture;
 import com.alibaba.rocketmq.store.PutMessageResult;
 import com.alibaba.rocketmq.store.config.StorePathConfigHelper;
 import io.netty.channel.ChannelHandlerContext;
@@ -54,10 +61,13 @@ import org.slf4j.LoggerFactory;
 
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 /**
@@ -89,6 +99,7 @@ public class SendMessageProcessor implements NettyRequestProcessor {
 
         switch (request.getCode()) {
             case RequestCode.SEND_MESSAGE_V2:
+            case RequestCode.SEND_BATCH_MESSAGE:
                 requestHeaderV2 = (SendMessageRequestHeaderV2)request
                         .decodeCommandCustomHeader(SendMessageRequestHeaderV2.class);
             case RequestCode.SEND_MESSAGE:
@@ -112,15 +123,22 @@ public class SendMessageProcessor implements NettyRequestProcessor {
                     this.executeSendMessageHookBefore(ctx, request, mqTraceContext);
                 }
 
-                final RemotingCommand response = this.sendMessage(ctx, request, mqTraceContext, requestHeader);
+                final RemotingCommand response;
+                if (RequestCode.SEND_BATCH_MESSAGE == request.getCode()) {
+                    response = this.sendBatchMessage(ctx, request, mqTraceContext, requestHeader);
+                } else {
+                    response = this.sendMessage(ctx, request, mqTraceContext, requestHeader);
+                }
 
-                // 消息轨迹：记录发送成功的消息
-                if (this.hasSendMessageHook()) {
+                // 消息轨迹：记录发送结果，异步写入的请求在写入完成后记录
+                if (response != null && this.hasSendMessageHook()) {
                     this.executeSendMessageHookAfter(response, mqTraceContext);
                 }
                 return response;
             case RequestCode.CONSUMER_SEND_MSG_BACK:
                 return this.consumerSendMsgBack(ctx, request);
+            case RequestCode.CONSUMER_SEND_MSG_BACK_BATCH:
+                return this.consumerSendMsgBackBatch(ctx, request);
             default:
                 break;
         }
@@ -137,29 +155,194 @@ public class SendMessageProcessor implements NettyRequestProcessor {
 
         // 消息轨迹：记录消费失败的消息
         if (this.hasConsumeMessageHook() && !UtilAll.isBlank(requestHeader.getOriginMsgId())) {
-            // 执行hook
-            ConsumeMessageContext context = new ConsumeMessageContext();
-            context.setConsumerGroup(requestHeader.getGroup());
-            context.setTopic(requestHeader.getOriginTopic());
-            context.setClientHost(RemotingHelper.parseChannelRemoteAddr(ctx.channel()));
-            context.setSuccess(false);
-            context.setStatus(ConsumeConcurrentlyStatus.RECONSUME_LATER.toString());
-
             Map<String, Long> messageIds = new HashMap<String, Long>();
             messageIds.put(requestHeader.getOriginMsgId(), requestHeader.getOffset());
-            context.setMessageIds(messageIds);
-            this.executeConsumeMessageHookAfter(context);
+            this.executeConsumeFailedHook(ctx, requestHeader.getGroup(), requestHeader.getOriginTopic(), messageIds);
+        }
+
+        SubscriptionGroupConfig subscriptionGroupConfig =
+                this.checkSendMsgBack(requestHeader.getGroup(), requestHeader.isUnitMode(), response);
+        if (null == subscriptionGroupConfig) {
+            return response;
+        }
+
+        // 如果重试队列数目为0，则直接丢弃消息
+        if (subscriptionGroupConfig.getRetryQueueNums() <= 0) {
+            response.setCode(ResponseCode.SUCCESS);
+            response.setRemark(null);
+            return response;
+        }
+
+        this.sendMsgBack(requestHeader.getGroup(), subscriptionGroupConfig, requestHeader.getOffset(),
+            requestHeader.getDelayLevel(), response);
+        return response;
+    }
+
+
+    /**
+     * 批量发回消费失败的消息，消费组与重试Topic只检查一次，应答Body中返回发回失败的消息<br>
+     * 所有消息异步写入，全部写入完成后才发送应答
+     */
+    private RemotingCommand consumerSendMsgBackBatch(final ChannelHandlerContext ctx, final RemotingCommand request)
+            throws RemotingCommandException {
+        final RemotingCommand response = RemotingCommand.createResponseCommand(null);
+        ConsumerSendMsgBackBatchRequestBody requestBody = null;
+        if (request.getBody() != null) {
+            requestBody =
+                    ConsumerSendMsgBackBatchRequestBody.decode(request.getBody(),
+                        ConsumerSendMsgBackBatchRequestBody.class);
+        }
+
+        if (null == requestBody || null == requestBody.getConsumerGroup() || null == requestBody.getEntries()
+                || requestBody.getEntries().contains(null)) {
+            response.setCode(ResponseCode.SYSTEM_ERROR);
+            response.setRemark("the send back batch request body is illegal");
+            return response;
         }
 
+        final String group = requestBody.getConsumerGroup();
+
+        // 消息轨迹：按Topic记录消费失败的消息
+        if (this.hasConsumeMessageHook()) {
+            Map<String, Map<String, Long>> messageIdsTable = new HashMap<String, Map<String, Long>>();
+            for (SendMsgBackEntry entry : requestBody.getEntries()) {
+                if (!UtilAll.isBlank(entry.getOriginMsgId())) {
+                    Map<String, Long> messageIds = messageIdsTable.get(entry.getOriginTopic());
+                    if (null == messageIds) {
+                        messageIds = new HashMap<String, Long>();
+                        messageIdsTable.put(entry.getOriginTopic(), messageIds);
+                    }
+                    messageIds.put(entry.getOriginMsgId(), entry.getOffset());
+                }
+            }
+
+            for (Map.Entry<String, Map<String, Long>> next : messageIdsTable.entrySet()) {
+                this.executeConsumeFailedHook(ctx, group, next.getKey(), next.getValue());
+            }
+        }
+
+        SubscriptionGroupConfig subscriptionGroupConfig =
+                this.checkSendMsgBack(group, requestBody.isUnitMode(), response);
+        if (null == subscriptionGroupConfig) {
+            return response;
+        }
+
+        final ConsumerSendMsgBackBatchResponseBody responseBody = new ConsumerSendMsgBackBatchResponseBody();
+        response.setCode(ResponseCode.SUCCESS);
+        response.setRemark(null);
+
+        // 如果重试队列数目为0，则直接丢弃消息
+        if (subscriptionGroupConfig.getRetryQueueNums() <= 0) {
+            response.setBody(responseBody.encode());
+            return response;
+        }
+
+        // 先构造所有要发回的消息，查询失败的直接记为失败
+        final List<MessageExtBrokerInner> msgInnerList =
+                new ArrayList<MessageExtBrokerInner>(requestBody.getEntries().size());
+        final List<Long> offsetList = new ArrayList<Long>(requestBody.getEntries().size());
+        final RemotingCommand entryResponse = RemotingCommand.createResponseCommand(null);
+        for (SendMsgBackEntry entry : requestBody.getEntries()) {
+            MessageExtBrokerInner msgInner =
+                    this.buildMsgBack(group, subscriptionGroupConfig, entry.getOffset(), entry.getDelayLevel(),
+                        entryResponse);
+            if (null == msgInner) {
+                log.warn("send back message failed, group: {} offset: {} {}", group, entry.getOffset(),
+                    entryResponse.getRemark());
+                responseBody.getFailedOffsets().add(entry.getOffset());
+            }
+            else {
+                msgInnerList.add(msgInner);
+                offsetList.add(entry.getOffset());
+            }
+        }
+
+        if (msgInnerList.isEmpty()) {
+            response.setBody(responseBody.encode());
+            return response;
+        }
+
+        // 由于应答异步发送，所以必须要设置
+        response.setOpaque(request.getOpaque());
+        final AtomicInteger remaining = new AtomicInteger(msgInnerList.size());
+        for (int i = 0; i < msgInnerList.size(); i++) {
+            final MessageExtBrokerInner msgInner = msgInnerList.get(i);
+            final long offset = offsetList.get(i);
+            this.asyncPutMessage(msgInner).addCallback(new PutMessageCallback() {
+                @Override
+                public void onComplete(PutMessageResult putMessageResult) {
+                    RemotingCommand putResponse = RemotingCommand.createResponseCommand(null);
+                    if (!handleMsgBackResult(group, msgInner, putMessageResult, putResponse)) {
+                        log.warn("send back message failed, group: {} offset: {} {}", group, offset,
+                            putResponse.getRemark());
+                        synchronized (responseBody) {
+                            responseBody.getFailedOffsets().add(offset);
+                        }
+                    }
+
+                    // 最后一条消息写入完成后发送应答
+                    if (remaining.decrementAndGet() == 0) {
+                        synchronized (responseBody) {
+                            response.setBody(responseBody.encode());
+                        }
+                        writeSendMsgBackBatchResponse(ctx, request, response);
+                    }
+                }
+            });
+        }
+
+        // 应答在写入完成后发送
+        return null;
+    }
+
+
+    /**
+     * 批量发回的消息全部写入后发送应答，在刷盘/HA线程或者请求线程中执行
+     */
+    void writeSendMsgBackBatchResponse(final ChannelHandlerContext ctx, final RemotingCommand request,
+            final RemotingCommand response) {
+        if (!request.isOnewayRPC()) {
+            response.setSerializeTypeCurrentRPC(request.getSerializeTypeCurrentRPC());
+            try {
+                ctx.writeAndFlush(response);
+            }
+            catch (Throwable e) {
+                log.error("SendMessageProcessor process send back batch request over, but response failed", e);
+                log.error(request.toString());
+                log.error(response.toString());
+            }
+        }
+    }
+
+
+    private void executeConsumeFailedHook(final ChannelHandlerContext ctx, final String group, final String topic,
+            final Map<String, Long> messageIds) {
+        ConsumeMessageContext context = new ConsumeMessageContext();
+        context.setConsumerGroup(group);
+        context.setTopic(topic);
+        context.setClientHost(RemotingHelper.parseChannelRemoteAddr(ctx.channel()));
+        context.setSuccess(false);
+        context.setStatus(ConsumeConcurrentlyStatus.RECONSUME_LATER.toString());
+        context.setMessageIds(messageIds);
+        this.executeConsumeMessageHookAfter(context);
+    }
+
+
+    /**
+     * 检查订阅组与Broker权限，并确保重试Topic存在
+     *
+     * @return 订阅组配置，检查失败返回null并设置应答
+     */
+    private SubscriptionGroupConfig checkSendMsgBack(final String group, final boolean unitMode,
+            final RemotingCommand response) {
         // 确保订阅组存在
         SubscriptionGroupConfig subscriptionGroupConfig =
-                this.brokerController.getSubscriptionGroupManager().findSubscriptionGroupConfig(
-                        requestHeader.getGroup());
+                this.brokerController.getSubscriptionGroupManager().findSubscriptionGroupConfig(group);
         if (null == subscriptionGroupConfig) {
             response.setCode(ResponseCode.SUBSCRIPTION_GROUP_NOT_EXIST);
-            response.setRemark("subscription group not exist, " + requestHeader.getGroup() + " "
+            response.setRemark("subscription group not exist, " + group + " "
                     + FAQUrl.suggestTodo(FAQUrl.SUBSCRIPTION_GROUP_NOT_EXIST));
-            return response;
+            return null;
         }
 
         // 检查Broker权限
@@ -167,23 +350,19 @@ public class SendMessageProcessor implements NettyRequestProcessor {
             response.setCode(ResponseCode.NO_PERMISSION);
             response.setRemark("the broker[" + this.brokerController.getBrokerConfig().getBrokerIP1()
                     + "] sending message is forbidden");
-            return response;
+            return null;
         }
 
-        // 如果重试队列数目为0，则直接丢弃消息
+        // 如果重试队列数目为0，由调用方丢弃消息
         if (subscriptionGroupConfig.getRetryQueueNums() <= 0) {
-            response.setCode(ResponseCode.SUCCESS);
-            response.setRemark(null);
-            return response;
+            return subscriptionGroupConfig;
         }
 
-        String newTopic = MixAll.getRetryTopic(requestHeader.getGroup());
-        int queueIdInt =
-                Math.abs(this.random.nextInt() % 99999999) % subscriptionGroupConfig.getRetryQueueNums();
+        String newTopic = MixAll.getRetryTopic(group);
 
         // 如果是单元化模式，则对 topic 进行设置
         int topicSysFlag = 0;
-        if (requestHeader.isUnitMode()) {
+        if (unitMode) {
             topicSysFlag = TopicSysFlag.buildSysFlag(false, true, false);
         }
 
@@ -196,24 +375,57 @@ public class SendMessageProcessor implements NettyRequestProcessor {
         if (null == topicConfig) {
             response.setCode(ResponseCode.SYSTEM_ERROR);
             response.setRemark("topic[" + newTopic + "] not exist");
-            return response;
+            return null;
         }
 
         // 检查topic权限
         if (!PermName.isWriteable(topicConfig.getPerm())) {
             response.setCode(ResponseCode.NO_PERMISSION);
             response.setRemark(String.format("the topic[%s] sending message is forbidden", newTopic));
-            return response;
+            return null;
         }
 
+        return subscriptionGroupConfig;
+    }
+
+
+    /**
+     * 将一条消费失败的消息写入重试队列或者死信队列
+     *
+     * @return 是否写入成功，失败原因设置在应答中
+     */
+    private boolean sendMsgBack(final String group, final SubscriptionGroupConfig subscriptionGroupConfig,
+            final long offset, final int requestDelayLevel, final RemotingCommand response) {
+        MessageExtBrokerInner msgInner =
+                this.buildMsgBack(group, subscriptionGroupConfig, offset, requestDelayLevel, response);
+        if (null == msgInner) {
+            return false;
+        }
+
+        PutMessageResult putMessageResult = this.brokerController.getMessageStore().putMessage(msgInner);
+        return this.handleMsgBackResult(group, msgInner, putMessageResult, response);
+    }
+
+
+    /**
+     * 查询消费失败的消息，构造写入重试队列或者死信队列的消息
+     *
+     * @return 构造失败返回null，失败原因设置在应答中
+     */
+    private MessageExtBrokerInner buildMsgBack(final String group,
+            final SubscriptionGroupConfig subscriptionGroupConfig, final long offset, final int requestDelayLevel,
+            final RemotingCommand response) {
+        String newTopic = MixAll.getRetryTopic(group);
+        int queueIdInt =
+                Math.abs(this.random.nextInt() % 99999999) % subscriptionGroupConfig.getRetryQueueNums();
+
         // 查询消息，这里如果堆积消息过多，会访问磁盘
         // 另外如果频繁调用，是否会引起gc问题，需要关注 TODO
-        MessageExt msgExt =
-                this.brokerController.getMessageStore().lookMessageByOffset(requestHeader.getOffset());
+        MessageExt msgExt = this.lookMessageByOffset(offset);
         if (null == msgExt) {
             response.setCode(ResponseCode.SYSTEM_ERROR);
-            response.setRemark("look message by offset failed, " + requestHeader.getOffset());
-            return response;
+            response.setRemark("look message by offset failed, " + offset);
+            return null;
         }
 
         // 构造消息
@@ -224,15 +436,15 @@ public class SendMessageProcessor implements NettyRequestProcessor {
         msgExt.setWaitStoreMsgOK(false);
 
         // 客户端自动决定定时级别
-        int delayLevel = requestHeader.getDelayLevel();
+        int delayLevel = requestDelayLevel;
 
         // 死信消息处理
         if (msgExt.getReconsumeTimes() >= subscriptionGroupConfig.getRetryMaxTimes()//
                 || delayLevel < 0) {
-            newTopic = MixAll.getDLQTopic(requestHeader.getGroup());
+            newTopic = MixAll.getDLQTopic(group);
             queueIdInt = Math.abs(this.random.nextInt() % 99999999) % DLQ_NUMS_PER_GROUP;
 
-            topicConfig =
+            TopicConfig topicConfig =
                     this.brokerController.getTopicConfigManager().createTopicInSendMessageBackMethod(
                             newTopic, //
                             DLQ_NUMS_PER_GROUP,//
@@ -241,7 +453,7 @@ public class SendMessageProcessor implements NettyRequestProcessor {
             if (null == topicConfig) {
                 response.setCode(ResponseCode.SYSTEM_ERROR);
                 response.setRemark("topic[" + newTopic + "] not exist");
-                return response;
+                return null;
             }
         }
         // 继续重试
@@ -272,37 +484,50 @@ public class SendMessageProcessor implements NettyRequestProcessor {
         String originMsgId = MessageAccessor.getOriginMessageId(msgExt);
         MessageAccessor.setOriginMessageId(msgInner, UtilAll.isBlank(originMsgId) ? msgExt.getMsgId()
                 : originMsgId);
+        return msgInner;
+    }
 
-        PutMessageResult putMessageResult = this.brokerController.getMessageStore().putMessage(msgInner);
+
+    /**
+     * 根据发回消息的写入结果设置应答，写入成功时统计发回次数
+     *
+     * @return 是否写入成功
+     */
+    private boolean handleMsgBackResult(final String group, final MessageExtBrokerInner msgInner,
+            final PutMessageResult putMessageResult, final RemotingCommand response) {
         if (putMessageResult != null) {
             switch (putMessageResult.getPutMessageStatus()) {
                 case PUT_OK:
-                    // 统计失败重试的Topic
-                    String backTopic = msgExt.getTopic();
-                    String correctTopic = msgExt.getProperty(MessageConst.PROPERTY_RETRY_TOPIC);
-                    if (correctTopic != null) {
-                        backTopic = correctTopic;
-                    }
-
-                    this.brokerController.getBrokerStatsManager().incSendBackNums(requestHeader.getGroup(),
-                            backTopic);
+                    // 统计失败重试的Topic，构造消息时已经设置了原始Topic
+                    String backTopic = msgInner.getProperty(MessageConst.PROPERTY_RETRY_TOPIC);
+                    this.brokerController.getBrokerStatsManager().incSendBackNums(group, backTopic);
 
                     response.setCode(ResponseCode.SUCCESS);
                     response.setRemark(null);
 
-                    return response;
+                    return true;
                 default:
                     break;
             }
 
             response.setCode(ResponseCode.SYSTEM_ERROR);
             response.setRemark(putMessageResult.getPutMessageStatus().name());
-            return response;
+            return false;
         }
 
         response.setCode(ResponseCode.SYSTEM_ERROR);
         response.setRemark("putMessageResult is null");
-        return response;
+        return false;
+    }
+
+
+    MessageExt lookMessageByOffset(final long offset) {
+        return this.brokerController.getMessageStore().lookMessageByOffset(offset);
+    }
+
+
+    PutMessageFuture asyncPutMessage(final MessageExtBrokerInner msgInner) {
+        return this.brokerController.getMessageStore().asyncPutMessage(msgInner);
     }
 
 
@@ -340,78 +565,14 @@ public class SendMessageProcessor implements NettyRequestProcessor {
             log.debug("receive SendMessage request command, " + request);
         }
 
-        // 检查Broker权限, 顺序消息禁写；非顺序消息通过 nameserver 通知客户端剔除禁写分区
-        if (!PermName.isWriteable(this.brokerController.getBrokerConfig().getBrokerPermission())
-                && this.brokerController.getTopicConfigManager().isOrderTopic(requestHeader.getTopic())) {
-            response.setCode(ResponseCode.NO_PERMISSION);
-            response.setRemark("the broker[" + this.brokerController.getBrokerConfig().getBrokerIP1()
-                    + "] sending message is forbidden");
+        final TopicConfig topicConfig = this.msgCheck(ctx, requestHeader, response);
+        if (null == topicConfig) {
             return response;
         }
 
         final byte[] body = request.getBody();
 
-        // Topic名字是否与保留字段冲突
-        if (!this.brokerController.getTopicConfigManager().isTopicCanSendMessage(requestHeader.getTopic())) {
-            String errorMsg = "the topic[" + requestHeader.getTopic() + "] is conflict with system reserved words.";
-            log.warn(errorMsg);
-            response.setCode(ResponseCode.SYSTEM_ERROR);
-            response.setRemark(errorMsg);
-            return response;
-        }
-
-        // 检查topic是否存在
-        TopicConfig topicConfig = this.brokerController.getTopicConfigManager()
-                .selectTopicConfig(requestHeader.getTopic());
-        if (null == topicConfig) {
-            // 如果是单元化模式，则对 topic 进行设置
-            int topicSysFlag = 0;
-            if (requestHeader.isUnitMode()) {
-                if (requestHeader.getTopic().startsWith(MixAll.RETRY_GROUP_TOPIC_PREFIX)) {
-                    topicSysFlag = TopicSysFlag.buildSysFlag(false, true, false);
-                } else {
-                    topicSysFlag = TopicSysFlag.buildSysFlag(true, false, false);
-                }
-            }
-
-            log.warn("the topic " + requestHeader.getTopic() + " not exist, producer: " + ctx.channel().remoteAddress());
-            topicConfig = this.brokerController.getTopicConfigManager().createTopicInSendMessageMethod(//
-                    requestHeader.getTopic(), //
-                    requestHeader.getDefaultTopic(), //
-                    RemotingHelper.parseChannelRemoteAddr(ctx.channel()), //
-                    requestHeader.getDefaultTopicQueueNums(), topicSysFlag);
-
-            // 尝试看下是否是失败消息发回
-            if (null == topicConfig) {
-                if (requestHeader.getTopic().startsWith(MixAll.RETRY_GROUP_TOPIC_PREFIX)) {
-                    topicConfig = this.brokerController.getTopicConfigManager().createTopicInSendMessageBackMethod(
-                            requestHeader.getTopic(), 1, PermName.PERM_WRITE | PermName.PERM_READ, topicSysFlag);
-                }
-            }
-
-            if (null == topicConfig) {
-                response.setCode(ResponseCode.TOPIC_NOT_EXIST);
-                response.setRemark("topic[" + requestHeader.getTopic() + "] not exist, apply first please!"
-                        + FAQUrl.suggestTodo(FAQUrl.APPLY_TOPIC_URL));
-                return response;
-            }
-        }
-
-        // 检查队列有效性
         int queueIdInt = requestHeader.getQueueId();
-        int idValid = Math.max(topicConfig.getWriteQueueNums(), topicConfig.getReadQueueNums());
-        if (queueIdInt >= idValid) {
-            String errorInfo = String.format("request queueId[%d] is illegal, %s Producer: %s",//
-                    queueIdInt,//
-                    topicConfig.toString(),//
-                    RemotingHelper.parseChannelRemoteAddr(ctx.channel()));
-
-            log.warn(errorInfo);
-            response.setCode(ResponseCode.SYSTEM_ERROR);
-            response.setRemark(errorInfo);
-
-            return response;
-        }
 
         // 随机指定一个队列
         if (queueIdInt < 0) {
@@ -424,7 +585,7 @@ public class SendMessageProcessor implements NettyRequestProcessor {
             sysFlag |= MessageSysFlag.MultiTagsFlag;
         }
 
-        MessageExtBrokerInner msgInner = new MessageExtBrokerInner();
+        final MessageExtBrokerInner msgInner = new MessageExtBrokerInner();
         msgInner.setTopic(requestHeader.getTopic());
         msgInner.setBody(body);
         msgInner.setFlag(requestHeader.getFlag());
@@ -461,98 +622,321 @@ public class SendMessageProcessor implements NettyRequestProcessor {
             }
         }
 
-        PutMessageResult putMessageResult = this.brokerController.getMessageStore().putMessage(msgInner);
-        if (putMessageResult != null) {
-            boolean sendOK = false;
-
-            switch (putMessageResult.getPutMessageStatus()) {
-                // Success
-                case PUT_OK:
-                    sendOK = true;
-                    response.setCode(ResponseCode.SUCCESS);
-                    break;
-                case FLUSH_DISK_TIMEOUT:
-                    response.setCode(ResponseCode.FLUSH_DISK_TIMEOUT);
-                    sendOK = true;
-                    break;
-                case FLUSH_SLAVE_TIMEOUT:
-                    response.setCode(ResponseCode.FLUSH_SLAVE_TIMEOUT);
-                    sendOK = true;
-                    break;
-                case SLAVE_NOT_AVAILABLE:
-                    response.setCode(ResponseCode.SLAVE_NOT_AVAILABLE);
-                    sendOK = true;
-                    break;
-
-                // Failed
-                case CREATE_MAPPED_FILE_FAILED:
-                    response.setCode(ResponseCode.SYSTEM_ERROR);
-                    response.setRemark("create mapped file failed, please make sure OS and JDK both 64bit.");
-                    break;
-                case MESSAGE_ILLEGAL:
-                    response.setCode(ResponseCode.MESSAGE_ILLEGAL);
-                    response.setRemark("the message is illegal, maybe length not matched.");
-                    break;
-                case SERVICE_NOT_AVAILABLE:
-                    response.setCode(ResponseCode.SERVICE_NOT_AVAILABLE);
-                    response.setRemark("service not available now, maybe disk full, " + diskUtil()
-                            + ", maybe your broker machine memory too small.");
-                    break;
-                case UNKNOWN_ERROR:
-                    response.setCode(ResponseCode.SYSTEM_ERROR);
-                    response.setRemark("UNKNOWN_ERROR");
-                    break;
-                default:
+        final int queueId = queueIdInt;
+        PutMessageFuture putMessageFuture = this.brokerController.getMessageStore().asyncPutMessage(msgInner);
+        putMessageFuture.addCallback(new PutMessageCallback() {
+            @Override
+            public void onComplete(PutMessageResult putMessageResult) {
+                if (putMessageResult != null) {
+                    boolean sendOK = handlePutMessageStatus(putMessageResult, response);
+
+                    if (sendOK) {
+                        // 统计
+                        brokerController.getBrokerStatsManager().incTopicPutNums(msgInner.getTopic());
+                        brokerController.getBrokerStatsManager().incTopicPutSize(msgInner.getTopic(),
+                                putMessageResult.getAppendMessageResult().getWroteBytes());
+                        brokerController.getBrokerStatsManager().incBrokerPutNums();
+
+                        response.setRemark(null);
+
+                        responseHeader.setMsgId(putMessageResult.getAppendMessageResult().getMsgId());
+                        responseHeader.setKeys(msgInner.getKeys());
+                        responseHeader.setQueueId(queueId);
+                        responseHeader.setQueueOffset(putMessageResult.getAppendMessageResult().getLogicOffset());
+                    }
+                } else {
                     response.setCode(ResponseCode.SYSTEM_ERROR);
-                    response.setRemark("UNKNOWN_ERROR DEFAULT");
-                    break;
+                    response.setRemark("store putMessage return null");
+                }
+
+                writeResponse(ctx, request, response, mqtraceContext);
             }
+        });
+
+        // 应答在写入完成后发送
+        return null;
+    }
+
+
+    /**
+     * 批量发送消息，请求Body是同一Topic的多条消息，全部写入同一队列，逻辑队列offset连续
+     */
+    private RemotingCommand sendBatchMessage(final ChannelHandlerContext ctx, //
+                                             final RemotingCommand request,//
+                                             final SendMessageContext mqtraceContext,//
+                                             final SendMessageRequestHeader requestHeader) throws RemotingCommandException {
+
+        final RemotingCommand response =
+                RemotingCommand.createResponseCommand(SendMessageResponseHeader.class);
+        final SendMessageResponseHeader responseHeader = (SendMessageResponseHeader) response.readCustomHeader();
+
+        // 由于有直接返回的逻辑，所以必须要设置
+        response.setOpaque(request.getOpaque());
+
+        if (log.isDebugEnabled()) {
+            log.debug("receive SendBatchMessage request command, " + request);
+        }
+
+        final TopicConfig topicConfig = this.msgCheck(ctx, requestHeader, response);
+        if (null == topicConfig) {
+            return response;
+        }
+
+        // 重试消息需要逐条处理重试次数，不支持批量
+        if (requestHeader.getTopic().startsWith(MixAll.RETRY_GROUP_TOPIC_PREFIX)) {
+            response.setCode(ResponseCode.MESSAGE_ILLEGAL);
+            response.setRemark("batch request does not support retry group " + requestHeader.getTopic());
+            return response;
+        }
 
-            if (sendOK) {
-                // 统计
-                this.brokerController.getBrokerStatsManager().incTopicPutNums(msgInner.getTopic());
-                this.brokerController.getBrokerStatsManager().incTopicPutSize(msgInner.getTopic(),
-                        putMessageResult.getAppendMessageResult().getWroteBytes());
-                this.brokerController.getBrokerStatsManager().incBrokerPutNums();
-
-                response.setRemark(null);
-
-                responseHeader.setMsgId(putMessageResult.getAppendMessageResult().getMsgId());
-                responseHeader.setKeys(msgInner.getKeys());
-                responseHeader.setQueueId(queueIdInt);
-                responseHeader.setQueueOffset(putMessageResult.getAppendMessageResult().getLogicOffset());
-
-                // 直接返回
-                if (!request.isOnewayRPC()) {
-                    try {
-                        ctx.writeAndFlush(response);
-                    } catch (Throwable e) {
-                        log.error("SendMessageProcessor process request over, but response failed", e);
-                        log.error(request.toString());
-                        log.error(response.toString());
+        int queueIdInt = requestHeader.getQueueId();
+
+        // 随机指定一个队列
+        if (queueIdInt < 0) {
+            queueIdInt = Math.abs(this.random.nextInt() % 99999999) % topicConfig.getWriteQueueNums();
+        }
+
+        int sysFlag = requestHeader.getSysFlag();
+        // 多标签过滤需要置位
+        if (TopicFilterType.MULTI_TAG == topicConfig.getTopicFilterType()) {
+            sysFlag |= MessageSysFlag.MultiTagsFlag;
+        }
+
+        final byte[] body = request.getBody();
+        List<Message> messages = null;
+        try {
+            messages = MessageDecoder.decodeMessages(ByteBuffer.wrap(body));
+        } catch (Exception e) {
+            log.warn("decode batch message failed, producer: " + RemotingHelper.parseChannelRemoteAddr(ctx.channel()), e);
+        }
+
+        if (null == messages || messages.isEmpty()) {
+            response.setCode(ResponseCode.MESSAGE_ILLEGAL);
+            response.setRemark("the batch message body is illegal");
+            return response;
+        }
+
+        final SocketAddress bornHost = ctx.channel().remoteAddress();
+        final Map<String, String> batchProperties = MessageDecoder.string2messageProperties(requestHeader.getProperties());
+        List<MessageExtBrokerInner> msgInners = new ArrayList<MessageExtBrokerInner>(messages.size());
+        for (Message message : messages) {
+            MessageExtBrokerInner msgInner = new MessageExtBrokerInner();
+            msgInner.setTopic(requestHeader.getTopic());
+            msgInner.setBody(message.getBody());
+            msgInner.setFlag(message.getFlag());
+            MessageAccessor.setProperties(msgInner, message.getProperties());
+            msgInner.setPropertiesString(MessageDecoder.messageProperties2String(message.getProperties()));
+            msgInner.setTagsCode(MessageExtBrokerInner.tagsString2tagsCode(topicConfig.getTopicFilterType(), msgInner.getTags()));
+
+            msgInner.setQueueId(queueIdInt);
+            msgInner.setSysFlag(sysFlag);
+            msgInner.setBornTimestamp(requestHeader.getBornTimestamp());
+            msgInner.setBornHost(bornHost);
+            msgInner.setStoreHost(this.getStoreHost());
+            msgInner.setReconsumeTimes(0);
+            msgInners.add(msgInner);
+        }
+
+        MessageExtBatch messageExtBatch = new MessageExtBatch(msgInners);
+        messageExtBatch.setTopic(requestHeader.getTopic());
+        messageExtBatch.setQueueId(queueIdInt);
+        messageExtBatch.setSysFlag(sysFlag);
+        MessageAccessor.setProperties(messageExtBatch, batchProperties);
+        messageExtBatch.setBornTimestamp(requestHeader.getBornTimestamp());
+        messageExtBatch.setBornHost(bornHost);
+        messageExtBatch.setStoreHost(this.getStoreHost());
+
+        final int queueId = queueIdInt;
+        PutMessageFuture putMessageFuture = this.brokerController.getMessageStore().asyncPutMessages(messageExtBatch);
+        putMessageFuture.addCallback(new PutMessageCallback() {
+            @Override
+            public void onComplete(PutMessageResult putMessageResult) {
+                if (putMessageResult != null) {
+                    boolean sendOK = handlePutMessageStatus(putMessageResult, response);
+
+                    if (sendOK) {
+                        final int msgNum = putMessageResult.getAppendMessageResult().getMsgNum();
+
+                        // 统计
+                        brokerController.getBrokerStatsManager().incTopicPutNums(requestHeader.getTopic(), msgNum, 1);
+                        brokerController.getBrokerStatsManager().incTopicPutSize(requestHeader.getTopic(),
+                                putMessageResult.getAppendMessageResult().getWroteBytes());
+                        brokerController.getBrokerStatsManager().incBrokerPutNums(msgNum);
+
+                        response.setRemark(null);
+
+                        // 多条消息的ID以逗号分隔，queueOffset为批次中第一条消息的位置
+                        responseHeader.setMsgId(putMessageResult.getAppendMessageResult().getMsgId());
+                        responseHeader.setQueueId(queueId);
+                        responseHeader.setQueueOffset(putMessageResult.getAppendMessageResult().getLogicOffset());
                     }
+                } else {
+                    response.setCode(ResponseCode.SYSTEM_ERROR);
+                    response.setRemark("store putMessages return null");
                 }
 
-                if (this.brokerController.getBrokerConfig().isLongPollingEnable()) {
-                    this.brokerController.getPullRequestHoldService().notifyMessageArriving(
-                            requestHeader.getTopic(), queueIdInt,
-                            putMessageResult.getAppendMessageResult().getLogicOffset() + 1);
+                writeResponse(ctx, request, response, mqtraceContext);
+            }
+        });
+
+        // 应答在写入完成后发送
+        return null;
+    }
+
+
+    /**
+     * 写入完成后发送应答并记录消息轨迹，在刷盘/HA线程或者请求线程中执行
+     */
+    private void writeResponse(final ChannelHandlerContext ctx, final RemotingCommand request,
+                               final RemotingCommand response, final SendMessageContext mqtraceContext) {
+        if (!request.isOnewayRPC()) {
+            response.setSerializeTypeCurrentRPC(request.getSerializeTypeCurrentRPC());
+            try {
+                ctx.writeAndFlush(response);
+            } catch (Throwable e) {
+                log.error("SendMessageProcessor process request over, but response failed", e);
+                log.error(request.toString());
+                log.error(response.toString());
+            }
+        }
+
+        // 消息轨迹：记录发送结果
+        if (hasSendMessageHook()) {
+            executeSendMessageHookAfter(response, mqtraceContext);
+        }
+    }
+
+
+    /**
+     * 根据存储结果设置应答码，返回消息是否已经写入
+     */
+    private boolean handlePutMessageStatus(final PutMessageResult putMessageResult, final RemotingCommand response) {
+        boolean sendOK = false;
+
+        switch (putMessageResult.getPutMessageStatus()) {
+            // Success
+            case PUT_OK:
+                sendOK = true;
+                response.setCode(ResponseCode.SUCCESS);
+                break;
+            case FLUSH_DISK_TIMEOUT:
+                response.setCode(ResponseCode.FLUSH_DISK_TIMEOUT);
+                sendOK = true;
+                break;
+            case FLUSH_SLAVE_TIMEOUT:
+                response.setCode(ResponseCode.FLUSH_SLAVE_TIMEOUT);
+                sendOK = true;
+                break;
+            case SLAVE_NOT_AVAILABLE:
+                response.setCode(ResponseCode.SLAVE_NOT_AVAILABLE);
+                sendOK = true;
+                break;
+
+            // Failed
+            case CREATE_MAPPED_FILE_FAILED:
+                response.setCode(ResponseCode.SYSTEM_ERROR);
+                response.setRemark("create mapped file failed, please make sure OS and JDK both 64bit.");
+                break;
+            case MESSAGE_ILLEGAL:
+                response.setCode(ResponseCode.MESSAGE_ILLEGAL);
+                response.setRemark("the message is illegal, maybe length not matched.");
+                break;
+            case SERVICE_NOT_AVAILABLE:
+                response.setCode(ResponseCode.SERVICE_NOT_AVAILABLE);
+                response.setRemark("service not available now, maybe disk full, " + diskUtil()
+                        + ", maybe your broker machine memory too small.");
+                break;
+            case UNKNOWN_ERROR:
+                response.setCode(ResponseCode.SYSTEM_ERROR);
+                response.setRemark("UNKNOWN_ERROR");
+                break;
+            default:
+                response.setCode(ResponseCode.SYSTEM_ERROR);
+                response.setRemark("UNKNOWN_ERROR DEFAULT");
+                break;
+        }
+
+        return sendOK;
+    }
+
+
+    /**
+     * 发送消息的公共检查：Broker权限、Topic合法性、队列有效性，检查不通过时填充response并返回null
+     */
+    private TopicConfig msgCheck(final ChannelHandlerContext ctx, final SendMessageRequestHeader requestHeader,
+                                 final RemotingCommand response) {
+        // 检查Broker权限, 顺序消息禁写；非顺序消息通过 nameserver 通知客户端剔除禁写分区
+        if (!PermName.isWriteable(this.brokerController.getBrokerConfig().getBrokerPermission())
+                && this.brokerController.getTopicConfigManager().isOrderTopic(requestHeader.getTopic())) {
+            response.setCode(ResponseCode.NO_PERMISSION);
+            response.setRemark("the broker[" + this.brokerController.getBrokerConfig().getBrokerIP1()
+                    + "] sending message is forbidden");
+            return null;
+        }
+
+        // Topic名字是否与保留字段冲突
+        if (!this.brokerController.getTopicConfigManager().isTopicCanSendMessage(requestHeader.getTopic())) {
+            String errorMsg = "the topic[" + requestHeader.getTopic() + "] is conflict with system reserved words.";
+            log.warn(errorMsg);
+            response.setCode(ResponseCode.SYSTEM_ERROR);
+            response.setRemark(errorMsg);
+            return null;
+        }
+
+        // 检查topic是否存在
+        TopicConfig topicConfig = this.brokerController.getTopicConfigManager()
+                .selectTopicConfig(requestHeader.getTopic());
+        if (null == topicConfig) {
+            // 如果是单元化模式，则对 topic 进行设置
+            int topicSysFlag = 0;
+            if (requestHeader.isUnitMode()) {
+                if (requestHeader.getTopic().startsWith(MixAll.RETRY_GROUP_TOPIC_PREFIX)) {
+                    topicSysFlag = TopicSysFlag.buildSysFlag(false, true, false);
+                } else {
+                    topicSysFlag = TopicSysFlag.buildSysFlag(true, false, false);
                 }
+            }
 
-                // 消息轨迹：记录发送成功的消息
-                if (hasSendMessageHook()) {
-                    mqtraceContext.setMsgId(responseHeader.getMsgId());
-                    mqtraceContext.setQueueId(responseHeader.getQueueId());
-                    mqtraceContext.setQueueOffset(responseHeader.getQueueOffset());
+            log.warn("the topic " + requestHeader.getTopic() + " not exist, producer: " + ctx.channel().remoteAddress());
+            topicConfig = this.brokerController.getTopicConfigManager().createTopicInSendMessageMethod(//
+                    requestHeader.getTopic(), //
+                    requestHeader.getDefaultTopic(), //
+                    RemotingHelper.parseChannelRemoteAddr(ctx.channel()), //
+                    requestHeader.getDefaultTopicQueueNums(), topicSysFlag);
+
+            // 尝试看下是否是失败消息发回
+            if (null == topicConfig) {
+                if (requestHeader.getTopic().startsWith(MixAll.RETRY_GROUP_TOPIC_PREFIX)) {
+                    topicConfig = this.brokerController.getTopicConfigManager().createTopicInSendMessageBackMethod(
+                            requestHeader.getTopic(), 1, PermName.PERM_WRITE | PermName.PERM_READ, topicSysFlag);
                 }
+            }
+
+            if (null == topicConfig) {
+                response.setCode(ResponseCode.TOPIC_NOT_EXIST);
+                response.setRemark("topic[" + requestHeader.getTopic() + "] not exist, apply first please!"
+                        + FAQUrl.suggestTodo(FAQUrl.APPLY_TOPIC_URL));
                 return null;
             }
-        } else {
+        }
+
+        // 检查队列有效性
+        int queueIdInt = requestHeader.getQueueId();
+        int idValid = Math.max(topicConfig.getWriteQueueNums(), topicConfig.getReadQueueNums());
+        if (queueIdInt >= idValid) {
+            String errorInfo = String.format("request queueId[%d] is illegal, %s Producer: %s",//
+                    queueIdInt,//
+                    topicConfig.toString(),//
+                    RemotingHelper.parseChannelRemoteAddr(ctx.channel()));
+
+            log.warn(errorInfo);
             response.setCode(ResponseCode.SYSTEM_ERROR);
-            response.setRemark("store putMessage return null");
+            response.setRemark(errorInfo);
+
+            return null;
         }
 
-        return response;
+        return topicConfig;
     }
 
 
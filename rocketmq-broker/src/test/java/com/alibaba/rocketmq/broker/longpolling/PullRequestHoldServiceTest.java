@@ -0,0 +1,97 @@
+package com.alibaba.rocketmq.broker.longpolling;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+
+public class PullRequestHoldServiceTest {
+    private static final long HoldTimeoutMillis = 1000 * 60;
+
+
+    /**
+     * 不访问存储与拉消息处理器，记录被唤醒的请求
+     */
+    static class RecordingPullRequestHoldService extends PullRequestHoldService {
+        private final Map<String, Long> maxOffsetTable = new HashMap<String, Long>();
+        private final List<PullRequest> wakeUpRequests = new ArrayList<PullRequest>();
+
+
+        RecordingPullRequestHoldService() {
+            super(null);
+        }
+
+
+        @Override
+        long getMaxOffsetInQueue(String topic, int queueId) {
+            Long maxOffset = this.maxOffsetTable.get(topic + "@" + queueId);
+            return null == maxOffset ? 0 : maxOffset;
+        }
+
+
+        @Override
+        void executeRequestWhenWakeUp(PullRequest request) {
+            this.wakeUpRequests.add(request);
+        }
+    }
+
+
+    private static PullRequest suspend(PullRequestHoldService service, String topic, int queueId, long offset) {
+        PullRequest request =
+                new PullRequest(null, null, HoldTimeoutMillis, System.currentTimeMillis(), offset);
+        service.suspendPullRequest(topic, queueId, request);
+        return request;
+    }
+
+
+    @Test
+    public void test_wake_up_only_arrived_queue() {
+        RecordingPullRequestHoldService service = new RecordingPullRequestHoldService();
+        PullRequest request = suspend(service, "TopicA", 0, 10);
+        suspend(service, "TopicA", 1, 10);
+        suspend(service, "TopicB", 0, 10);
+        // queueId超出Integer缓存范围时同样能找到
+        PullRequest bigQueueRequest = suspend(service, "TopicA", 1024, 10);
+
+        // 没有越过拉取位置的消息不唤醒
+        service.notifyMessageArriving("TopicA", 0, 10);
+        assertTrue(service.wakeUpRequests.isEmpty());
+
+        // 只唤醒同一Topic同一队列的请求
+        service.notifyMessageArriving("TopicA", 0, 11);
+        assertEquals(1, service.wakeUpRequests.size());
+        assertSame(request, service.wakeUpRequests.get(0));
+
+        // 已唤醒的请求不再重复唤醒
+        service.notifyMessageArriving("TopicA", 0, 12);
+        assertEquals(1, service.wakeUpRequests.size());
+
+        service.notifyMessageArriving("TopicA", 1024, 11);
+        assertEquals(2, service.wakeUpRequests.size());
+        assertSame(bigQueueRequest, service.wakeUpRequests.get(1));
+
+        // 没有Hold请求的队列
+        service.notifyMessageArriving("TopicC", 0, 11);
+        assertEquals(2, service.wakeUpRequests.size());
+    }
+
+
+    @Test
+    public void test_wake_up_by_newest_offset() {
+        RecordingPullRequestHoldService service = new RecordingPullRequestHoldService();
+        PullRequest request = suspend(service, "TopicA", 0, 10);
+
+        // 通知的位置落后时，以队列最新位置为准
+        service.maxOffsetTable.put("TopicA@0", 11L);
+        service.notifyMessageArriving("TopicA", 0, 5);
+        assertEquals(1, service.wakeUpRequests.size());
+        assertSame(request, service.wakeUpRequests.get(0));
+    }
+}
@@ -0,0 +1,55 @@
+package com.alibaba.rocketmq.broker.offset;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.After;
+import org.junit.Test;
+
+
+public class ConsumerOffsetJournalTest {
+    private static final String JournalPath = "./unit_test_store/config/consumerOffset.journal";
+
+
+    @After
+    public void tearDown() {
+        new File(JournalPath).delete();
+    }
+
+
+    @Test
+    public void test_append_replay() throws Exception {
+        ConsumerOffsetJournal journal = new ConsumerOffsetJournal(JournalPath);
+        ConcurrentHashMap<String, ConcurrentHashMap<Integer, Long>> offsetTable = journal.load();
+        for (int i = 0; i < 10; i++) {
+            ConcurrentHashMap<Integer, Long> queueOffsets = new ConcurrentHashMap<Integer, Long>();
+            for (int queueId = 0; queueId < 8; queueId++) {
+                queueOffsets.put(queueId, (long) queueId);
+            }
+            offsetTable.put("TopicA@Group" + i, queueOffsets);
+        }
+        journal.append(offsetTable);
+
+        offsetTable.get("TopicA@Group1").put(3, 300L);
+        offsetTable.get("TopicA@Group2").remove(5);
+        offsetTable.remove("TopicA@Group3");
+        journal.append(offsetTable);
+        journal.shutdown();
+
+        // 尾部写了一半的记录在回放时被截掉
+        RandomAccessFile file = new RandomAccessFile(JournalPath, "rw");
+        file.seek(file.length());
+        file.write(new byte[] { 1, 0, 0, 0, 1 });
+        file.close();
+
+        journal = new ConsumerOffsetJournal(JournalPath);
+        assertEquals(offsetTable, journal.load());
+
+        journal.compact(offsetTable);
+        journal.shutdown();
+        assertEquals(offsetTable, new ConsumerOffsetJournal(JournalPath).load());
+    }
+}
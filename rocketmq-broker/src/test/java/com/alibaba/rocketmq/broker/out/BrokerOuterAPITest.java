@@ -0,0 +1,100 @@
+package com.alibaba.rocketmq.broker.out;
+
+import com.alibaba.rocketmq.common.DataVersion;
+import com.alibaba.rocketmq.common.TopicConfig;
+import com.alibaba.rocketmq.common.namesrv.RegisterBrokerResult;
+import com.alibaba.rocketmq.common.protocol.body.TopicConfigSerializeWrapper;
+import com.alibaba.rocketmq.remoting.netty.NettyClientConfig;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class BrokerOuterAPITest {
+    private static final String NamesrvAddr = "127.0.0.1:9876";
+
+    /**
+     * 记录发出的注册请求，不发网络请求
+     */
+    static class RecordingBrokerOuterAPI extends BrokerOuterAPI {
+        private final boolean incrementalRegisterSupported;
+        private final List<boolean[]> requests = new ArrayList<boolean[]>();
+
+
+        RecordingBrokerOuterAPI(boolean incrementalRegisterSupported) {
+            super(new NettyClientConfig());
+            this.incrementalRegisterSupported = incrementalRegisterSupported;
+        }
+
+
+        @Override
+        RegisterBrokerResult registerBroker(String namesrvAddr, String clusterName, String brokerAddr,
+                String brokerName, long brokerId, String haServerAddr, byte[] body, boolean compressed,
+                boolean topicConfigOmitted) {
+            this.requests.add(new boolean[] { compressed, topicConfigOmitted });
+            RegisterBrokerResult result = new RegisterBrokerResult();
+            result.setIncrementalRegisterSupported(this.incrementalRegisterSupported);
+            return result;
+        }
+    }
+
+
+    private static BrokerOuterAPI.RegisterBodyCache buildBodyCache(DataVersion dataVersion) {
+        TopicConfigSerializeWrapper wrapper = new TopicConfigSerializeWrapper();
+        ConcurrentHashMap<String, TopicConfig> table = new ConcurrentHashMap<String, TopicConfig>();
+        table.put("TopicA", new TopicConfig("TopicA", 4, 4, 6));
+        wrapper.setTopicConfigTable(table);
+        wrapper.setDataVersion(dataVersion);
+        return new BrokerOuterAPI.RegisterBodyCache(wrapper, null);
+    }
+
+
+    private static void register(RecordingBrokerOuterAPI api, DataVersion dataVersion) throws Exception {
+        api.registerBrokerIncrementally(NamesrvAddr, "DefaultCluster", "127.0.0.1:10911", "broker-a", 0,
+            "127.0.0.1:10912", buildBodyCache(dataVersion));
+    }
+
+
+    @Test
+    public void test_old_namesrv_receives_full_body() throws Exception {
+        RecordingBrokerOuterAPI api = new RecordingBrokerOuterAPI(false);
+        DataVersion dataVersion = new DataVersion();
+        for (int i = 0; i < 3; i++) {
+            register(api, dataVersion);
+        }
+
+        // 旧版Name Server始终收到不压缩的全量配置
+        assertEquals(3, api.requests.size());
+        for (boolean[] request : api.requests) {
+            assertFalse(request[0]);
+            assertFalse(request[1]);
+        }
+    }
+
+
+    @Test
+    public void test_new_namesrv_receives_heartbeat() throws Exception {
+        RecordingBrokerOuterAPI api = new RecordingBrokerOuterAPI(true);
+        DataVersion dataVersion = new DataVersion();
+        register(api, dataVersion);
+        register(api, dataVersion);
+        dataVersion.nextVersion();
+        register(api, dataVersion);
+
+        assertEquals(3, api.requests.size());
+        // 第一次发送不压缩的全量配置
+        assertFalse(api.requests.get(0)[0]);
+        assertFalse(api.requests.get(0)[1]);
+        // 版本没变只发送版本号
+        assertTrue(api.requests.get(1)[1]);
+        // 版本变化后发送压缩的全量配置
+        assertTrue(api.requests.get(2)[0]);
+        assertFalse(api.requests.get(2)[1]);
+    }
+}
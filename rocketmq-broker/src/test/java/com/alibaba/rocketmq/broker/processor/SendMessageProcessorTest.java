@@ -0,0 +1,186 @@
+package com.alibaba.rocketmq.broker.processor;
+
+import com.alibaba.rocketmq.broker.BrokerController;
+import com.alibaba.rocketmq.common.BrokerConfig;
+import com.alibaba.rocketmq.common.MixAll;
+import com.alibaba.rocketmq.common.message.MessageExt;
+import com.alibaba.rocketmq.common.protocol.RequestCode;
+import com.alibaba.rocketmq.common.protocol.ResponseCode;
+import com.alibaba.rocketmq.common.protocol.body.ConsumerSendMsgBackBatchRequestBody;
+import com.alibaba.rocketmq.common.protocol.body.ConsumerSendMsgBackBatchResponseBody;
+import com.alibaba.rocketmq.common.protocol.body.SendMsgBackEntry;
+import com.alibaba.rocketmq.remoting.netty.NettyClientConfig;
+import com.alibaba.rocketmq.remoting.netty.NettyServerConfig;
+import com.alibaba.rocketmq.remoting.protocol.RemotingCommand;
+import com.alibaba.rocketmq.store.AppendMessageResult;
+import com.alibaba.rocketmq.store.AppendMessageStatus;
+import com.alibaba.rocketmq.store.MessageExtBrokerInner;
+import com.alibaba.rocketmq.store.PutMessageFuture;
+import com.alibaba.rocketmq.store.PutMessageResult;
+import com.alibaba.rocketmq.store.PutMessageStatus;
+import com.alibaba.rocketmq.store.config.MessageStoreConfig;
+import io.netty.channel.ChannelHandlerContext;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+
+public class SendMessageProcessorTest {
+    private static final String StorePath = "./unit_test_store/send_message_processor";
+    private static final String Group = "SendBackGroup";
+    private static final long MissingOffset = 300;
+
+
+    /**
+     * 不访问存储，写入的消息挂起，由测试决定何时完成
+     */
+    static class PendingSendMessageProcessor extends SendMessageProcessor {
+        private final List<MessageExtBrokerInner> putMessages = new ArrayList<MessageExtBrokerInner>();
+        private final List<PutMessageFuture> putFutures = new ArrayList<PutMessageFuture>();
+        private final List<RemotingCommand> responses = new ArrayList<RemotingCommand>();
+
+
+        PendingSendMessageProcessor(BrokerController brokerController) {
+            super(brokerController);
+        }
+
+
+        @Override
+        MessageExt lookMessageByOffset(long offset) {
+            if (MissingOffset == offset) {
+                return null;
+            }
+
+            MessageExt msgExt = new MessageExt();
+            msgExt.setTopic("TopicTest");
+            msgExt.setBody(("offset " + offset).getBytes());
+            msgExt.setMsgId("MSG" + offset);
+            msgExt.setCommitLogOffset(offset);
+            msgExt.setBornHost(new InetSocketAddress("127.0.0.1", 0));
+            return msgExt;
+        }
+
+
+        @Override
+        PutMessageFuture asyncPutMessage(MessageExtBrokerInner msgInner) {
+            PutMessageFuture future = new PutMessageFuture();
+            this.putMessages.add(msgInner);
+            this.putFutures.add(future);
+            return future;
+        }
+
+
+        @Override
+        void writeSendMsgBackBatchResponse(ChannelHandlerContext ctx, RemotingCommand request,
+                RemotingCommand response) {
+            this.responses.add(response);
+        }
+    }
+
+
+    private static void deleteFile(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                deleteFile(f);
+            }
+        }
+        file.delete();
+    }
+
+
+    @After
+    public void tearDown() {
+        deleteFile(new File(StorePath));
+    }
+
+
+    private static RemotingCommand buildBatchRequest(long... offsets) {
+        ConsumerSendMsgBackBatchRequestBody requestBody = new ConsumerSendMsgBackBatchRequestBody();
+        requestBody.setConsumerGroup(Group);
+        List<SendMsgBackEntry> entries = new ArrayList<SendMsgBackEntry>();
+        for (long offset : offsets) {
+            SendMsgBackEntry entry = new SendMsgBackEntry();
+            entry.setOffset(offset);
+            entries.add(entry);
+        }
+        requestBody.setEntries(entries);
+
+        RemotingCommand request =
+                RemotingCommand.createRequestCommand(RequestCode.CONSUMER_SEND_MSG_BACK_BATCH, null);
+        request.setBody(requestBody.encode());
+        return request;
+    }
+
+
+    private static PutMessageResult putResult(PutMessageStatus status) {
+        return new PutMessageResult(status, new AppendMessageResult(AppendMessageStatus.PUT_OK));
+    }
+
+
+    @Test
+    public void test_send_back_batch_responds_after_all_puts() throws Exception {
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setStorePathRootDir(StorePath);
+        BrokerController brokerController =
+                new BrokerController(new BrokerConfig(), new NettyServerConfig(), new NettyClientConfig(),
+                    messageStoreConfig);
+        PendingSendMessageProcessor processor = new PendingSendMessageProcessor(brokerController);
+
+        // 所有消息异步写入，写入完成前不发送应答
+        RemotingCommand request = buildBatchRequest(100, 200, MissingOffset, 400);
+        assertNull(processor.processRequest(null, request));
+        assertEquals(3, processor.putFutures.size());
+        for (MessageExtBrokerInner msgInner : processor.putMessages) {
+            assertEquals(MixAll.getRetryTopic(Group), msgInner.getTopic());
+            assertEquals(3, msgInner.getDelayTimeLevel());
+            assertEquals(1, msgInner.getReconsumeTimes());
+        }
+
+        processor.putFutures.get(0).complete(putResult(PutMessageStatus.PUT_OK));
+        processor.putFutures.get(1).complete(putResult(PutMessageStatus.CREATE_MAPPED_FILE_FAILED));
+        assertTrue(processor.responses.isEmpty());
+
+        // 最后一条写入完成后只发送一次应答，返回查询失败与写入失败的消息
+        processor.putFutures.get(2).complete(putResult(PutMessageStatus.PUT_OK));
+        assertEquals(1, processor.responses.size());
+        RemotingCommand response = processor.responses.get(0);
+        assertEquals(ResponseCode.SUCCESS, response.getCode());
+        assertEquals(request.getOpaque(), response.getOpaque());
+        ConsumerSendMsgBackBatchResponseBody responseBody =
+                ConsumerSendMsgBackBatchResponseBody.decode(response.getBody(),
+                    ConsumerSendMsgBackBatchResponseBody.class);
+        assertEquals(new HashSet<Long>(Arrays.asList(200L, MissingOffset)),
+            new HashSet<Long>(responseBody.getFailedOffsets()));
+    }
+
+
+    @Test
+    public void test_send_back_batch_all_lookups_failed() throws Exception {
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setStorePathRootDir(StorePath);
+        BrokerController brokerController =
+                new BrokerController(new BrokerConfig(), new NettyServerConfig(), new NettyClientConfig(),
+                    messageStoreConfig);
+        PendingSendMessageProcessor processor = new PendingSendMessageProcessor(brokerController);
+
+        // 没有需要写入的消息时直接返回应答
+        RemotingCommand response = processor.processRequest(null, buildBatchRequest(MissingOffset));
+        assertEquals(ResponseCode.SUCCESS, response.getCode());
+        assertTrue(processor.putFutures.isEmpty());
+        ConsumerSendMsgBackBatchResponseBody responseBody =
+                ConsumerSendMsgBackBatchResponseBody.decode(response.getBody(),
+                    ConsumerSendMsgBackBatchResponseBody.class);
+        assertTrue(responseBody.getFailedOffsets().contains(MissingOffset));
+    }
+}
@@ -142,6 +142,22 @@ public class DefaultMQPushConsumer extends ClientConfig implements MQPushConsume
      */
     private boolean unitMode = false;
 
+    /**
+     * 并发消费时使用环形数组实现的ProcessQueue，顺序消费不受影响
+     */
+    private boolean ringProcessQueueEnable = false;
+
+    /**
+     * 开启自适应拉取流控，根据消费耗时和内存占用调整每个队列的缓存和每次拉取的条数，
+     * 流控后消费完成立即恢复拉取
+     */
+    private boolean adaptivePullEnable = false;
+
+    /**
+     * 开启自适应拉取流控时，所有队列缓存消息的总大小上限，单位字节，小于等于0表示不限制
+     */
+    private long pullThresholdBytesForConsumer = 256 * 1024 * 1024;
+
 
     public DefaultMQPushConsumer() {
         this(MixAll.DEFAULT_CONSUMER_GROUP, null, new AllocateMessageQueueAveragely());
@@ -470,6 +486,36 @@ public class DefaultMQPushConsumer extends ClientConfig implements MQPushConsume
     }
 
 
+    public boolean isRingProcessQueueEnable() {
+        return ringProcessQueueEnable;
+    }
+
+
+    public void setRingProcessQueueEnable(boolean ringProcessQueueEnable) {
+        this.ringProcessQueueEnable = ringProcessQueueEnable;
+    }
+
+
+    public boolean isAdaptivePullEnable() {
+        return adaptivePullEnable;
+    }
+
+
+    public void setAdaptivePullEnable(boolean adaptivePullEnable) {
+        this.adaptivePullEnable = adaptivePullEnable;
+    }
+
+
+    public long getPullThresholdBytesForConsumer() {
+        return pullThresholdBytesForConsumer;
+    }
+
+
+    public void setPullThresholdBytesForConsumer(long pullThresholdBytesForConsumer) {
+        this.pullThresholdBytesForConsumer = pullThresholdBytesForConsumer;
+    }
+
+
     public long getAdjustThreadPoolNumsThreshold() {
         return adjustThreadPoolNumsThreshold;
     }
@@ -68,7 +68,12 @@ public interface MQPushConsumer extends MQConsumer {
      *            b、Java程序必须是UTF-8编码<br>
      *            c、这个Java过滤程序只能依赖JDK里的类，非JDK的Java类一律不能依赖
      *            d、过滤方法里不允许抛异常，只要抛异常，整个消费过程就停止
-     *            e、FilterClassName.java文件放置到CLASSPATH目录下，例如src/main/resources
+     *            e、FilterClassName.java文件放置到CLASSPATH目录下，例如src/main/resources<br>
+     *            3、按消息属性过滤，在Broker上执行，例如:
+     *            "region=hz && (level=1 || level=2)"<br>
+     *            支持=、!=、&&、||和括号，比较符两侧不能有空格，标签可以通过TAGS属性过滤<br>
+     *            注意：只要表达式中包含“=”，就按属性过滤表达式解析，优先于前两种方式，
+     *            表达式非法时subscribe抛出异常；因此Tag与过滤类名中都不能包含“=”
      * @throws MQClientException
      */
     public void subscribe(final String topic, final String subExpression) throws MQClientException;
@@ -24,9 +24,12 @@ import com.alibaba.rocketmq.client.log.ClientLogger;
 import com.alibaba.rocketmq.common.MixAll;
 import com.alibaba.rocketmq.common.UtilAll;
 import com.alibaba.rocketmq.common.message.MessageQueue;
+import com.alibaba.rocketmq.common.protocol.ResponseCode;
+import com.alibaba.rocketmq.common.protocol.body.UpdateConsumerOffsetBatchBody;
 import com.alibaba.rocketmq.common.protocol.header.QueryConsumerOffsetRequestHeader;
 import com.alibaba.rocketmq.common.protocol.header.UpdateConsumerOffsetRequestHeader;
 import com.alibaba.rocketmq.remoting.exception.RemotingException;
+import com.alibaba.rocketmq.remoting.exception.RemotingTimeoutException;
 import com.alibaba.rocketmq.remoting.netty.NettySystemConfig;
 import org.slf4j.Logger;
 
@@ -43,10 +46,15 @@ import java.util.concurrent.atomic.AtomicLong;
  */
 public class RemoteBrokerOffsetStore implements OffsetStore {
     private final static Logger log = ClientLogger.getLog();
+    // 第一次批量更新的超时时间，老版本Broker对未知请求不应答，不能每次都等满NETTY_IO_TIMEOUT
+    static final long BatchProbeTimeoutMillis = 1000 * 3;
     private final MQClientInstance mQClientFactory;
     private final String groupName;
     private final AtomicLong storeTimesTotal = new AtomicLong(0);
     private ConcurrentHashMap<MessageQueue, AtomicLong> offsetTable = new ConcurrentHashMap<MessageQueue, AtomicLong>();
+    // Broker地址是否支持批量更新消费进度，没有记录表示还未探测
+    private final ConcurrentHashMap<String/* brokerAddr */, Boolean> batchSupportedTable =
+            new ConcurrentHashMap<String, Boolean>();
 
 
     public RemoteBrokerOffsetStore(MQClientInstance mQClientFactory, String groupName) {
@@ -128,24 +136,29 @@ public class RemoteBrokerOffsetStore implements OffsetStore {
         final HashSet<MessageQueue> unusedMQ = new HashSet<MessageQueue>();
         long times = this.storeTimesTotal.getAndIncrement();
 
+        // 按Broker聚合，每个Broker一次请求提交全部队列的消费进度
+        final HashMap<String/* brokerName */, UpdateConsumerOffsetBatchBody> batchTable =
+                new HashMap<String, UpdateConsumerOffsetBatchBody>();
         if (!mqs.isEmpty()) {
             for (MessageQueue mq : this.offsetTable.keySet()) {
                 AtomicLong offset = this.offsetTable.get(mq);
                 if (offset != null) {
                     if (mqs.contains(mq)) {
-                        try {
-                            this.updateConsumeOffsetToBroker(mq, offset.get());
-                            // 每隔1分钟打印一次消费进度
-                            if ((times % 12) == 0) {
-                                log.info("Group: {} ClientId: {} updateConsumeOffsetToBroker {} {}", //
-                                    this.groupName,//
-                                    this.mQClientFactory.getClientId(),//
-                                    mq, //
-                                    offset.get());
-                            }
+                        UpdateConsumerOffsetBatchBody body = batchTable.get(mq.getBrokerName());
+                        if (null == body) {
+                            body = new UpdateConsumerOffsetBatchBody();
+                            body.setConsumerGroup(this.groupName);
+                            batchTable.put(mq.getBrokerName(), body);
                         }
-                        catch (Exception e) {
-                            log.error("updateConsumeOffsetToBroker exception, " + mq.toString(), e);
+                        body.addOffset(mq.getTopic(), mq.getQueueId(), offset.get());
+
+                        // 每隔1分钟打印一次消费进度
+                        if ((times % 12) == 0) {
+                            log.info("Group: {} ClientId: {} updateConsumeOffsetToBroker {} {}", //
+                                this.groupName,//
+                                this.mQClientFactory.getClientId(),//
+                                mq, //
+                                offset.get());
                         }
                     }
                     // 本地多余的队列，需要删除掉
@@ -156,6 +169,15 @@ public class RemoteBrokerOffsetStore implements OffsetStore {
             }
         }
 
+        for (Map.Entry<String, UpdateConsumerOffsetBatchBody> entry : batchTable.entrySet()) {
+            try {
+                this.updateConsumeOffsetToBroker(entry.getKey(), entry.getValue());
+            }
+            catch (Exception e) {
+                log.error("updateConsumeOffsetToBroker exception, " + entry.getKey(), e);
+            }
+        }
+
         if (!unusedMQ.isEmpty()) {
             for (MessageQueue mq : unusedMQ) {
                 this.offsetTable.remove(mq);
@@ -205,8 +227,7 @@ public class RemoteBrokerOffsetStore implements OffsetStore {
             requestHeader.setCommitOffset(offset);
 
             // 使用oneway形式，原因是服务器在删除文件时，这个调用可能会超时
-            this.mQClientFactory.getMQClientAPIImpl().updateConsumerOffsetOneway(
-                findBrokerResult.getBrokerAddr(), requestHeader, NettySystemConfig.NETTY_IO_TIMEOUT);
+            this.updateConsumerOffsetOneway(findBrokerResult.getBrokerAddr(), requestHeader);
         }
         else {
             throw new MQClientException("The broker[" + mq.getBrokerName() + "] not exist", null);
@@ -214,6 +235,83 @@ public class RemoteBrokerOffsetStore implements OffsetStore {
     }
 
 
+    /**
+     * 批量更新一个Broker上的消费进度，Broker不支持批量更新时逐个队列更新
+     */
+    private void updateConsumeOffsetToBroker(String brokerName, UpdateConsumerOffsetBatchBody body)
+            throws RemotingException, MQBrokerException, InterruptedException, MQClientException {
+        FindBrokerResult findBrokerResult = this.mQClientFactory.findBrokerAddressInAdmin(brokerName);
+        if (null == findBrokerResult) {
+            // TODO 此处可能对Name Server压力过大，需要调优
+            this.mQClientFactory.updateTopicRouteInfoFromNameServer(body.getOffsetTable().keySet().iterator()
+                .next());
+            findBrokerResult = this.mQClientFactory.findBrokerAddressInAdmin(brokerName);
+        }
+
+        if (findBrokerResult != null) {
+            if (findBrokerResult.isSlave()) {
+                log.warn("Updating consume offset to slave broker: {}", findBrokerResult.getBrokerAddr());
+            }
+
+            final String brokerAddr = findBrokerResult.getBrokerAddr();
+            Boolean batchSupported = this.batchSupportedTable.get(brokerAddr);
+            if (!Boolean.FALSE.equals(batchSupported)) {
+                try {
+                    this.updateConsumerOffsetBatch(brokerAddr, body,
+                        null == batchSupported ? BatchProbeTimeoutMillis : NettySystemConfig.NETTY_IO_TIMEOUT);
+                    this.batchSupportedTable.put(brokerAddr, Boolean.TRUE);
+                    return;
+                }
+                catch (MQBrokerException e) {
+                    if (e.getResponseCode() != ResponseCode.REQUEST_CODE_NOT_SUPPORTED) {
+                        throw e;
+                    }
+                    this.batchSupportedTable.put(brokerAddr, Boolean.FALSE);
+                    log.warn("broker[{}] not support batch update consume offset", brokerAddr);
+                }
+                catch (RemotingTimeoutException e) {
+                    // 老版本Broker没有对应的处理器，请求被默认处理器忽略，不会返回REQUEST_CODE_NOT_SUPPORTED
+                    if (batchSupported != null) {
+                        throw e;
+                    }
+                    this.batchSupportedTable.put(brokerAddr, Boolean.FALSE);
+                    log.warn("broker[{}] not respond batch update consume offset, treat as old version",
+                        brokerAddr);
+                }
+            }
+
+            // 老版本Broker
+            for (Map.Entry<String, Map<Integer, Long>> entry : body.getOffsetTable().entrySet()) {
+                for (Map.Entry<Integer, Long> queueOffset : entry.getValue().entrySet()) {
+                    MessageQueue mq = new MessageQueue(entry.getKey(), brokerName, queueOffset.getKey());
+                    try {
+                        this.updateConsumeOffsetToBroker(mq, queueOffset.getValue());
+                    }
+                    catch (Exception e) {
+                        log.error("updateConsumeOffsetToBroker exception, " + mq.toString(), e);
+                    }
+                }
+            }
+        }
+        else {
+            throw new MQClientException("The broker[" + brokerName + "] not exist", null);
+        }
+    }
+
+
+    void updateConsumerOffsetBatch(final String brokerAddr, final UpdateConsumerOffsetBatchBody body,
+            final long timeoutMillis) throws RemotingException, MQBrokerException, InterruptedException {
+        this.mQClientFactory.getMQClientAPIImpl().updateConsumerOffsetBatch(brokerAddr, body, timeoutMillis);
+    }
+
+
+    void updateConsumerOffsetOneway(final String brokerAddr, final UpdateConsumerOffsetRequestHeader requestHeader)
+            throws RemotingException, InterruptedException {
+        this.mQClientFactory.getMQClientAPIImpl().updateConsumerOffsetOneway(brokerAddr, requestHeader,
+            NettySystemConfig.NETTY_IO_TIMEOUT);
+    }
+
+
     private FindConsumeOffsetResult fetchConsumeOffsetFromBroker(MessageQueue mq) throws RemotingException, MQBrokerException,
             InterruptedException, MQClientException {
         FindBrokerResult findBrokerResult = this.mQClientFactory.findBrokerAddressInAdmin(mq.getBrokerName());
@@ -41,6 +41,7 @@ import org.slf4j.Logger;
 import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
@@ -261,6 +262,22 @@ public class MQAdminImpl {
 
     public QueryResult queryMessage(String topic, String key, int maxNum, long begin, long end)
             throws MQClientException, InterruptedException {
+        return this.queryMessage(topic, null, key, maxNum, begin, end);
+    }
+
+
+    /**
+     * 按属性值查询消息，属性需要在Broker的messageIndexProperties中配置<br>
+     * 结果按存储时间排序，每个Broker最多返回最近的maxNum条，更早的消息以最早一条的存储时间作为end继续查询
+     */
+    public QueryResult queryMessageByProperty(String topic, String propertyName, String value, int maxNum,
+            long begin, long end) throws MQClientException, InterruptedException {
+        return this.queryMessage(topic, propertyName, value, maxNum, begin, end);
+    }
+
+
+    private QueryResult queryMessage(final String topic, final String propertyName, final String key,
+            final int maxNum, final long begin, final long end) throws MQClientException, InterruptedException {
         TopicRouteData topicRouteData = this.mQClientFactory.getAnExistTopicRouteData(topic);
         if (null == topicRouteData) {
             this.mQClientFactory.updateTopicRouteInfoFromNameServer(topic);
@@ -289,6 +306,7 @@ public class MQAdminImpl {
                         requestHeader.setMaxNum(maxNum);
                         requestHeader.setBeginTimestamp(begin);
                         requestHeader.setEndTimestamp(end);
+                        requestHeader.setPropertyName(propertyName);
 
                         this.mQClientFactory.getMQClientAPIImpl().queryMessage(addr, requestHeader, TIMEOUT,
                                 new InvokeCallback() {
@@ -350,6 +368,14 @@ public class MQAdminImpl {
                     }
 
                     for (MessageExt msgExt : qr.getMessageList()) {
+                        if (propertyName != null) {
+                            // 不支持属性查询的Broker按Key查询，需要过滤
+                            if (key.equals(msgExt.getProperty(propertyName))) {
+                                messageList.add(msgExt);
+                            }
+                            continue;
+                        }
+
                         String keys = msgExt.getKeys();
                         if (keys != null) {
                             boolean matched = false;
@@ -371,6 +397,14 @@ public class MQAdminImpl {
                 }
 
                 if (!messageList.isEmpty()) {
+                    // 多个Broker的结果按存储时间合并
+                    Collections.sort(messageList, new Comparator<MessageExt>() {
+                        @Override
+                        public int compare(MessageExt o1, MessageExt o2) {
+                            long diff = o1.getStoreTimestamp() - o2.getStoreTimestamp();
+                            return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+                        }
+                    });
                     return new QueryResult(indexLastUpdateTimestamp, messageList);
                 } else {
                     throw new MQClientException("query operation over, but no message.", null);
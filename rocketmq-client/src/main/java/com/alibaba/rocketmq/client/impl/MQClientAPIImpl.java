@@ -39,6 +39,7 @@ import com.alibaba.rocketmq.common.admin.OffsetWrapper;
 import com.alibaba.rocketmq.common.admin.TopicOffset;
 import com.alibaba.rocketmq.common.admin.TopicStatsTable;
 import com.alibaba.rocketmq.common.message.Message;
+import com.alibaba.rocketmq.common.message.MessageBatch;
 import com.alibaba.rocketmq.common.message.MessageDecoder;
 import com.alibaba.rocketmq.common.message.MessageExt;
 import com.alibaba.rocketmq.common.message.MessageQueue;
@@ -325,7 +326,10 @@ public class MQClientAPIImpl {
         }
 
         RemotingCommand request = null;
-        if (sendSmartMsg) {
+        if (msg instanceof MessageBatch) {
+            SendMessageRequestHeaderV2 requestHeaderV2 = SendMessageRequestHeaderV2.createSendMessageRequestHeaderV2(requestHeader);
+            request = RemotingCommand.createRequestCommand(RequestCode.SEND_BATCH_MESSAGE, requestHeaderV2);
+        } else if (sendSmartMsg) {
             SendMessageRequestHeaderV2 requestHeaderV2 = SendMessageRequestHeaderV2.createSendMessageRequestHeaderV2(requestHeader);
             request = RemotingCommand.createRequestCommand(RequestCode.SEND_MESSAGE_V2, requestHeaderV2);
         } else {
@@ -977,6 +981,44 @@ public class MQClientAPIImpl {
     }
 
 
+    /**
+     * 批量更新一个消费组在一个Broker上的消费进度
+     */
+    public void updateConsumerOffsetBatch(//
+            final String addr,//
+            final UpdateConsumerOffsetBatchBody requestBody,//
+            final long timeoutMillis//
+    ) throws RemotingException, MQBrokerException, InterruptedException {
+        UpdateConsumerOffsetBatchBody body = requestBody;
+        // 添加虚拟运行环境相关的projectGroupPrefix
+        if (!UtilAll.isBlank(projectGroupPrefix)) {
+            body = new UpdateConsumerOffsetBatchBody();
+            body.setConsumerGroup(VirtualEnvUtil.buildWithProjectGroup(requestBody.getConsumerGroup(),
+                projectGroupPrefix));
+            for (Map.Entry<String, Map<Integer, Long>> entry : requestBody.getOffsetTable().entrySet()) {
+                body.getOffsetTable().put(
+                    VirtualEnvUtil.buildWithProjectGroup(entry.getKey(), projectGroupPrefix), entry.getValue());
+            }
+        }
+
+        RemotingCommand request =
+                RemotingCommand.createRequestCommand(RequestCode.UPDATE_CONSUMER_OFFSET_BATCH, null);
+        request.setBody(body.encode());
+
+        RemotingCommand response = this.remotingClient.invokeSync(addr, request, timeoutMillis);
+        assert response != null;
+        switch (response.getCode()) {
+        case ResponseCode.SUCCESS: {
+            return;
+        }
+        default:
+            break;
+        }
+
+        throw new MQBrokerException(response.getCode(), response.getRemark());
+    }
+
+
     /**
      * 发送心跳
      */
@@ -1178,6 +1220,53 @@ public class MQClientAPIImpl {
     }
 
 
+    /**
+     * 批量将消费失败的消息发回Broker
+     *
+     * @return 发回失败的消息CommitLog offset
+     */
+    public Set<Long> consumerSendMessageBackBatch(//
+            final String addr, //
+            final String consumerGroup,//
+            final boolean unitMode,//
+            final List<SendMsgBackEntry> entries,//
+            final long timeoutMillis//
+    ) throws RemotingException, MQBrokerException, InterruptedException {
+        ConsumerSendMsgBackBatchRequestBody requestBody = new ConsumerSendMsgBackBatchRequestBody();
+        requestBody.setConsumerGroup(consumerGroup);
+        requestBody.setUnitMode(unitMode);
+        requestBody.setEntries(entries);
+
+        // 添加虚拟运行环境相关的projectGroupPrefix
+        if (!UtilAll.isBlank(projectGroupPrefix)) {
+            requestBody.setConsumerGroup(VirtualEnvUtil.buildWithProjectGroup(consumerGroup, projectGroupPrefix));
+            for (SendMsgBackEntry entry : entries) {
+                entry.setOriginTopic(VirtualEnvUtil.buildWithProjectGroup(entry.getOriginTopic(),
+                    projectGroupPrefix));
+            }
+        }
+
+        RemotingCommand request =
+                RemotingCommand.createRequestCommand(RequestCode.CONSUMER_SEND_MSG_BACK_BATCH, null);
+        request.setBody(requestBody.encode());
+
+        RemotingCommand response = this.remotingClient.invokeSync(addr, request, timeoutMillis);
+        assert response != null;
+        switch (response.getCode()) {
+        case ResponseCode.SUCCESS: {
+            ConsumerSendMsgBackBatchResponseBody responseBody =
+                    ConsumerSendMsgBackBatchResponseBody.decode(response.getBody(),
+                        ConsumerSendMsgBackBatchResponseBody.class);
+            return responseBody.getFailedOffsets();
+        }
+        default:
+            break;
+        }
+
+        throw new MQBrokerException(response.getCode(), response.getRemark());
+    }
+
+
     public Set<MessageQueue> lockBatchMQ(//
             final String addr,//
             final LockBatchRequestBody requestBody,//
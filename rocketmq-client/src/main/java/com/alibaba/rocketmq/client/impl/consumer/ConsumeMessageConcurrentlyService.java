@@ -22,19 +22,28 @@ import com.alibaba.rocketmq.client.consumer.listener.MessageListenerConcurrently
 import com.alibaba.rocketmq.client.hook.ConsumeMessageContext;
 import com.alibaba.rocketmq.client.log.ClientLogger;
 import com.alibaba.rocketmq.client.stat.ConsumerStatsManager;
+import com.alibaba.rocketmq.client.exception.MQBrokerException;
 import com.alibaba.rocketmq.common.MixAll;
+import com.alibaba.rocketmq.common.ServiceThread;
 import com.alibaba.rocketmq.common.ThreadFactoryImpl;
 import com.alibaba.rocketmq.common.message.MessageConst;
 import com.alibaba.rocketmq.common.message.MessageExt;
 import com.alibaba.rocketmq.common.message.MessageQueue;
 import com.alibaba.rocketmq.common.protocol.body.CMResult;
+import com.alibaba.rocketmq.common.protocol.ResponseCode;
 import com.alibaba.rocketmq.common.protocol.body.ConsumeMessageDirectlyResult;
+import com.alibaba.rocketmq.common.protocol.body.SendMsgBackEntry;
 import com.alibaba.rocketmq.remoting.common.RemotingHelper;
+import com.alibaba.rocketmq.remoting.exception.RemotingException;
 import org.slf4j.Logger;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
@@ -60,6 +69,8 @@ public class ConsumeMessageConcurrentlyService implements ConsumeMessageService
 
     // 定时线程
     private final ScheduledExecutorService scheduledExecutorService;
+    // 异步批量发回消费失败的消息
+    final SendBackService sendBackService = new SendBackService();
 
 
     public ConsumeMessageConcurrentlyService(DefaultMQPushConsumerImpl defaultMQPushConsumerImpl,
@@ -85,10 +96,13 @@ public class ConsumeMessageConcurrentlyService implements ConsumeMessageService
 
 
     public void start() {
+        this.sendBackService.start();
     }
 
 
     public void shutdown() {
+        // 先发回剩余的消费失败消息，发回失败的消息还需要定时线程重新消费
+        this.sendBackService.shutdown();
         this.scheduledExecutorService.shutdown();
         this.consumeExecutor.shutdown();
     }
@@ -168,13 +182,19 @@ public class ConsumeMessageConcurrentlyService implements ConsumeMessageService
             // 记录统计信息
             ConsumeMessageConcurrentlyService.this.getConsumerStatsManager().incConsumeRT(
                     ConsumeMessageConcurrentlyService.this.consumerGroup, messageQueue.getTopic(), consumeRT);
+            PullFlowController flowController =
+                    ConsumeMessageConcurrentlyService.this.defaultMQPushConsumerImpl.getPullFlowController();
+            if (flowController != null) {
+                flowController.onConsumeRT(msgs.size(), consumeRT);
+            }
 
             // 如果ProcessQueue是dropped状态，不需要直接更新 offset
             if (!processQueue.isDropped()) {
                 ConsumeMessageConcurrentlyService.this.processConsumeResult(status, context, this);
             } else {
-                log.warn("processQueue is dropped without process consume result. messageQueue={}, msgTreeMap={}, msgs={}",
-                        messageQueue, processQueue.getMsgTreeMap(), msgs);
+                // 环形数组实现的ProcessQueue不使用msgTreeMap，只打印缓存的消息数
+                log.warn("processQueue is dropped without process consume result. messageQueue={}, msgCount={}, msgs={}",
+                        messageQueue, processQueue.getMsgCount().get(), msgs);
             }
         }
 
@@ -197,10 +217,14 @@ public class ConsumeMessageConcurrentlyService implements ConsumeMessageService
 
     public boolean sendMessageBack(final MessageExt msg, final ConsumeConcurrentlyContext context) {
         // 如果用户没有设置，服务器会根据重试次数自动叠加延时时间
-        int delayLevel = context.getDelayLevelWhenNextConsume();
+        return this.sendMessageBack(msg, context.getDelayLevelWhenNextConsume(), context.getMessageQueue()
+            .getBrokerName());
+    }
 
+
+    boolean sendMessageBack(final MessageExt msg, final int delayLevel, final String brokerName) {
         try {
-            this.defaultMQPushConsumerImpl.sendMessageBack(msg, delayLevel, context.getMessageQueue().getBrokerName());
+            this.defaultMQPushConsumerImpl.sendMessageBack(msg, delayLevel, brokerName);
             return true;
         } catch (Exception e) {
             log.error("sendMessageBack exception, group: " + this.consumerGroup + " msg: " + msg.toString(), e);
@@ -253,24 +277,17 @@ public class ConsumeMessageConcurrentlyService implements ConsumeMessageService
                 }
                 break;
             case CLUSTERING:
-                // 处理消费失败的消息，直接发回到Broker
-                List<MessageExt> msgBackFailed = new ArrayList<MessageExt>(consumeRequest.getMsgs().size());
-                for (int i = ackIndex + 1; i < consumeRequest.getMsgs().size(); i++) {
-                    MessageExt msg = consumeRequest.getMsgs().get(i);
-                    boolean result = this.sendMessageBack(msg, context);
-                    if (!result) {
-                        msg.setReconsumeTimes(msg.getReconsumeTimes() + 1);
-                        msgBackFailed.add(msg);
-                    }
-                }
-
-                if (!msgBackFailed.isEmpty()) {
-                    // 发回失败的消息仍然要保留
-                    consumeRequest.getMsgs().removeAll(msgBackFailed);
-
-                    // 此过程处理失败的消息，需要在Client中做定时消费，直到成功
-                    this.submitConsumeRequestLater(msgBackFailed, consumeRequest.getProcessQueue(),
-                            consumeRequest.getMessageQueue());
+                // 处理消费失败的消息，交给发回线程按Broker攒批发回，不阻塞消费线程
+                // 发回完成前消息仍保留在ProcessQueue中，offset不会越过这些消息
+                if (ackIndex + 1 < consumeRequest.getMsgs().size()) {
+                    List<MessageExt> msgBack = new ArrayList<MessageExt>(consumeRequest.getMsgs().subList(
+                        ackIndex + 1, consumeRequest.getMsgs().size()));
+                    consumeRequest.getMsgs().removeAll(msgBack);
+
+                    // 如果用户没有设置，服务器会根据重试次数自动叠加延时时间
+                    this.sendBackService.putRequest(new SendBackRequest(msgBack, context
+                        .getDelayLevelWhenNextConsume(), consumeRequest.getProcessQueue(), consumeRequest
+                        .getMessageQueue()));
                 }
                 break;
             default:
@@ -285,6 +302,49 @@ public class ConsumeMessageConcurrentlyService implements ConsumeMessageService
     }
 
 
+    /**
+     * 批量发回到指定Broker
+     *
+     * @return 发回失败的消息offset，找不到Broker地址时返回null
+     */
+    Set<Long> sendMessageBackBatch(final String brokerName, final List<SendMsgBackEntry> entries)
+            throws RemotingException, MQBrokerException, InterruptedException {
+        String brokerAddr = this.defaultMQPushConsumerImpl.getmQClientFactory().findBrokerAddressInPublish(brokerName);
+        if (null == brokerAddr) {
+            return null;
+        }
+
+        return this.defaultMQPushConsumerImpl.getmQClientFactory().getMQClientAPIImpl().consumerSendMessageBackBatch(
+            brokerAddr, this.consumerGroup, this.defaultMQPushConsumer.isUnitMode(), entries, 5000);
+    }
+
+
+    /**
+     * 发回成功的消息从ProcessQueue中移除，发回失败的消息在Client中做定时消费，直到成功
+     */
+    void processSendBackResult(//
+                                       final SendBackRequest request, //
+                                       final List<MessageExt> msgBackOk, //
+                                       final List<MessageExt> msgBackFailed//
+    ) {
+        ProcessQueue processQueue = request.getProcessQueue();
+        if (!msgBackOk.isEmpty()) {
+            long offset = processQueue.removeMessage(msgBackOk);
+            if (offset >= 0 && !processQueue.isDropped()) {
+                this.defaultMQPushConsumerImpl.getOffsetStore().updateOffset(request.getMessageQueue(), offset,
+                    true);
+            }
+        }
+
+        if (!msgBackFailed.isEmpty()) {
+            for (MessageExt msg : msgBackFailed) {
+                msg.setReconsumeTimes(msg.getReconsumeTimes() + 1);
+            }
+            this.submitConsumeRequestLater(msgBackFailed, processQueue, request.getMessageQueue());
+        }
+    }
+
+
     /**
      * 在Consumer本地定时线程中定时重试
      */
@@ -442,4 +502,191 @@ public class ConsumeMessageConcurrentlyService implements ConsumeMessageService
             }
         }
     }
+
+    static class SendBackRequest {
+        private final List<MessageExt> msgs;
+        private final int delayLevel;
+        private final ProcessQueue processQueue;
+        private final MessageQueue messageQueue;
+
+
+        public SendBackRequest(List<MessageExt> msgs, int delayLevel, ProcessQueue processQueue,
+                MessageQueue messageQueue) {
+            this.msgs = msgs;
+            this.delayLevel = delayLevel;
+            this.processQueue = processQueue;
+            this.messageQueue = messageQueue;
+        }
+
+
+        public List<MessageExt> getMsgs() {
+            return msgs;
+        }
+
+
+        public int getDelayLevel() {
+            return delayLevel;
+        }
+
+
+        public ProcessQueue getProcessQueue() {
+            return processQueue;
+        }
+
+
+        public MessageQueue getMessageQueue() {
+            return messageQueue;
+        }
+    }
+
+    /**
+     * 消费失败的消息按Broker攒批发回，每个Broker一次请求<br>
+     * 批量发回失败或者Broker不支持批量发回时，逐条走原有的发回流程
+     */
+    class SendBackService extends ServiceThread {
+        // 一次批量发回的最大消息数
+        private static final int MaxBatchSize = 64;
+        private final LinkedBlockingQueue<SendBackRequest> requestQueue = new LinkedBlockingQueue<SendBackRequest>();
+        // 不支持批量发回的Broker，只在发回线程中访问
+        private final Set<String> batchUnsupportedBrokers = new HashSet<String>();
+
+
+        public void putRequest(final SendBackRequest request) {
+            try {
+                this.requestQueue.put(request);
+            }
+            catch (InterruptedException e) {
+                log.error("putRequest sendBackRequestQueue.put", e);
+            }
+        }
+
+
+        @Override
+        public void run() {
+            log.info(this.getServiceName() + " service started");
+
+            while (!this.isStopped()) {
+                try {
+                    SendBackRequest request = this.requestQueue.poll(1000, TimeUnit.MILLISECONDS);
+                    if (request != null) {
+                        this.doSendBack(request);
+                    }
+                }
+                catch (InterruptedException e) {
+                }
+                catch (Exception e) {
+                    log.error(this.getServiceName() + " service has exception. ", e);
+                }
+            }
+
+            // 停止前发回剩余的消息
+            SendBackRequest request;
+            while ((request = this.requestQueue.poll()) != null) {
+                this.doSendBack(request);
+            }
+
+            log.info(this.getServiceName() + " service end");
+        }
+
+
+        void doSendBack(final SendBackRequest first) {
+            List<SendBackRequest> requests = new ArrayList<SendBackRequest>();
+            requests.add(first);
+            this.requestQueue.drainTo(requests);
+
+            // 按Broker分组，每组不超过MaxBatchSize条消息
+            Map<String, List<SendBackRequest>> batchTable = new HashMap<String, List<SendBackRequest>>();
+            Map<String, Integer> batchSizeTable = new HashMap<String, Integer>();
+            for (SendBackRequest request : requests) {
+                String brokerName = request.getMessageQueue().getBrokerName();
+                List<SendBackRequest> batch = batchTable.get(brokerName);
+                if (null == batch) {
+                    batch = new ArrayList<SendBackRequest>();
+                    batchTable.put(brokerName, batch);
+                    batchSizeTable.put(brokerName, 0);
+                }
+
+                batch.add(request);
+                int batchSize = batchSizeTable.get(brokerName) + request.getMsgs().size();
+                if (batchSize >= MaxBatchSize) {
+                    this.sendBack(brokerName, batch);
+                    batchTable.remove(brokerName);
+                }
+                else {
+                    batchSizeTable.put(brokerName, batchSize);
+                }
+            }
+
+            for (Map.Entry<String, List<SendBackRequest>> entry : batchTable.entrySet()) {
+                this.sendBack(entry.getKey(), entry.getValue());
+            }
+        }
+
+
+        private void sendBack(final String brokerName, final List<SendBackRequest> requests) {
+            Set<Long> failedOffsets = null;
+            if (!this.batchUnsupportedBrokers.contains(brokerName)) {
+                List<SendMsgBackEntry> entries = new ArrayList<SendMsgBackEntry>();
+                for (SendBackRequest request : requests) {
+                    for (MessageExt msg : request.getMsgs()) {
+                        SendMsgBackEntry entry = new SendMsgBackEntry();
+                        entry.setOffset(msg.getCommitLogOffset());
+                        entry.setDelayLevel(request.getDelayLevel());
+                        entry.setOriginMsgId(msg.getMsgId());
+                        entry.setOriginTopic(msg.getTopic());
+                        entries.add(entry);
+                    }
+                }
+
+                try {
+                    failedOffsets =
+                            ConsumeMessageConcurrentlyService.this.sendMessageBackBatch(brokerName, entries);
+                }
+                catch (MQBrokerException e) {
+                    if (ResponseCode.REQUEST_CODE_NOT_SUPPORTED == e.getResponseCode()) {
+                        this.batchUnsupportedBrokers.add(brokerName);
+                        log.info("broker {} not support batch send back, send back one by one", brokerName);
+                    }
+                    else {
+                        log.warn("batch send back exception, group: " + consumerGroup + " broker: " + brokerName,
+                            e);
+                    }
+                }
+                catch (Exception e) {
+                    log.warn("batch send back exception, group: " + consumerGroup + " broker: " + brokerName, e);
+                }
+            }
+
+            for (SendBackRequest request : requests) {
+                List<MessageExt> msgBackOk = new ArrayList<MessageExt>(request.getMsgs().size());
+                List<MessageExt> msgBackFailed = new ArrayList<MessageExt>();
+                for (MessageExt msg : request.getMsgs()) {
+                    boolean result;
+                    if (failedOffsets != null && !failedOffsets.contains(msg.getCommitLogOffset())) {
+                        result = true;
+                    }
+                    else {
+                        result =
+                                ConsumeMessageConcurrentlyService.this.sendMessageBack(msg, request.getDelayLevel(),
+                                    brokerName);
+                    }
+
+                    if (result) {
+                        msgBackOk.add(msg);
+                    }
+                    else {
+                        msgBackFailed.add(msg);
+                    }
+                }
+
+                ConsumeMessageConcurrentlyService.this.processSendBackResult(request, msgBackOk, msgBackFailed);
+            }
+        }
+
+
+        @Override
+        public String getServiceName() {
+            return SendBackService.class.getSimpleName();
+        }
+    }
 }
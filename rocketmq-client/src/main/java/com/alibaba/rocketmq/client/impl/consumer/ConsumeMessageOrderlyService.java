@@ -296,6 +296,11 @@ public class ConsumeMessageOrderlyService implements ConsumeMessageService {
                             ConsumeMessageOrderlyService.this.getConsumerStatsManager().incConsumeRT(
                                 ConsumeMessageOrderlyService.this.consumerGroup, messageQueue.getTopic(),
                                 consumeRT);
+                            PullFlowController flowController =
+                                    ConsumeMessageOrderlyService.this.defaultMQPushConsumerImpl.getPullFlowController();
+                            if (flowController != null) {
+                                flowController.onConsumeRT(msgs.size(), consumeRT);
+                            }
 
                             continueConsume =
                                     ConsumeMessageOrderlyService.this.processConsumeResult(msgs, status,
@@ -99,6 +99,8 @@ public class DefaultMQPushConsumerImpl implements MQConsumerInner {
     private OffsetStore offsetStore;
     // 消费消息服务
     private ConsumeMessageService consumeMessageService;
+    // 自适应拉取流控，未开启时为null
+    private PullFlowController pullFlowController;
 
     // 消息过滤 hook
     private final ArrayList<FilterMessageHook> filterMessageHookList = new ArrayList<FilterMessageHook>();
@@ -349,27 +351,37 @@ public class DefaultMQPushConsumerImpl implements MQConsumerInner {
             return;
         }
 
-        // 流量控制，队列中消息总数
-        long size = processQueue.getMsgCount().get();
-        if (size > this.defaultMQPushConsumer.getPullThresholdForQueue()) {
-            this.executePullRequestLater(pullRequest, PullTimeDelayMillsWhenFlowControl);
-            if ((flowControlTimes1++ % 1000) == 0) {
-                log.warn("the consumer message buffer is full, so do flow control, {} {} {}", size,
-                    pullRequest, flowControlTimes1);
+        int pullBatchSize = this.defaultMQPushConsumer.getPullBatchSize();
+        if (this.pullFlowController != null) {
+            // 自适应流控，需要流控时拉取请求挂起，消费后恢复
+            pullBatchSize = this.pullFlowController.beforePull(pullRequest);
+            if (pullBatchSize <= 0) {
+                return;
             }
-            return;
         }
-
-        // 流量控制，队列中消息最大跨度
-        if (!this.consumeOrderly) {
-            if (processQueue.getMaxSpan() > this.defaultMQPushConsumer.getConsumeConcurrentlyMaxSpan()) {
+        else {
+            // 流量控制，队列中消息总数
+            long size = processQueue.getMsgCount().get();
+            if (size > this.defaultMQPushConsumer.getPullThresholdForQueue()) {
                 this.executePullRequestLater(pullRequest, PullTimeDelayMillsWhenFlowControl);
-                if ((flowControlTimes2++ % 1000) == 0) {
-                    log.warn("the queue's messages, span too long, so do flow control, {} {} {}",
-                        processQueue.getMaxSpan(), pullRequest, flowControlTimes2);
+                if ((flowControlTimes1++ % 1000) == 0) {
+                    log.warn("the consumer message buffer is full, so do flow control, {} {} {}", size,
+                        pullRequest, flowControlTimes1);
                 }
                 return;
             }
+
+            // 流量控制，队列中消息最大跨度
+            if (!this.consumeOrderly) {
+                if (processQueue.getMaxSpan() > this.defaultMQPushConsumer.getConsumeConcurrentlyMaxSpan()) {
+                    this.executePullRequestLater(pullRequest, PullTimeDelayMillsWhenFlowControl);
+                    if ((flowControlTimes2++ % 1000) == 0) {
+                        log.warn("the queue's messages, span too long, so do flow control, {} {} {}",
+                            processQueue.getMaxSpan(), pullRequest, flowControlTimes2);
+                    }
+                    return;
+                }
+            }
         }
 
         // 查询订阅关系
@@ -559,7 +571,7 @@ public class DefaultMQPushConsumerImpl implements MQConsumerInner {
                 subExpression, // 2
                 subscriptionData.getSubVersion(), // 3
                 pullRequest.getNextOffset(), // 4
-                this.defaultMQPushConsumer.getPullBatchSize(), // 5
+                pullBatchSize, // 5
                 sysFlag, // 6
                 commitOffsetValue,// 7
                 BrokerSuspendMaxTimeMillis, // 8
@@ -766,6 +778,10 @@ public class DefaultMQPushConsumerImpl implements MQConsumerInner {
                             (MessageListenerConcurrently) this.getMessageListenerInner());
             }
 
+            if (this.defaultMQPushConsumer.isAdaptivePullEnable()) {
+                this.pullFlowController = new PullFlowController(this);
+            }
+
             this.consumeMessageService.start();
 
             boolean registerOK = mQClientFactory.registerConsumer(this.defaultMQPushConsumer.getConsumerGroup(), this);
@@ -1034,6 +1050,11 @@ public class DefaultMQPushConsumerImpl implements MQConsumerInner {
     }
 
 
+    public PullFlowController getPullFlowController() {
+        return pullFlowController;
+    }
+
+
     public RebalanceImpl getRebalanceImpl() {
         return rebalanceImpl;
     }
@@ -26,6 +26,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -79,6 +80,15 @@ public class ProcessQueue {
      */
     private volatile long accumulatingMsgCnt = 0;
 
+    /**
+     * 自适应拉取流控，未开启时为null
+     */
+    private volatile PullFlowController pullFlowController;
+    // 缓存消息的总大小
+    private final AtomicLong msgSize = new AtomicLong();
+    // 因流控挂起，等待消费后恢复的拉取请求
+    private final AtomicReference<PullRequest> parkedPullRequest = new AtomicReference<PullRequest>();
+
 
     public boolean isLockExpired() {
         boolean result = (System.currentTimeMillis() - this.lastLockTimestamp) > RebalanceLockMaxLiveTime;
@@ -101,14 +111,17 @@ public class ProcessQueue {
             this.lockTreeMap.writeLock().lockInterruptibly();
             try {
                 int validMsgCnt = 0;
+                long validMsgSize = 0;
                 for (MessageExt msg : msgs) {
                     MessageExt old = msgTreeMap.put(msg.getQueueOffset(), msg);
                     if (null == old) {
                         validMsgCnt++;
+                        validMsgSize += msg.getStoreSize();
                         this.queueOffsetMax = msg.getQueueOffset();
                     }
                 }
                 msgCount.addAndGet(validMsgCnt);
+                this.changeMsgSize(validMsgCnt, validMsgSize);
 
                 if (!msgTreeMap.isEmpty() && !this.consuming) {
                     dispatchToConsume = true;
@@ -178,13 +191,16 @@ public class ProcessQueue {
                 if (!msgTreeMap.isEmpty()) {
                     result = this.queueOffsetMax + 1;
                     int removedCnt = 0;
+                    long removedSize = 0;
                     for (MessageExt msg : msgs) {
                         MessageExt prev = msgTreeMap.remove(msg.getQueueOffset());
                         if (prev != null) {
                             removedCnt--;
+                            removedSize -= prev.getStoreSize();
                         }
                     }
                     msgCount.addAndGet(removedCnt);
+                    this.changeMsgSize(0, removedSize);
 
                     if (!msgTreeMap.isEmpty()) {
                         result = msgTreeMap.firstKey();
@@ -199,6 +215,7 @@ public class ProcessQueue {
             log.error("removeMessage exception", t);
         }
 
+        this.afterConsume();
         return result;
     }
 
@@ -219,10 +236,56 @@ public class ProcessQueue {
 
 
     public void setDropped(boolean dropped) {
+        this.lockTreeMap.writeLock().lock();
+        try {
+            this.updateDropped(dropped);
+        }
+        finally {
+            this.lockTreeMap.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * 丢弃的队列不再计入流控的缓存大小，需要在持有写锁时调用
+     */
+    protected void updateDropped(final boolean dropped) {
+        PullFlowController flowController = this.pullFlowController;
+        if (flowController != null && dropped != this.dropped) {
+            flowController.addMsgSize(dropped ? -this.msgSize.get() : this.msgSize.get());
+        }
         this.dropped = dropped;
     }
 
 
+    /**
+     * 更新缓存消息的大小，需要在持有写锁时调用
+     */
+    protected void changeMsgSize(final int putMsgCnt, final long delta) {
+        this.msgSize.addAndGet(delta);
+        PullFlowController flowController = this.pullFlowController;
+        if (flowController != null) {
+            if (!this.dropped) {
+                flowController.addMsgSize(delta);
+            }
+            if (putMsgCnt > 0) {
+                flowController.updateAvgMsgSize(putMsgCnt, delta);
+            }
+        }
+    }
+
+
+    /**
+     * 消费完成后检查是否可以恢复挂起的拉取请求
+     */
+    protected void afterConsume() {
+        PullFlowController flowController = this.pullFlowController;
+        if (flowController != null) {
+            flowController.onConsumed(this);
+        }
+    }
+
+
     /**
      * ========================================================================
      * 以下部分为顺序消息专有操作
@@ -261,6 +324,11 @@ public class ProcessQueue {
             try {
                 Long offset = this.msgTreeMapTemp.lastKey();
                 msgCount.addAndGet(this.msgTreeMapTemp.size() * (-1));
+                long committedSize = 0;
+                for (MessageExt msg : this.msgTreeMapTemp.values()) {
+                    committedSize += msg.getStoreSize();
+                }
+                this.changeMsgSize(0, -committedSize);
                 this.msgTreeMapTemp.clear();
                 if (offset != null) {
                     return offset + 1;
@@ -268,6 +336,7 @@ public class ProcessQueue {
             }
             finally {
                 this.lockTreeMap.writeLock().unlock();
+                this.afterConsume();
             }
         }
         catch (InterruptedException e) {
@@ -348,6 +417,7 @@ public class ProcessQueue {
                 this.msgTreeMap.clear();
                 this.msgTreeMapTemp.clear();
                 this.msgCount.set(0);
+                this.changeMsgSize(0, -this.msgSize.get());
                 this.queueOffsetMax = 0L;
             }
             finally {
@@ -437,6 +507,50 @@ public class ProcessQueue {
     }
 
 
+    public long getMsgSize() {
+        return msgSize.get();
+    }
+
+
+    public PullFlowController getPullFlowController() {
+        return pullFlowController;
+    }
+
+
+    public void setPullFlowController(PullFlowController pullFlowController) {
+        this.pullFlowController = pullFlowController;
+    }
+
+
+    /**
+     * 挂起拉取请求，每个队列同时只有一个拉取请求
+     */
+    public void parkPullRequest(final PullRequest pullRequest) {
+        this.parkedPullRequest.set(pullRequest);
+    }
+
+
+    /**
+     * @return 取走挂起的拉取请求，没有则返回null
+     */
+    public PullRequest unparkPullRequest() {
+        return this.parkedPullRequest.getAndSet(null);
+    }
+
+
+    /**
+     * @return 挂起的仍是指定的拉取请求时取走并返回true
+     */
+    public boolean unparkPullRequest(final PullRequest pullRequest) {
+        return this.parkedPullRequest.compareAndSet(pullRequest, null);
+    }
+
+
+    public boolean hasParkedPullRequest() {
+        return this.parkedPullRequest.get() != null;
+    }
+
+
     public long getLastConsumeTimestamp() {
         return lastConsumeTimestamp;
     }
@@ -62,6 +62,8 @@ public class PullAPIWrapper {
 
     private volatile boolean connectBrokerByUser = false;
     private volatile long defaultBrokerId = MixAll.MASTER_ID;
+    // 反序列化后保留原始消息数据，Filter Server转发匹配的消息时直接使用
+    private volatile boolean keepMessageBinary = false;
 
 
     public PullAPIWrapper(MQClientInstance mQClientFactory, String consumerGroup, boolean unitMode) {
@@ -187,7 +189,9 @@ public class PullAPIWrapper {
         }
 
         // 令GC释放内存
-        pullResultExt.setMessageBinary(null);
+        if (!this.keepMessageBinary) {
+            pullResultExt.setMessageBinary(null);
+        }
 
         return pullResult;
     }
@@ -321,4 +325,14 @@ public class PullAPIWrapper {
         this.connectBrokerByUser = connectBrokerByUser;
 
     }
+
+
+    public boolean isKeepMessageBinary() {
+        return keepMessageBinary;
+    }
+
+
+    public void setKeepMessageBinary(boolean keepMessageBinary) {
+        this.keepMessageBinary = keepMessageBinary;
+    }
 }
@@ -0,0 +1,232 @@
+/**
+ * Copyright (C) 2010-2013 Alibaba Group Holding Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.rocketmq.client.impl.consumer;
+
+import com.alibaba.rocketmq.client.consumer.DefaultMQPushConsumer;
+import com.alibaba.rocketmq.client.log.ClientLogger;
+import org.slf4j.Logger;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Push消费的自适应拉取流控<br>
+ * 1. 所有队列缓存消息的总大小不超过pullThresholdBytesForConsumer，每个队列按平均分得的内存和消费耗时计算可以缓存的消息数<br>
+ * 2. 每次拉取的条数不超过队列剩余的预算<br>
+ * 3. 需要流控的拉取请求挂在ProcessQueue上，消费完成后缓存降到低水位以下立即恢复拉取，不再定时重试
+ */
+public class PullFlowController {
+    // 缓存降到预算的这个百分比以下时恢复拉取
+    private static final int LowWaterPercent = 50;
+    // 每个队列缓存的消息够消费这么长时间即可
+    private static final long TargetBufferMillis = 1000;
+    // 根据消费耗时计算的队列预算不低于此值
+    private static final int MinQueueBudget = 32;
+    // 挂起的拉取请求最长等待时间，防止条件变化后等不到消费事件
+    private static final long MaxParkMillis = 1000;
+
+    private final Logger log = ClientLogger.getLog();
+    private final DefaultMQPushConsumerImpl defaultMQPushConsumerImpl;
+    private final DefaultMQPushConsumer defaultMQPushConsumer;
+    // 所有队列缓存消息的总大小
+    private final AtomicLong totalMsgSize = new AtomicLong(0);
+    // 因总大小超限挂起的队列
+    private final Set<ProcessQueue> memoryParkedQueues = Collections
+        .newSetFromMap(new ConcurrentHashMap<ProcessQueue, Boolean>());
+    // 以下两个平均值只用于估算，并发更新时丢失个别样本不影响结果
+    // 每条消息平均消费耗时，单位微秒
+    private volatile long consumeRTPerMsg = 0;
+    // 每条消息平均大小
+    private volatile long avgMsgSize = 0;
+    private long flowControlTimes = 0;
+
+
+    public PullFlowController(DefaultMQPushConsumerImpl defaultMQPushConsumerImpl) {
+        this.defaultMQPushConsumerImpl = defaultMQPushConsumerImpl;
+        this.defaultMQPushConsumer = defaultMQPushConsumerImpl.getDefaultMQPushConsumer();
+    }
+
+
+    /**
+     * 拉消息前调用
+     *
+     * @return 本次拉取的消息条数，返回0表示需要流控，拉取请求已经挂起
+     */
+    public int beforePull(final PullRequest pullRequest) {
+        final ProcessQueue processQueue = pullRequest.getProcessQueue();
+        if (this.isMemoryFull()) {
+            this.park(pullRequest, true);
+            return 0;
+        }
+
+        long budget = this.computeQueueBudget();
+        long cached = processQueue.getMsgCount().get();
+        if (cached >= budget || this.isSpanTooLong(processQueue)) {
+            this.park(pullRequest, false);
+            return 0;
+        }
+
+        return (int) Math.max(1, Math.min(this.defaultMQPushConsumer.getPullBatchSize(), budget - cached));
+    }
+
+
+    /**
+     * ProcessQueue删除消息后调用
+     */
+    public void onConsumed(final ProcessQueue processQueue) {
+        if (!this.memoryParkedQueues.isEmpty() && !this.isAboveLowWater()) {
+            for (Iterator<ProcessQueue> it = this.memoryParkedQueues.iterator(); it.hasNext();) {
+                ProcessQueue parked = it.next();
+                it.remove();
+                this.resume(parked);
+            }
+        }
+
+        if (processQueue.hasParkedPullRequest()) {
+            this.tryResume(processQueue);
+        }
+    }
+
+
+    /**
+     * 消费一批消息后调用
+     */
+    public void onConsumeRT(final int msgCnt, final long consumeRT) {
+        if (msgCnt > 0) {
+            long rt = consumeRT * 1000 / msgCnt;
+            long prev = this.consumeRTPerMsg;
+            this.consumeRTPerMsg = (prev * 7 + rt) / 8;
+        }
+    }
+
+
+    public void addMsgSize(final long delta) {
+        this.totalMsgSize.addAndGet(delta);
+    }
+
+
+    public void updateAvgMsgSize(final int msgCnt, final long msgSize) {
+        long size = msgSize / msgCnt;
+        long prev = this.avgMsgSize;
+        this.avgMsgSize = 0 == prev ? size : (prev * 7 + size) / 8;
+    }
+
+
+    /**
+     * 队列可以缓存的消息数，取以下几项的最小值<br>
+     * 1. pullThresholdForQueue<br>
+     * 2. 按消费耗时估算的本队列TargetBufferMillis内能消费的消息数<br>
+     * 3. 本队列平均分得的内存能缓存的消息数
+     */
+    private long computeQueueBudget() {
+        long budget = this.defaultMQPushConsumer.getPullThresholdForQueue();
+        int queueCount = Math.max(1, this.defaultMQPushConsumerImpl.getRebalanceImpl().getProcessQueueTable().size());
+
+        long rt = this.consumeRTPerMsg;
+        if (rt > 0) {
+            // 顺序消费每个队列同时只有一个线程在消费
+            long threads = this.defaultMQPushConsumerImpl.isConsumeOrderly() ? 1 : Math.max(1,
+                this.defaultMQPushConsumer.getConsumeThreadMax() / queueCount);
+            long consumable = threads * TargetBufferMillis * 1000 / rt;
+            budget = Math.min(budget, Math.max(MinQueueBudget, consumable));
+        }
+
+        long limit = this.defaultMQPushConsumer.getPullThresholdBytesForConsumer();
+        long size = this.avgMsgSize;
+        if (limit > 0 && size > 0) {
+            budget = Math.min(budget, Math.max(1, limit / queueCount / size));
+        }
+
+        return budget;
+    }
+
+
+    private boolean isSpanTooLong(final ProcessQueue processQueue) {
+        return !this.defaultMQPushConsumerImpl.isConsumeOrderly()
+                && processQueue.getMaxSpan() > this.defaultMQPushConsumer.getConsumeConcurrentlyMaxSpan();
+    }
+
+
+    private boolean isMemoryFull() {
+        long limit = this.defaultMQPushConsumer.getPullThresholdBytesForConsumer();
+        return limit > 0 && this.totalMsgSize.get() >= limit;
+    }
+
+
+    private boolean isAboveLowWater() {
+        long limit = this.defaultMQPushConsumer.getPullThresholdBytesForConsumer();
+        return limit > 0 && this.totalMsgSize.get() * 100 > limit * LowWaterPercent;
+    }
+
+
+    private void park(final PullRequest pullRequest, final boolean memory) {
+        final ProcessQueue processQueue = pullRequest.getProcessQueue();
+        processQueue.parkPullRequest(pullRequest);
+        if (memory) {
+            this.memoryParkedQueues.add(processQueue);
+        }
+
+        if ((this.flowControlTimes++ % 1000) == 0) {
+            log.warn("do flow control, memory: {}, total size: {}, {} {}", memory, this.totalMsgSize.get(),
+                pullRequest, this.flowControlTimes);
+        }
+
+        // 挂起之前可能已经消费完成，重新检查一次
+        this.tryResume(processQueue);
+
+        this.defaultMQPushConsumerImpl.executeTaskLater(new Runnable() {
+            @Override
+            public void run() {
+                if (processQueue.unparkPullRequest(pullRequest)) {
+                    PullFlowController.this.memoryParkedQueues.remove(processQueue);
+                    PullFlowController.this.defaultMQPushConsumerImpl.executePullRequestImmediately(pullRequest);
+                }
+            }
+        }, MaxParkMillis);
+    }
+
+
+    private void tryResume(final ProcessQueue processQueue) {
+        if (this.memoryParkedQueues.contains(processQueue)) {
+            if (this.isAboveLowWater() || !this.memoryParkedQueues.remove(processQueue)) {
+                return;
+            }
+        }
+        else if (processQueue.getMsgCount().get() * 100 > this.computeQueueBudget() * LowWaterPercent
+                || this.isSpanTooLong(processQueue)) {
+            return;
+        }
+
+        this.resume(processQueue);
+    }
+
+
+    private void resume(final ProcessQueue processQueue) {
+        PullRequest pullRequest = processQueue.unparkPullRequest();
+        if (pullRequest != null) {
+            this.defaultMQPushConsumerImpl.executePullRequestImmediately(pullRequest);
+        }
+    }
+
+
+    public long getTotalMsgSize() {
+        return totalMsgSize.get();
+    }
+}
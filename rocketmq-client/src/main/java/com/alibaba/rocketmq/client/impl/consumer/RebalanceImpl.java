@@ -405,7 +405,7 @@ public abstract class RebalanceImpl {
                 PullRequest pullRequest = new PullRequest();
                 pullRequest.setConsumerGroup(consumerGroup);
                 pullRequest.setMessageQueue(mq);
-                pullRequest.setProcessQueue(new ProcessQueue());
+                pullRequest.setProcessQueue(this.createProcessQueue());
 
                 // 这个需要根据策略来设置
                 long nextOffset = this.computePullFromWhere(mq);
@@ -435,6 +435,11 @@ public abstract class RebalanceImpl {
     public abstract void dispatchPullRequest(final List<PullRequest> pullRequestList);
 
 
+    protected ProcessQueue createProcessQueue() {
+        return new ProcessQueue();
+    }
+
+
     public abstract long computePullFromWhere(final MessageQueue mq);
 
 
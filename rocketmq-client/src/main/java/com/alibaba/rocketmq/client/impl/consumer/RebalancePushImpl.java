@@ -64,6 +64,21 @@ public class RebalancePushImpl extends RebalanceImpl {
     }
 
 
+    @Override
+    protected ProcessQueue createProcessQueue() {
+        ProcessQueue processQueue;
+        if (this.defaultMQPushConsumerImpl.getDefaultMQPushConsumer().isRingProcessQueueEnable()
+                && !this.defaultMQPushConsumerImpl.isConsumeOrderly()) {
+            processQueue = new RingProcessQueue();
+        }
+        else {
+            processQueue = new ProcessQueue();
+        }
+        processQueue.setPullFlowController(this.defaultMQPushConsumerImpl.getPullFlowController());
+        return processQueue;
+    }
+
+
     @Override
     public long computePullFromWhere(MessageQueue mq) {
         // 如果返回-1，这个队列的rebalance会失败重试，但是不影响其他队列。
@@ -0,0 +1,302 @@
+/**
+ * Copyright (C) 2010-2013 Alibaba Group Holding Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.rocketmq.client.impl.consumer;
+
+import com.alibaba.rocketmq.client.log.ClientLogger;
+import com.alibaba.rocketmq.common.message.MessageConst;
+import com.alibaba.rocketmq.common.message.MessageExt;
+import com.alibaba.rocketmq.common.protocol.body.ProcessQueueInfo;
+import org.slf4j.Logger;
+
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+/**
+ * 并发消费专用的ProcessQueue，消息按拉取顺序存放在环形数组中，不使用TreeMap<br>
+ * 同一队列拉到的消息offset递增，offset到槽位通过二分查找得到，消费完成的槽位置空，
+ * 环两端连续的空槽被回收，头部消息的offset即为可以提交的消费进度<br>
+ * 写操作只在修改数组时持有锁，跨度、消息数和可提交的消费进度无锁读取
+ */
+public class RingProcessQueue extends ProcessQueue {
+    private static final int InitialCapacity = 64;
+    private final Logger log = ClientLogger.getLog();
+    private final ReentrantLock lock = new ReentrantLock();
+    private long[] offsets = new long[InitialCapacity];
+    private MessageExt[] msgs = new MessageExt[InitialCapacity];
+    // 环中第一个和最后一个之后的序号，槽位为序号 & (capacity - 1)
+    private long head = 0;
+    private long tail = 0;
+    // 环中最小和最大的未消费offset，没有未消费的消息时minOffset为Long.MAX_VALUE
+    private volatile long minOffset = Long.MAX_VALUE;
+    private volatile long maxOffset = 0L;
+    private volatile long queueOffsetMax = 0L;
+
+
+    @Override
+    public boolean putMessage(final List<MessageExt> msgs) {
+        int validMsgCnt = 0;
+        long validMsgSize = 0;
+        this.lock.lock();
+        try {
+            for (MessageExt msg : msgs) {
+                if (this.put(msg)) {
+                    validMsgCnt++;
+                    validMsgSize += msg.getStoreSize();
+                }
+            }
+            this.updateBounds();
+            this.changeMsgSize(validMsgCnt, validMsgSize);
+        }
+        finally {
+            this.lock.unlock();
+        }
+        this.getMsgCount().addAndGet(validMsgCnt);
+
+        // 计算当前队列堆积的消息数量
+        if (!msgs.isEmpty()) {
+            MessageExt messageExt = msgs.get(msgs.size() - 1);
+            String property = messageExt.getProperty(MessageConst.PROPERTY_MAX_OFFSET);
+            if (property != null) {
+                long accumulation = Long.parseLong(property) - messageExt.getQueueOffset();
+                if (accumulation > 0) {
+                    this.setAccumulatingMsgCnt(accumulation);
+                }
+            }
+        }
+
+        // 并发消费不使用consuming状态
+        return false;
+    }
+
+
+    private boolean put(final MessageExt msg) {
+        final long offset = msg.getQueueOffset();
+        if (this.head == this.tail || offset > this.offsets[this.index(this.tail - 1)]) {
+            this.ensureCapacity();
+            int index = this.index(this.tail);
+            this.offsets[index] = offset;
+            this.msgs[index] = msg;
+            this.tail++;
+            this.queueOffsetMax = offset;
+            return true;
+        }
+
+        // offset回退，很少发生，插入到对应位置
+        this.ensureCapacity();
+        long seq = this.search(offset);
+        if (seq < this.tail && this.offsets[this.index(seq)] == offset) {
+            boolean absent = null == this.msgs[this.index(seq)];
+            this.msgs[this.index(seq)] = msg;
+            return absent;
+        }
+
+        for (long i = this.tail; i > seq; i--) {
+            this.offsets[this.index(i)] = this.offsets[this.index(i - 1)];
+            this.msgs[this.index(i)] = this.msgs[this.index(i - 1)];
+        }
+        this.offsets[this.index(seq)] = offset;
+        this.msgs[this.index(seq)] = msg;
+        this.tail++;
+        return true;
+    }
+
+
+    @Override
+    public long getMaxSpan() {
+        long min = this.minOffset;
+        if (min != Long.MAX_VALUE) {
+            return Math.max(0, this.maxOffset - min);
+        }
+        return 0;
+    }
+
+
+    @Override
+    public long removeMessage(final List<MessageExt> msgs) {
+        this.setLastConsumeTimestamp(System.currentTimeMillis());
+        long result = -1;
+        int removedCnt = 0;
+        long removedSize = 0;
+        this.lock.lock();
+        try {
+            if (this.getMsgCount().get() > 0) {
+                for (MessageExt msg : msgs) {
+                    long seq = this.search(msg.getQueueOffset());
+                    if (seq < this.tail) {
+                        int index = this.index(seq);
+                        if (this.offsets[index] == msg.getQueueOffset() && this.msgs[index] != null) {
+                            removedSize += this.msgs[index].getStoreSize();
+                            this.msgs[index] = null;
+                            removedCnt++;
+                        }
+                    }
+                }
+
+                // 回收两端已经消费的槽
+                while (this.head < this.tail && null == this.msgs[this.index(this.head)]) {
+                    this.head++;
+                }
+                while (this.head < this.tail && null == this.msgs[this.index(this.tail - 1)]) {
+                    this.tail--;
+                }
+                this.updateBounds();
+                this.getMsgCount().addAndGet(-removedCnt);
+                this.changeMsgSize(0, -removedSize);
+
+                result = this.head < this.tail ? this.offsets[this.index(this.head)] : this.queueOffsetMax + 1;
+            }
+        }
+        catch (Throwable t) {
+            log.error("removeMessage exception", t);
+        }
+        finally {
+            this.lock.unlock();
+        }
+
+        this.afterConsume();
+        return result;
+    }
+
+
+    @Override
+    public void setDropped(boolean dropped) {
+        this.lock.lock();
+        try {
+            this.updateDropped(dropped);
+        }
+        finally {
+            this.lock.unlock();
+        }
+    }
+
+
+    @Override
+    public void clear() {
+        this.lock.lock();
+        try {
+            for (long i = this.head; i < this.tail; i++) {
+                this.msgs[this.index(i)] = null;
+            }
+            this.head = this.tail = 0;
+            this.minOffset = Long.MAX_VALUE;
+            this.maxOffset = 0L;
+            this.queueOffsetMax = 0L;
+            this.getMsgCount().set(0);
+            this.changeMsgSize(0, -this.getMsgSize());
+        }
+        finally {
+            this.lock.unlock();
+        }
+    }
+
+
+    @Override
+    public void fillProcessQueueInfo(final ProcessQueueInfo info) {
+        long min = this.minOffset;
+        if (min != Long.MAX_VALUE) {
+            info.setCachedMsgMinOffset(min);
+            info.setCachedMsgMaxOffset(this.maxOffset);
+            info.setCachedMsgCount((int) this.getMsgCount().get());
+        }
+
+        info.setLocked(this.isLocked());
+        info.setTryUnlockTimes(this.getTryUnlockTimes());
+        info.setLastLockTimestamp(this.getLastLockTimestamp());
+
+        info.setDroped(this.isDropped());
+        info.setLastPullTimestamp(this.getLastPullTimestamp());
+        info.setLastConsumeTimestamp(this.getLastConsumeTimestamp());
+    }
+
+
+    @Override
+    public void rollback() {
+        throw new UnsupportedOperationException("RingProcessQueue not support orderly consume");
+    }
+
+
+    @Override
+    public long commit() {
+        throw new UnsupportedOperationException("RingProcessQueue not support orderly consume");
+    }
+
+
+    @Override
+    public void makeMessageToConsumeAgain(List<MessageExt> msgs) {
+        throw new UnsupportedOperationException("RingProcessQueue not support orderly consume");
+    }
+
+
+    @Override
+    public List<MessageExt> takeMessages(final int batchSize) {
+        throw new UnsupportedOperationException("RingProcessQueue not support orderly consume");
+    }
+
+
+    /**
+     * @return 第一个offset不小于给定值的序号，都小于时返回tail
+     */
+    private long search(final long offset) {
+        long low = this.head;
+        long high = this.tail;
+        while (low < high) {
+            long mid = (low + high) >>> 1;
+            if (this.offsets[this.index(mid)] < offset) {
+                low = mid + 1;
+            }
+            else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+
+    private void updateBounds() {
+        if (this.head < this.tail) {
+            this.maxOffset = this.offsets[this.index(this.tail - 1)];
+            this.minOffset = this.offsets[this.index(this.head)];
+        }
+        else {
+            this.minOffset = Long.MAX_VALUE;
+        }
+    }
+
+
+    private void ensureCapacity() {
+        int capacity = this.offsets.length;
+        if (this.tail - this.head < capacity) {
+            return;
+        }
+
+        long[] newOffsets = new long[capacity * 2];
+        MessageExt[] newMsgs = new MessageExt[capacity * 2];
+        for (long i = this.head; i < this.tail; i++) {
+            newOffsets[(int) ((i - this.head) & (capacity * 2 - 1))] = this.offsets[this.index(i)];
+            newMsgs[(int) ((i - this.head) & (capacity * 2 - 1))] = this.msgs[this.index(i)];
+        }
+        this.offsets = newOffsets;
+        this.msgs = newMsgs;
+        this.tail -= this.head;
+        this.head = 0;
+    }
+
+
+    private int index(final long seq) {
+        return (int) (seq & (this.offsets.length - 1));
+    }
+}
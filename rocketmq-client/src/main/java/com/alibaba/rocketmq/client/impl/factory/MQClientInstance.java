@@ -1251,6 +1251,11 @@ public class MQClientInstance {
     }
 
 
+    public ConcurrentHashMap<String, HashMap<Long, String>> getBrokerAddrTable() {
+        return brokerAddrTable;
+    }
+
+
     public MQAdminImpl getMQAdminImpl() {
         return mQAdminImpl;
     }
@@ -683,7 +683,8 @@ public class DefaultMQProducerImpl implements MQProducerInner {
             byte[] prevBody = msg.getBody();
             try {
                 int sysFlag = 0;
-                if (this.tryToCompressMessage(msg)) {
+                // 批量消息的Body由多条消息序列化而成，不能整体压缩
+                if (!(msg instanceof MessageBatch) && this.tryToCompressMessage(msg)) {
                     sysFlag |= MessageSysFlag.CompressedFlag;
                 }
 
@@ -18,17 +18,20 @@ package com.alibaba.rocketmq.client.producer;
 import com.alibaba.rocketmq.client.ClientConfig;
 import com.alibaba.rocketmq.client.ClientType;
 import com.alibaba.rocketmq.client.QueryResult;
+import com.alibaba.rocketmq.client.Validators;
 import com.alibaba.rocketmq.client.exception.MQBrokerException;
 import com.alibaba.rocketmq.client.exception.MQClientException;
 import com.alibaba.rocketmq.client.hook.SendMessageClientTraceHook;
 import com.alibaba.rocketmq.client.impl.producer.DefaultMQProducerImpl;
 import com.alibaba.rocketmq.common.MixAll;
 import com.alibaba.rocketmq.common.message.Message;
+import com.alibaba.rocketmq.common.message.MessageBatch;
 import com.alibaba.rocketmq.common.message.MessageExt;
 import com.alibaba.rocketmq.common.message.MessageQueue;
 import com.alibaba.rocketmq.remoting.RPCHook;
 import com.alibaba.rocketmq.remoting.exception.RemotingException;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -239,6 +242,75 @@ public class DefaultMQProducer extends ClientConfig implements MQProducer {
     }
 
 
+    @Override
+    public SendResult send(Collection<Message> msgs) throws MQClientException, RemotingException,
+            MQBrokerException, InterruptedException {
+        return this.defaultMQProducerImpl.send(this.batch(msgs));
+    }
+
+
+    @Override
+    public SendResult send(Collection<Message> msgs, long timeout) throws MQClientException, RemotingException,
+            MQBrokerException, InterruptedException {
+        return this.defaultMQProducerImpl.send(this.batch(msgs), timeout);
+    }
+
+
+    @Override
+    public SendResult send(Collection<Message> msgs, MessageQueue mq) throws MQClientException,
+            RemotingException, MQBrokerException, InterruptedException {
+        return this.defaultMQProducerImpl.send(this.batch(msgs), mq);
+    }
+
+
+    @Override
+    public SendResult send(Collection<Message> msgs, MessageQueue mq, long timeout) throws MQClientException,
+            RemotingException, MQBrokerException, InterruptedException {
+        return this.defaultMQProducerImpl.send(this.batch(msgs), mq, timeout);
+    }
+
+
+    @Override
+    public void send(Collection<Message> msgs, SendCallback sendCallback) throws MQClientException,
+            RemotingException, InterruptedException {
+        this.defaultMQProducerImpl.send(this.batch(msgs), sendCallback);
+    }
+
+
+    @Override
+    public void send(Collection<Message> msgs, SendCallback sendCallback, long timeout) throws MQClientException,
+            RemotingException, InterruptedException {
+        this.defaultMQProducerImpl.send(this.batch(msgs), sendCallback, timeout);
+    }
+
+
+    @Override
+    public void send(Collection<Message> msgs, MessageQueueSelector selector, Object arg, SendCallback sendCallback)
+            throws MQClientException, RemotingException, InterruptedException {
+        this.defaultMQProducerImpl.send(this.batch(msgs), selector, arg, sendCallback);
+    }
+
+
+    /**
+     * 将多条消息打包为一个批次，批次Body为所有消息的序列化结果
+     */
+    private MessageBatch batch(Collection<Message> msgs) throws MQClientException {
+        MessageBatch msgBatch;
+        try {
+            msgBatch = MessageBatch.generateFromList(msgs);
+            for (Message message : msgBatch) {
+                Validators.checkMessage(message, this);
+            }
+            msgBatch.setBody(msgBatch.encode());
+        } catch (MQClientException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new MQClientException("Failed to initiate the MessageBatch", e);
+        }
+        return msgBatch;
+    }
+
+
     @Override
     public TransactionSendResult sendMessageInTransaction(Message msg, LocalTransactionExecutor transactionExecutor,
             final Object arg) throws MQClientException {
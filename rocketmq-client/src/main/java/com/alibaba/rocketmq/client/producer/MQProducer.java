@@ -22,6 +22,7 @@ import com.alibaba.rocketmq.common.message.Message;
 import com.alibaba.rocketmq.common.message.MessageQueue;
 import com.alibaba.rocketmq.remoting.exception.RemotingException;
 
+import java.util.Collection;
 import java.util.List;
 
 
@@ -240,6 +241,71 @@ public interface MQProducer extends MQAdmin {
             throws MQClientException, RemotingException, InterruptedException;
 
 
+    /**
+     * 批量发送消息，同步调用，一次请求将同一Topic的多条消息写入同一队列
+     * 
+     * @param msgs
+     *            消息集合，必须属于同一Topic，不支持定时消息与重试消息
+     * @return 发送结果，msgId为逗号分隔的各条消息ID，queueOffset为第一条消息的位置
+     * @throws InterruptedException
+     * @throws MQBrokerException
+     * @throws RemotingException
+     * @throws MQClientException
+     */
+    SendResult send(final Collection<Message> msgs) throws MQClientException, RemotingException,
+            MQBrokerException, InterruptedException;
+
+
+    SendResult send(final Collection<Message> msgs, final long timeout) throws MQClientException,
+            RemotingException, MQBrokerException, InterruptedException;
+
+
+    SendResult send(final Collection<Message> msgs, final MessageQueue mq) throws MQClientException,
+            RemotingException, MQBrokerException, InterruptedException;
+
+
+    SendResult send(final Collection<Message> msgs, final MessageQueue mq, final long timeout)
+            throws MQClientException, RemotingException, MQBrokerException, InterruptedException;
+
+
+    /**
+     * 批量发送消息，异步调用
+     * 
+     * @param msgs
+     *            消息集合，必须属于同一Topic
+     * @param sendCallback
+     *            发送结果通过此接口回调
+     * @throws MQClientException
+     * @throws RemotingException
+     * @throws InterruptedException
+     */
+    void send(final Collection<Message> msgs, final SendCallback sendCallback) throws MQClientException,
+            RemotingException, InterruptedException;
+
+
+    void send(final Collection<Message> msgs, final SendCallback sendCallback, final long timeout)
+            throws MQClientException, RemotingException, InterruptedException;
+
+
+    /**
+     * 批量发送消息，异步调用，由selector选择写入的队列
+     * 
+     * @param msgs
+     *            消息集合，必须属于同一Topic
+     * @param selector
+     *            队列选择器，发送时回调
+     * @param arg
+     *            回调队列选择器时，此参数会传入队列选择方法
+     * @param sendCallback
+     *            发送结果通过此接口回调
+     * @throws MQClientException
+     * @throws RemotingException
+     * @throws InterruptedException
+     */
+    void send(final Collection<Message> msgs, final MessageQueueSelector selector, final Object arg,
+            final SendCallback sendCallback) throws MQClientException, RemotingException, InterruptedException;
+
+
     TransactionSendResult sendMessageInTransaction(final Message msg,
             final LocalTransactionExecutor transactionExecutor, final Object arg) throws MQClientException;
 }
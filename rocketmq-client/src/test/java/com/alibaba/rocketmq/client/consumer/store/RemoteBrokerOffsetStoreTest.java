@@ -0,0 +1,131 @@
+package com.alibaba.rocketmq.client.consumer.store;
+
+import com.alibaba.rocketmq.client.ClientConfig;
+import com.alibaba.rocketmq.client.exception.MQBrokerException;
+import com.alibaba.rocketmq.client.impl.factory.MQClientInstance;
+import com.alibaba.rocketmq.common.MixAll;
+import com.alibaba.rocketmq.common.message.MessageQueue;
+import com.alibaba.rocketmq.common.protocol.ResponseCode;
+import com.alibaba.rocketmq.common.protocol.body.UpdateConsumerOffsetBatchBody;
+import com.alibaba.rocketmq.common.protocol.header.UpdateConsumerOffsetRequestHeader;
+import com.alibaba.rocketmq.remoting.exception.RemotingTimeoutException;
+import com.alibaba.rocketmq.remoting.netty.NettySystemConfig;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+public class RemoteBrokerOffsetStoreTest {
+    private static final String BrokerName = "broker-a";
+    private static final String BrokerAddr = "127.0.0.1:10911";
+
+
+    /**
+     * 模拟Broker的应答，不发网络请求
+     */
+    static class RecordingOffsetStore extends RemoteBrokerOffsetStore {
+        // 老版本Broker不应答批量请求，新版本Broker返回的错误码，0表示成功
+        private final boolean batchNoResponse;
+        private final int batchResponseCode;
+        // 每次批量请求的超时时间
+        final List<Long> batchTimeouts = new ArrayList<Long>();
+        // 逐个队列更新的队列
+        final List<Integer> onewayQueueIds = new ArrayList<Integer>();
+
+
+        RecordingOffsetStore(boolean batchNoResponse, int batchResponseCode) {
+            super(newClientInstance(), "GROUP_A");
+            this.batchNoResponse = batchNoResponse;
+            this.batchResponseCode = batchResponseCode;
+        }
+
+
+        @Override
+        void updateConsumerOffsetBatch(String brokerAddr, UpdateConsumerOffsetBatchBody body, long timeoutMillis)
+                throws RemotingTimeoutException, MQBrokerException {
+            this.batchTimeouts.add(timeoutMillis);
+            if (this.batchNoResponse) {
+                // 与NettyRemotingAbstract.invokeSyncImpl等不到应答时一致
+                throw new RemotingTimeoutException(brokerAddr, timeoutMillis);
+            }
+            if (this.batchResponseCode != ResponseCode.SUCCESS) {
+                throw new MQBrokerException(this.batchResponseCode, "");
+            }
+        }
+
+
+        @Override
+        void updateConsumerOffsetOneway(String brokerAddr, UpdateConsumerOffsetRequestHeader requestHeader) {
+            this.onewayQueueIds.add(requestHeader.getQueueId());
+        }
+    }
+
+
+    private static MQClientInstance newClientInstance() {
+        MQClientInstance instance = new MQClientInstance(new ClientConfig(), 0, "RemoteBrokerOffsetStoreTest");
+        HashMap<Long, String> addrs = new HashMap<Long, String>();
+        addrs.put(MixAll.MASTER_ID, BrokerAddr);
+        instance.getBrokerAddrTable().put(BrokerName, addrs);
+        return instance;
+    }
+
+
+    private static Set<MessageQueue> updateOffsets(RemoteBrokerOffsetStore store, long offset) {
+        Set<MessageQueue> mqs = new HashSet<MessageQueue>();
+        for (int queueId = 0; queueId < 4; queueId++) {
+            MessageQueue mq = new MessageQueue("TopicA", BrokerName, queueId);
+            store.updateOffset(mq, offset, false);
+            mqs.add(mq);
+        }
+        return mqs;
+    }
+
+
+    @Test
+    public void test_fallback_when_broker_not_respond() {
+        RecordingOffsetStore store = new RecordingOffsetStore(true, ResponseCode.SUCCESS);
+        store.persistAll(updateOffsets(store, 10));
+
+        // 第一次批量请求用较短的超时探测，超时后逐个队列更新
+        assertEquals(1, store.batchTimeouts.size());
+        assertEquals(RemoteBrokerOffsetStore.BatchProbeTimeoutMillis, store.batchTimeouts.get(0).longValue());
+        assertEquals(4, store.onewayQueueIds.size());
+
+        // 之后不再发送批量请求
+        store.persistAll(updateOffsets(store, 20));
+        assertEquals(1, store.batchTimeouts.size());
+        assertEquals(8, store.onewayQueueIds.size());
+    }
+
+
+    @Test
+    public void test_fallback_when_batch_not_supported() {
+        RecordingOffsetStore store = new RecordingOffsetStore(false, ResponseCode.REQUEST_CODE_NOT_SUPPORTED);
+        store.persistAll(updateOffsets(store, 10));
+        store.persistAll(updateOffsets(store, 20));
+
+        assertEquals(1, store.batchTimeouts.size());
+        assertEquals(8, store.onewayQueueIds.size());
+    }
+
+
+    @Test
+    public void test_batch_supported() {
+        RecordingOffsetStore store = new RecordingOffsetStore(false, ResponseCode.SUCCESS);
+        store.persistAll(updateOffsets(store, 10));
+        store.persistAll(updateOffsets(store, 20));
+
+        // 探测成功后使用正常的超时时间，不再逐个队列更新
+        assertEquals(2, store.batchTimeouts.size());
+        assertEquals(RemoteBrokerOffsetStore.BatchProbeTimeoutMillis, store.batchTimeouts.get(0).longValue());
+        assertEquals(NettySystemConfig.NETTY_IO_TIMEOUT, store.batchTimeouts.get(1).longValue());
+        assertTrue(store.onewayQueueIds.isEmpty());
+    }
+}
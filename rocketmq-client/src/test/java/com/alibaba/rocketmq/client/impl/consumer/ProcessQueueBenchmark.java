@@ -0,0 +1,103 @@
+package com.alibaba.rocketmq.client.impl.consumer;
+
+import com.alibaba.rocketmq.common.message.MessageExt;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * 对比TreeMap与环形数组实现的ProcessQueue<br>
+ * 每次操作拉入一批消息，并以两两乱序的方式逐条确认同样数量的最早消息，队列中始终保持window条未确认消息
+ *
+ * mvn test-compile 后运行 main 方法
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ProcessQueueBenchmark {
+    private static final int BatchSize = 32;
+
+    @Param({ "tree", "ring" })
+    private String impl;
+
+    @Param({ "1000" })
+    private int window;
+
+    private ProcessQueue processQueue;
+
+    private MessageExt[] pending;
+
+    private long nextOffset;
+
+    private long ackOffset;
+
+
+    @Setup
+    public void setup() {
+        processQueue = "ring".equals(impl) ? new RingProcessQueue() : new ProcessQueue();
+        pending = new MessageExt[Integer.highestOneBit(window + BatchSize) * 2];
+        nextOffset = 0;
+        ackOffset = 0;
+        while (nextOffset < window) {
+            processQueue.putMessage(pull());
+        }
+    }
+
+
+    private List<MessageExt> pull() {
+        List<MessageExt> msgs = new ArrayList<MessageExt>(BatchSize);
+        for (int i = 0; i < BatchSize; i++) {
+            MessageExt msg = new MessageExt();
+            msg.setQueueOffset(nextOffset);
+            pending[(int) (nextOffset & (pending.length - 1))] = msg;
+            msgs.add(msg);
+            nextOffset++;
+        }
+        return msgs;
+    }
+
+
+    @Benchmark
+    public long putAndRemove() {
+        processQueue.putMessage(pull());
+
+        long commitOffset = 0;
+        for (int i = 0; i < BatchSize; i += 2) {
+            MessageExt first = pending[(int) ((ackOffset + i) & (pending.length - 1))];
+            MessageExt second = pending[(int) ((ackOffset + i + 1) & (pending.length - 1))];
+            processQueue.removeMessage(Collections.singletonList(second));
+            commitOffset = processQueue.removeMessage(Collections.singletonList(first));
+        }
+        ackOffset += BatchSize;
+        return commitOffset + processQueue.getMaxSpan();
+    }
+
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+            .include(ProcessQueueBenchmark.class.getSimpleName())
+            .build();
+        new Runner(options).run();
+    }
+}
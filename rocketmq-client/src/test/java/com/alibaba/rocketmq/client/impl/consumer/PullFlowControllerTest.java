@@ -0,0 +1,53 @@
+package com.alibaba.rocketmq.client.impl.consumer;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.alibaba.rocketmq.client.consumer.DefaultMQPushConsumer;
+import com.alibaba.rocketmq.common.message.MessageExt;
+import com.alibaba.rocketmq.common.message.MessageQueue;
+
+
+public class PullFlowControllerTest {
+
+    @Test
+    public void test_budget_and_msg_size() {
+        DefaultMQPushConsumer consumer = new DefaultMQPushConsumer("test_group");
+        consumer.setPullThresholdBytesForConsumer(100 * 1024);
+        DefaultMQPushConsumerImpl consumerImpl = consumer.getDefaultMQPushConsumerImpl();
+        PullFlowController controller = new PullFlowController(consumerImpl);
+
+        ProcessQueue processQueue = new ProcessQueue();
+        processQueue.setPullFlowController(controller);
+        consumerImpl.getRebalanceImpl().getProcessQueueTable()
+            .put(new MessageQueue("TopicTest", "broker-a", 0), processQueue);
+
+        List<MessageExt> msgs = new ArrayList<MessageExt>();
+        for (int i = 0; i < 10; i++) {
+            MessageExt msg = new MessageExt();
+            msg.setQueueOffset(i);
+            msg.setStoreSize(1024);
+            msgs.add(msg);
+        }
+        processQueue.putMessage(msgs);
+        assertEquals(10 * 1024, controller.getTotalMsgSize());
+
+        // 内存只够缓存100条，已经缓存10条
+        PullRequest pullRequest = new PullRequest();
+        pullRequest.setProcessQueue(processQueue);
+        assertEquals(90, controller.beforePull(pullRequest));
+
+        processQueue.removeMessage(msgs.subList(0, 4));
+        assertEquals(6 * 1024, controller.getTotalMsgSize());
+
+        // 丢弃的队列不再占用内存
+        processQueue.setDropped(true);
+        assertEquals(0, controller.getTotalMsgSize());
+        processQueue.removeMessage(msgs.subList(4, 10));
+        assertEquals(0, controller.getTotalMsgSize());
+    }
+}
@@ -0,0 +1,152 @@
+package com.alibaba.rocketmq.client.impl.consumer;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.alibaba.rocketmq.common.message.MessageExt;
+
+
+public class RingProcessQueueTest {
+
+    private static List<MessageExt> msgs(long... offsets) {
+        List<MessageExt> msgs = new ArrayList<MessageExt>();
+        for (long offset : offsets) {
+            MessageExt msg = new MessageExt();
+            msg.setQueueOffset(offset);
+            msgs.add(msg);
+        }
+        return msgs;
+    }
+
+
+    @Test
+    public void test_remove_out_of_order() {
+        RingProcessQueue processQueue = new RingProcessQueue();
+        List<MessageExt> msgs = msgs(10, 11, 15, 100);
+        processQueue.putMessage(msgs);
+        assertEquals(4, processQueue.getMsgCount().get());
+        assertEquals(90, processQueue.getMaxSpan());
+
+        // 最早的消息未确认，消费进度不前进
+        assertEquals(10, processQueue.removeMessage(Arrays.asList(msgs.get(1), msgs.get(3))));
+        assertEquals(5, processQueue.getMaxSpan());
+        assertEquals(15, processQueue.removeMessage(Arrays.asList(msgs.get(0))));
+        assertEquals(101, processQueue.removeMessage(Arrays.asList(msgs.get(2))));
+        assertEquals(0, processQueue.getMsgCount().get());
+        assertEquals(-1, processQueue.removeMessage(Arrays.asList(msgs.get(2))));
+    }
+
+
+    @Test
+    public void test_grow() {
+        RingProcessQueue processQueue = new RingProcessQueue();
+        List<MessageExt> all = new ArrayList<MessageExt>();
+        for (int i = 0; i < 10; i++) {
+            List<MessageExt> batch = new ArrayList<MessageExt>();
+            for (int j = 0; j < 32; j++) {
+                batch.addAll(msgs(i * 32 + j));
+            }
+            processQueue.putMessage(batch);
+            all.addAll(batch);
+        }
+        assertEquals(320, processQueue.getMsgCount().get());
+        assertEquals(319, processQueue.getMaxSpan());
+        assertEquals(100, processQueue.removeMessage(all.subList(0, 100)));
+        assertEquals(320, processQueue.removeMessage(all.subList(100, 320)));
+    }
+
+
+    @Test
+    public void test_put_out_of_order_when_wrapped() {
+        RingProcessQueue processQueue = new RingProcessQueue();
+        List<MessageExt> all = new ArrayList<MessageExt>();
+        for (int i = 0; i < 60; i++) {
+            all.addAll(msgs(i * 2));
+        }
+        processQueue.putMessage(all);
+        assertEquals(100, processQueue.removeMessage(all.subList(0, 50)));
+
+        // 尾部绕回数组开头
+        List<MessageExt> tail = new ArrayList<MessageExt>();
+        for (int i = 60; i < 80; i++) {
+            tail.addAll(msgs(i * 2));
+        }
+        processQueue.putMessage(tail);
+
+        // 乱序插入，后面的消息跨过数组边界整体后移
+        List<MessageExt> late = msgs(101);
+        processQueue.putMessage(late);
+        assertEquals(31, processQueue.getMsgCount().get());
+        assertEquals(58, processQueue.getMaxSpan());
+
+        assertEquals(101, processQueue.removeMessage(all.subList(50, 51)));
+        assertEquals(102, processQueue.removeMessage(late));
+        assertEquals(120, processQueue.removeMessage(all.subList(51, 60)));
+        for (int i = 0; i < tail.size() - 1; i++) {
+            assertEquals(tail.get(i + 1).getQueueOffset(), processQueue.removeMessage(tail.subList(i, i + 1)));
+        }
+        assertEquals(159, processQueue.removeMessage(tail.subList(tail.size() - 1, tail.size())));
+        assertEquals(0, processQueue.getMsgCount().get());
+    }
+
+
+    @Test
+    public void test_put_duplicate_after_consumed() {
+        RingProcessQueue processQueue = new RingProcessQueue();
+        List<MessageExt> msgs = msgs(10, 11, 12);
+        processQueue.putMessage(msgs);
+
+        // 重复拉到未消费的消息不重复计数
+        processQueue.putMessage(msgs(12));
+        assertEquals(3, processQueue.getMsgCount().get());
+
+        // 中间的槽已经消费，重复拉到时重新放入
+        assertEquals(10, processQueue.removeMessage(msgs.subList(1, 2)));
+        List<MessageExt> again = msgs(11);
+        processQueue.putMessage(again);
+        assertEquals(3, processQueue.getMsgCount().get());
+        assertEquals(11, processQueue.removeMessage(msgs.subList(0, 1)));
+        assertEquals(12, processQueue.removeMessage(again));
+
+        // 头部的槽已经回收，重复拉到时插入到头部
+        List<MessageExt> head = msgs(10);
+        processQueue.putMessage(head);
+        assertEquals(2, processQueue.getMsgCount().get());
+        assertEquals(2, processQueue.getMaxSpan());
+        assertEquals(10, processQueue.removeMessage(msgs.subList(2, 3)));
+        assertEquals(13, processQueue.removeMessage(head));
+    }
+
+
+    @Test
+    public void test_grow_when_wrapped() {
+        RingProcessQueue processQueue = new RingProcessQueue();
+        List<MessageExt> all = new ArrayList<MessageExt>();
+        for (int i = 0; i < 50; i++) {
+            all.addAll(msgs(i));
+        }
+        processQueue.putMessage(all);
+        assertEquals(40, processQueue.removeMessage(all.subList(0, 40)));
+
+        // 头部在数组中间时扩容，扩容后顺序不变
+        List<MessageExt> more = new ArrayList<MessageExt>();
+        for (int i = 50; i < 130; i++) {
+            more.addAll(msgs(i));
+        }
+        processQueue.putMessage(more);
+        all.addAll(more);
+        assertEquals(90, processQueue.getMsgCount().get());
+        assertEquals(89, processQueue.getMaxSpan());
+
+        for (int i = 40; i < 129; i++) {
+            assertEquals(i + 1, processQueue.removeMessage(all.subList(i, i + 1)));
+        }
+        assertEquals(130, processQueue.removeMessage(all.subList(129, 130)));
+        assertEquals(0, processQueue.getMsgCount().get());
+    }
+}
@@ -0,0 +1,185 @@
+package com.alibaba.rocketmq.client.impl.consumer;
+
+import com.alibaba.rocketmq.client.consumer.DefaultMQPushConsumer;
+import com.alibaba.rocketmq.client.consumer.listener.ConsumeConcurrentlyContext;
+import com.alibaba.rocketmq.client.consumer.listener.ConsumeConcurrentlyStatus;
+import com.alibaba.rocketmq.client.consumer.listener.MessageListenerConcurrently;
+import com.alibaba.rocketmq.client.exception.MQBrokerException;
+import com.alibaba.rocketmq.common.message.MessageExt;
+import com.alibaba.rocketmq.common.message.MessageQueue;
+import com.alibaba.rocketmq.common.protocol.ResponseCode;
+import com.alibaba.rocketmq.common.protocol.body.SendMsgBackEntry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+public class SendBackServiceTest {
+    private RecordingService service;
+
+
+    /**
+     * 记录批量发回与逐条发回，不发网络请求
+     */
+    static class RecordingService extends ConsumeMessageConcurrentlyService {
+        // 每次批量发回的Broker与消息数
+        final List<String> batchCalls = new ArrayList<String>();
+        // 逐条发回的消息offset
+        final List<Long> singleCalls = new ArrayList<Long>();
+        final List<MessageExt> msgBackOk = new ArrayList<MessageExt>();
+        final List<MessageExt> msgBackFailed = new ArrayList<MessageExt>();
+        // 批量发回时Broker返回失败的offset
+        Set<Long> batchFailedOffsets = new HashSet<Long>();
+        // 批量发回时抛出的异常
+        MQBrokerException batchException;
+        // 逐条发回失败的offset
+        Set<Long> singleFailedOffsets = new HashSet<Long>();
+
+
+        RecordingService() {
+            super(new DefaultMQPushConsumer("SendBackServiceTest").getDefaultMQPushConsumerImpl(),
+                new MessageListenerConcurrently() {
+                    @Override
+                    public ConsumeConcurrentlyStatus consumeMessage(List<MessageExt> msgs,
+                            ConsumeConcurrentlyContext context) {
+                        return ConsumeConcurrentlyStatus.CONSUME_SUCCESS;
+                    }
+                });
+        }
+
+
+        @Override
+        Set<Long> sendMessageBackBatch(String brokerName, List<SendMsgBackEntry> entries)
+                throws MQBrokerException {
+            this.batchCalls.add(brokerName + ":" + entries.size());
+            if (this.batchException != null) {
+                throw this.batchException;
+            }
+            return this.batchFailedOffsets;
+        }
+
+
+        @Override
+        boolean sendMessageBack(MessageExt msg, int delayLevel, String brokerName) {
+            this.singleCalls.add(msg.getCommitLogOffset());
+            return !this.singleFailedOffsets.contains(msg.getCommitLogOffset());
+        }
+
+
+        @Override
+        void processSendBackResult(ConsumeMessageConcurrentlyService.SendBackRequest request,
+                List<MessageExt> msgBackOk, List<MessageExt> msgBackFailed) {
+            this.msgBackOk.addAll(msgBackOk);
+            this.msgBackFailed.addAll(msgBackFailed);
+        }
+    }
+
+
+    private static ConsumeMessageConcurrentlyService.SendBackRequest buildRequest(String brokerName,
+            long... offsets) {
+        List<MessageExt> msgs = new ArrayList<MessageExt>();
+        for (long offset : offsets) {
+            MessageExt msg = new MessageExt();
+            msg.setTopic("TopicA");
+            msg.setCommitLogOffset(offset);
+            msg.setMsgId("MSG" + offset);
+            msgs.add(msg);
+        }
+        return new ConsumeMessageConcurrentlyService.SendBackRequest(msgs, 0, new ProcessQueue(), new MessageQueue(
+            "TopicA", brokerName, 0));
+    }
+
+
+    @Before
+    public void setUp() {
+        this.service = new RecordingService();
+    }
+
+
+    @After
+    public void tearDown() {
+        this.service.shutdown();
+    }
+
+
+    @Test
+    public void test_batch_per_broker() {
+        this.service.sendBackService.putRequest(buildRequest("broker-b", 3));
+        this.service.sendBackService.putRequest(buildRequest("broker-a", 4));
+        this.service.sendBackService.doSendBack(buildRequest("broker-a", 1, 2));
+
+        // 每个Broker一次批量发回
+        assertEquals(2, this.service.batchCalls.size());
+        assertTrue(this.service.batchCalls.contains("broker-a:3"));
+        assertTrue(this.service.batchCalls.contains("broker-b:1"));
+        assertTrue(this.service.singleCalls.isEmpty());
+        assertEquals(4, this.service.msgBackOk.size());
+        assertTrue(this.service.msgBackFailed.isEmpty());
+    }
+
+
+    @Test
+    public void test_batch_size_limit() {
+        for (long offset = 1; offset < 70; offset++) {
+            this.service.sendBackService.putRequest(buildRequest("broker-a", offset));
+        }
+        this.service.sendBackService.doSendBack(buildRequest("broker-a", 70));
+
+        // 超过64条拆成两批
+        assertEquals(2, this.service.batchCalls.size());
+        assertEquals("broker-a:64", this.service.batchCalls.get(0));
+        assertEquals("broker-a:6", this.service.batchCalls.get(1));
+        assertEquals(70, this.service.msgBackOk.size());
+    }
+
+
+    @Test
+    public void test_fallback_for_failed_offsets() {
+        this.service.batchFailedOffsets.add(2L);
+        this.service.batchFailedOffsets.add(3L);
+        this.service.singleFailedOffsets.add(3L);
+        this.service.sendBackService.doSendBack(buildRequest("broker-a", 1, 2, 3));
+
+        // 只有批量发回失败的消息逐条重发，逐条也失败的消息交给本地重试
+        assertEquals(2, this.service.singleCalls.size());
+        assertTrue(this.service.singleCalls.contains(2L));
+        assertTrue(this.service.singleCalls.contains(3L));
+        assertEquals(2, this.service.msgBackOk.size());
+        assertEquals(1, this.service.msgBackFailed.size());
+        assertEquals(3L, this.service.msgBackFailed.get(0).getCommitLogOffset());
+    }
+
+
+    @Test
+    public void test_fallback_when_batch_unsupported() {
+        this.service.batchException = new MQBrokerException(ResponseCode.REQUEST_CODE_NOT_SUPPORTED, "");
+        this.service.sendBackService.doSendBack(buildRequest("broker-a", 1, 2));
+        this.service.sendBackService.doSendBack(buildRequest("broker-a", 3));
+
+        // 不支持批量发回的Broker只尝试一次，之后逐条发回
+        assertEquals(1, this.service.batchCalls.size());
+        assertEquals(3, this.service.singleCalls.size());
+        assertEquals(3, this.service.msgBackOk.size());
+    }
+
+
+    @Test
+    public void test_fallback_when_batch_failed() {
+        this.service.batchException = new MQBrokerException(ResponseCode.SYSTEM_ERROR, "");
+        this.service.sendBackService.doSendBack(buildRequest("broker-a", 1));
+        this.service.sendBackService.doSendBack(buildRequest("broker-a", 2));
+
+        // 其他错误下次仍然尝试批量发回
+        assertEquals(2, this.service.batchCalls.size());
+        assertEquals(2, this.service.singleCalls.size());
+        assertEquals(2, this.service.msgBackOk.size());
+    }
+}
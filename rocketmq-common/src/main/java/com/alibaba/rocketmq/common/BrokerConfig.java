@@ -69,6 +69,9 @@ public class BrokerConfig {
 
     private int flushConsumerOffsetHistoryInterval = 1000 * 60;
 
+    // 消费进度以二进制日志追加持久化，不再每次重写整个json文件
+    private boolean consumerOffsetJournalEnable = true;
+
     // 是否拒绝接收事务消息
     @ImportantField
     private boolean rejectTransactionMessage = false;
@@ -237,6 +240,16 @@ public class BrokerConfig {
     }
 
 
+    public boolean isConsumerOffsetJournalEnable() {
+        return consumerOffsetJournalEnable;
+    }
+
+
+    public void setConsumerOffsetJournalEnable(boolean consumerOffsetJournalEnable) {
+        this.consumerOffsetJournalEnable = consumerOffsetJournalEnable;
+    }
+
+
     public boolean isClusterTopicEnable() {
         return clusterTopicEnable;
     }
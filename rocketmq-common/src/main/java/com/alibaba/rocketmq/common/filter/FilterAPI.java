@@ -17,6 +17,7 @@ package com.alibaba.rocketmq.common.filter;
 
 import java.net.URL;
 
+import com.alibaba.rocketmq.common.filter.impl.PropertyExpr;
 import com.alibaba.rocketmq.common.protocol.heartbeat.SubscriptionData;
 
 
@@ -75,6 +76,12 @@ public class FilterAPI {
         if (null == subString || subString.equals(SubscriptionData.SUB_ALL) || subString.length() == 0) {
             subscriptionData.setSubString(SubscriptionData.SUB_ALL);
         }
+        // eg: a=1 && (b=2 || c!=3)
+        else if (PropertyExpr.isPropertyExpr(subString)) {
+            // 提前编译一次，表达式非法时抛出异常
+            PropertyExpr.compile(subString);
+            subscriptionData.setPropertyFilterMode(true);
+        }
         // eg: com.taobao.abc.FilterClassName
         else if (isFilterClassMode(subString)) {
             // if (null == classFile(subString)) {
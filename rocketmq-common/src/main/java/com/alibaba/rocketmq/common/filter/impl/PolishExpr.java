@@ -31,7 +31,7 @@ public class PolishExpr {
             int chValue = (int) expression.charAt(i);
 
             if ((97 <= chValue && chValue <= 122) || (65 <= chValue && chValue <= 90)
-                    || (49 <= chValue && chValue <= 57) || 95 == chValue) {
+                    || (48 <= chValue && chValue <= 57) || 95 == chValue || isPropertyChar(chValue)) {
                 // 操作数
 
                 if (Type.OPERATOR == preType || Type.SEPARATOR == preType || Type.NULL == preType
@@ -175,6 +175,14 @@ public class PolishExpr {
     }
 
 
+    /**
+     * 属性过滤表达式中操作数可以包含的字符，如 a=1、b!=2、c=1.5、d=-1
+     */
+    private static boolean isPropertyChar(int chValue) {
+        return 61 == chValue || 33 == chValue || 46 == chValue || 45 == chValue;
+    }
+
+
     public static boolean isOperand(Op token) {
         return token instanceof Operand;
     }
@@ -0,0 +1,69 @@
+package com.alibaba.rocketmq.common.filter.impl;
+
+import java.util.Map;
+
+import com.alibaba.rocketmq.common.message.MessageConst;
+
+
+/**
+ * 消息属性的Bloom位图，写入ConsumeQueue扩展文件，拉消息时不读CommitLog即可排除大部分不匹配的消息<br>
+ * 只对用户属性和TAGS建位图，最高位表示位图已写入，其余63位为Bloom位
+ */
+public class PropertyBloom {
+    // 最高位置1表示扩展单元已写入，区分未写入的空白单元
+    public static final long WrittenBit = 1L << 63;
+    private static final int BitCount = 63;
+    private static final int HashCount = 3;
+
+
+    public static boolean isEligibleKey(final String key) {
+        return MessageConst.PROPERTY_TAGS.equals(key) || !MessageConst.systemKeySet.contains(key);
+    }
+
+
+    public static long bitMap(final Map<String, String> properties) {
+        long bitMap = WrittenBit;
+        if (properties != null) {
+            for (Map.Entry<String, String> entry : properties.entrySet()) {
+                if (entry.getValue() != null && isEligibleKey(entry.getKey())) {
+                    bitMap |= bits(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+
+        return bitMap;
+    }
+
+
+    /**
+     * @return false表示消息一定不包含此属性值
+     */
+    public static boolean mightContain(final long bitMap, final String key, final String value) {
+        long bits = bits(key, value);
+        return (bitMap & bits) == bits;
+    }
+
+
+    private static long bits(final String key, final String value) {
+        long hash = mix(key.hashCode() * 31L + value.hashCode() * 0x9E3779B97F4A7C15L);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        long bits = 0;
+        for (int i = 0; i < HashCount; i++) {
+            int combined = h1 + i * h2;
+            bits |= 1L << ((combined & Integer.MAX_VALUE) % BitCount);
+        }
+
+        return bits;
+    }
+
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
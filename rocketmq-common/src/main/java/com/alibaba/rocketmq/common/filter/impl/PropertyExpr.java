@@ -0,0 +1,120 @@
+package com.alibaba.rocketmq.common.filter.impl;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+
+/**
+ * 消息属性过滤表达式，如 a=1 && (b=2 || c!=3)，比较符两侧不能有空格<br>
+ * 通过PolishExpr转换为逆波兰表达式，直接在序列化后的属性上求值，不需要解析成Map
+ */
+public class PropertyExpr {
+    private final String expression;
+    // 逆波兰表达式，操作数都是PropertyOperand
+    private final Op[] ops;
+
+
+    private PropertyExpr(String expression, Op[] ops) {
+        this.expression = expression;
+        this.ops = ops;
+    }
+
+
+    public static boolean isPropertyExpr(final String expression) {
+        return expression.indexOf('=') >= 0;
+    }
+
+
+    /**
+     * @throws IllegalArgumentException
+     *             表达式非法
+     */
+    public static PropertyExpr compile(final String expression) {
+        List<Op> tokens = PolishExpr.reversePolish(expression);
+        Op[] ops = new Op[tokens.size()];
+        int depth = 0;
+        for (int i = 0; i < tokens.size(); i++) {
+            Op token = tokens.get(i);
+            if (PolishExpr.isOperand(token)) {
+                ops[i] = PropertyOperand.parse(token.getSymbol());
+                depth++;
+            }
+            else {
+                if (depth < 2) {
+                    throw new IllegalArgumentException("illegal expression " + expression);
+                }
+                ops[i] = token;
+                depth--;
+            }
+        }
+
+        if (depth != 1) {
+            throw new IllegalArgumentException("illegal expression " + expression);
+        }
+
+        return new PropertyExpr(expression, ops);
+    }
+
+
+    /**
+     * 使用绝对位置读取，不改变buffer的position
+     *
+     * @param offset
+     *            序列化后属性的起始位置
+     * @param length
+     *            序列化后属性的长度
+     */
+    public boolean evaluate(final ByteBuffer buffer, final int offset, final int length) {
+        boolean[] stack = new boolean[this.ops.length];
+        int top = 0;
+        for (Op op : this.ops) {
+            if (op instanceof PropertyOperand) {
+                stack[top++] = ((PropertyOperand) op).matches(buffer, offset, length);
+            }
+            else {
+                boolean right = stack[--top];
+                boolean left = stack[--top];
+                stack[top++] = Operator.AND == op ? left && right : left || right;
+            }
+        }
+
+        return stack[0];
+    }
+
+
+    /**
+     * 根据属性Bloom位图预判，返回false表示消息一定不匹配，返回true时仍需读取消息属性求值
+     */
+    public boolean mayMatch(final long bitMap) {
+        boolean[] stack = new boolean[this.ops.length];
+        int top = 0;
+        for (Op op : this.ops) {
+            if (op instanceof PropertyOperand) {
+                stack[top++] = ((PropertyOperand) op).mayMatch(bitMap);
+            }
+            else {
+                boolean right = stack[--top];
+                boolean left = stack[--top];
+                stack[top++] = Operator.AND == op ? left && right : left || right;
+            }
+        }
+
+        return stack[0];
+    }
+
+
+    public boolean evaluate(final byte[] properties) {
+        return this.evaluate(ByteBuffer.wrap(properties), 0, properties.length);
+    }
+
+
+    public String getExpression() {
+        return expression;
+    }
+
+
+    @Override
+    public String toString() {
+        return expression;
+    }
+}
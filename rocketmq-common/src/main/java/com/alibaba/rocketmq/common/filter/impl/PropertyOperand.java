@@ -0,0 +1,125 @@
+package com.alibaba.rocketmq.common.filter.impl;
+
+import java.nio.ByteBuffer;
+
+import com.alibaba.rocketmq.common.message.MessageDecoder;
+
+
+/**
+ * 属性过滤表达式的操作数，key=value 或 key!=value
+ */
+public class PropertyOperand extends Operand {
+    private final String key;
+    private final String value;
+    private final byte[] keyBytes;
+    private final byte[] valueBytes;
+    // true表示=，false表示!=
+    private final boolean equal;
+
+
+    private PropertyOperand(String symbol, String key, String value, boolean equal) {
+        super(symbol);
+        // 与CommitLog序列化属性时使用相同的编码
+        this.key = key;
+        this.value = value;
+        this.keyBytes = key.getBytes();
+        this.valueBytes = value.getBytes();
+        this.equal = equal;
+    }
+
+
+    public static PropertyOperand parse(final String symbol) {
+        int index = symbol.indexOf('=');
+        if (index <= 0 || index != symbol.lastIndexOf('=') || index == symbol.length() - 1) {
+            throw new IllegalArgumentException("illegal property operand " + symbol);
+        }
+
+        boolean equal = symbol.charAt(index - 1) != '!';
+        String key = symbol.substring(0, equal ? index : index - 1);
+        String value = symbol.substring(index + 1);
+        if (key.length() == 0 || key.indexOf('!') >= 0 || value.indexOf('!') >= 0) {
+            throw new IllegalArgumentException("illegal property operand " + symbol);
+        }
+
+        return new PropertyOperand(symbol, key, value, equal);
+    }
+
+
+    /**
+     * 在序列化后的属性上比较，格式为 key 0x01 value 0x02 ...，属性不存在时只有!=成立
+     */
+    public boolean matches(final ByteBuffer buffer, final int offset, final int length) {
+        final int end = offset + length;
+        int pos = offset;
+        while (pos < end) {
+            int keyEnd = indexOf(buffer, pos, end, MessageDecoder.NAME_VALUE_SEPARATOR);
+            if (keyEnd < 0) {
+                break;
+            }
+
+            int valueEnd = indexOf(buffer, keyEnd + 1, end, MessageDecoder.PROPERTY_SEPARATOR);
+            if (valueEnd < 0) {
+                valueEnd = end;
+            }
+
+            if (bytesEquals(buffer, pos, keyEnd, this.keyBytes)) {
+                return bytesEquals(buffer, keyEnd + 1, valueEnd, this.valueBytes) == this.equal;
+            }
+            pos = valueEnd + 1;
+        }
+
+        return !this.equal;
+    }
+
+
+    /**
+     * 根据属性Bloom位图预判，返回false表示一定不匹配<br>
+     * !=以及不在位图中的属性无法判断，一律返回true
+     */
+    public boolean mayMatch(final long bitMap) {
+        if (!this.equal || !PropertyBloom.isEligibleKey(this.key)) {
+            return true;
+        }
+
+        return PropertyBloom.mightContain(bitMap, this.key, this.value);
+    }
+
+
+    private static int indexOf(final ByteBuffer buffer, final int from, final int end, final char separator) {
+        for (int i = from; i < end; i++) {
+            if (buffer.get(i) == separator) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+
+    private static boolean bytesEquals(final ByteBuffer buffer, final int from, final int end, final byte[] bytes) {
+        if (end - from != bytes.length) {
+            return false;
+        }
+
+        for (int i = 0; i < bytes.length; i++) {
+            if (buffer.get(from + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    public String getKey() {
+        return key;
+    }
+
+
+    public String getValue() {
+        return value;
+    }
+
+
+    public boolean isEqual() {
+        return equal;
+    }
+}
@@ -198,6 +198,32 @@ public class Message implements Serializable {
     }
 
 
+    /**
+     * @return 未设置或者格式非法时返回0，按普通消息处理
+     */
+    public long getDeliverTimestamp() {
+        String t = this.getProperty(MessageConst.PROPERTY_DELIVER_TIME);
+        if (t != null) {
+            try {
+                return Long.parseLong(t);
+            }
+            catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+
+        return 0;
+    }
+
+
+    /**
+     * 指定消息在某个时间点（毫秒）之后投递，精确到秒
+     */
+    public void setDeliverTimestamp(long deliverTimestamp) {
+        this.putProperty(MessageConst.PROPERTY_DELIVER_TIME, String.valueOf(deliverTimestamp));
+    }
+
+
     public boolean isWaitStoreMsgOK() {
         String result = this.getProperty(MessageConst.PROPERTY_WAIT_STORE_MSG_OK);
         if (null == result)
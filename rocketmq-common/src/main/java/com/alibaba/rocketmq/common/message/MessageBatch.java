@@ -0,0 +1,96 @@
+/**
+ * Copyright (C) 2010-2013 Alibaba Group Holding Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.rocketmq.common.message;
+
+import com.alibaba.rocketmq.common.MixAll;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+
+/**
+ * 批量消息，同一批次的消息必须属于同一Topic，通过一次请求发送到同一队列
+ */
+public class MessageBatch extends Message implements Iterable<Message> {
+    private static final long serialVersionUID = 621335151046335557L;
+
+    private final List<Message> messages;
+
+
+    private MessageBatch(List<Message> messages) {
+        this.messages = messages;
+    }
+
+
+    /**
+     * 序列化批次内的所有消息，作为请求的Body
+     */
+    public byte[] encode() {
+        return MessageDecoder.encodeMessages(this.messages);
+    }
+
+
+    @Override
+    public Iterator<Message> iterator() {
+        return this.messages.iterator();
+    }
+
+
+    public List<Message> getMessages() {
+        return messages;
+    }
+
+
+    public static MessageBatch generateFromList(final Collection<Message> messages) {
+        if (null == messages || messages.isEmpty()) {
+            throw new IllegalArgumentException("the messages of batch is empty");
+        }
+
+        List<Message> messageList = new ArrayList<Message>(messages.size());
+        Message first = null;
+        for (Message message : messages) {
+            if (message.getDelayTimeLevel() > 0) {
+                throw new UnsupportedOperationException("TimeDelayLevel is not supported for batching");
+            }
+
+            if (message.getTopic().startsWith(MixAll.RETRY_GROUP_TOPIC_PREFIX)) {
+                throw new UnsupportedOperationException("Retry Group is not supported for batching");
+            }
+
+            if (first == null) {
+                first = message;
+            }
+            else {
+                if (!first.getTopic().equals(message.getTopic())) {
+                    throw new UnsupportedOperationException("The topic of the messages in one batch should be the same");
+                }
+
+                if (first.isWaitStoreMsgOK() != message.isWaitStoreMsgOK()) {
+                    throw new UnsupportedOperationException("The waitStoreMsgOK of the messages in one batch should be the same");
+                }
+            }
+
+            messageList.add(message);
+        }
+
+        MessageBatch messageBatch = new MessageBatch(messageList);
+        messageBatch.setTopic(first.getTopic());
+        messageBatch.setWaitStoreMsgOK(first.isWaitStoreMsgOK());
+        return messageBatch;
+    }
+}
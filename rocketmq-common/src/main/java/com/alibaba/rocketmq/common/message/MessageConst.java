@@ -35,6 +35,10 @@ public class MessageConst {
      * 消息延时投递时间级别，0表示不延时，大于0表示特定延时级别（具体级别在服务器端定义）
      */
     public static final String PROPERTY_DELAY_TIME_LEVEL = "DELAY";
+    /**
+     * 消息投递时间点（毫秒），服务器按秒精度投递，优先于延时级别
+     */
+    public static final String PROPERTY_DELIVER_TIME = "DELIVER_TIME";
 
     /**
      * 内部使用
@@ -70,6 +74,7 @@ public class MessageConst {
         systemKeySet.add(PROPERTY_TAGS);
         systemKeySet.add(PROPERTY_WAIT_STORE_MSG_OK);
         systemKeySet.add(PROPERTY_DELAY_TIME_LEVEL);
+        systemKeySet.add(PROPERTY_DELIVER_TIME);
         systemKeySet.add(PROPERTY_RETRY_TOPIC);
         systemKeySet.add(PROPERTY_REAL_TOPIC);
         systemKeySet.add(PROPERTY_REAL_QUEUE_ID);
@@ -49,6 +49,7 @@ public class MessageDecoder {
     public final static int MESSAGE_FLAG_POSITION = 16;
     public final static int MESSAGE_PHYSIC_OFFSET_POSITION = 28;
     public final static int MESSAGE_STORE_TIMESTAMP_POSITION = 56;
+    public final static int MESSAGE_BODY_LENGTH_POSITION = 84;
 
 
     public static String createMessageId(final ByteBuffer input, final ByteBuffer addr, final long offset) {
@@ -218,6 +219,103 @@ public class MessageDecoder {
     }
 
 
+    /**
+     * 批量发送时单条消息的序列化，Topic、队列等由请求统一指定，这里只保留消息自身的数据
+     */
+    public static byte[] encodeMessage(final Message message) {
+        final byte[] body = message.getBody();
+        final int bodyLen = body == null ? 0 : body.length;
+        final String properties = messageProperties2String(message.getProperties());
+        final byte[] propertiesBytes = properties.getBytes(Charset.forName("UTF-8"));
+        final int propertiesLength = propertiesBytes.length;
+
+        final int storeSize = 4 // 1 TOTALSIZE
+                + 4 // 2 MAGICCODE
+                + 4 // 3 BODYCRC
+                + 4 // 4 FLAG
+                + 4 + bodyLen // 5 BODY
+                + 2 + propertiesLength; // 6 PROPERTIES
+
+        ByteBuffer byteBuffer = ByteBuffer.allocate(storeSize);
+        // 1 TOTALSIZE
+        byteBuffer.putInt(storeSize);
+        // 2 MAGICCODE
+        byteBuffer.putInt(0);
+        // 3 BODYCRC，由Broker计算
+        byteBuffer.putInt(0);
+        // 4 FLAG
+        byteBuffer.putInt(message.getFlag());
+        // 5 BODY
+        byteBuffer.putInt(bodyLen);
+        if (bodyLen > 0) {
+            byteBuffer.put(body);
+        }
+        // 6 PROPERTIES
+        byteBuffer.putShort((short) propertiesLength);
+        byteBuffer.put(propertiesBytes);
+
+        return byteBuffer.array();
+    }
+
+
+    public static byte[] encodeMessages(final List<Message> messages) {
+        List<byte[]> encodedMessages = new ArrayList<byte[]>(messages.size());
+        int allSize = 0;
+        for (Message message : messages) {
+            byte[] tmp = encodeMessage(message);
+            encodedMessages.add(tmp);
+            allSize += tmp.length;
+        }
+
+        byte[] allBytes = new byte[allSize];
+        int pos = 0;
+        for (byte[] bytes : encodedMessages) {
+            System.arraycopy(bytes, 0, allBytes, pos, bytes.length);
+            pos += bytes.length;
+        }
+
+        return allBytes;
+    }
+
+
+    /**
+     * 反序列化批量发送的单条消息，格式错误时抛出BufferUnderflowException
+     */
+    public static Message decodeMessage(final ByteBuffer byteBuffer) {
+        Message message = new Message();
+
+        // 1 TOTALSIZE
+        byteBuffer.getInt();
+        // 2 MAGICCODE
+        byteBuffer.getInt();
+        // 3 BODYCRC
+        byteBuffer.getInt();
+        // 4 FLAG
+        message.setFlag(byteBuffer.getInt());
+        // 5 BODY
+        int bodyLen = byteBuffer.getInt();
+        byte[] body = new byte[bodyLen];
+        byteBuffer.get(body);
+        message.setBody(body);
+        // 6 PROPERTIES
+        short propertiesLen = byteBuffer.getShort();
+        byte[] propertiesBytes = new byte[propertiesLen];
+        byteBuffer.get(propertiesBytes);
+        message.setProperties(string2messageProperties(new String(propertiesBytes, Charset.forName("UTF-8"))));
+
+        return message;
+    }
+
+
+    public static List<Message> decodeMessages(final ByteBuffer byteBuffer) {
+        List<Message> messages = new ArrayList<Message>();
+        while (byteBuffer.hasRemaining()) {
+            messages.add(decodeMessage(byteBuffer));
+        }
+        return messages;
+    }
+
+
     public static List<MessageExt> decodes(java.nio.ByteBuffer byteBuffer) {
         return decodes(byteBuffer, true);
     }
@@ -11,6 +11,8 @@ public class RegisterBrokerResult {
     private String haServerAddr;
     private String masterAddr;
     private KVTable kvTable;
+    private boolean incrementalRegisterSupported = false;
+    private boolean topicConfigRequired = false;
 
 
     public String getHaServerAddr() {
@@ -41,4 +43,24 @@ public class RegisterBrokerResult {
     public void setKvTable(KVTable kvTable) {
         this.kvTable = kvTable;
     }
+
+
+    public boolean isIncrementalRegisterSupported() {
+        return incrementalRegisterSupported;
+    }
+
+
+    public void setIncrementalRegisterSupported(boolean incrementalRegisterSupported) {
+        this.incrementalRegisterSupported = incrementalRegisterSupported;
+    }
+
+
+    public boolean isTopicConfigRequired() {
+        return topicConfigRequired;
+    }
+
+
+    public void setTopicConfigRequired(boolean topicConfigRequired) {
+        this.topicConfigRequired = topicConfigRequired;
+    }
 }
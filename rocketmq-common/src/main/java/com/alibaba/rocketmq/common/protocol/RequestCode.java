@@ -170,5 +170,14 @@ public class RequestCode {
     // 查看Broker上的各种统计信息
     public static final int VIEW_BROKER_STATS_DATA = 315;
 
+    // 批量发送消息，同一Topic同一队列的多条消息一次写入
+    public static final int SEND_BATCH_MESSAGE = 320;
+
+    // 批量发回消费失败的消息，同一消费组的多条消息一次处理
+    public static final int CONSUMER_SEND_MSG_BACK_BATCH = 321;
+
+    // 批量更新消费进度，一个消费组在一个Broker上的全部队列一次提交
+    public static final int UPDATE_CONSUMER_OFFSET_BATCH = 322;
+
     public static final int ADD_COMMIT_LOG_STORE_PATH = 400;
 }
@@ -0,0 +1,43 @@
+package com.alibaba.rocketmq.common.protocol.body;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.alibaba.rocketmq.remoting.protocol.RemotingSerializable;
+
+
+public class ConsumerSendMsgBackBatchRequestBody extends RemotingSerializable {
+    private String consumerGroup;
+    private boolean unitMode = false;
+    private List<SendMsgBackEntry> entries = new ArrayList<SendMsgBackEntry>();
+
+
+    public String getConsumerGroup() {
+        return consumerGroup;
+    }
+
+
+    public void setConsumerGroup(String consumerGroup) {
+        this.consumerGroup = consumerGroup;
+    }
+
+
+    public boolean isUnitMode() {
+        return unitMode;
+    }
+
+
+    public void setUnitMode(boolean unitMode) {
+        this.unitMode = unitMode;
+    }
+
+
+    public List<SendMsgBackEntry> getEntries() {
+        return entries;
+    }
+
+
+    public void setEntries(List<SendMsgBackEntry> entries) {
+        this.entries = entries;
+    }
+}
@@ -0,0 +1,22 @@
+package com.alibaba.rocketmq.common.protocol.body;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import com.alibaba.rocketmq.remoting.protocol.RemotingSerializable;
+
+
+public class ConsumerSendMsgBackBatchResponseBody extends RemotingSerializable {
+    // 发回失败的消息offset，客户端需要重试
+    private Set<Long> failedOffsets = new HashSet<Long>();
+
+
+    public Set<Long> getFailedOffsets() {
+        return failedOffsets;
+    }
+
+
+    public void setFailedOffsets(Set<Long> failedOffsets) {
+        this.failedOffsets = failedOffsets;
+    }
+}
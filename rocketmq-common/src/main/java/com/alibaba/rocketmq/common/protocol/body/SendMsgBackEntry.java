@@ -0,0 +1,52 @@
+package com.alibaba.rocketmq.common.protocol.body;
+
+/**
+ * 批量发回请求中的一条消费失败消息
+ */
+public class SendMsgBackEntry {
+    // 消息在CommitLog中的位置
+    private long offset;
+    private int delayLevel;
+    private String originMsgId;
+    private String originTopic;
+
+
+    public long getOffset() {
+        return offset;
+    }
+
+
+    public void setOffset(long offset) {
+        this.offset = offset;
+    }
+
+
+    public int getDelayLevel() {
+        return delayLevel;
+    }
+
+
+    public void setDelayLevel(int delayLevel) {
+        this.delayLevel = delayLevel;
+    }
+
+
+    public String getOriginMsgId() {
+        return originMsgId;
+    }
+
+
+    public void setOriginMsgId(String originMsgId) {
+        this.originMsgId = originMsgId;
+    }
+
+
+    public String getOriginTopic() {
+        return originTopic;
+    }
+
+
+    public void setOriginTopic(String originTopic) {
+        this.originTopic = originTopic;
+    }
+}
@@ -0,0 +1,111 @@
+package com.alibaba.rocketmq.common.protocol.body;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.alibaba.rocketmq.common.MixAll;
+
+
+/**
+ * 一个消费组在一个Broker上的全部消费进度，二进制编码，每个Topic只写一次<br>
+ * 格式 <Group> <Topic Count> { <Topic> <Queue Count> { <Queue Id> <Offset> } }
+ */
+public class UpdateConsumerOffsetBatchBody {
+    private String consumerGroup;
+    private Map<String/* topic */, Map<Integer/* queueId */, Long>> offsetTable =
+            new HashMap<String, Map<Integer, Long>>();
+
+
+    public void addOffset(final String topic, final int queueId, final long offset) {
+        Map<Integer, Long> queueOffsets = this.offsetTable.get(topic);
+        if (null == queueOffsets) {
+            queueOffsets = new HashMap<Integer, Long>();
+            this.offsetTable.put(topic, queueOffsets);
+        }
+        queueOffsets.put(queueId, offset);
+    }
+
+
+    public boolean isEmpty() {
+        return this.offsetTable.isEmpty();
+    }
+
+
+    public byte[] encode() {
+        byte[] groupBytes = this.consumerGroup.getBytes(MixAll.CHARSET_UTF8);
+        int size = 2 + groupBytes.length + 4;
+        List<byte[]> topicBytesList = new ArrayList<byte[]>(this.offsetTable.size());
+        List<Map<Integer, Long>> queueOffsetsList = new ArrayList<Map<Integer, Long>>(this.offsetTable.size());
+        for (Entry<String, Map<Integer, Long>> entry : this.offsetTable.entrySet()) {
+            byte[] topicBytes = entry.getKey().getBytes(MixAll.CHARSET_UTF8);
+            topicBytesList.add(topicBytes);
+            queueOffsetsList.add(entry.getValue());
+            size += 2 + topicBytes.length + 4 + entry.getValue().size() * (4 + 8);
+        }
+
+        ByteBuffer byteBuffer = ByteBuffer.allocate(size);
+        byteBuffer.putShort((short) groupBytes.length);
+        byteBuffer.put(groupBytes);
+        byteBuffer.putInt(topicBytesList.size());
+        for (int i = 0; i < topicBytesList.size(); i++) {
+            byteBuffer.putShort((short) topicBytesList.get(i).length);
+            byteBuffer.put(topicBytesList.get(i));
+            byteBuffer.putInt(queueOffsetsList.get(i).size());
+            for (Entry<Integer, Long> queueOffset : queueOffsetsList.get(i).entrySet()) {
+                byteBuffer.putInt(queueOffset.getKey());
+                byteBuffer.putLong(queueOffset.getValue());
+            }
+        }
+        return byteBuffer.array();
+    }
+
+
+    public static UpdateConsumerOffsetBatchBody decode(final byte[] data) {
+        ByteBuffer byteBuffer = ByteBuffer.wrap(data);
+        UpdateConsumerOffsetBatchBody body = new UpdateConsumerOffsetBatchBody();
+        body.setConsumerGroup(readString(byteBuffer));
+        int topicCount = byteBuffer.getInt();
+        for (int i = 0; i < topicCount; i++) {
+            String topic = readString(byteBuffer);
+            int queueCount = byteBuffer.getInt();
+            Map<Integer, Long> queueOffsets = new HashMap<Integer, Long>(queueCount * 2);
+            for (int j = 0; j < queueCount; j++) {
+                int queueId = byteBuffer.getInt();
+                queueOffsets.put(queueId, byteBuffer.getLong());
+            }
+            body.getOffsetTable().put(topic, queueOffsets);
+        }
+        return body;
+    }
+
+
+    private static String readString(final ByteBuffer byteBuffer) {
+        byte[] bytes = new byte[byteBuffer.getShort()];
+        byteBuffer.get(bytes);
+        return new String(bytes, MixAll.CHARSET_UTF8);
+    }
+
+
+    public String getConsumerGroup() {
+        return consumerGroup;
+    }
+
+
+    public void setConsumerGroup(String consumerGroup) {
+        this.consumerGroup = consumerGroup;
+    }
+
+
+    public Map<String, Map<Integer, Long>> getOffsetTable() {
+        return offsetTable;
+    }
+
+
+    public void setOffsetTable(Map<String, Map<Integer, Long>> offsetTable) {
+        this.offsetTable = offsetTable;
+    }
+}
@@ -5,6 +5,7 @@ package com.alibaba.rocketmq.common.protocol.header;
 
 import com.alibaba.rocketmq.remoting.CommandCustomHeader;
 import com.alibaba.rocketmq.remoting.annotation.CFNotNull;
+import com.alibaba.rocketmq.remoting.annotation.CFNullable;
 import com.alibaba.rocketmq.remoting.exception.RemotingCommandException;
 
 
@@ -22,6 +23,9 @@ public class QueryMessageRequestHeader implements CommandCustomHeader {
     private Long beginTimestamp;
     @CFNotNull
     private Long endTimestamp;
+    // 不为空时按此属性查询，key为属性值
+    @CFNullable
+    private String propertyName;
 
 
     @Override
@@ -78,4 +82,14 @@ public class QueryMessageRequestHeader implements CommandCustomHeader {
     public void setEndTimestamp(Long endTimestamp) {
         this.endTimestamp = endTimestamp;
     }
+
+
+    public String getPropertyName() {
+        return propertyName;
+    }
+
+
+    public void setPropertyName(String propertyName) {
+        this.propertyName = propertyName;
+    }
 }
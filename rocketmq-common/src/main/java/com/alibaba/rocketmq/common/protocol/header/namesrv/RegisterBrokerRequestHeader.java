@@ -5,6 +5,7 @@ package com.alibaba.rocketmq.common.protocol.header.namesrv;
 
 import com.alibaba.rocketmq.remoting.CommandCustomHeader;
 import com.alibaba.rocketmq.remoting.annotation.CFNotNull;
+import com.alibaba.rocketmq.remoting.annotation.CFNullable;
 import com.alibaba.rocketmq.remoting.exception.RemotingCommandException;
 
 
@@ -22,6 +23,12 @@ public class RegisterBrokerRequestHeader implements CommandCustomHeader {
     private String haServerAddr;
     @CFNotNull
     private Long brokerId;
+    // Body经过压缩
+    @CFNullable
+    private Boolean compressed = false;
+    // Body中只有Topic配置的版本号，没有Topic配置
+    @CFNullable
+    private Boolean topicConfigOmitted = false;
 
 
     @Override
@@ -77,4 +84,24 @@ public class RegisterBrokerRequestHeader implements CommandCustomHeader {
     public void setBrokerId(Long brokerId) {
         this.brokerId = brokerId;
     }
+
+
+    public Boolean getCompressed() {
+        return compressed;
+    }
+
+
+    public void setCompressed(Boolean compressed) {
+        this.compressed = compressed;
+    }
+
+
+    public Boolean getTopicConfigOmitted() {
+        return topicConfigOmitted;
+    }
+
+
+    public void setTopicConfigOmitted(Boolean topicConfigOmitted) {
+        this.topicConfigOmitted = topicConfigOmitted;
+    }
 }
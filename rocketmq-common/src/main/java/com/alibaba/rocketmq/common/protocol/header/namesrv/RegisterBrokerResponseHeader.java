@@ -14,6 +14,12 @@ public class RegisterBrokerResponseHeader implements CommandCustomHeader {
     private String haServerAddr;
     @CFNullable
     private String masterAddr;
+    // Name Server支持增量注册，Broker可以只发送Topic配置的版本号
+    @CFNullable
+    private Boolean incrementalRegisterSupported = false;
+    // Name Server没有此Broker当前版本的Topic配置，需要重新发送全量配置
+    @CFNullable
+    private Boolean topicConfigRequired = false;
 
 
     @Override
@@ -39,4 +45,24 @@ public class RegisterBrokerResponseHeader implements CommandCustomHeader {
     public void setMasterAddr(String masterAddr) {
         this.masterAddr = masterAddr;
     }
+
+
+    public Boolean getIncrementalRegisterSupported() {
+        return incrementalRegisterSupported;
+    }
+
+
+    public void setIncrementalRegisterSupported(Boolean incrementalRegisterSupported) {
+        this.incrementalRegisterSupported = incrementalRegisterSupported;
+    }
+
+
+    public Boolean getTopicConfigRequired() {
+        return topicConfigRequired;
+    }
+
+
+    public void setTopicConfigRequired(Boolean topicConfigRequired) {
+        this.topicConfigRequired = topicConfigRequired;
+    }
 }
@@ -13,6 +13,8 @@ import java.util.Set;
 public class SubscriptionData implements Comparable<SubscriptionData> {
     public final static String SUB_ALL = "*";
     private boolean classFilterMode = false;
+    // 按消息属性过滤，subString为属性表达式
+    private boolean propertyFilterMode = false;
     private String topic;
     private String subString;
     private Set<String> tagsSet = new HashSet<String>();
@@ -92,11 +94,22 @@ public class SubscriptionData implements Comparable<SubscriptionData> {
     }
 
 
+    public boolean isPropertyFilterMode() {
+        return propertyFilterMode;
+    }
+
+
+    public void setPropertyFilterMode(boolean propertyFilterMode) {
+        this.propertyFilterMode = propertyFilterMode;
+    }
+
+
     @Override
     public int hashCode() {
         final int prime = 31;
         int result = 1;
         result = prime * result + (classFilterMode ? 1231 : 1237);
+        result = prime * result + (propertyFilterMode ? 1231 : 1237);
         result = prime * result + ((codeSet == null) ? 0 : codeSet.hashCode());
         result = prime * result + ((subString == null) ? 0 : subString.hashCode());
         result = prime * result + ((tagsSet == null) ? 0 : tagsSet.hashCode());
@@ -116,6 +129,8 @@ public class SubscriptionData implements Comparable<SubscriptionData> {
         SubscriptionData other = (SubscriptionData) obj;
         if (classFilterMode != other.classFilterMode)
             return false;
+        if (propertyFilterMode != other.propertyFilterMode)
+            return false;
         if (codeSet == null) {
             if (other.codeSet != null)
                 return false;
@@ -148,7 +163,8 @@ public class SubscriptionData implements Comparable<SubscriptionData> {
 
     @Override
     public String toString() {
-        return "SubscriptionData [classFilterMode=" + classFilterMode + ", topic=" + topic + ", subString="
+        return "SubscriptionData [classFilterMode=" + classFilterMode + ", propertyFilterMode="
+                + propertyFilterMode + ", topic=" + topic + ", subString="
                 + subString + ", tagsSet=" + tagsSet + ", codeSet=" + codeSet + ", subVersion=" + subVersion
                 + "]";
     }
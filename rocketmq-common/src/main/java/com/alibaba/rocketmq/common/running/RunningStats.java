@@ -21,4 +21,6 @@ public enum RunningStats {
     commitLogDiskRatio,
     consumeQueueDiskRatio,
     scheduleMessageOffset,
+    haSlaveStats,
+    timerMessageProgress,
 }
@@ -4,6 +4,10 @@ import org.junit.Test;
 
 import com.alibaba.rocketmq.common.protocol.heartbeat.SubscriptionData;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
 
 /**
  * @author shijia.wxr<vintage.wang@gmail.com>
@@ -17,4 +21,49 @@ public class FilterAPITest {
                 FilterAPI.buildSubscriptionData("ConsumerGroup1", "TestTopic", "TAG1 || Tag2 || tag3");
         System.out.println(subscriptionData);
     }
+
+
+    @Test
+    public void test_property_filter_mode() throws Exception {
+        // 只要包含“=”就按属性过滤表达式解析，不拆分Tag
+        String[] exprs = { "a=1", "a!=1", "a=1 && b=2", "region=hz && (level=1 || level=2)", "TAGS=TagA" };
+        for (String expr : exprs) {
+            SubscriptionData subscriptionData = FilterAPI.buildSubscriptionData("ConsumerGroup1", "TestTopic", expr);
+            assertTrue(expr, subscriptionData.isPropertyFilterMode());
+            assertFalse(expr, subscriptionData.isClassFilterMode());
+            assertTrue(expr, subscriptionData.getTagsSet().isEmpty());
+            assertEquals(expr, subscriptionData.getSubString());
+        }
+
+        // 即使包含“.”也优先按属性过滤
+        assertTrue(FilterAPI.buildSubscriptionData("ConsumerGroup1", "TestTopic", "version=1.0")
+            .isPropertyFilterMode());
+    }
+
+
+    @Test
+    public void test_tag_and_class_filter_mode_unchanged() throws Exception {
+        SubscriptionData subscriptionData =
+                FilterAPI.buildSubscriptionData("ConsumerGroup1", "TestTopic", "TagA || TagB");
+        assertFalse(subscriptionData.isPropertyFilterMode());
+        assertFalse(subscriptionData.isClassFilterMode());
+        assertEquals(2, subscriptionData.getTagsSet().size());
+        assertTrue(subscriptionData.getCodeSet().contains("TagA".hashCode()));
+
+        subscriptionData = FilterAPI.buildSubscriptionData("ConsumerGroup1", "TestTopic", "*");
+        assertFalse(subscriptionData.isPropertyFilterMode());
+        assertEquals(SubscriptionData.SUB_ALL, subscriptionData.getSubString());
+
+        subscriptionData =
+                FilterAPI.buildSubscriptionData("ConsumerGroup1", "TestTopic", "com.taobao.abc.FilterClassName");
+        assertFalse(subscriptionData.isPropertyFilterMode());
+        assertTrue(subscriptionData.isClassFilterMode());
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_illegal_property_expr() throws Exception {
+        // 比较符两侧有空格时不是合法的属性表达式
+        FilterAPI.buildSubscriptionData("ConsumerGroup1", "TestTopic", "a = 1");
+    }
 }
@@ -0,0 +1,54 @@
+package com.alibaba.rocketmq.common.filter;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.alibaba.rocketmq.common.filter.impl.PropertyBloom;
+import com.alibaba.rocketmq.common.filter.impl.PropertyExpr;
+import com.alibaba.rocketmq.common.message.MessageDecoder;
+
+
+public class PropertyExprTest {
+
+    @Test
+    public void test_evaluate() {
+        Map<String, String> properties = new HashMap<String, String>();
+        properties.put("region", "hz");
+        properties.put("level", "2");
+        byte[] data = MessageDecoder.messageProperties2String(properties).getBytes();
+
+        assertTrue(PropertyExpr.compile("region=hz").evaluate(data));
+        assertFalse(PropertyExpr.compile("region=hz && level=1").evaluate(data));
+        assertTrue(PropertyExpr.compile("region=sh || (level=2 && region!=sh)").evaluate(data));
+        // 属性不存在时只有!=成立
+        assertTrue(PropertyExpr.compile("zone!=a").evaluate(data));
+        assertFalse(PropertyExpr.compile("zone=a").evaluate(data));
+    }
+
+
+    @Test
+    public void test_mayMatch() {
+        Map<String, String> properties = new HashMap<String, String>();
+        properties.put("region", "hz");
+        properties.put("TAGS", "TagA");
+        properties.put("KEYS", "k1");
+        long bitMap = PropertyBloom.bitMap(properties);
+
+        assertTrue(PropertyExpr.compile("region=hz && TAGS=TagA").mayMatch(bitMap));
+        assertFalse(PropertyExpr.compile("region=sh").mayMatch(bitMap));
+        assertFalse(PropertyExpr.compile("region=hz && TAGS=TagB").mayMatch(bitMap));
+        // !=以及系统属性无法用位图判断
+        assertTrue(PropertyExpr.compile("region!=hz || KEYS=k2").mayMatch(bitMap));
+    }
+
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_compile_illegal() {
+        PropertyExpr.compile("region=hz &&");
+    }
+}
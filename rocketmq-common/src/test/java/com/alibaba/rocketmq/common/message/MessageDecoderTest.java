@@ -0,0 +1,61 @@
+package com.alibaba.rocketmq.common.message;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+
+public class MessageDecoderTest {
+
+    @Test
+    public void encode_decode_messages_test() throws Exception {
+        List<Message> messages = new ArrayList<Message>();
+        Message withProperties = new Message("TopicTest", "TagA", "Key1 Key2", "Hello".getBytes());
+        withProperties.setFlag(7);
+        // 多字节字符，属性长度按UTF-8字节计算
+        withProperties.putUserProperty("user", "中文属性");
+        messages.add(withProperties);
+
+        // 没有任何属性
+        Message withoutProperties = new Message();
+        withoutProperties.setTopic("TopicTest");
+        withoutProperties.setBody("World".getBytes());
+        messages.add(withoutProperties);
+
+        // 空Body
+        Message emptyBody = new Message("TopicTest", "TagB", new byte[0]);
+        messages.add(emptyBody);
+
+        byte[] encoded = MessageDecoder.encodeMessages(messages);
+        int size = 0;
+        for (Message message : messages) {
+            size += MessageDecoder.encodeMessage(message).length;
+        }
+        assertEquals(size, encoded.length);
+
+        List<Message> decoded = MessageDecoder.decodeMessages(ByteBuffer.wrap(encoded));
+        assertEquals(messages.size(), decoded.size());
+
+        assertEquals(7, decoded.get(0).getFlag());
+        assertArrayEquals("Hello".getBytes(), decoded.get(0).getBody());
+        assertEquals(withProperties.getProperties(), decoded.get(0).getProperties());
+        assertEquals("TagA", decoded.get(0).getTags());
+        assertEquals("Key1 Key2", decoded.get(0).getKeys());
+        assertEquals("中文属性", decoded.get(0).getUserProperty("user"));
+
+        assertEquals(0, decoded.get(1).getFlag());
+        assertArrayEquals("World".getBytes(), decoded.get(1).getBody());
+        assertTrue(decoded.get(1).getProperties().isEmpty());
+
+        assertArrayEquals(new byte[0], decoded.get(2).getBody());
+        assertEquals(emptyBody.getProperties(), decoded.get(2).getProperties());
+        assertFalse(decoded.get(2).getProperties().isEmpty());
+    }
+}
@@ -0,0 +1,24 @@
+package com.alibaba.rocketmq.common.protocol;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import com.alibaba.rocketmq.common.protocol.body.UpdateConsumerOffsetBatchBody;
+
+
+public class UpdateConsumerOffsetBatchBodyTest {
+
+    @Test
+    public void encode_decode_test() throws Exception {
+        UpdateConsumerOffsetBatchBody body = new UpdateConsumerOffsetBatchBody();
+        body.setConsumerGroup("GroupA");
+        body.addOffset("TopicA", 0, 100L);
+        body.addOffset("TopicA", 3, 300L);
+        body.addOffset("TopicB", 1, Long.MAX_VALUE);
+
+        UpdateConsumerOffsetBatchBody decoded = UpdateConsumerOffsetBatchBody.decode(body.encode());
+        assertEquals("GroupA", decoded.getConsumerGroup());
+        assertEquals(body.getOffsetTable(), decoded.getOffsetTable());
+    }
+}
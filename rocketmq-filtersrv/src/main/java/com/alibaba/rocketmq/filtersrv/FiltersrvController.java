@@ -158,6 +158,9 @@ public class FiltersrvController {
         this.filterServerOuterAPI.start();
         this.defaultMQPullConsumer.getDefaultMQPullConsumerImpl().getPullAPIWrapper()
             .setConnectBrokerByUser(true);
+        // 匹配的消息按原始数据转发，不重新序列化
+        this.defaultMQPullConsumer.getDefaultMQPullConsumerImpl().getPullAPIWrapper()
+            .setKeepMessageBinary(true);
         this.filterClassManager.start();
         this.filterServerStatsManager.start();
     }
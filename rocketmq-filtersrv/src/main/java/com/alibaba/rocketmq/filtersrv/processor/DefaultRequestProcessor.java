@@ -18,6 +18,7 @@ package com.alibaba.rocketmq.filtersrv.processor;
 import com.alibaba.rocketmq.client.consumer.DefaultMQPullConsumer;
 import com.alibaba.rocketmq.client.consumer.PullCallback;
 import com.alibaba.rocketmq.client.consumer.PullResult;
+import com.alibaba.rocketmq.client.impl.consumer.PullResultExt;
 import com.alibaba.rocketmq.common.MixAll;
 import com.alibaba.rocketmq.common.UtilAll;
 import com.alibaba.rocketmq.common.constant.LoggerName;
@@ -37,6 +38,9 @@ import com.alibaba.rocketmq.remoting.exception.RemotingCommandException;
 import com.alibaba.rocketmq.remoting.netty.NettyRequestProcessor;
 import com.alibaba.rocketmq.remoting.protocol.RemotingCommand;
 import com.alibaba.rocketmq.store.CommitLog;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
@@ -175,35 +179,44 @@ public class DefaultRequestProcessor implements NettyRequestProcessor {
     }
 
 
-    private void returnResponse(final String group, final String topic, ChannelHandlerContext ctx,
-            final RemotingCommand response, final List<MessageExt> msgList) {
-        if (null != msgList) {
-            ByteBuffer[] msgBufferList = new ByteBuffer[msgList.size()];
-            int bodyTotalSize = 0;
-            for (int i = 0; i < msgList.size(); i++) {
-                try {
-                    msgBufferList[i] = messageToByteBuffer(msgList.get(i));
-                    bodyTotalSize += msgBufferList[i].capacity();
-                }
-                catch (Exception e) {
-                    log.error("messageToByteBuffer UnsupportedEncodingException", e);
-                }
+    /**
+     * 逐条重新序列化消息，拼成响应Body
+     */
+    byte[] messagesToBody(final List<MessageExt> msgList) {
+        ByteBuffer[] msgBufferList = new ByteBuffer[msgList.size()];
+        int bodyTotalSize = 0;
+        for (int i = 0; i < msgList.size(); i++) {
+            try {
+                msgBufferList[i] = messageToByteBuffer(msgList.get(i));
+                bodyTotalSize += msgBufferList[i].capacity();
             }
-
-            ByteBuffer body = ByteBuffer.allocate(bodyTotalSize);
-            for (ByteBuffer bb : msgBufferList) {
-                bb.flip();
-                body.put(bb);
+            catch (Exception e) {
+                log.error("messageToByteBuffer UnsupportedEncodingException", e);
             }
+        }
 
-            response.setBody(body.array());
+        ByteBuffer body = ByteBuffer.allocate(bodyTotalSize);
+        for (ByteBuffer bb : msgBufferList) {
+            bb.flip();
+            body.put(bb);
+        }
+
+        return body.array();
+    }
+
+
+    private void returnResponse(final String group, final String topic, ChannelHandlerContext ctx,
+            final RemotingCommand response, final List<MessageExt> msgList) {
+        if (null != msgList) {
+            byte[] body = this.messagesToBody(msgList);
+            response.setBody(body);
 
             // 统计
             this.filtersrvController.getFilterServerStatsManager().incGroupGetNums(group, topic,
                 msgList.size());
 
             this.filtersrvController.getFilterServerStatsManager().incGroupGetSize(group, topic,
-                bodyTotalSize);
+                body.length);
         }
 
         try {
@@ -225,6 +238,129 @@ public class DefaultRequestProcessor implements NettyRequestProcessor {
     }
 
 
+    /**
+     * 匹配的消息直接使用从Broker拉到的原始数据，Header与各段消息组成CompositeByteBuf写出，不重新序列化和拷贝<br>
+     * 原始数据中找不到对应的消息时退回到重新序列化
+     */
+    private void forwardResponse(final String group, final String topic, ChannelHandlerContext ctx,
+            final RemotingCommand request, final RemotingCommand response, final List<MessageExt> msgList,
+            final byte[] messageBinary) {
+        final CompositeByteBuf composite =
+                this.buildForwardFrame(ctx.alloc(), request, response, msgList, messageBinary);
+        if (null == composite) {
+            returnResponse(group, topic, ctx, response, msgList);
+            return;
+        }
+
+        int bodyTotalSize = 0;
+        for (MessageExt msg : msgList) {
+            bodyTotalSize += msg.getStoreSize();
+        }
+
+        // 统计
+        this.filtersrvController.getFilterServerStatsManager().incGroupGetNums(group, topic, msgList.size());
+        this.filtersrvController.getFilterServerStatsManager().incGroupGetSize(group, topic, bodyTotalSize);
+
+        try {
+            ctx.writeAndFlush(composite).addListener(new ChannelFutureListener() {
+                @Override
+                public void operationComplete(ChannelFuture future) throws Exception {
+                    if (!future.isSuccess()) {
+                        log.error("FilterServer forward to " + future.channel().remoteAddress() + " failed",
+                            future.cause());
+                        log.error(response.toString());
+                    }
+                }
+            });
+        }
+        catch (Throwable e) {
+            log.error("FilterServer process request over, but forward failed", e);
+            log.error(response.toString());
+        }
+    }
+
+
+    /**
+     * 构造完整的响应帧，格式与NettyEncoder写出的一致，相邻的消息合并为一段
+     *
+     * @return 原始数据中有消息找不到时返回null
+     */
+    CompositeByteBuf buildForwardFrame(final ByteBufAllocator alloc, final RemotingCommand request,
+            final RemotingCommand response, final List<MessageExt> msgList, final byte[] messageBinary) {
+        // 每条消息在原始数据中的起始位置
+        int[] msgPositions = this.findMessagePositions(msgList, messageBinary);
+        if (null == msgPositions) {
+            return null;
+        }
+
+        List<int[]> segments = new ArrayList<int[]>();
+        int bodyTotalSize = 0;
+        for (int i = 0; i < msgList.size(); i++) {
+            int pos = msgPositions[i];
+            int size = msgList.get(i).getStoreSize();
+            int[] last = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+            if (last != null && last[0] + last[1] == pos) {
+                last[1] += size;
+            }
+            else {
+                segments.add(new int[] { pos, size });
+            }
+            bodyTotalSize += size;
+        }
+
+        // 直接写ByteBuf不经过NettyEncoder，Header序列化方式与请求一致
+        response.setSerializeTypeCurrentRPC(request.getSerializeTypeCurrentRPC());
+        ByteBuffer header = response.encodeHeader(bodyTotalSize);
+        // 组件数不超过上限，避免CompositeByteBuf合并组件时拷贝
+        CompositeByteBuf composite = alloc.compositeBuffer(segments.size() + 1);
+        composite.addComponent(Unpooled.wrappedBuffer(header));
+        for (int[] segment : segments) {
+            composite.addComponent(Unpooled.wrappedBuffer(messageBinary, segment[0], segment[1]));
+        }
+        composite.writerIndex(header.remaining() + bodyTotalSize);
+        return composite;
+    }
+
+
+    /**
+     * 按顺序在原始数据中查找消息，用队列Offset和消息大小校验
+     *
+     * @return 每条消息的起始位置，有消息找不到时返回null
+     */
+    int[] findMessagePositions(final List<MessageExt> msgList, final byte[] messageBinary) {
+        if (null == messageBinary) {
+            return null;
+        }
+
+        ByteBuffer byteBuffer = ByteBuffer.wrap(messageBinary);
+        int[] positions = new int[msgList.size()];
+        int pos = 0;
+        for (int i = 0; i < msgList.size(); i++) {
+            MessageExt msg = msgList.get(i);
+            while (true) {
+                // TOTALSIZE + MAGICCODE + BODYCRC + QUEUEID + FLAG + QUEUEOFFSET
+                if (pos + 28 > messageBinary.length) {
+                    return null;
+                }
+
+                int storeSize = byteBuffer.getInt(pos);
+                if (storeSize <= 0 || pos + storeSize > messageBinary.length) {
+                    return null;
+                }
+
+                if (byteBuffer.getLong(pos + 20) == msg.getQueueOffset() && storeSize == msg.getStoreSize()) {
+                    positions[i] = pos;
+                    pos += storeSize;
+                    break;
+                }
+                pos += storeSize;
+            }
+        }
+
+        return positions;
+    }
+
+
     private RemotingCommand pullMessageForward(final ChannelHandlerContext ctx, final RemotingCommand request)
             throws Exception {
         final RemotingCommand response =
@@ -236,6 +372,7 @@ public class DefaultRequestProcessor implements NettyRequestProcessor {
 
         // 由于异步返回，所以必须要设置
         response.setOpaque(request.getOpaque());
+        response.setSerializeTypeCurrentRPC(request.getSerializeTypeCurrentRPC());
 
         DefaultMQPullConsumer pullConsumer = this.filtersrvController.getDefaultMQPullConsumer();
         final FilterClassInfo findFilterClass =
@@ -287,8 +424,8 @@ public class DefaultRequestProcessor implements NettyRequestProcessor {
 
                         // 有消息返回
                         if (!msgListOK.isEmpty()) {
-                            returnResponse(requestHeader.getConsumerGroup(), requestHeader.getTopic(), ctx,
-                                response, msgListOK);
+                            forwardResponse(requestHeader.getConsumerGroup(), requestHeader.getTopic(), ctx,
+                                request, response, msgListOK, ((PullResultExt) pullResult).getMessageBinary());
                             return;
                         }
                         // 全部都被过滤掉了
@@ -0,0 +1,199 @@
+package com.alibaba.rocketmq.filtersrv.processor;
+
+import com.alibaba.rocketmq.common.message.MessageAccessor;
+import com.alibaba.rocketmq.common.message.MessageConst;
+import com.alibaba.rocketmq.common.message.MessageDecoder;
+import com.alibaba.rocketmq.common.message.MessageExt;
+import com.alibaba.rocketmq.common.protocol.RequestCode;
+import com.alibaba.rocketmq.common.protocol.ResponseCode;
+import com.alibaba.rocketmq.common.protocol.header.PullMessageResponseHeader;
+import com.alibaba.rocketmq.filtersrv.FiltersrvConfig;
+import com.alibaba.rocketmq.filtersrv.FiltersrvController;
+import com.alibaba.rocketmq.remoting.netty.NettyServerConfig;
+import com.alibaba.rocketmq.remoting.protocol.RemotingCommand;
+import com.alibaba.rocketmq.remoting.protocol.SerializeType;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+
+public class DefaultRequestProcessorTest {
+    private static final String Topic = "FilterTopic";
+    // 每条消息的Tag，过滤后只保留TagA，匹配的消息合并为三段
+    private static final String[] Tags = { "TagA", "TagA", "TagB", "TagA", "TagB", "TagB", "TagA" };
+
+
+    private static DefaultRequestProcessor buildProcessor() {
+        return new DefaultRequestProcessor(new FiltersrvController(new FiltersrvConfig(),
+            new NettyServerConfig()));
+    }
+
+
+    /**
+     * 模拟从Broker拉到的原始数据，消息按存储格式依次排列
+     */
+    private static byte[] buildMessageBinary(DefaultRequestProcessor processor) {
+        List<MessageExt> msgList = new ArrayList<MessageExt>();
+        long commitLogOffset = 1024;
+        for (int i = 0; i < Tags.length; i++) {
+            MessageExt msg = new MessageExt();
+            msg.setTopic(Topic);
+            msg.setQueueId(1);
+            msg.setQueueOffset(100 + i);
+            msg.setCommitLogOffset(commitLogOffset);
+            msg.setBornTimestamp(System.currentTimeMillis());
+            msg.setStoreTimestamp(System.currentTimeMillis());
+            msg.setBornHost(new InetSocketAddress("127.0.0.1", 10000 + i));
+            msg.setStoreHost(new InetSocketAddress("127.0.0.1", 10911));
+            msg.setTags(Tags[i]);
+            // 第二条消息没有用户属性
+            if (i != 1) {
+                MessageAccessor.putProperty(msg, MessageConst.PROPERTY_KEYS, "key" + i);
+            }
+            // 消息大小各不相同
+            msg.setBody(new byte[16 * (i + 1)]);
+            Arrays.fill(msg.getBody(), (byte) i);
+            msgList.add(msg);
+
+            commitLogOffset += 256;
+        }
+
+        return processor.messagesToBody(msgList);
+    }
+
+
+    /**
+     * 与Filter Server中的用户过滤类一样，按Tag过滤拉到的消息
+     */
+    private static List<MessageExt> filterByTag(byte[] messageBinary, String tag) {
+        List<MessageExt> msgListOK = new ArrayList<MessageExt>();
+        for (MessageExt msg : MessageDecoder.decodes(ByteBuffer.wrap(messageBinary))) {
+            if (tag.equals(msg.getTags())) {
+                msgListOK.add(msg);
+            }
+        }
+        return msgListOK;
+    }
+
+
+    private static RemotingCommand buildResponse() {
+        RemotingCommand response = RemotingCommand.createResponseCommand(PullMessageResponseHeader.class);
+        PullMessageResponseHeader responseHeader = (PullMessageResponseHeader) response.readCustomHeader();
+        responseHeader.setSuggestWhichBrokerId(0L);
+        responseHeader.setNextBeginOffset(107L);
+        responseHeader.setMinOffset(0L);
+        responseHeader.setMaxOffset(107L);
+        response.setCode(ResponseCode.SUCCESS);
+        response.setRemark(null);
+        return response;
+    }
+
+
+    private static void assertSameMessage(MessageExt expected, MessageExt actual) {
+        assertEquals(expected.getMsgId(), actual.getMsgId());
+        assertEquals(expected.getTopic(), actual.getTopic());
+        assertEquals(expected.getQueueId(), actual.getQueueId());
+        assertEquals(expected.getQueueOffset(), actual.getQueueOffset());
+        assertEquals(expected.getCommitLogOffset(), actual.getCommitLogOffset());
+        assertEquals(expected.getStoreSize(), actual.getStoreSize());
+        assertEquals(expected.getBornTimestamp(), actual.getBornTimestamp());
+        assertEquals(expected.getProperties(), actual.getProperties());
+        assertArrayEquals(expected.getBody(), actual.getBody());
+    }
+
+
+    @Test
+    public void test_find_message_positions() {
+        DefaultRequestProcessor processor = buildProcessor();
+        byte[] messageBinary = buildMessageBinary(processor);
+        List<MessageExt> msgListOK = filterByTag(messageBinary, "TagA");
+        assertEquals(4, msgListOK.size());
+
+        // 各消息的起始位置是前面所有消息大小之和
+        List<MessageExt> msgFoundList = MessageDecoder.decodes(ByteBuffer.wrap(messageBinary));
+        int[] allPositions = new int[msgFoundList.size()];
+        for (int i = 1; i < allPositions.length; i++) {
+            allPositions[i] = allPositions[i - 1] + msgFoundList.get(i - 1).getStoreSize();
+        }
+
+        int[] positions = processor.findMessagePositions(msgListOK, messageBinary);
+        assertArrayEquals(new int[] { allPositions[0], allPositions[1], allPositions[3], allPositions[6] },
+            positions);
+    }
+
+
+    @Test
+    public void test_forward_frame_equals_rebuilt_response() {
+        DefaultRequestProcessor processor = buildProcessor();
+        byte[] messageBinary = buildMessageBinary(processor);
+        List<MessageExt> msgListOK = filterByTag(messageBinary, "TagA");
+
+        RemotingCommand request = RemotingCommand.createRequestCommand(RequestCode.PULL_MESSAGE, null);
+        request.setSerializeTypeCurrentRPC(SerializeType.ROCKETMQ);
+        RemotingCommand response = buildResponse();
+        response.setOpaque(request.getOpaque());
+
+        CompositeByteBuf composite =
+                processor.buildForwardFrame(UnpooledByteBufAllocator.DEFAULT, request, response, msgListOK,
+                    messageBinary);
+        // Header一段，相邻的前两条消息合并，后两条各一段
+        assertEquals(1 + 3, composite.numComponents());
+
+        byte[] frame = new byte[composite.readableBytes()];
+        composite.readBytes(frame);
+        composite.release();
+
+        // 与NettyDecoder一样，先按长度字段拆帧，再解码
+        ByteBuffer frameBuffer = ByteBuffer.wrap(frame);
+        assertEquals(frame.length - 4, frameBuffer.getInt());
+        RemotingCommand decoded = RemotingCommand.decode(frameBuffer.slice());
+        assertEquals(SerializeType.ROCKETMQ, decoded.getSerializeTypeCurrentRPC());
+        assertEquals(ResponseCode.SUCCESS, decoded.getCode());
+        assertEquals(request.getOpaque(), decoded.getOpaque());
+        assertEquals("107", decoded.getExtFields().get("nextBeginOffset"));
+
+        // 与重新序列化得到的响应Body解码出相同的消息
+        List<MessageExt> forwarded = MessageDecoder.decodes(ByteBuffer.wrap(decoded.getBody()));
+        List<MessageExt> rebuilt = MessageDecoder.decodes(ByteBuffer.wrap(processor.messagesToBody(msgListOK)));
+        assertEquals(msgListOK.size(), forwarded.size());
+        assertEquals(msgListOK.size(), rebuilt.size());
+        for (int i = 0; i < msgListOK.size(); i++) {
+            assertSameMessage(rebuilt.get(i), forwarded.get(i));
+            assertSameMessage(msgListOK.get(i), forwarded.get(i));
+        }
+    }
+
+
+    @Test
+    public void test_fallback_when_message_missing() {
+        DefaultRequestProcessor processor = buildProcessor();
+        byte[] messageBinary = buildMessageBinary(processor);
+        List<MessageExt> msgListOK = filterByTag(messageBinary, "TagA");
+        RemotingCommand request = RemotingCommand.createRequestCommand(RequestCode.PULL_MESSAGE, null);
+
+        // 没有原始数据
+        assertNull(processor.findMessagePositions(msgListOK, null));
+        assertNull(processor.buildForwardFrame(UnpooledByteBufAllocator.DEFAULT, request, buildResponse(),
+            msgListOK, null));
+
+        // 原始数据被截断，最后一条消息不完整
+        byte[] truncated = Arrays.copyOf(messageBinary, messageBinary.length - 1);
+        assertNull(processor.findMessagePositions(msgListOK, truncated));
+
+        // 原始数据中没有这条消息
+        msgListOK.get(2).setQueueOffset(1000);
+        assertNull(processor.findMessagePositions(msgListOK, messageBinary));
+        assertNull(processor.buildForwardFrame(UnpooledByteBufAllocator.DEFAULT, request, buildResponse(),
+            msgListOK, messageBinary));
+    }
+}
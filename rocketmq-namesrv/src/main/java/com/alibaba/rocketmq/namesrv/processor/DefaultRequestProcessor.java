@@ -17,6 +17,7 @@ package com.alibaba.rocketmq.namesrv.processor;
 
 import com.alibaba.rocketmq.common.MQVersion;
 import com.alibaba.rocketmq.common.MQVersion.Version;
+import com.alibaba.rocketmq.common.UtilAll;
 import com.alibaba.rocketmq.common.constant.LoggerName;
 import com.alibaba.rocketmq.common.help.FAQUrl;
 import com.alibaba.rocketmq.common.namesrv.NamesrvUtil;
@@ -38,7 +39,6 @@ import com.alibaba.rocketmq.common.protocol.header.namesrv.RegisterBrokerRespons
 import com.alibaba.rocketmq.common.protocol.header.namesrv.UnRegisterBrokerRequestHeader;
 import com.alibaba.rocketmq.common.protocol.header.namesrv.WipeWritePermOfBrokerRequestHeader;
 import com.alibaba.rocketmq.common.protocol.header.namesrv.WipeWritePermOfBrokerResponseHeader;
-import com.alibaba.rocketmq.common.protocol.route.TopicRouteData;
 import com.alibaba.rocketmq.namesrv.NamesrvController;
 import com.alibaba.rocketmq.remoting.common.RemotingHelper;
 import com.alibaba.rocketmq.remoting.exception.RemotingCommandException;
@@ -48,6 +48,7 @@ import io.netty.channel.ChannelHandlerContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.util.concurrent.atomic.AtomicLong;
 
 
@@ -143,7 +144,19 @@ public class DefaultRequestProcessor implements NettyRequestProcessor {
         RegisterBrokerBody registerBrokerBody = new RegisterBrokerBody();
 
         if (request.getBody() != null) {
-            registerBrokerBody = RegisterBrokerBody.decode(request.getBody(), RegisterBrokerBody.class);
+            byte[] body = request.getBody();
+            if (requestHeader.getCompressed() != null && requestHeader.getCompressed()) {
+                try {
+                    body = UtilAll.uncompress(body);
+                }
+                catch (IOException e) {
+                    log.error("uncompress register broker body failed, " + requestHeader.getBrokerAddr(), e);
+                    response.setCode(ResponseCode.SYSTEM_ERROR);
+                    response.setRemark("uncompress register broker body failed");
+                    return response;
+                }
+            }
+            registerBrokerBody = RegisterBrokerBody.decode(body, RegisterBrokerBody.class);
         }
         else {
             registerBrokerBody.getTopicConfigSerializeWrapper().getDataVersion()
@@ -159,11 +172,14 @@ public class DefaultRequestProcessor implements NettyRequestProcessor {
             requestHeader.getHaServerAddr(),// 5
             registerBrokerBody.getTopicConfigSerializeWrapper(), // 6
             registerBrokerBody.getFilterServerList(),//
+            requestHeader.getTopicConfigOmitted() != null && requestHeader.getTopicConfigOmitted(),//
             ctx.channel()// 7
             );
 
         responseHeader.setHaServerAddr(result.getHaServerAddr());
         responseHeader.setMasterAddr(result.getMasterAddr());
+        responseHeader.setIncrementalRegisterSupported(true);
+        responseHeader.setTopicConfigRequired(result.isTopicConfigRequired());
 
         // 获取顺序消息 topic 列表
         byte[] jsonValue =
@@ -286,16 +302,15 @@ public class DefaultRequestProcessor implements NettyRequestProcessor {
                 (GetRouteInfoRequestHeader) request
                     .decodeCommandCustomHeader(GetRouteInfoRequestHeader.class);
 
-        TopicRouteData topicRouteData =
-                this.namesrvController.getRouteInfoManager().pickupTopicRouteData(requestHeader.getTopic());
-
-        if (topicRouteData != null) {
-            String orderTopicConf =
-                    this.namesrvController.getKvConfigManager().getKVConfig(
-                        NamesrvUtil.NAMESPACE_ORDER_TOPIC_CONFIG, requestHeader.getTopic());
-            topicRouteData.setOrderTopicConf(orderTopicConf);
+        String orderTopicConf =
+                this.namesrvController.getKvConfigManager().getKVConfig(
+                    NamesrvUtil.NAMESPACE_ORDER_TOPIC_CONFIG, requestHeader.getTopic());
+        // 路由没有变化时直接使用缓存的编码结果
+        byte[] content =
+                this.namesrvController.getRouteInfoManager().pickupTopicRouteDataEncoded(
+                    requestHeader.getTopic(), orderTopicConf);
 
-            byte[] content = topicRouteData.encode();
+        if (content != null) {
             response.setBody(content);
             response.setCode(ResponseCode.SUCCESS);
             response.setRemark(null);
@@ -402,6 +417,7 @@ public class DefaultRequestProcessor implements NettyRequestProcessor {
             requestHeader.getHaServerAddr(),// 5
             topicConfigWrapper, // 6
             null,//
+            false,//
             ctx.channel()// 7
             );
 
@@ -56,6 +56,9 @@ public class RouteInfoManager {
     private final HashMap<String/* clusterName */, Set<String/* brokerName */>> clusterAddrTable;
     private final HashMap<String/* brokerAddr */, BrokerLiveInfo> brokerLiveTable;
     private final HashMap<String/* brokerAddr */, List<String>/* Filter Server */> filterServerTable;
+    // 每个Topic不可变的路由快照，只在写锁内为路由变化的Topic重建并整体替换，查询路由时不加锁
+    private final ConcurrentHashMap<String/* topic */, TopicRouteSnapshot> topicRouteSnapshotTable =
+            new ConcurrentHashMap<String, TopicRouteSnapshot>(1024);
 
 
     public RouteInfoManager() {
@@ -132,14 +135,16 @@ public class RouteInfoManager {
                             log.info("Topic {} is removed from {} broker(s).", topic, count);
                         } else {
                             //Remove the topic itself as there is no queue left.
-                            topicQueueTable.remove(topic);
+                            this.topicQueueTable.remove(topic);
                             log.info("Topic {} is deleted completely", topic);
                         }
                     } else {
-                        topicQueueTable.remove(topic);
+                        this.topicQueueTable.remove(topic);
                         log.info("Topic {} is deleted completely", topic);
                     }
                 }
+
+                this.refreshTopicRoute(topic);
             }
             finally {
                 this.lock.writeLock().unlock();
@@ -181,7 +186,8 @@ public class RouteInfoManager {
             final String haServerAddr,// 5
             final TopicConfigSerializeWrapper topicConfigWrapper,// 6
             final List<String> filterServerList, // 7
-            final Channel channel// 8
+            final boolean topicConfigOmitted,// 8
+            final Channel channel// 9
     ) {
         RegisterBrokerResult result = new RegisterBrokerResult();
         try {
@@ -211,18 +217,33 @@ public class RouteInfoManager {
                 }
                 String oldAddr = brokerData.getBrokerAddrs().put(brokerId, brokerAddr);
                 registerFirst = registerFirst || (null == oldAddr);
+                // 只重建路由真正变化的Topic，Broker定时注册不重建任何快照
+                boolean brokerRouteChanged = registerFirst || !brokerAddr.equals(oldAddr);
+                Set<String> changedTopics = new HashSet<String>();
 
                 // 更新Topic信息
+                DataVersion dataVersion = null != topicConfigWrapper ? topicConfigWrapper.getDataVersion() : null;
                 if (null != topicConfigWrapper //
                         && MixAll.MASTER_ID == brokerId) {
                     if (this.isBrokerTopicConfigChanged(brokerAddr, topicConfigWrapper.getDataVersion())//
                             || registerFirst) {
-                        ConcurrentHashMap<String, TopicConfig> tcTable =
-                                topicConfigWrapper.getTopicConfigTable();
-                        if (tcTable != null) {
-                            for (String topic : tcTable.keySet()) {
-                                TopicConfig topicConfig = tcTable.get(topic);
-                                this.createAndUpdateQueueData(brokerName, topicConfig);
+                        // 增量注册只带了版本号，没有可以更新的配置，要求Broker重新发送全量配置
+                        if (topicConfigOmitted) {
+                            result.setTopicConfigRequired(true);
+                            dataVersion = null;
+                            log.info("topic config of broker {} is required, version {}", brokerAddr,
+                                topicConfigWrapper.getDataVersion());
+                        }
+                        else {
+                            ConcurrentHashMap<String, TopicConfig> tcTable =
+                                    topicConfigWrapper.getTopicConfigTable();
+                            if (tcTable != null) {
+                                for (String topic : tcTable.keySet()) {
+                                    TopicConfig topicConfig = tcTable.get(topic);
+                                    if (this.createAndUpdateQueueData(brokerName, topicConfig)) {
+                                        changedTopics.add(topic);
+                                    }
+                                }
                             }
                         }
                     }
@@ -232,7 +253,7 @@ public class RouteInfoManager {
                 BrokerLiveInfo prevBrokerLiveInfo = this.brokerLiveTable.put(brokerAddr, //
                     new BrokerLiveInfo(//
                         System.currentTimeMillis(), //
-                        topicConfigWrapper.getDataVersion(),//
+                        dataVersion,//
                         channel, //
                         haServerAddr));
                 if (null == prevBrokerLiveInfo) {
@@ -241,14 +262,23 @@ public class RouteInfoManager {
 
                 // 更新Filter Server列表
                 if (filterServerList != null) {
+                    List<String> prevFilterServerList;
                     if (filterServerList.isEmpty()) {
-                        this.filterServerTable.remove(brokerAddr);
+                        prevFilterServerList = this.filterServerTable.remove(brokerAddr);
+                        brokerRouteChanged = brokerRouteChanged || prevFilterServerList != null;
                     }
                     else {
-                        this.filterServerTable.put(brokerAddr, filterServerList);
+                        prevFilterServerList = this.filterServerTable.put(brokerAddr, filterServerList);
+                        brokerRouteChanged = brokerRouteChanged || !filterServerList.equals(prevFilterServerList);
                     }
                 }
 
+                // Broker地址或Filter Server变化，影响该Broker上的所有Topic
+                if (brokerRouteChanged) {
+                    changedTopics.addAll(this.findTopicsByBrokerName(brokerName));
+                }
+                this.refreshTopicRoutes(changedTopics);
+
                 // 返回值
                 if (MixAll.MASTER_ID != brokerId) {
                     String masterAddr = brokerData.getBrokerAddrs().get(MixAll.MASTER_ID);
@@ -278,7 +308,8 @@ public class RouteInfoManager {
      */
     private boolean isBrokerTopicConfigChanged(final String brokerAddr, final DataVersion dataVersion) {
         BrokerLiveInfo prev = this.brokerLiveTable.get(brokerAddr);
-        if (null == prev || !prev.getDataVersion().equals(dataVersion)) {
+        // 增量注册被拒绝后版本号为null，等待Broker重新发送全量配置
+        if (null == prev || null == prev.getDataVersion() || !prev.getDataVersion().equals(dataVersion)) {
             return true;
         }
 
@@ -306,6 +337,7 @@ public class RouteInfoManager {
 
     private int wipeWritePermOfBroker(final String brokerName) {
         int wipeTopicCnt = 0;
+        Set<String> changedTopics = new HashSet<String>();
         Iterator<Entry<String, List<QueueData>>> itTopic = this.topicQueueTable.entrySet().iterator();
         while (itTopic.hasNext()) {
             Entry<String, List<QueueData>> entry = itTopic.next();
@@ -319,15 +351,20 @@ public class RouteInfoManager {
                     perm &= ~PermName.PERM_WRITE;
                     qd.setPerm(perm);
                     wipeTopicCnt++;
+                    changedTopics.add(entry.getKey());
                 }
             }
         }
 
+        this.refreshTopicRoutes(changedTopics);
         return wipeTopicCnt;
     }
 
 
-    private void createAndUpdateQueueData(final String brokerName, final TopicConfig topicConfig) {
+    /**
+     * @return Topic的队列数据是否变化
+     */
+    private boolean createAndUpdateQueueData(final String brokerName, final TopicConfig topicConfig) {
         QueueData queueData = new QueueData();
         queueData.setBrokerName(brokerName);
         queueData.setWriteQueueNums(topicConfig.getWriteQueueNums());
@@ -341,6 +378,7 @@ public class RouteInfoManager {
             queueDataList.add(queueData);
             this.topicQueueTable.put(topicConfig.getTopicName(), queueDataList);
             log.info("new topic registered, {} {}", topicConfig.getTopicName(), queueData);
+            return true;
         }
         else {
             boolean addNewOne = true;
@@ -363,6 +401,7 @@ public class RouteInfoManager {
             if (addNewOne) {
                 queueDataList.add(queueData);
             }
+            return addNewOne;
         }
     }
 
@@ -376,6 +415,8 @@ public class RouteInfoManager {
         try {
             try {
                 this.lock.writeLock().lockInterruptibly();
+                // 该Broker上的Topic路由都会变化，在删除队列数据之前找出来
+                Set<String> changedTopics = this.findTopicsByBrokerName(brokerName);
                 BrokerLiveInfo brokerLiveInfo = this.brokerLiveTable.remove(brokerAddr);
                 if (brokerLiveInfo != null) {
                     log.info("unregisterBroker, remove from brokerLiveTable {}, {}", "OK", brokerAddr);
@@ -422,6 +463,8 @@ public class RouteInfoManager {
                     // 删除相应的topic
                     this.removeTopicByBrokerName(brokerName);
                 }
+
+                this.refreshTopicRoutes(changedTopics);
             }
             finally {
                 this.lock.writeLock().unlock();
@@ -457,66 +500,144 @@ public class RouteInfoManager {
     }
 
 
+    /**
+     * @return 路由快照的副本，Topic不存在时返回null
+     */
     public TopicRouteData pickupTopicRouteData(final String topic) {
+        TopicRouteSnapshot snapshot = this.topicRouteSnapshotTable.get(topic);
+        if (null == snapshot) {
+            return null;
+        }
+
+        return snapshot.getTopicRouteData().cloneTopicRouteData();
+    }
+
+
+    /**
+     * 返回编码后的Topic路由，直接读取路由快照，不加锁；编码结果缓存在快照中，快照被替换后失效
+     *
+     * @return Topic不存在时返回null
+     */
+    public byte[] pickupTopicRouteDataEncoded(final String topic, final String orderTopicConf) {
+        TopicRouteSnapshot snapshot = this.topicRouteSnapshotTable.get(topic);
+        if (null == snapshot) {
+            return null;
+        }
+
+        return snapshot.encode(orderTopicConf);
+    }
+
+
+    /**
+     * 路由快照的版本号，每次替换快照时递增，Topic不存在时返回-1
+     */
+    public long getTopicRouteVersion(final String topic) {
+        TopicRouteSnapshot snapshot = this.topicRouteSnapshotTable.get(topic);
+        return null == snapshot ? -1 : snapshot.getVersion();
+    }
+
+
+    /**
+     * 从路由表构造一份Topic路由，QueueData和BrokerData都是副本，之后修改路由表不影响返回值，必须在锁内调用
+     */
+    private TopicRouteData buildTopicRouteData(final String topic) {
+        List<QueueData> queueDataList = this.topicQueueTable.get(topic);
+        if (null == queueDataList || queueDataList.isEmpty()) {
+            return null;
+        }
+
         TopicRouteData topicRouteData = new TopicRouteData();
-        boolean foundQueueData = false;
-        boolean foundBrokerData = false;
+        List<QueueData> queueDatas = new ArrayList<QueueData>(queueDataList.size());
         Set<String> brokerNameSet = new HashSet<String>();
-        List<BrokerData> brokerDataList = new LinkedList<BrokerData>();
-        topicRouteData.setBrokerDatas(brokerDataList);
+        for (QueueData qd : queueDataList) {
+            QueueData queueData = new QueueData();
+            queueData.setBrokerName(qd.getBrokerName());
+            queueData.setReadQueueNums(qd.getReadQueueNums());
+            queueData.setWriteQueueNums(qd.getWriteQueueNums());
+            queueData.setPerm(qd.getPerm());
+            queueData.setTopicSynFlag(qd.getTopicSynFlag());
+            queueDatas.add(queueData);
+            // BrokerName去重
+            brokerNameSet.add(qd.getBrokerName());
+        }
+        topicRouteData.setQueueDatas(queueDatas);
 
+        List<BrokerData> brokerDataList = new ArrayList<BrokerData>(brokerNameSet.size());
         HashMap<String, List<String>> filterServerMap = new HashMap<String, List<String>>();
+        for (String brokerName : brokerNameSet) {
+            BrokerData brokerData = this.brokerAddrTable.get(brokerName);
+            if (null != brokerData) {
+                BrokerData brokerDataClone = new BrokerData();
+                brokerDataClone.setBrokerName(brokerData.getBrokerName());
+                brokerDataClone.setBrokerAddrs((HashMap<Long, String>) brokerData.getBrokerAddrs().clone());
+                brokerDataList.add(brokerDataClone);
+
+                // 增加Filter Server
+                for (final String brokerAddr : brokerDataClone.getBrokerAddrs().values()) {
+                    List<String> filterServerList = this.filterServerTable.get(brokerAddr);
+                    filterServerMap.put(brokerAddr,
+                        null == filterServerList ? null : new ArrayList<String>(filterServerList));
+                }
+            }
+        }
+
+        if (brokerDataList.isEmpty()) {
+            return null;
+        }
+
+        topicRouteData.setBrokerDatas(brokerDataList);
         topicRouteData.setFilterServerTable(filterServerMap);
+        return topicRouteData;
+    }
 
-        try {
-            try {
-                this.lock.readLock().lockInterruptibly();
-                List<QueueData> queueDataList = this.topicQueueTable.get(topic);
-                if (queueDataList != null) {
-                    topicRouteData.setQueueDatas(queueDataList);
-                    foundQueueData = true;
-
-                    // BrokerName去重
-                    for (QueueData qd : queueDataList) {
-                        brokerNameSet.add(qd.getBrokerName());
-                    }
 
-                    for (String brokerName : brokerNameSet) {
-                        BrokerData brokerData = this.brokerAddrTable.get(brokerName);
-                        if (null != brokerData) {
-                            BrokerData brokerDataClone = new BrokerData();
-                            brokerDataClone.setBrokerName(brokerData.getBrokerName());
-                            brokerDataClone.setBrokerAddrs((HashMap<Long, String>) brokerData
-                                .getBrokerAddrs().clone());
-                            brokerDataList.add(brokerDataClone);
-                            foundBrokerData = true;
-
-                            // 增加Filter Server
-                            for (final String brokerAddr : brokerDataClone.getBrokerAddrs().values()) {
-                                List<String> filterServerList = this.filterServerTable.get(brokerAddr);
-                                filterServerMap.put(brokerAddr, filterServerList);
-                            }
-                        }
-                    }
-                }
-            }
-            finally {
-                this.lock.readLock().unlock();
-            }
+    /**
+     * 重建Topic的路由快照，路由没有变化时保留原快照及其编码缓存，必须在写锁内调用
+     */
+    private void refreshTopicRoute(final String topic) {
+        TopicRouteData topicRouteData = this.buildTopicRouteData(topic);
+        if (null == topicRouteData) {
+            this.topicRouteSnapshotTable.remove(topic);
+            return;
         }
-        catch (Exception e) {
-            log.error("pickupTopicRouteData Exception", e);
+
+        TopicRouteSnapshot prev = this.topicRouteSnapshotTable.get(topic);
+        if (prev != null && prev.getTopicRouteData().equals(topicRouteData)) {
+            return;
         }
 
+        long version = null == prev ? 0 : prev.getVersion() + 1;
+        this.topicRouteSnapshotTable.put(topic, new TopicRouteSnapshot(version, topicRouteData));
         if (log.isDebugEnabled()) {
-            log.debug("pickupTopicRouteData {} {}", topic, topicRouteData);
+            log.debug("refreshTopicRoute {} {} {}", topic, version, topicRouteData);
         }
+    }
 
-        if (foundBrokerData && foundQueueData) {
-            return topicRouteData;
+
+    /**
+     * 必须在写锁内调用
+     */
+    private void refreshTopicRoutes(final Set<String> topics) {
+        for (String topic : topics) {
+            this.refreshTopicRoute(topic);
         }
+    }
 
-        return null;
+
+    /**
+     * 找出在该Broker上有队列的Topic，必须在锁内调用
+     */
+    private Set<String> findTopicsByBrokerName(final String brokerName) {
+        Set<String> topics = new HashSet<String>();
+        for (Entry<String, List<QueueData>> entry : this.topicQueueTable.entrySet()) {
+            for (QueueData qd : entry.getValue()) {
+                if (qd.getBrokerName().equals(brokerName)) {
+                    topics.add(entry.getKey());
+                    break;
+                }
+            }
+        }
+        return topics;
     }
 
     // Broker Channel两分钟过期
@@ -617,6 +738,11 @@ public class RouteInfoManager {
                         }
                     }
 
+                    // 该Broker上的Topic路由都会变化，在删除队列数据之前找出来
+                    Set<String> changedTopics =
+                            null == brokerNameFound ? new HashSet<String>() : this
+                                .findTopicsByBrokerName(brokerNameFound);
+
                     // 清理clusterAddrTable
                     if (brokerNameFound != null && removeBrokerName) {
                         Iterator<Entry<String, Set<String>>> it = this.clusterAddrTable.entrySet().iterator();
@@ -671,6 +797,8 @@ public class RouteInfoManager {
                             }
                         }
                     }
+
+                    this.refreshTopicRoutes(changedTopics);
                 }
                 finally {
                     this.lock.writeLock().unlock();
@@ -901,6 +1029,73 @@ public class RouteInfoManager {
 }
 
 
+/**
+ * 不可变的Topic路由快照，编码结果按顺序消息配置缓存
+ */
+class TopicRouteSnapshot {
+    private final long version;
+    private final TopicRouteData topicRouteData;
+    // 最近一次编码的结果
+    private volatile TopicRouteCache cache;
+
+
+    public TopicRouteSnapshot(long version, TopicRouteData topicRouteData) {
+        this.version = version;
+        this.topicRouteData = topicRouteData;
+    }
+
+
+    public byte[] encode(final String orderTopicConf) {
+        TopicRouteCache cache = this.cache;
+        if (cache != null && cache.isValid(orderTopicConf)) {
+            return cache.getData();
+        }
+
+        // 快照本身不能修改，在副本上设置顺序消息配置
+        TopicRouteData topicRouteData = this.topicRouteData.cloneTopicRouteData();
+        topicRouteData.setOrderTopicConf(orderTopicConf);
+        byte[] data = topicRouteData.encode();
+        this.cache = new TopicRouteCache(orderTopicConf, data);
+        return data;
+    }
+
+
+    public long getVersion() {
+        return version;
+    }
+
+
+    public TopicRouteData getTopicRouteData() {
+        return topicRouteData;
+    }
+}
+
+
+/**
+ * 编码后的Topic路由
+ */
+class TopicRouteCache {
+    private final String orderTopicConf;
+    private final byte[] data;
+
+
+    public TopicRouteCache(String orderTopicConf, byte[] data) {
+        this.orderTopicConf = orderTopicConf;
+        this.data = data;
+    }
+
+
+    public boolean isValid(final String orderTopicConf) {
+        return null == this.orderTopicConf ? null == orderTopicConf : this.orderTopicConf.equals(orderTopicConf);
+    }
+
+
+    public byte[] getData() {
+        return data;
+    }
+}
+
+
 class BrokerLiveInfo {
     private long lastUpdateTimestamp;
     private DataVersion dataVersion;
@@ -0,0 +1,238 @@
+package com.alibaba.rocketmq.namesrv.routeinfo;
+
+import com.alibaba.rocketmq.common.DataVersion;
+import com.alibaba.rocketmq.common.MixAll;
+import com.alibaba.rocketmq.common.TopicConfig;
+import com.alibaba.rocketmq.common.constant.PermName;
+import com.alibaba.rocketmq.common.namesrv.RegisterBrokerResult;
+import com.alibaba.rocketmq.common.protocol.body.TopicConfigSerializeWrapper;
+import com.alibaba.rocketmq.common.protocol.route.TopicRouteData;
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+
+public class RouteInfoManagerTest {
+    private static final String ClusterName = "DefaultCluster";
+    private static final String BrokerName = "broker-a";
+    private static final String BrokerAddr = "127.0.0.1:10911";
+
+
+    /**
+     * 全量注册时带上Topic配置，增量注册时只有版本号
+     */
+    private static TopicConfigSerializeWrapper buildWrapper(final DataVersion dataVersion, final boolean full,
+            final String... topics) {
+        TopicConfigSerializeWrapper wrapper = new TopicConfigSerializeWrapper();
+        DataVersion version = new DataVersion();
+        version.assignNewOne(dataVersion);
+        wrapper.setDataVersion(version);
+        ConcurrentHashMap<String, TopicConfig> table = new ConcurrentHashMap<String, TopicConfig>();
+        if (full) {
+            for (String topic : topics) {
+                table.put(topic, new TopicConfig(topic, 4, 4, 6));
+            }
+        }
+        wrapper.setTopicConfigTable(table);
+        return wrapper;
+    }
+
+
+    private static RegisterBrokerResult register(final RouteInfoManager manager, final DataVersion dataVersion,
+            final boolean omitted, final String... topics) {
+        return register(manager, BrokerName, BrokerAddr, dataVersion, omitted, topics);
+    }
+
+
+    private static RegisterBrokerResult register(final RouteInfoManager manager, final String brokerName,
+            final String brokerAddr, final DataVersion dataVersion, final boolean omitted, final String... topics) {
+        return manager.registerBroker(ClusterName, brokerAddr, brokerName, MixAll.MASTER_ID, brokerAddr + "1",
+            buildWrapper(dataVersion, !omitted, topics), null, omitted, null);
+    }
+
+
+    @Test
+    public void test_heartbeat_after_restart_requires_topic_config() {
+        DataVersion dataVersion = new DataVersion();
+        dataVersion.nextVersion();
+
+        // 重启后的Name Server没有Broker的任何信息，只收到版本号时要求重新发送全量配置
+        RouteInfoManager manager = new RouteInfoManager();
+        RegisterBrokerResult result = register(manager, dataVersion, true);
+        assertTrue(result.isTopicConfigRequired());
+        assertNull(manager.pickupTopicRouteData("TopicA"));
+
+        // 补发全量配置后建立路由
+        result = register(manager, dataVersion, false, "TopicA");
+        assertFalse(result.isTopicConfigRequired());
+        TopicRouteData routeData = manager.pickupTopicRouteData("TopicA");
+        assertNotNull(routeData);
+        assertEquals(1, routeData.getQueueDatas().size());
+
+        // 版本没变的心跳不再要求全量配置，也不影响已有路由
+        result = register(manager, dataVersion, true);
+        assertFalse(result.isTopicConfigRequired());
+        assertNotNull(manager.pickupTopicRouteData("TopicA"));
+    }
+
+
+    @Test
+    public void test_rejected_heartbeat_forces_full_registration() {
+        DataVersion dataVersion = new DataVersion();
+        dataVersion.nextVersion();
+
+        RouteInfoManager manager = new RouteInfoManager();
+        assertFalse(register(manager, dataVersion, false, "TopicA").isTopicConfigRequired());
+
+        // Broker的Topic配置变化，但只发送了心跳
+        dataVersion.nextVersion();
+        assertTrue(register(manager, dataVersion, true).isTopicConfigRequired());
+
+        // 被拒绝后记录的版本号为null，即使版本号相同的心跳也要继续要求全量配置
+        assertTrue(register(manager, dataVersion, true).isTopicConfigRequired());
+        assertNull(manager.pickupTopicRouteData("TopicB"));
+
+        // 全量注册后恢复增量注册
+        assertFalse(register(manager, dataVersion, false, "TopicA", "TopicB").isTopicConfigRequired());
+        assertNotNull(manager.pickupTopicRouteData("TopicB"));
+        assertFalse(register(manager, dataVersion, true).isTopicConfigRequired());
+    }
+
+
+    @Test
+    public void test_full_registration_without_omitted_flag() {
+        DataVersion dataVersion = new DataVersion();
+        dataVersion.nextVersion();
+
+        // 不支持增量注册的Broker每次都发送全量配置，不会被要求重发
+        RouteInfoManager manager = new RouteInfoManager();
+        for (int i = 0; i < 3; i++) {
+            assertFalse(register(manager, dataVersion, false, "TopicA").isTopicConfigRequired());
+            assertNotNull(manager.pickupTopicRouteData("TopicA"));
+        }
+    }
+
+
+    @Test
+    public void test_delete_topic() {
+        DataVersion dataVersion = new DataVersion();
+        dataVersion.nextVersion();
+
+        RouteInfoManager manager = new RouteInfoManager();
+        register(manager, dataVersion, false, "TopicA");
+        assertNotNull(manager.pickupTopicRouteDataEncoded("TopicA", null));
+
+        manager.deleteTopic("TopicA", null);
+        assertNull(manager.pickupTopicRouteDataEncoded("TopicA", null));
+    }
+
+
+    @Test
+    public void test_route_snapshot_refreshed_per_topic() {
+        DataVersion versionA = new DataVersion();
+        versionA.nextVersion();
+        DataVersion versionB = new DataVersion();
+        versionB.nextVersion();
+
+        RouteInfoManager manager = new RouteInfoManager();
+        register(manager, versionA, false, "TopicA", "TopicC");
+        byte[] encodedA = manager.pickupTopicRouteDataEncoded("TopicA", null);
+        byte[] encodedC = manager.pickupTopicRouteDataEncoded("TopicC", null);
+        assertSame(encodedA, manager.pickupTopicRouteDataEncoded("TopicA", null));
+        assertEquals(0, manager.getTopicRouteVersion("TopicA"));
+
+        // 定时心跳和重复的全量注册都不重建快照
+        register(manager, versionA, true);
+        register(manager, versionA, false, "TopicA", "TopicC");
+        assertSame(encodedA, manager.pickupTopicRouteDataEncoded("TopicA", null));
+
+        // 其他Broker注册无关的Topic，不影响已有Topic的快照
+        register(manager, "broker-b", "127.0.0.2:10911", versionB, false, "TopicB");
+        assertSame(encodedA, manager.pickupTopicRouteDataEncoded("TopicA", null));
+        assertSame(encodedC, manager.pickupTopicRouteDataEncoded("TopicC", null));
+
+        // TopicA扩展到broker-b，只有TopicA的快照被替换
+        versionB.nextVersion();
+        register(manager, "broker-b", "127.0.0.2:10911", versionB, false, "TopicA", "TopicB");
+        byte[] encodedA2 = manager.pickupTopicRouteDataEncoded("TopicA", null);
+        assertNotSame(encodedA, encodedA2);
+        assertEquals(1, manager.getTopicRouteVersion("TopicA"));
+        assertEquals(2, manager.pickupTopicRouteData("TopicA").getBrokerDatas().size());
+        assertSame(encodedC, manager.pickupTopicRouteDataEncoded("TopicC", null));
+        assertEquals(0, manager.getTopicRouteVersion("TopicC"));
+
+        // 顺序消息配置不同时重新编码
+        assertNotSame(encodedA2, manager.pickupTopicRouteDataEncoded("TopicA", "broker-a:4"));
+
+        // broker-b下线，只有它上面的Topic受影响
+        manager.unregisterBroker(ClusterName, "127.0.0.2:10911", "broker-b", MixAll.MASTER_ID);
+        assertNull(manager.pickupTopicRouteData("TopicB"));
+        assertEquals(1, manager.pickupTopicRouteData("TopicA").getBrokerDatas().size());
+        assertSame(encodedC, manager.pickupTopicRouteDataEncoded("TopicC", null));
+    }
+
+
+    @Test
+    public void test_wipe_write_perm_replaces_snapshot() {
+        DataVersion dataVersion = new DataVersion();
+        dataVersion.nextVersion();
+
+        RouteInfoManager manager = new RouteInfoManager();
+        register(manager, dataVersion, false, "TopicA");
+        TopicRouteData before = manager.pickupTopicRouteData("TopicA");
+        byte[] encoded = manager.pickupTopicRouteDataEncoded("TopicA", null);
+
+        assertEquals(1, manager.wipeWritePermOfBrokerByLock(BrokerName));
+        TopicRouteData after = manager.pickupTopicRouteData("TopicA");
+        assertFalse(PermName.isWriteable(after.getQueueDatas().get(0).getPerm()));
+        assertNotSame(encoded, manager.pickupTopicRouteDataEncoded("TopicA", null));
+
+        // 已发布的快照是不可变的，摘除写权限不影响之前取到的路由
+        assertTrue(PermName.isWriteable(before.getQueueDatas().get(0).getPerm()));
+    }
+
+
+    @Test
+    public void test_pickup_route_without_read_lock() throws Exception {
+        DataVersion dataVersion = new DataVersion();
+        dataVersion.nextVersion();
+
+        final RouteInfoManager manager = new RouteInfoManager();
+        register(manager, dataVersion, false, "TopicA");
+
+        Field field = RouteInfoManager.class.getDeclaredField("lock");
+        field.setAccessible(true);
+        ReadWriteLock lock = (ReadWriteLock) field.get(manager);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        lock.writeLock().lock();
+        try {
+            // 写锁被占用时，查询路由不被阻塞
+            Future<byte[]> future = executor.submit(new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws Exception {
+                    return manager.pickupTopicRouteDataEncoded("TopicA", null);
+                }
+            });
+            assertNotNull(future.get(3, TimeUnit.SECONDS));
+        }
+        finally {
+            lock.writeLock().unlock();
+            executor.shutdown();
+        }
+    }
+}
@@ -175,6 +175,7 @@ public abstract class NettyRemotingAbstract {
                             if (response != null) {
                                 response.setOpaque(cmd.getOpaque());
                                 response.markResponseType();
+                                response.setSerializeTypeCurrentRPC(cmd.getSerializeTypeCurrentRPC());
                                 try {
                                     ctx.writeAndFlush(response);
                                 }
@@ -199,6 +200,7 @@ public abstract class NettyRemotingAbstract {
                                         RemotingSysResponseCode.SYSTEM_ERROR,//
                                         RemotingHelper.exceptionSimpleDesc(e));
                             response.setOpaque(cmd.getOpaque());
+                            response.setSerializeTypeCurrentRPC(cmd.getSerializeTypeCurrentRPC());
                             ctx.writeAndFlush(response);
                         }
                     }
@@ -223,6 +225,7 @@ public abstract class NettyRemotingAbstract {
                             RemotingCommand.createResponseCommand(RemotingSysResponseCode.SYSTEM_BUSY,
                                 "too many requests and system thread pool busy, please try another server");
                     response.setOpaque(cmd.getOpaque());
+                    response.setSerializeTypeCurrentRPC(cmd.getSerializeTypeCurrentRPC());
                     ctx.writeAndFlush(response);
                 }
             }
@@ -232,6 +235,7 @@ public abstract class NettyRemotingAbstract {
             final RemotingCommand response = RemotingCommand
                     .createResponseCommand(RemotingSysResponseCode.REQUEST_CODE_NOT_SUPPORTED, error);
             response.setOpaque(cmd.getOpaque());
+            response.setSerializeTypeCurrentRPC(cmd.getSerializeTypeCurrentRPC());
             ctx.writeAndFlush(response);
             LOGGER.error(RemotingHelper.parseChannelRemoteAddr(ctx.channel()) + error);
         }
@@ -428,6 +432,8 @@ public abstract class NettyRemotingAbstract {
                 });
             }
             catch (Exception e) {
+                // 异常抛给调用方，不再由超时扫描回调，避免调用方重试后又收到一次回调
+                this.responseTable.remove(request.getOpaque());
                 responseFuture.release();
                 LOGGER.warn(
                         "send a request command to channel <" + RemotingHelper.parseChannelRemoteAddr(channel)
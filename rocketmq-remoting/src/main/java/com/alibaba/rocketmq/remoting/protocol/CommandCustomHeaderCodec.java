@@ -0,0 +1,225 @@
+/**
+ * Copyright (C) 2010-2013 Alibaba Group Holding Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.rocketmq.remoting.protocol;
+
+import com.alibaba.rocketmq.remoting.CommandCustomHeader;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * 自定义Header与extFields之间的编解码器，每个Header类只在第一次使用时反射一次，
+ * 之后通过缓存的MethodHandle读写字段
+ */
+public class CommandCustomHeaderCodec {
+    private static final ConcurrentHashMap<Class<? extends CommandCustomHeader>, CommandCustomHeaderCodec> CodecTable =
+            new ConcurrentHashMap<Class<? extends CommandCustomHeader>, CommandCustomHeaderCodec>();
+
+    private static final MethodType ConstructorType = MethodType.methodType(Object.class);
+    private static final MethodType GetterType = MethodType.methodType(Object.class, Object.class);
+    private static final MethodType SetterType = MethodType.methodType(void.class, Object.class, Object.class);
+
+    // 字段类型
+    private static final int TYPE_UNSUPPORTED = 0;
+    private static final int TYPE_STRING = 1;
+    private static final int TYPE_INTEGER = 2;
+    private static final int TYPE_LONG = 3;
+    private static final int TYPE_BOOLEAN = 4;
+    private static final int TYPE_DOUBLE = 5;
+
+    // 无参构造函数
+    private final MethodHandle constructor;
+    private final FieldCodec[] fields;
+
+
+    private CommandCustomHeaderCodec(MethodHandle constructor, FieldCodec[] fields) {
+        this.constructor = constructor;
+        this.fields = fields;
+    }
+
+
+    public static CommandCustomHeaderCodec getCodec(Class<? extends CommandCustomHeader> classHeader) {
+        CommandCustomHeaderCodec codec = CodecTable.get(classHeader);
+        if (null == codec) {
+            codec = build(classHeader);
+            CommandCustomHeaderCodec prev = CodecTable.putIfAbsent(classHeader, codec);
+            if (prev != null) {
+                codec = prev;
+            }
+        }
+        return codec;
+    }
+
+
+    private static CommandCustomHeaderCodec build(Class<? extends CommandCustomHeader> classHeader) {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+        MethodHandle constructor = null;
+        try {
+            Constructor<? extends CommandCustomHeader> c = classHeader.getDeclaredConstructor();
+            c.setAccessible(true);
+            constructor = lookup.unreflectConstructor(c).asType(ConstructorType);
+        }
+        catch (Exception e) {
+            // 没有可用的无参构造函数，解码时返回null，与Class.newInstance()失败时一致
+        }
+
+        List<FieldCodec> fieldList = new ArrayList<FieldCodec>();
+        for (Field field : classHeader.getDeclaredFields()) {
+            if (Modifier.isStatic(field.getModifiers()) || field.getName().startsWith("this")) {
+                continue;
+            }
+
+            try {
+                field.setAccessible(true);
+                MethodHandle getter = lookup.unreflectGetter(field).asType(GetterType);
+                MethodHandle setter = null;
+                if (!Modifier.isFinal(field.getModifiers())) {
+                    setter = lookup.unreflectSetter(field).asType(SetterType);
+                }
+                fieldList.add(new FieldCodec(field.getName(), typeOf(field.getType()), getter, setter));
+            }
+            catch (Exception e) {
+                // 与原反射实现一致，无法访问的字段忽略
+            }
+        }
+
+        return new CommandCustomHeaderCodec(constructor, fieldList.toArray(new FieldCodec[fieldList.size()]));
+    }
+
+
+    private static int typeOf(Class<?> type) {
+        if (type == String.class) {
+            return TYPE_STRING;
+        }
+        else if (type == Integer.class || type == int.class) {
+            return TYPE_INTEGER;
+        }
+        else if (type == Long.class || type == long.class) {
+            return TYPE_LONG;
+        }
+        else if (type == Boolean.class || type == boolean.class) {
+            return TYPE_BOOLEAN;
+        }
+        else if (type == Double.class || type == double.class) {
+            return TYPE_DOUBLE;
+        }
+        return TYPE_UNSUPPORTED;
+    }
+
+
+    /**
+     * 根据extFields创建Header对象，字段值缺失或解析失败时保留默认值，由checkFields()负责校验
+     *
+     * @return 无法实例化Header时返回null
+     */
+    public CommandCustomHeader decode(final Map<String, String> extFields) {
+        if (null == this.constructor) {
+            return null;
+        }
+
+        Object objectHeader;
+        try {
+            objectHeader = this.constructor.invokeExact();
+        }
+        catch (Throwable e) {
+            return null;
+        }
+
+        for (FieldCodec field : this.fields) {
+            if (null == field.setter || TYPE_UNSUPPORTED == field.type) {
+                continue;
+            }
+
+            String value = extFields.get(field.name);
+            if (null == value) {
+                continue;
+            }
+
+            try {
+                Object valueParsed;
+                switch (field.type) {
+                case TYPE_STRING:
+                    valueParsed = value;
+                    break;
+                case TYPE_INTEGER:
+                    valueParsed = Integer.parseInt(value);
+                    break;
+                case TYPE_LONG:
+                    valueParsed = Long.parseLong(value);
+                    break;
+                case TYPE_BOOLEAN:
+                    valueParsed = Boolean.parseBoolean(value);
+                    break;
+                default:
+                    valueParsed = Double.parseDouble(value);
+                    break;
+                }
+
+                field.setter.invokeExact(objectHeader, valueParsed);
+            }
+            catch (Throwable e) {
+            }
+        }
+
+        return (CommandCustomHeader) objectHeader;
+    }
+
+
+    /**
+     * 将Header中非null字段写入extFields
+     */
+    public void encode(final CommandCustomHeader customHeader, final HashMap<String, String> extFields) {
+        for (FieldCodec field : this.fields) {
+            Object value = null;
+            try {
+                value = field.getter.invokeExact((Object) customHeader);
+            }
+            catch (Throwable e) {
+            }
+
+            if (value != null) {
+                extFields.put(field.name, value.toString());
+            }
+        }
+    }
+
+    static class FieldCodec {
+        private final String name;
+        private final int type;
+        private final MethodHandle getter;
+        // final字段为null
+        private final MethodHandle setter;
+
+
+        FieldCodec(String name, int type, MethodHandle getter, MethodHandle setter) {
+            this.name = name;
+            this.type = type;
+            this.getter = getter;
+            this.setter = setter;
+        }
+    }
+}
@@ -1,13 +1,37 @@
 package com.alibaba.rocketmq.remoting.protocol;
 
 public enum LanguageCode {
-    JAVA,
-    CPP,
-    DOTNET,
-    PYTHON,
-    DELPHI,
-    ERLANG,
-    RUBY,
-    HTTP,
-    OTHER,
+    JAVA((byte) 0),
+    CPP((byte) 1),
+    DOTNET((byte) 2),
+    PYTHON((byte) 3),
+    DELPHI((byte) 4),
+    ERLANG((byte) 5),
+    RUBY((byte) 6),
+    HTTP((byte) 7),
+    OTHER((byte) 8),
+    ;
+
+    // 二进制Header中的编码，新增语言只能追加
+    private final byte code;
+
+
+    LanguageCode(byte code) {
+        this.code = code;
+    }
+
+
+    public static LanguageCode valueOf(byte code) {
+        for (LanguageCode languageCode : LanguageCode.values()) {
+            if (languageCode.getCode() == code) {
+                return languageCode;
+            }
+        }
+        return null;
+    }
+
+
+    public byte getCode() {
+        return code;
+    }
 }
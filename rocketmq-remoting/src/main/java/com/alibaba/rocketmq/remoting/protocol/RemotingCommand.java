@@ -17,12 +17,8 @@ package com.alibaba.rocketmq.remoting.protocol;
 
 import com.alibaba.fastjson.annotation.JSONField;
 import com.alibaba.rocketmq.remoting.CommandCustomHeader;
-import com.alibaba.rocketmq.remoting.annotation.CFNotNull;
 import com.alibaba.rocketmq.remoting.exception.RemotingCommandException;
 
-import java.lang.annotation.Annotation;
-import java.lang.reflect.Field;
-import java.lang.reflect.Modifier;
 import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -38,6 +34,12 @@ public class RemotingCommand {
 
     public static String RemotingVersionKey = "rocketmq.remoting.version";
 
+    public static final String SerializeTypeProperty = "rocketmq.serialize.type";
+
+    // 本进程发起请求时Header的序列化方式，默认JSON以兼容老版本
+    private static final SerializeType SerializeTypeConfigInThisServer = parseSerializeType(
+        System.getProperty(SerializeTypeProperty, SerializeType.JSON.name()));
+
     private static volatile int ConfigVersion = -1;
 
     private static final AtomicInteger REQUEST_OPAQUE_ID_GENERATOR = new AtomicInteger(0);
@@ -61,6 +63,8 @@ public class RemotingCommand {
 
     private transient CommandCustomHeader customHeader;
 
+    private transient SerializeType serializeTypeCurrentRPC = SerializeTypeConfigInThisServer;
+
     /**
      * Body 部分
      */
@@ -139,29 +143,11 @@ public class RemotingCommand {
 
     public void makeCustomHeaderToNet() {
         if (this.customHeader != null) {
-            Field[] fields = this.customHeader.getClass().getDeclaredFields();
             if (null == this.extFields) {
                 this.extFields = new HashMap<String, String>();
             }
 
-            for (Field field : fields) {
-                if (!Modifier.isStatic(field.getModifiers())) {
-                    String name = field.getName();
-                    if (!name.startsWith("this")) {
-                        Object value = null;
-                        try {
-                            field.setAccessible(true);
-                            value = field.get(this.customHeader);
-                        } catch (IllegalArgumentException e) {
-                        } catch (IllegalAccessException e) {
-                        }
-
-                        if (value != null) {
-                            this.extFields.put(name, value.toString());
-                        }
-                    }
-                }
-            }
+            CommandCustomHeaderCodec.getCodec(this.customHeader.getClass()).encode(this.customHeader, this.extFields);
         }
     }
 
@@ -175,85 +161,15 @@ public class RemotingCommand {
         this.customHeader = customHeader;
     }
 
-    private static final String StringName = String.class.getCanonicalName();//
-
-    private static final String IntegerName1 = Integer.class.getCanonicalName();//
-    private static final String IntegerName2 = int.class.getCanonicalName();//
-
-    private static final String LongName1 = Long.class.getCanonicalName();//
-    private static final String LongName2 = long.class.getCanonicalName();//
-
-    private static final String BooleanName1 = Boolean.class.getCanonicalName();//
-    private static final String BooleanName2 = boolean.class.getCanonicalName();//
-
-    private static final String DoubleName1 = Double.class.getCanonicalName();//
-    private static final String DoubleName2 = double.class.getCanonicalName();//
-
-
     public CommandCustomHeader decodeCommandCustomHeader(Class<? extends CommandCustomHeader> classHeader)
             throws RemotingCommandException {
         if (this.extFields != null) {
-            CommandCustomHeader objectHeader;
-            try {
-                objectHeader = classHeader.newInstance();
-            }
-            catch (InstantiationException e) {
-                return null;
-            }
-            catch (IllegalAccessException e) {
+            CommandCustomHeader objectHeader = CommandCustomHeaderCodec.getCodec(classHeader).decode(this.extFields);
+            if (null == objectHeader) {
                 return null;
             }
 
             // 检查返回对象是否有效
-            Field[] fields = objectHeader.getClass().getDeclaredFields();
-            for (Field field : fields) {
-                if (!Modifier.isStatic(field.getModifiers())) {
-                    String fieldName = field.getName();
-                    if (!fieldName.startsWith("this")) {
-                        try {
-                            String value = this.extFields.get(fieldName);
-                            if (null == value) {
-                                Annotation annotation = field.getAnnotation(CFNotNull.class);
-                                if (annotation != null) {
-                                    throw new RemotingCommandException("the custom field <" + fieldName
-                                            + "> is null");
-                                }
-
-                                continue;
-                            }
-
-                            field.setAccessible(true);
-                            String type = field.getType().getCanonicalName();
-                            Object valueParsed = null;
-
-                            if (type.equals(StringName)) {
-                                valueParsed = value;
-                            }
-                            else if (type.equals(IntegerName1) || type.equals(IntegerName2)) {
-                                valueParsed = Integer.parseInt(value);
-                            }
-                            else if (type.equals(LongName1) || type.equals(LongName2)) {
-                                valueParsed = Long.parseLong(value);
-                            }
-                            else if (type.equals(BooleanName1) || type.equals(BooleanName2)) {
-                                valueParsed = Boolean.parseBoolean(value);
-                            }
-                            else if (type.equals(DoubleName1) || type.equals(DoubleName2)) {
-                                valueParsed = Double.parseDouble(value);
-                            }
-                            else {
-                                throw new RemotingCommandException("the custom field <" + fieldName
-                                        + "> type is not supported");
-                            }
-
-                            field.set(objectHeader, valueParsed);
-
-                        } catch (Throwable e) {
-                        }
-                    }
-                }
-            }
-
             objectHeader.checkFields();
 
             return objectHeader;
@@ -263,12 +179,61 @@ public class RemotingCommand {
     }
 
 
+    private static SerializeType parseSerializeType(String name) {
+        try {
+            return SerializeType.valueOf(name.toUpperCase());
+        }
+        catch (IllegalArgumentException e) {
+            return SerializeType.JSON;
+        }
+    }
+
+
+    /**
+     * header length字段最高字节为序列化方式，低3字节为Header长度，老版本JSON协议最高字节为0
+     */
+    public static int markProtocolType(int headerLength, SerializeType type) {
+        return (type.getCode() << 24) | (headerLength & 0x00FFFFFF);
+    }
+
+
+    public static int getHeaderLength(int length) {
+        return length & 0x00FFFFFF;
+    }
+
+
+    public static SerializeType getProtocolType(int length) {
+        return SerializeType.valueOf((byte) ((length >> 24) & 0xFF));
+    }
+
+
     private byte[] buildHeader() {
         this.makeCustomHeaderToNet();
+        if (SerializeType.ROCKETMQ == this.serializeTypeCurrentRPC) {
+            return RocketMQSerializable.rocketMQProtocolEncode(this);
+        }
         return RemotingSerializable.encode(this);
     }
 
 
+    private static RemotingCommand headerDecode(byte[] headerData, SerializeType type) {
+        switch (type) {
+        case JSON:
+            RemotingCommand cmd = RemotingSerializable.decode(headerData, RemotingCommand.class);
+            cmd.setSerializeTypeCurrentRPC(type);
+            return cmd;
+        case ROCKETMQ:
+            RemotingCommand resultRMQ = RocketMQSerializable.rocketMQProtocolDecode(headerData);
+            resultRMQ.setSerializeTypeCurrentRPC(type);
+            return resultRMQ;
+        default:
+            break;
+        }
+
+        return null;
+    }
+
+
     public ByteBuffer encode() {
         // 1> header length size
         int length = 4;
@@ -288,7 +253,7 @@ public class RemotingCommand {
         result.putInt(length);
 
         // header length
-        result.putInt(headerData.length);
+        result.putInt(markProtocolType(headerData.length, this.serializeTypeCurrentRPC));
 
         // header data
         result.put(headerData);
@@ -329,7 +294,7 @@ public class RemotingCommand {
         result.putInt(length);
 
         // header length
-        result.putInt(headerData.length);
+        result.putInt(markProtocolType(headerData.length, this.serializeTypeCurrentRPC));
 
         // header data
         result.put(headerData);
@@ -348,7 +313,12 @@ public class RemotingCommand {
 
     public static RemotingCommand decode(final ByteBuffer byteBuffer) {
         int length = byteBuffer.limit();
-        int headerLength = byteBuffer.getInt();
+        int oriHeaderLen = byteBuffer.getInt();
+        int headerLength = getHeaderLength(oriHeaderLen);
+        SerializeType type = getProtocolType(oriHeaderLen);
+        if (null == type) {
+            throw new IllegalArgumentException("unsupported serialize type, header length " + oriHeaderLen);
+        }
 
         byte[] headerData = new byte[headerLength];
         byteBuffer.get(headerData);
@@ -360,7 +330,7 @@ public class RemotingCommand {
             byteBuffer.get(bodyData);
         }
 
-        RemotingCommand cmd = RemotingSerializable.decode(headerData, RemotingCommand.class);
+        RemotingCommand cmd = headerDecode(headerData, type);
         cmd.body = bodyData;
 
         return cmd;
@@ -473,6 +443,17 @@ public class RemotingCommand {
     }
 
 
+    @JSONField(serialize = false)
+    public SerializeType getSerializeTypeCurrentRPC() {
+        return serializeTypeCurrentRPC;
+    }
+
+
+    public void setSerializeTypeCurrentRPC(SerializeType serializeTypeCurrentRPC) {
+        this.serializeTypeCurrentRPC = serializeTypeCurrentRPC;
+    }
+
+
     public HashMap<String, String> getExtFields() {
         return extFields;
     }
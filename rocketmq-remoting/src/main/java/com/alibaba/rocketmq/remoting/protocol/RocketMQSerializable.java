@@ -0,0 +1,172 @@
+/**
+ * Copyright (C) 2010-2013 Alibaba Group Holding Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.rocketmq.remoting.protocol;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * RemotingCommand Header的二进制序列化，所有整数均为大端
+ *
+ * <pre>
+ * code(2) language(1) version(2) opaque(4) flag(4)
+ * remark length(4) remark
+ * extFields length(4) [key length(2) key value length(4) value]...
+ * </pre>
+ *
+ * remark、extFields为null时长度为-1，字符串均使用UTF-8编码
+ */
+public class RocketMQSerializable {
+    private static final Charset CHARSET_UTF8 = Charset.forName("UTF-8");
+
+
+    public static byte[] rocketMQProtocolEncode(RemotingCommand cmd) {
+        byte[] remarkBytes = null;
+        int remarkLen = 0;
+        if (cmd.getRemark() != null) {
+            remarkBytes = cmd.getRemark().getBytes(CHARSET_UTF8);
+            remarkLen = remarkBytes.length;
+        }
+
+        byte[] extFieldsBytes = null;
+        int extLen = 0;
+        if (cmd.getExtFields() != null) {
+            extFieldsBytes = mapSerialize(cmd.getExtFields());
+            extLen = extFieldsBytes.length;
+        }
+
+        int totalLen = calTotalLen(remarkLen, extLen);
+
+        ByteBuffer headerBuffer = ByteBuffer.allocate(totalLen);
+        // code
+        headerBuffer.putShort((short) cmd.getCode());
+        // language
+        headerBuffer.put(cmd.getLanguage().getCode());
+        // version
+        headerBuffer.putShort((short) cmd.getVersion());
+        // opaque
+        headerBuffer.putInt(cmd.getOpaque());
+        // flag
+        headerBuffer.putInt(cmd.getFlag());
+        // remark
+        if (remarkBytes != null) {
+            headerBuffer.putInt(remarkBytes.length);
+            headerBuffer.put(remarkBytes);
+        }
+        else {
+            headerBuffer.putInt(-1);
+        }
+        // extFields
+        if (extFieldsBytes != null) {
+            headerBuffer.putInt(extFieldsBytes.length);
+            headerBuffer.put(extFieldsBytes);
+        }
+        else {
+            headerBuffer.putInt(-1);
+        }
+
+        return headerBuffer.array();
+    }
+
+
+    public static byte[] mapSerialize(HashMap<String, String> map) {
+        int totalLength = 0;
+        int i = 0;
+        byte[][] bytes = new byte[map.size() * 2][];
+        for (Map.Entry<String, String> entry : map.entrySet()) {
+            if (entry.getKey() != null && entry.getValue() != null) {
+                bytes[i] = entry.getKey().getBytes(CHARSET_UTF8);
+                bytes[i + 1] = entry.getValue().getBytes(CHARSET_UTF8);
+                totalLength += 2 + bytes[i].length + 4 + bytes[i + 1].length;
+                i += 2;
+            }
+        }
+
+        ByteBuffer content = ByteBuffer.allocate(totalLength);
+        for (int j = 0; j < i; j += 2) {
+            content.putShort((short) bytes[j].length);
+            content.put(bytes[j]);
+            content.putInt(bytes[j + 1].length);
+            content.put(bytes[j + 1]);
+        }
+
+        return content.array();
+    }
+
+
+    private static int calTotalLen(int remark, int ext) {
+        return 2 // code
+                + 1 // language
+                + 2 // version
+                + 4 // opaque
+                + 4 // flag
+                + 4 + remark // remark
+                + 4 + ext; // extFields
+    }
+
+
+    public static RemotingCommand rocketMQProtocolDecode(final byte[] headerArray) {
+        RemotingCommand cmd = new RemotingCommand();
+        ByteBuffer headerBuffer = ByteBuffer.wrap(headerArray);
+        // code
+        cmd.setCode(headerBuffer.getShort());
+        // language
+        cmd.setLanguage(LanguageCode.valueOf(headerBuffer.get()));
+        // version
+        cmd.setVersion(headerBuffer.getShort());
+        // opaque
+        cmd.setOpaque(headerBuffer.getInt());
+        // flag
+        cmd.setFlag(headerBuffer.getInt());
+        // remark
+        int remarkLength = headerBuffer.getInt();
+        if (remarkLength >= 0) {
+            byte[] remarkContent = new byte[remarkLength];
+            headerBuffer.get(remarkContent);
+            cmd.setRemark(new String(remarkContent, CHARSET_UTF8));
+        }
+        // extFields
+        int extFieldsLength = headerBuffer.getInt();
+        if (extFieldsLength >= 0) {
+            byte[] extFieldsBytes = new byte[extFieldsLength];
+            headerBuffer.get(extFieldsBytes);
+            cmd.setExtFields(mapDeserialize(extFieldsBytes));
+        }
+
+        return cmd;
+    }
+
+
+    public static HashMap<String, String> mapDeserialize(byte[] bytes) {
+        HashMap<String, String> map = new HashMap<String, String>();
+        ByteBuffer byteBuffer = ByteBuffer.wrap(bytes);
+
+        while (byteBuffer.hasRemaining()) {
+            byte[] keyContent = new byte[byteBuffer.getShort()];
+            byteBuffer.get(keyContent);
+
+            byte[] valContent = new byte[byteBuffer.getInt()];
+            byteBuffer.get(valContent);
+
+            map.put(new String(keyContent, CHARSET_UTF8), new String(valContent, CHARSET_UTF8));
+        }
+
+        return map;
+    }
+}
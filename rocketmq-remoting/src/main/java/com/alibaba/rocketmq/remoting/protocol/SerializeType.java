@@ -0,0 +1,46 @@
+/**
+ * Copyright (C) 2010-2013 Alibaba Group Holding Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.rocketmq.remoting.protocol;
+
+/**
+ * RemotingCommand Header部分的序列化方式，编码在header length字段的最高字节
+ */
+public enum SerializeType {
+    JSON((byte) 0),
+    ROCKETMQ((byte) 1);
+
+    private final byte code;
+
+
+    SerializeType(byte code) {
+        this.code = code;
+    }
+
+
+    public static SerializeType valueOf(byte code) {
+        for (SerializeType serializeType : SerializeType.values()) {
+            if (serializeType.getCode() == code) {
+                return serializeType;
+            }
+        }
+        return null;
+    }
+
+
+    public byte getCode() {
+        return code;
+    }
+}
@@ -0,0 +1,195 @@
+package com.alibaba.rocketmq.remoting;
+
+import com.alibaba.rocketmq.remoting.netty.NettyRequestProcessor;
+import com.alibaba.rocketmq.remoting.netty.ResponseFuture;
+import com.alibaba.rocketmq.remoting.protocol.RemotingCommand;
+import com.alibaba.rocketmq.remoting.protocol.RemotingSerializable;
+import com.alibaba.rocketmq.remoting.protocol.SerializeType;
+import io.netty.channel.ChannelHandlerContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+
+/**
+ * 新老版本客户端混合访问同一服务器时，应答Header的序列化方式与请求一致
+ */
+public class SerializeTypeInteropTest {
+    private RemotingServer server;
+    private RemotingClient client;
+    // 异步应答的请求等待同一连接上的下一个请求处理完再应答
+    private final CountDownLatch nextRequestProcessed = new CountDownLatch(1);
+
+
+    @Before
+    public void setUp() throws InterruptedException {
+        server = NettyRPCTest.createRemotingServer();
+        server.registerProcessor(1, new NettyRequestProcessor() {
+            @Override
+            public RemotingCommand processRequest(ChannelHandlerContext ctx, RemotingCommand request) {
+                RemotingCommand response = RemotingCommand.createResponseCommand(0, "remark of " + request.getRemark());
+                response.addExtField("echo", request.getExtFields().get("messageTitle"));
+                nextRequestProcessed.countDown();
+                return response;
+            }
+        }, Executors.newCachedThreadPool());
+        server.registerProcessor(2, new NettyRequestProcessor() {
+            @Override
+            public RemotingCommand processRequest(final ChannelHandlerContext ctx, final RemotingCommand request) {
+                final RemotingCommand response =
+                        RemotingCommand.createResponseCommand(0, "async remark of " + request.getRemark());
+                response.setOpaque(request.getOpaque());
+                response.setSerializeTypeCurrentRPC(request.getSerializeTypeCurrentRPC());
+                new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            nextRequestProcessed.await(3, TimeUnit.SECONDS);
+                        }
+                        catch (InterruptedException e) {
+                        }
+                        ctx.writeAndFlush(response);
+                    }
+                }).start();
+                return null;
+            }
+        }, Executors.newCachedThreadPool());
+        client = NettyRPCTest.createRemotingClient();
+    }
+
+
+    @After
+    public void tearDown() {
+        client.shutdown();
+        server.shutdown();
+    }
+
+
+    private static RemotingCommand createRequest(int code, SerializeType type) {
+        TestRequestHeader requestHeader = new TestRequestHeader();
+        requestHeader.setCount(1);
+        requestHeader.setMessageTitle("HelloMessageTitle");
+        RemotingCommand request = RemotingCommand.createRequestCommand(code, requestHeader);
+        request.setRemark(type.name());
+        request.setSerializeTypeCurrentRPC(type);
+        return request;
+    }
+
+
+    private RemotingCommand invoke(SerializeType type) throws Exception {
+        return client.invokeSync("localhost:8888", createRequest(1, type), 1000 * 3);
+    }
+
+
+    @Test
+    public void test_json_client() throws Exception {
+        RemotingCommand response = invoke(SerializeType.JSON);
+        assertNotNull(response);
+        assertEquals(SerializeType.JSON, response.getSerializeTypeCurrentRPC());
+        assertEquals("remark of JSON", response.getRemark());
+        assertEquals("HelloMessageTitle", response.getExtFields().get("echo"));
+    }
+
+
+    @Test
+    public void test_rocketmq_client() throws Exception {
+        RemotingCommand response = invoke(SerializeType.ROCKETMQ);
+        assertNotNull(response);
+        assertEquals(SerializeType.ROCKETMQ, response.getSerializeTypeCurrentRPC());
+        assertEquals("remark of ROCKETMQ", response.getRemark());
+        assertEquals("HelloMessageTitle", response.getExtFields().get("echo"));
+    }
+
+
+    @Test
+    public void test_mixed_clients_on_same_connection() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            SerializeType type = i % 2 == 0 ? SerializeType.JSON : SerializeType.ROCKETMQ;
+            RemotingCommand response = invoke(type);
+            assertNotNull(response);
+            assertEquals(type, response.getSerializeTypeCurrentRPC());
+            assertEquals("remark of " + type.name(), response.getRemark());
+        }
+    }
+
+
+    /**
+     * 异步应答发出前，同一连接上又处理了另一种序列化方式的请求，应答仍使用自己请求的方式
+     */
+    @Test
+    public void test_async_response_after_other_request() throws Exception {
+        final CountDownLatch responded = new CountDownLatch(1);
+        final AtomicReference<RemotingCommand> asyncResponse = new AtomicReference<RemotingCommand>();
+        client.invokeAsync("localhost:8888", createRequest(2, SerializeType.ROCKETMQ), 1000 * 3,
+            new InvokeCallback() {
+                @Override
+                public void operationComplete(ResponseFuture responseFuture) {
+                    asyncResponse.set(responseFuture.getResponseCommand());
+                    responded.countDown();
+                }
+            });
+
+        RemotingCommand response = invoke(SerializeType.JSON);
+        assertNotNull(response);
+        assertEquals(SerializeType.JSON, response.getSerializeTypeCurrentRPC());
+
+        assertTrue(responded.await(3, TimeUnit.SECONDS));
+        assertNotNull(asyncResponse.get());
+        assertEquals(SerializeType.ROCKETMQ, asyncResponse.get().getSerializeTypeCurrentRPC());
+        assertEquals("async remark of ROCKETMQ", asyncResponse.get().getRemark());
+    }
+
+
+    /**
+     * 模拟老版本客户端：header length不带序列化方式，且只能解析JSON应答
+     */
+    @Test
+    public void test_old_version_client() throws Exception {
+        RemotingCommand request = RemotingCommand.createRequestCommand(1, null);
+        request.setRemark("OLD");
+        request.addExtField("messageTitle", "HelloMessageTitle");
+        byte[] headerData = RemotingSerializable.encode(request);
+
+        ByteBuffer frame = ByteBuffer.allocate(8 + headerData.length);
+        frame.putInt(4 + headerData.length);
+        frame.putInt(headerData.length);
+        frame.put(headerData);
+
+        Socket socket = new Socket("localhost", 8888);
+        try {
+            OutputStream out = socket.getOutputStream();
+            out.write(frame.array());
+            out.flush();
+
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            int length = in.readInt();
+            int headerLength = in.readInt();
+            assertEquals(0, headerLength >>> 24);
+
+            byte[] responseHeader = new byte[headerLength];
+            in.readFully(responseHeader);
+            assertEquals(4 + headerLength, length);
+
+            RemotingCommand response = RemotingSerializable.decode(responseHeader, RemotingCommand.class);
+            assertEquals(request.getOpaque(), response.getOpaque());
+            assertEquals("remark of OLD", response.getRemark());
+            assertEquals("HelloMessageTitle", response.getExtFields().get("echo"));
+        }
+        finally {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.alibaba.rocketmq.remoting.protocol;
+
+import com.alibaba.rocketmq.remoting.CommandCustomHeader;
+import com.alibaba.rocketmq.remoting.exception.RemotingCommandException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * 对比反射方式与CommandCustomHeaderCodec编解码Header的开销
+ *
+ * mvn test-compile 后运行 main 方法
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CommandCustomHeaderCodecBenchmark {
+
+    /**
+     * 与SendMessageRequestHeader字段相同
+     */
+    public static class SendHeader implements CommandCustomHeader {
+        private String producerGroup;
+        private String topic;
+        private String defaultTopic;
+        private Integer defaultTopicQueueNums;
+        private Integer queueId;
+        private Integer sysFlag;
+        private Long bornTimestamp;
+        private Integer flag;
+        private String properties;
+        private Integer reconsumeTimes;
+        private boolean unitMode = false;
+        private Integer maxReconsumeTimes;
+
+
+        @Override
+        public void checkFields() throws RemotingCommandException {
+        }
+    }
+
+    private SendHeader header;
+
+    private HashMap<String, String> extFields;
+
+
+    @Setup
+    public void setup() {
+        header = new SendHeader();
+        header.producerGroup = "ProducerGroupName";
+        header.topic = "TopicTest";
+        header.defaultTopic = "TBW102";
+        header.defaultTopicQueueNums = 4;
+        header.queueId = 3;
+        header.sysFlag = 0;
+        header.bornTimestamp = System.currentTimeMillis();
+        header.flag = 0;
+        header.properties = "TAGS\u0001TagA\u0002KEYS\u0001OrderID001\u0002WAIT\u0001true\u0002";
+        header.reconsumeTimes = 0;
+        header.maxReconsumeTimes = 16;
+
+        extFields = new HashMap<String, String>();
+        CommandCustomHeaderCodec.getCodec(SendHeader.class).encode(header, extFields);
+    }
+
+
+    @Benchmark
+    public Object decodeReflection() throws Exception {
+        return reflectionDecode(SendHeader.class, extFields);
+    }
+
+
+    @Benchmark
+    public Object decodeCodec() {
+        return CommandCustomHeaderCodec.getCodec(SendHeader.class).decode(extFields);
+    }
+
+
+    @Benchmark
+    public Object encodeReflection() {
+        HashMap<String, String> fields = new HashMap<String, String>();
+        reflectionEncode(header, fields);
+        return fields;
+    }
+
+
+    @Benchmark
+    public Object encodeCodec() {
+        HashMap<String, String> fields = new HashMap<String, String>();
+        CommandCustomHeaderCodec.getCodec(SendHeader.class).encode(header, fields);
+        return fields;
+    }
+
+
+    /**
+     * 原RemotingCommand.makeCustomHeaderToNet实现
+     */
+    private static void reflectionEncode(CommandCustomHeader customHeader, HashMap<String, String> extFields) {
+        Field[] fields = customHeader.getClass().getDeclaredFields();
+        for (Field field : fields) {
+            if (!Modifier.isStatic(field.getModifiers())) {
+                String name = field.getName();
+                if (!name.startsWith("this")) {
+                    Object value = null;
+                    try {
+                        field.setAccessible(true);
+                        value = field.get(customHeader);
+                    }
+                    catch (IllegalAccessException e) {
+                    }
+
+                    if (value != null) {
+                        extFields.put(name, value.toString());
+                    }
+                }
+            }
+        }
+    }
+
+
+    /**
+     * 原RemotingCommand.decodeCommandCustomHeader实现
+     */
+    private static CommandCustomHeader reflectionDecode(Class<? extends CommandCustomHeader> classHeader,
+            HashMap<String, String> extFields) throws Exception {
+        CommandCustomHeader objectHeader = classHeader.newInstance();
+        Field[] fields = objectHeader.getClass().getDeclaredFields();
+        for (Field field : fields) {
+            if (!Modifier.isStatic(field.getModifiers())) {
+                String fieldName = field.getName();
+                if (!fieldName.startsWith("this")) {
+                    String value = extFields.get(fieldName);
+                    if (null == value) {
+                        continue;
+                    }
+
+                    field.setAccessible(true);
+                    String type = field.getType().getCanonicalName();
+                    Object valueParsed = null;
+                    if (type.equals(String.class.getCanonicalName())) {
+                        valueParsed = value;
+                    }
+                    else if (type.equals(Integer.class.getCanonicalName())
+                            || type.equals(int.class.getCanonicalName())) {
+                        valueParsed = Integer.parseInt(value);
+                    }
+                    else if (type.equals(Long.class.getCanonicalName())
+                            || type.equals(long.class.getCanonicalName())) {
+                        valueParsed = Long.parseLong(value);
+                    }
+                    else if (type.equals(Boolean.class.getCanonicalName())
+                            || type.equals(boolean.class.getCanonicalName())) {
+                        valueParsed = Boolean.parseBoolean(value);
+                    }
+                    else if (type.equals(Double.class.getCanonicalName())
+                            || type.equals(double.class.getCanonicalName())) {
+                        valueParsed = Double.parseDouble(value);
+                    }
+
+                    field.set(objectHeader, valueParsed);
+                }
+            }
+        }
+        objectHeader.checkFields();
+        return objectHeader;
+    }
+
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+            .include(CommandCustomHeaderCodecBenchmark.class.getSimpleName())
+            .build();
+        new Runner(options).run();
+    }
+}
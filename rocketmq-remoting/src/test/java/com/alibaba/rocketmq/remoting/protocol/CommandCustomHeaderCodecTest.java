@@ -0,0 +1,67 @@
+package com.alibaba.rocketmq.remoting.protocol;
+
+import com.alibaba.rocketmq.remoting.CommandCustomHeader;
+import com.alibaba.rocketmq.remoting.exception.RemotingCommandException;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashMap;
+
+public class CommandCustomHeaderCodecTest {
+
+    public static class SampleHeader implements CommandCustomHeader {
+        private String topic;
+        private int queueId;
+        private Long queueOffset;
+        private boolean unitMode;
+        private Double ratio;
+        private Object unsupported;
+
+
+        @Override
+        public void checkFields() throws RemotingCommandException {
+        }
+    }
+
+
+    @Test
+    public void testEncodeAndDecode() throws Exception {
+        SampleHeader header = new SampleHeader();
+        header.topic = "TopicTest";
+        header.queueId = 3;
+        header.queueOffset = 1024L;
+        header.unitMode = true;
+        header.ratio = 0.5;
+
+        RemotingCommand request = RemotingCommand.createRequestCommand(10, header);
+        request.makeCustomHeaderToNet();
+        HashMap<String, String> extFields = request.getExtFields();
+        Assert.assertEquals("TopicTest", extFields.get("topic"));
+        Assert.assertEquals("3", extFields.get("queueId"));
+        Assert.assertEquals("1024", extFields.get("queueOffset"));
+        Assert.assertEquals("true", extFields.get("unitMode"));
+        Assert.assertFalse(extFields.containsKey("unsupported"));
+
+        SampleHeader decoded = (SampleHeader) request.decodeCommandCustomHeader(SampleHeader.class);
+        Assert.assertEquals("TopicTest", decoded.topic);
+        Assert.assertEquals(3, decoded.queueId);
+        Assert.assertEquals(Long.valueOf(1024L), decoded.queueOffset);
+        Assert.assertTrue(decoded.unitMode);
+        Assert.assertEquals(Double.valueOf(0.5), decoded.ratio);
+    }
+
+
+    @Test
+    public void testDecodeKeepsDefaultOnBadValue() throws Exception {
+        RemotingCommand request = RemotingCommand.createRequestCommand(10, null);
+        request.addExtField("queueId", "abc");
+        request.addExtField("topic", "TopicTest");
+        request.addExtField("unsupported", "x");
+
+        SampleHeader decoded = (SampleHeader) request.decodeCommandCustomHeader(SampleHeader.class);
+        Assert.assertEquals(0, decoded.queueId);
+        Assert.assertNull(decoded.queueOffset);
+        Assert.assertNull(decoded.unsupported);
+        Assert.assertEquals("TopicTest", decoded.topic);
+    }
+}
@@ -0,0 +1,136 @@
+package com.alibaba.rocketmq.remoting.protocol;
+
+import com.alibaba.rocketmq.remoting.CommandCustomHeader;
+import com.alibaba.rocketmq.remoting.exception.RemotingCommandException;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+
+public class RemotingCommandTest {
+
+    public static class SampleHeader implements CommandCustomHeader {
+        private String topic;
+        private Integer queueId;
+        private Long queueOffset;
+
+
+        @Override
+        public void checkFields() throws RemotingCommandException {
+        }
+    }
+
+
+    private static RemotingCommand createRequest(SerializeType type) {
+        SampleHeader header = new SampleHeader();
+        header.topic = "TopicTest";
+        header.queueId = 3;
+        header.queueOffset = 1024L;
+        RemotingCommand request = RemotingCommand.createRequestCommand(11, header);
+        request.setRemark("中文remark");
+        request.setBody(new byte[] { 1, 2, 3 });
+        request.setSerializeTypeCurrentRPC(type);
+        return request;
+    }
+
+
+    private static RemotingCommand encodeAndDecode(RemotingCommand cmd) {
+        ByteBuffer buffer = cmd.encode();
+        // 跳过总长度，与NettyDecoder一致
+        buffer.getInt();
+        return RemotingCommand.decode(buffer.slice());
+    }
+
+
+    private static void assertSameCommand(RemotingCommand expected, RemotingCommand actual) throws Exception {
+        Assert.assertEquals(expected.getCode(), actual.getCode());
+        Assert.assertEquals(expected.getLanguage(), actual.getLanguage());
+        Assert.assertEquals(expected.getVersion(), actual.getVersion());
+        Assert.assertEquals(expected.getOpaque(), actual.getOpaque());
+        Assert.assertEquals(expected.getFlag(), actual.getFlag());
+        Assert.assertEquals(expected.getRemark(), actual.getRemark());
+        Assert.assertEquals(expected.getExtFields(), actual.getExtFields());
+        Assert.assertArrayEquals(expected.getBody(), actual.getBody());
+
+        SampleHeader header = (SampleHeader) actual.decodeCommandCustomHeader(SampleHeader.class);
+        Assert.assertEquals("TopicTest", header.topic);
+        Assert.assertEquals(Integer.valueOf(3), header.queueId);
+        Assert.assertEquals(Long.valueOf(1024L), header.queueOffset);
+    }
+
+
+    @Test
+    public void testJsonRoundTrip() throws Exception {
+        RemotingCommand request = createRequest(SerializeType.JSON);
+        RemotingCommand decoded = encodeAndDecode(request);
+        Assert.assertEquals(SerializeType.JSON, decoded.getSerializeTypeCurrentRPC());
+        assertSameCommand(request, decoded);
+    }
+
+
+    @Test
+    public void testRocketMQRoundTrip() throws Exception {
+        RemotingCommand request = createRequest(SerializeType.ROCKETMQ);
+        RemotingCommand decoded = encodeAndDecode(request);
+        Assert.assertEquals(SerializeType.ROCKETMQ, decoded.getSerializeTypeCurrentRPC());
+        assertSameCommand(request, decoded);
+    }
+
+
+    @Test
+    public void testRocketMQNullFields() throws Exception {
+        RemotingCommand response = RemotingCommand.createResponseCommand(0, null);
+        response.setSerializeTypeCurrentRPC(SerializeType.ROCKETMQ);
+        RemotingCommand decoded = encodeAndDecode(response);
+        Assert.assertTrue(decoded.isResponseType());
+        Assert.assertNull(decoded.getRemark());
+        Assert.assertNull(decoded.getExtFields());
+        Assert.assertNull(decoded.getBody());
+    }
+
+
+    @Test
+    public void testRocketMQSmallerThanJson() throws Exception {
+        int jsonLength = createRequest(SerializeType.JSON).encodeHeader().getInt(4);
+        int rocketmqLength =
+                RemotingCommand.getHeaderLength(createRequest(SerializeType.ROCKETMQ).encodeHeader().getInt(4));
+        Assert.assertTrue(rocketmqLength < jsonLength);
+    }
+
+
+    /**
+     * 老版本的header length字段就是JSON Header的长度，最高字节为0
+     */
+    @Test
+    public void testDecodeOldVersionFrame() throws Exception {
+        RemotingCommand request = createRequest(SerializeType.JSON);
+        request.makeCustomHeaderToNet();
+        byte[] headerData = RemotingSerializable.encode(request);
+
+        ByteBuffer frame = ByteBuffer.allocate(4 + headerData.length + request.getBody().length);
+        frame.putInt(headerData.length);
+        frame.put(headerData);
+        frame.put(request.getBody());
+        frame.flip();
+
+        RemotingCommand decoded = RemotingCommand.decode(frame);
+        Assert.assertEquals(SerializeType.JSON, decoded.getSerializeTypeCurrentRPC());
+        assertSameCommand(request, decoded);
+    }
+
+
+    @Test
+    public void testJsonFrameReadableByOldVersion() throws Exception {
+        ByteBuffer header = createRequest(SerializeType.JSON).encodeHeader();
+        int headerLength = header.getInt(4);
+        Assert.assertEquals(0, headerLength >>> 24);
+
+        byte[] headerData = new byte[headerLength];
+        header.position(8);
+        header.get(headerData);
+        RemotingCommand decoded = RemotingSerializable.decode(headerData, RemotingCommand.class);
+        Assert.assertEquals(11, decoded.getCode());
+        Assert.assertEquals("TopicTest", decoded.getExtFields().get("topic"));
+    }
+}
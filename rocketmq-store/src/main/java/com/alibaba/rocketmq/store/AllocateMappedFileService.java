@@ -143,7 +143,15 @@ public class AllocateMappedFileService extends ServiceThread {
 
             if (req.getMappedFile() == null) {
                 long beginTime = System.currentTimeMillis();
-                MappedFile mappedFile = new MappedFile(req.getFilePath(), req.getFileSize());
+                MappedFile mappedFile;
+                // 只有CommitLog文件使用堆外写缓冲
+                if (this.messageStore.getMessageStoreConfig().isTransientStorePoolEnable()
+                        && req.getFileSize() == this.messageStore.getMessageStoreConfig().getMappedFileSizeCommitLog()) {
+                    mappedFile = new MappedFile(req.getFilePath(), req.getFileSize(),
+                            this.messageStore.getTransientStorePool());
+                } else {
+                    mappedFile = new MappedFile(req.getFilePath(), req.getFileSize());
+                }
                 long eclipseTime = UtilAll.computeEclipseTimeMilliseconds(beginTime);
                 // 记录大于10ms的
                 if (eclipseTime > 10) {
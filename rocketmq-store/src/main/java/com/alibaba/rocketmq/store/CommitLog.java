@@ -25,8 +25,10 @@ import com.alibaba.rocketmq.common.message.MessageExt;
 import com.alibaba.rocketmq.common.sysflag.MessageSysFlag;
 import com.alibaba.rocketmq.store.config.BrokerRole;
 import com.alibaba.rocketmq.store.config.FlushDiskType;
+import com.alibaba.rocketmq.store.config.MessageStoreConfig;
 import com.alibaba.rocketmq.store.ha.HAService;
 import com.alibaba.rocketmq.store.schedule.ScheduleMessageService;
+import com.alibaba.rocketmq.store.timer.TimerMessageService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -38,6 +40,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 /**
@@ -65,12 +69,18 @@ public class CommitLog {
     // CommitLog刷盘服务
     private final FlushCommitLogService flushCommitLogService;
 
+    // 堆外写缓冲转存服务，未启用TransientStorePool时为null
+    private final TransferWriteBufferService transferWriteBufferService;
+
     // 存储消息时的回调接口
     private final AppendMessageCallback appendMessageCallback;
 
     // 用来保存每个ConsumeQueue的当前最大Offset信息
     private HashMap<String/* topic-queueId */, Long/* offset */> topicQueueTable = new HashMap<String, Long>(1024);
 
+    // 写消息锁，topicQueueTable也由它保护
+    private final PutMessageLock putMessageLock;
+
 
     /**
      * 构造函数
@@ -87,8 +97,17 @@ public class CommitLog {
             this.flushCommitLogService = new FlushRealTimeService();
         }
 
+        if (defaultMessageStore.getMessageStoreConfig().isTransientStorePoolEnable()) {
+            this.transferWriteBufferService = new TransferWriteBufferService();
+        } else {
+            this.transferWriteBufferService = null;
+        }
+
         this.appendMessageCallback = new DefaultAppendMessageCallback(defaultMessageStore.getMessageStoreConfig()
                 .getMaxMessageSize());
+
+        this.putMessageLock = defaultMessageStore.getMessageStoreConfig().isUseReentrantLockWhenPutMessage()
+                ? new PutMessageReentrantLock() : new PutMessageSpinLock();
     }
 
 
@@ -101,10 +120,19 @@ public class CommitLog {
 
     public void start() {
         this.flushCommitLogService.start();
+
+        if (this.transferWriteBufferService != null) {
+            this.transferWriteBufferService.start();
+        }
     }
 
 
     public void shutdown() {
+        // 先将写缓冲全部写入FileChannel，再刷盘
+        if (this.transferWriteBufferService != null) {
+            this.transferWriteBufferService.shutdown();
+        }
+
         this.flushCommitLogService.shutdown();
     }
 
@@ -134,6 +162,18 @@ public class CommitLog {
     }
 
 
+    /**
+     * 启用写缓冲时，只有写入FileChannel的数据才能通过mmap读到，返回已写入FileChannel的位置；
+     * 未启用写缓冲时，写入的数据立即可读，返回-1
+     */
+    public long getTransferredOffset() {
+        if (this.transferWriteBufferService != null) {
+            return this.mappedFileQueue.getTransferredWhere();
+        }
+        return -1;
+    }
+
+
     public int deleteExpiredFile(//
                                  final long expiredTime, //
                                  final int deleteFilesInterval, //
@@ -215,6 +255,7 @@ public class CommitLog {
 
             processOffset += mappedFileOffset;
             this.mappedFileQueue.setCommittedWhere(processOffset);
+            this.mappedFileQueue.setTransferredWhere(processOffset);
             this.mappedFileQueue.truncateDirtyFiles(processOffset);
         }
     }
@@ -316,13 +357,14 @@ public class CommitLog {
 
             long tagsCode = 0;
             String keys = "";
+            Map<String, String> propertiesMap = null;
 
             // 17 properties
             short propertiesLength = byteBuffer.getShort();
             if (propertiesLength > 0) {
                 byteBuffer.get(bytesContent, 0, propertiesLength);
                 String properties = new String(bytesContent, 0, propertiesLength);
-                Map<String, String> propertiesMap = MessageDecoder.string2messageProperties(properties);
+                propertiesMap = MessageDecoder.string2messageProperties(properties);
 
                 keys = propertiesMap.get(MessageConst.PROPERTY_KEYS);
                 String tags = propertiesMap.get(MessageConst.PROPERTY_TAGS);
@@ -348,10 +390,16 @@ public class CommitLog {
                                     .computeDeliverTimestamp(delayLevel, storeTimestamp);
                         }
                     }
+
+                    // 指定投递时间的定时消息，tagsCode存放投递时间
+                    String deliverTime = propertiesMap.get(MessageConst.PROPERTY_DELIVER_TIME);
+                    if (TimerMessageService.TIMER_TOPIC.equals(topic) && deliverTime != null) {
+                        tagsCode = Long.parseLong(deliverTime);
+                    }
                 }
             }
 
-            return new DispatchRequest(//
+            DispatchRequest dispatchRequest = new DispatchRequest(//
                     topic,// 1
                     queueId,// 2
                     physicOffset,// 3
@@ -363,6 +411,12 @@ public class CommitLog {
                     sysFlag,// 9
                     preparedTransactionOffset// 10
             );
+
+            if (propertiesMap != null && this.isPropertiesMapNeeded(topic)) {
+                dispatchRequest.setPropertiesMap(propertiesMap);
+            }
+
+            return dispatchRequest;
         } catch (BufferUnderflowException e) {
             byteBuffer.position(byteBuffer.limit());
         } catch (Exception e) {
@@ -373,6 +427,15 @@ public class CommitLog {
     }
 
 
+    /**
+     * 建属性索引或者写ConsumeQueue扩展文件时，分发请求需要带上消息属性
+     */
+    private boolean isPropertiesMapNeeded(final String topic) {
+        return this.defaultMessageStore.getMessageStoreConfig().isConsumeQueueExtEnable()
+                || this.defaultMessageStore.getIndexService().hasPropertyIndex(topic);
+    }
+
+
     public void recoverAbnormally() {
         // 根据最小时间戳来恢复
         boolean checkCRCOnRecover = this.defaultMessageStore.getMessageStoreConfig().isCheckCRCOnRecover();
@@ -430,6 +493,7 @@ public class CommitLog {
 
             processOffset += mappedFileOffset;
             this.mappedFileQueue.setCommittedWhere(processOffset);
+            this.mappedFileQueue.setTransferredWhere(processOffset);
             this.mappedFileQueue.truncateDirtyFiles(processOffset);
 
             // 清除ConsumeQueue的多余数据
@@ -438,6 +502,7 @@ public class CommitLog {
         // 物理文件都被删除情况下
         else {
             this.mappedFileQueue.setCommittedWhere(0);
+            this.mappedFileQueue.setTransferredWhere(0);
             this.defaultMessageStore.destroyLogics();
         }
     }
@@ -478,6 +543,36 @@ public class CommitLog {
 
 
     public PutMessageResult putMessage(final MessageExtBrokerInner msg) {
+        PutMessageResult putMessageResult = this.appendMessage(msg);
+        if (putMessageResult.getPutMessageStatus() != PutMessageStatus.PUT_OK) {
+            return putMessageResult;
+        }
+
+        this.handleDiskFlush(putMessageResult.getAppendMessageResult(), putMessageResult, msg);
+        this.handleHA(putMessageResult.getAppendMessageResult(), putMessageResult, msg);
+
+        // 向发送方返回结果
+        return putMessageResult;
+    }
+
+
+    /**
+     * 写消息后不等待刷盘与同步双写，条件满足时由刷盘/HA线程完成返回的Future
+     */
+    public PutMessageFuture asyncPutMessage(final MessageExtBrokerInner msg) {
+        PutMessageResult putMessageResult = this.appendMessage(msg);
+        if (putMessageResult.getPutMessageStatus() != PutMessageStatus.PUT_OK) {
+            return PutMessageFuture.completed(putMessageResult);
+        }
+
+        return this.submitFlushAndReplicaRequest(putMessageResult, msg);
+    }
+
+
+    /**
+     * 追加消息到CommitLog，不包括刷盘与同步双写
+     */
+    private PutMessageResult appendMessage(final MessageExtBrokerInner msg) {
         // 设置存储时间
         msg.setStoreTimestamp(System.currentTimeMillis());
         // 设置消息体BODY CRC（考虑在客户端设置最合适）
@@ -494,8 +589,27 @@ public class CommitLog {
         final int tranType = MessageSysFlag.getTransactionValue(msg.getSysFlag());
         if (tranType == MessageSysFlag.TransactionNotType//
                 || tranType == MessageSysFlag.TransactionCommitType) {
+            // 指定时间投递，优先于延时级别
+            if (msg.getDeliverTimestamp() > msg.getStoreTimestamp()
+                    && this.defaultMessageStore.getTimerMessageService() != null) {
+                topic = TimerMessageService.TIMER_TOPIC;
+                queueId = 0;
+                tagsCode = msg.getDeliverTimestamp();
+
+                /**
+                 * 备份真实的topic，queueId
+                 */
+                MessageAccessor.putProperty(msg, MessageConst.PROPERTY_REAL_TOPIC, msg.getTopic());
+                MessageAccessor.putProperty(msg, MessageConst.PROPERTY_REAL_QUEUE_ID,
+                        String.valueOf(msg.getQueueId()));
+                MessageAccessor.clearProperty(msg, MessageConst.PROPERTY_DELAY_TIME_LEVEL);
+                msg.setPropertiesString(MessageDecoder.messageProperties2String(msg.getProperties()));
+
+                msg.setTopic(topic);
+                msg.setQueueId(queueId);
+            }
             // 延时投递
-            if (msg.getDelayTimeLevel() > 0) {
+            else if (msg.getDelayTimeLevel() > 0) {
                 if (msg.getDelayTimeLevel() > this.defaultMessageStore.getScheduleMessageService().getMaxDelayLevel()) {
                     msg.setDelayTimeLevel(this.defaultMessageStore.getScheduleMessageService().getMaxDelayLevel());
                 }
@@ -518,11 +632,22 @@ public class CommitLog {
             }
         }
 
+        // 需要解析配置，放在锁外判断
+        final boolean propertiesMapNeeded = this.isPropertiesMapNeeded(topic);
+
+        // 分发队列满时在加锁前等待，持锁期间放入分发队列不会阻塞
+        final DefaultMessageStore.DispatchMessageService dispatchMessageService =
+                this.defaultMessageStore.getDispatchMessageService();
+        dispatchMessageService.reserve(1);
+        int dispatchedNum = 0;
+
         // 写文件要加锁
         long eclipseTimeInLock = 0;
         MappedFile mappedFileToUnlock = null;
-        synchronized (this) {
+        this.putMessageLock.lock();
+        try {
             long beginLockTimestamp = this.defaultMessageStore.getSystemClock().now();
+            long beginLockNanoTime = System.nanoTime();
 
             // 这里设置存储时间戳，才能保证全局有序
             msg.setStoreTimestamp(beginLockTimestamp);
@@ -577,10 +702,19 @@ public class CommitLog {
                     msg.getSysFlag(),// 9
                     msg.getPreparedTransactionOffset());// 10
 
-            this.defaultMessageStore.putDispatchRequest(dispatchRequest);
+            if (propertiesMapNeeded) {
+                dispatchRequest.setPropertiesMap(msg.getProperties());
+            }
+
+            dispatchMessageService.putReservedRequest(dispatchRequest);
+            dispatchedNum++;
 
             eclipseTimeInLock = this.defaultMessageStore.getSystemClock().now() - beginLockTimestamp;
-        } // end of synchronized
+            storeStatsService.recordPutMessageLockHeldTime((System.nanoTime() - beginLockNanoTime) / 1000);
+        } finally {
+            this.putMessageLock.unlock();
+            dispatchMessageService.cancel(1 - dispatchedNum);
+        }
 
         if (eclipseTimeInLock > 1000) {
             // XXX: warn and notify me
@@ -597,13 +731,181 @@ public class CommitLog {
         // 统计消息SIZE
         storeStatsService.getSinglePutMessageTopicSizeTotal(topic).addAndGet(result.getWroteBytes());
 
-        GroupCommitRequest request = null;
+        return putMessageResult;
+    }
+
+
+    /**
+     * 批量写入消息，批次内所有消息在一次加锁中连续写入，逻辑队列offset连续分配
+     */
+    public PutMessageResult putMessages(final MessageExtBatch messageExtBatch) {
+        PutMessageResult putMessageResult = this.appendMessages(messageExtBatch);
+        if (putMessageResult.getPutMessageStatus() != PutMessageStatus.PUT_OK) {
+            return putMessageResult;
+        }
+
+        this.handleDiskFlush(putMessageResult.getAppendMessageResult(), putMessageResult, messageExtBatch);
+        this.handleHA(putMessageResult.getAppendMessageResult(), putMessageResult, messageExtBatch);
+
+        // 向发送方返回结果
+        return putMessageResult;
+    }
+
+
+    public PutMessageFuture asyncPutMessages(final MessageExtBatch messageExtBatch) {
+        PutMessageResult putMessageResult = this.appendMessages(messageExtBatch);
+        if (putMessageResult.getPutMessageStatus() != PutMessageStatus.PUT_OK) {
+            return PutMessageFuture.completed(putMessageResult);
+        }
+
+        return this.submitFlushAndReplicaRequest(putMessageResult, messageExtBatch);
+    }
+
+
+    private PutMessageResult appendMessages(final MessageExtBatch messageExtBatch) {
+        // 设置存储时间
+        messageExtBatch.setStoreTimestamp(System.currentTimeMillis());
+        // 返回结果
+        AppendMessageResult result = null;
+
+        StoreStatsService storeStatsService = this.defaultMessageStore.getStoreStatsService();
+
+        // 事务消息与定时消息不支持批量写入
+        final int tranType = MessageSysFlag.getTransactionValue(messageExtBatch.getSysFlag());
+        if (tranType != MessageSysFlag.TransactionNotType) {
+            return new PutMessageResult(PutMessageStatus.MESSAGE_ILLEGAL, null);
+        }
+
+        for (MessageExtBrokerInner msg : messageExtBatch.getMessages()) {
+            if (msg.getDelayTimeLevel() > 0 || msg.getDeliverTimestamp() > 0) {
+                return new PutMessageResult(PutMessageStatus.MESSAGE_ILLEGAL, null);
+            }
+
+            // 设置消息体BODY CRC
+            msg.setBodyCRC(UtilAll.crc32(msg.getBody()));
+        }
+
+        // 批次内的消息属于同一个Topic，需要解析配置，放在锁外判断
+        final boolean propertiesMapNeeded = this.isPropertiesMapNeeded(messageExtBatch.getTopic());
+
+        // 分发队列满时在加锁前等待，持锁期间放入分发队列不会阻塞
+        final DefaultMessageStore.DispatchMessageService dispatchMessageService =
+                this.defaultMessageStore.getDispatchMessageService();
+        final int msgNum = messageExtBatch.getMessages().size();
+        if (msgNum > dispatchMessageService.getCapacity()) {
+            return new PutMessageResult(PutMessageStatus.MESSAGE_ILLEGAL, null);
+        }
+        dispatchMessageService.reserve(msgNum);
+        int dispatchedNum = 0;
+
+        // 写文件要加锁
+        long eclipseTimeInLock = 0;
+        MappedFile mappedFileToUnlock = null;
+        this.putMessageLock.lock();
+        try {
+            long beginLockTimestamp = this.defaultMessageStore.getSystemClock().now();
+            long beginLockNanoTime = System.nanoTime();
+
+            // 这里设置存储时间戳，才能保证全局有序
+            messageExtBatch.setStoreTimestamp(beginLockTimestamp);
+
+            // 尝试写入
+            MappedFile mappedFile = this.mappedFileQueue.getLastMappedFile();
+            if (null == mappedFile) {
+                LOGGER.error("create mapped file1 error, topic: " + messageExtBatch.getTopic() + " clientAddr: "
+                        + messageExtBatch.getBornHostString());
+                return new PutMessageResult(PutMessageStatus.CREATE_MAPPED_FILE_FAILED, null);
+            }
+            result = mappedFile.appendMessage(messageExtBatch, this.appendMessageCallback);
+            switch (result.getStatus()) {
+                // 成功追加消息
+                case PUT_OK:
+                    break;
+                // 走到文件末尾
+                case END_OF_FILE:
+                    mappedFileToUnlock = mappedFile;
+                    // 创建新文件，重新写消息
+                    mappedFile = this.mappedFileQueue.getLastMappedFile();
+                    if (null == mappedFile) {
+                        LOGGER.error("create mapped file2 error, topic: " + messageExtBatch.getTopic()
+                                + " clientAddr: " + messageExtBatch.getBornHostString());
+                        return new PutMessageResult(PutMessageStatus.CREATE_MAPPED_FILE_FAILED, result);
+                    }
+                    result = mappedFile.appendMessage(messageExtBatch, this.appendMessageCallback);
+                    break;
+                // 消息大小超限
+                case MESSAGE_SIZE_EXCEEDED:
+                    return new PutMessageResult(PutMessageStatus.MESSAGE_ILLEGAL, result);
+                // 未知错误
+                case UNKNOWN_ERROR:
+                    return new PutMessageResult(PutMessageStatus.UNKNOWN_ERROR, result);
+                default:
+                    return new PutMessageResult(PutMessageStatus.UNKNOWN_ERROR, result);
+            }
 
+            // 新文件上仍然写不下，说明批次超过了文件大小
+            if (!result.isOk()) {
+                return new PutMessageResult(PutMessageStatus.MESSAGE_ILLEGAL, result);
+            }
+
+            for (MessageExtBrokerInner msg : messageExtBatch.getMessages()) {
+                DispatchRequest dispatchRequest = new DispatchRequest(//
+                        msg.getTopic(),// 1
+                        msg.getQueueId(),// 2
+                        msg.getCommitLogOffset(),// 3
+                        msg.getStoreSize(),// 4
+                        msg.getTagsCode(),// 5
+                        msg.getStoreTimestamp(),// 6
+                        msg.getQueueOffset(),// 7
+                        msg.getKeys(),// 8
+                        /**
+                         * 事务部分
+                         */
+                        msg.getSysFlag(),// 9
+                        msg.getPreparedTransactionOffset());// 10
+
+                if (propertiesMapNeeded) {
+                    dispatchRequest.setPropertiesMap(msg.getProperties());
+                }
+
+                dispatchMessageService.putReservedRequest(dispatchRequest);
+                dispatchedNum++;
+            }
+
+            eclipseTimeInLock = this.defaultMessageStore.getSystemClock().now() - beginLockTimestamp;
+            storeStatsService.recordPutMessageLockHeldTime((System.nanoTime() - beginLockNanoTime) / 1000);
+        } finally {
+            this.putMessageLock.unlock();
+            dispatchMessageService.cancel(msgNum - dispatchedNum);
+        }
+
+        if (eclipseTimeInLock > 1000) {
+            LOGGER.warn("putMessages in lock eclipse time(ms) " + eclipseTimeInLock + " msgNum "
+                    + result.getMsgNum());
+        }
+
+        if (null != mappedFileToUnlock) {
+            this.defaultMessageStore.unlockMappedFile(mappedFileToUnlock);
+        }
+
+        // 返回结果
+        PutMessageResult putMessageResult = new PutMessageResult(PutMessageStatus.PUT_OK, result);
+
+        // 统计消息SIZE
+        storeStatsService.getSinglePutMessageTopicSizeTotal(messageExtBatch.getTopic()).addAndGet(
+                result.getWroteBytes());
+
+        return putMessageResult;
+    }
+
+
+    private void handleDiskFlush(final AppendMessageResult result, final PutMessageResult putMessageResult,
+                                 final MessageExt msg) {
         // 同步刷盘
         if (FlushDiskType.SYNC_FLUSH == this.defaultMessageStore.getMessageStoreConfig().getFlushDiskType()) {
             GroupCommitService service = (GroupCommitService) this.flushCommitLogService;
             if (msg.isWaitStoreMsgOK()) {
-                request = new GroupCommitRequest(result.getWroteOffset() + result.getWroteBytes());
+                GroupCommitRequest request = new GroupCommitRequest(result.getWroteOffset() + result.getWroteBytes());
                 service.putRequest(request);
                 boolean flushOK = request.waitForFlush(this.defaultMessageStore.getMessageStoreConfig()
                         .getSyncFlushTimeout());
@@ -618,18 +920,31 @@ public class CommitLog {
         }
         // 异步刷盘
         else {
+            this.wakeUpFlushService();
+        }
+    }
+
+
+    private void wakeUpFlushService() {
+        // 启用写缓冲时，由转存服务写入FileChannel后再唤醒刷盘服务
+        if (this.transferWriteBufferService != null) {
+            this.transferWriteBufferService.wakeUp();
+        } else {
             this.flushCommitLogService.wakeUp();
         }
+    }
 
+
+    private void handleHA(final AppendMessageResult result, final PutMessageResult putMessageResult,
+                          final MessageExt msg) {
         // 同步双写
         if (BrokerRole.SYNC_MASTER == this.defaultMessageStore.getMessageStoreConfig().getBrokerRole()) {
             HAService service = this.defaultMessageStore.getHaService();
             if (msg.isWaitStoreMsgOK()) {
                 // 判断是否要等待
                 if (service.isSlaveOK(result.getWroteOffset() + result.getWroteBytes())) {
-                    if (null == request) {
-                        request = new GroupCommitRequest(result.getWroteOffset() + result.getWroteBytes());
-                    }
+                    GroupCommitRequest request =
+                            new GroupCommitRequest(result.getWroteOffset() + result.getWroteBytes());
                     service.putRequest(request);
 
                     service.getWaitNotifyObject().wakeUpAll();
@@ -651,9 +966,98 @@ public class CommitLog {
                 }
             }
         }
+    }
 
-        // 向发送方返回结果
-        return putMessageResult;
+
+    /**
+     * 提交同步刷盘与同步双写请求但不等待，两者都完成后完成Future；结果状态与同步方式一致，
+     * 同步双写失败优先于刷盘超时。Slave不可用时结果已经确定，只唤醒刷盘服务，立即完成Future
+     */
+    private PutMessageFuture submitFlushAndReplicaRequest(final PutMessageResult putMessageResult,
+                                                          final MessageExt msg) {
+        final AppendMessageResult result = putMessageResult.getAppendMessageResult();
+        final long nextOffset = result.getWroteOffset() + result.getWroteBytes();
+        final MessageStoreConfig config = this.defaultMessageStore.getMessageStoreConfig();
+        final PutMessageFuture future = new PutMessageFuture();
+
+        boolean waitFlush = FlushDiskType.SYNC_FLUSH == config.getFlushDiskType() && msg.isWaitStoreMsgOK();
+        boolean waitReplica = false;
+        if (BrokerRole.SYNC_MASTER == config.getBrokerRole() && msg.isWaitStoreMsgOK()) {
+            if (this.defaultMessageStore.getHaService().isSlaveOK(nextOffset)) {
+                waitReplica = true;
+            }
+            // Slave异常
+            else {
+                putMessageResult.setPutMessageStatus(PutMessageStatus.SLAVE_NOT_AVAILABLE);
+                this.wakeUpFlushService();
+                future.complete(putMessageResult);
+                return future;
+            }
+        }
+
+        if (!waitFlush && !waitReplica) {
+            this.handleDiskFlush(result, putMessageResult, msg);
+            future.complete(putMessageResult);
+            return future;
+        }
+
+        final AtomicInteger pending = new AtomicInteger((waitFlush ? 1 : 0) + (waitReplica ? 1 : 0));
+        final AtomicBoolean flushFailed = new AtomicBoolean(false);
+        final AtomicBoolean replicaFailed = new AtomicBoolean(false);
+
+        if (waitFlush) {
+            GroupCommitService service = (GroupCommitService) this.flushCommitLogService;
+            service.putRequest(new GroupCommitRequest(nextOffset, config.getSyncFlushTimeout(),
+                new GroupCommitCallback() {
+                    @Override
+                    public void onComplete(boolean ok) {
+                        if (!ok) {
+                            LOGGER.error("do group commit, wait for flush failed, topic: " + msg.getTopic()
+                                    + " tags: " + msg.getTags() + " client address: " + msg.getBornHostString());
+                            flushFailed.set(true);
+                        }
+                        completePutMessage(future, putMessageResult, pending, flushFailed, replicaFailed);
+                    }
+                }));
+        } else {
+            this.handleDiskFlush(result, putMessageResult, msg);
+        }
+
+        if (waitReplica) {
+            HAService service = this.defaultMessageStore.getHaService();
+            service.putRequest(new GroupCommitRequest(nextOffset, config.getSyncFlushTimeout(),
+                new GroupCommitCallback() {
+                    @Override
+                    public void onComplete(boolean ok) {
+                        if (!ok) {
+                            LOGGER.error("do sync transfer other node, wait return, but failed, topic: "
+                                    + msg.getTopic() + " tags: " + msg.getTags() + " client address: "
+                                    + msg.getBornHostString());
+                            replicaFailed.set(true);
+                        }
+                        completePutMessage(future, putMessageResult, pending, flushFailed, replicaFailed);
+                    }
+                }));
+            service.getWaitNotifyObject().wakeUpAll();
+        }
+
+        return future;
+    }
+
+
+    private static void completePutMessage(final PutMessageFuture future, final PutMessageResult putMessageResult,
+                                           final AtomicInteger pending, final AtomicBoolean flushFailed,
+                                           final AtomicBoolean replicaFailed) {
+        if (pending.decrementAndGet() > 0) {
+            return;
+        }
+
+        if (replicaFailed.get()) {
+            putMessageResult.setPutMessageStatus(PutMessageStatus.FLUSH_SLAVE_TIMEOUT);
+        } else if (flushFailed.get() && PutMessageStatus.PUT_OK == putMessageResult.getPutMessageStatus()) {
+            putMessageResult.setPutMessageStatus(PutMessageStatus.FLUSH_DISK_TIMEOUT);
+        }
+        future.complete(putMessageResult);
     }
 
 
@@ -708,8 +1112,14 @@ public class CommitLog {
 
 
     public boolean appendData(long startOffset, byte[] data) {
+        return this.appendData(startOffset, data, 0, data.length);
+    }
+
+
+    public boolean appendData(long startOffset, byte[] data, int offset, int length) {
         // 写文件要加锁
-        synchronized (this) {
+        this.putMessageLock.lock();
+        try {
             // 尝试写入
             MappedFile mappedFile = this.mappedFileQueue.getLastMappedFile(startOffset);
             if (null == mappedFile) {
@@ -717,7 +1127,9 @@ public class CommitLog {
                 return false;
             }
 
-            return mappedFile.appendMessage(data);
+            return mappedFile.appendMessage(data, offset, length);
+        } finally {
+            this.putMessageLock.unlock();
         }
     }
 
@@ -729,6 +1141,77 @@ public class CommitLog {
     abstract class FlushCommitLogService extends ServiceThread {
     }
 
+    /**
+     * 堆外写缓冲转存服务，将写缓冲中的数据写入FileChannel，再唤醒刷盘服务
+     */
+    class TransferWriteBufferService extends ServiceThread {
+        private static final int RetryTimesOver = 3;
+        private long lastTransferTimestamp = 0;
+
+
+        public void run() {
+            CommitLog.LOGGER.info(this.getServiceName() + " service started");
+
+            while (!this.isStopped()) {
+                int interval =
+                        CommitLog.this.defaultMessageStore.getMessageStoreConfig().getTransferIntervalCommitLog();
+                int transferLeastPages =
+                        CommitLog.this.defaultMessageStore.getMessageStoreConfig().getTransferCommitLogLeastPages();
+                int transferThoroughInterval =
+                        CommitLog.this.defaultMessageStore.getMessageStoreConfig()
+                                .getTransferCommitLogThoroughInterval();
+
+                // 定时彻底转存
+                long currentTimeMillis = System.currentTimeMillis();
+                if (currentTimeMillis >= (this.lastTransferTimestamp + transferThoroughInterval)) {
+                    this.lastTransferTimestamp = currentTimeMillis;
+                    transferLeastPages = 0;
+                }
+
+                try {
+                    boolean result = CommitLog.this.mappedFileQueue.transfer(transferLeastPages);
+                    // 有新数据写入FileChannel，唤醒刷盘服务，以及等待数据可读的分发服务
+                    if (!result) {
+                        this.lastTransferTimestamp = currentTimeMillis;
+                        CommitLog.this.flushCommitLogService.wakeUp();
+                        CommitLog.this.defaultMessageStore.getDispatchMessageService().wakeUp();
+                    }
+
+                    CommitLog.this.defaultMessageStore.getStoreStatsService().setTransientStoreTransferLag(
+                            CommitLog.this.mappedFileQueue.getMaxWroteOffset()
+                                    - CommitLog.this.mappedFileQueue.getTransferredWhere());
+
+                    this.waitForRunning(interval);
+                } catch (Exception e) {
+                    CommitLog.LOGGER.warn(this.getServiceName() + " service has exception. ", e);
+                }
+            }
+
+            // 正常shutdown时，要保证全部写入FileChannel才退出
+            boolean result = false;
+            for (int i = 0; i < RetryTimesOver && !result; i++) {
+                result = CommitLog.this.mappedFileQueue.transfer(0);
+                CommitLog.LOGGER.info(this.getServiceName() + " service shutdown, retry " + (i + 1) + " times "
+                        + (result ? "OK" : "Not OK"));
+            }
+
+            CommitLog.LOGGER.info(this.getServiceName() + " service end");
+        }
+
+
+        @Override
+        public String getServiceName() {
+            return TransferWriteBufferService.class.getSimpleName();
+        }
+
+
+        @Override
+        public long getJoinTime() {
+            // 由于CommitLog数据量较大，所以回收时间要更长
+            return 1000 * 60 * 5;
+        }
+    }
+
     /**
      * 异步实时刷盘服务
      */
@@ -825,6 +1308,13 @@ public class CommitLog {
         }
     }
 
+    /**
+     * 刷盘或者同步双写请求完成回调，在刷盘/HA线程中执行，不能阻塞
+     */
+    public interface GroupCommitCallback {
+        public void onComplete(final boolean ok);
+    }
+
     public static class GroupCommitRequest {
         // 当前消息对应的下一个Offset
         private final long nextOffset;
@@ -832,10 +1322,21 @@ public class CommitLog {
         private final CountDownLatch countDownLatch = new CountDownLatch(1);
         // 刷盘是否成功
         private volatile boolean flushOK = false;
+        // 超过此时间仍未完成则以失败结束
+        private final long deadline;
+        // 异步回调，同步等待时为null
+        private final GroupCommitCallback callback;
 
 
         public GroupCommitRequest(long nextOffset) {
+            this(nextOffset, 1000 * 5, null);
+        }
+
+
+        public GroupCommitRequest(long nextOffset, long timeoutMillis, GroupCommitCallback callback) {
             this.nextOffset = nextOffset;
+            this.deadline = System.currentTimeMillis() + timeoutMillis;
+            this.callback = callback;
         }
 
 
@@ -844,9 +1345,21 @@ public class CommitLog {
         }
 
 
+        public long getDeadline() {
+            return deadline;
+        }
+
+
         public void wakeupCustomer(final boolean flushOK) {
             this.flushOK = flushOK;
             this.countDownLatch.countDown();
+            if (this.callback != null) {
+                try {
+                    this.callback.onComplete(flushOK);
+                } catch (Throwable e) {
+                    LOGGER.error("group commit callback exception", e);
+                }
+            }
         }
 
 
@@ -890,14 +1403,11 @@ public class CommitLog {
         private void doCommit() {
             if (!this.requestsRead.isEmpty()) {
                 for (GroupCommitRequest req : this.requestsRead) {
-                    // 消息有可能在下一个文件，所以最多刷盘2次
-                    boolean flushOK = false;
+                    // 消息有可能在下一个文件，所以最多刷盘2次，第二次刷盘后也要检查结果
+                    boolean flushOK = (CommitLog.this.mappedFileQueue.getCommittedWhere() >= req.getNextOffset());
                     for (int i = 0; (i < 2) && !flushOK; i++) {
+                        CommitLog.this.mappedFileQueue.commit(0);
                         flushOK = (CommitLog.this.mappedFileQueue.getCommittedWhere() >= req.getNextOffset());
-
-                        if (!flushOK) {
-                            CommitLog.this.mappedFileQueue.commit(0);
-                        }
                     }
 
                     req.wakeupCustomer(flushOK);
@@ -965,6 +1475,29 @@ public class CommitLog {
         }
     }
 
+    private static int calMsgLength(final int bodyLength, final int topicLength, final int propertiesLength) {
+        final int msgLen = 4 // 1 TOTALSIZE
+                + 4 // 2 MAGICCODE
+                + 4 // 3 BODYCRC
+                + 4 // 4 QUEUEID
+                + 4 // 5 FLAG
+                + 8 // 6 QUEUEOFFSET
+                + 8 // 7 PHYSICALOFFSET
+                + 4 // 8 SYSFLAG
+                + 8 // 9 BORNTIMESTAMP
+                + 8 // 10 BORNHOST
+                + 8 // 11 STORETIMESTAMP
+                + 8 // 12 STOREHOSTADDRESS
+                + 4 // 13 RECONSUMETIMES
+                + 8 // 14 Prepared Transaction Offset
+                + 4 + bodyLength // 14 BODY
+                + 1 + topicLength // 15 TOPIC
+                + 2 + propertiesLength // 16 propertiesLength
+                + 0;
+        return msgLen;
+    }
+
+
     class DefaultAppendMessageCallback implements AppendMessageCallback {
         // 文件末尾空洞最小定长
         private static final int END_FILE_MIN_BLANK_LENGTH = 4 + 4;
@@ -990,6 +1523,10 @@ public class CommitLog {
 
         public AppendMessageResult doAppend(final long fileFromOffset, final ByteBuffer byteBuffer, final int maxBlank,
                                             final Object msg) {
+            if (msg instanceof MessageExtBatch) {
+                return this.doAppendBatch(fileFromOffset, byteBuffer, maxBlank, (MessageExtBatch) msg);
+            }
+
             /**
              * 生成消息ID STORETIMESTAMP + STOREHOSTADDRESS + OFFSET <br>
              */
@@ -1036,24 +1573,7 @@ public class CommitLog {
 
             final int bodyLength = msgInner.getBody() == null ? 0 : msgInner.getBody().length;
 
-            final int msgLen = 4 // 1 TOTALSIZE
-                    + 4 // 2 MAGICCODE
-                    + 4 // 3 BODYCRC
-                    + 4 // 4 QUEUEID
-                    + 4 // 5 FLAG
-                    + 8 // 6 QUEUEOFFSET
-                    + 8 // 7 PHYSICALOFFSET
-                    + 4 // 8 SYSFLAG
-                    + 8 // 9 BORNTIMESTAMP
-                    + 8 // 10 BORNHOST
-                    + 8 // 11 STORETIMESTAMP
-                    + 8 // 12 STOREHOSTADDRESS
-                    + 4 // 13 RECONSUMETIMES
-                    + 8 // 14 Prepared Transaction Offset
-                    + 4 + bodyLength // 14 BODY
-                    + 1 + topicLength // 15 TOPIC
-                    + 2 + propertiesLength // 16 propertiesLength
-                    + 0;
+            final int msgLen = calMsgLength(bodyLength, topicLength, propertiesLength);
 
             // 消息超过设定的最大值
             if (msgLen > this.maxMessageSize) {
@@ -1064,22 +1584,152 @@ public class CommitLog {
 
             // 判断是否有足够空余空间
             if ((msgLen + END_FILE_MIN_BLANK_LENGTH) > maxBlank) {
-                this.resetMsgStoreItemMemory(maxBlank);
-                // 1 TOTALSIZE
-                this.msgStoreItemMemory.putInt(maxBlank);
-                // 2 MAGICCODE
-                this.msgStoreItemMemory.putInt(CommitLog.BlankMagicCode);
-                // 3 剩余空间可能是任何值
-                //
-
-                // 此处长度特意设置为maxBlank
-                byteBuffer.put(this.msgStoreItemMemory.array(), 0, maxBlank);
-                return new AppendMessageResult(AppendMessageStatus.END_OF_FILE, wroteOffset, maxBlank, msgId,
-                        msgInner.getStoreTimestamp(), queueOffset);
+                return this.appendBlank(byteBuffer, maxBlank, wroteOffset, msgId, msgInner.getStoreTimestamp(),
+                        queueOffset);
             }
 
             // 初始化存储空间
             this.resetMsgStoreItemMemory(msgLen);
+            this.writeMsgStoreItemMemory(msgInner, msgLen, queueOffset, wroteOffset, topicData, propertiesData,
+                    msgInner.getStoreTimestamp());
+
+            // 向队列缓冲区写入消息
+            byteBuffer.put(this.msgStoreItemMemory.array(), 0, msgLen);
+
+            AppendMessageResult result =
+                    new AppendMessageResult(AppendMessageStatus.PUT_OK, wroteOffset, msgLen, msgId,
+                            msgInner.getStoreTimestamp(), queueOffset);
+
+            switch (tranType) {
+                case MessageSysFlag.TransactionPreparedType:
+                case MessageSysFlag.TransactionRollbackType:
+                    break;
+                case MessageSysFlag.TransactionNotType:
+                case MessageSysFlag.TransactionCommitType:
+                    // 更新下一次的ConsumeQueue信息
+                    CommitLog.this.topicQueueTable.put(key, ++queueOffset);
+                    break;
+                default:
+                    break;
+            }
+
+            // 返回结果
+            return result;
+        }
+
+
+        /**
+         * 批次内的消息依次序列化到同一块内存，再一次性写入队列缓冲区，批次不会跨文件
+         */
+        private AppendMessageResult doAppendBatch(final long fileFromOffset, final ByteBuffer byteBuffer,
+                                                  final int maxBlank, final MessageExtBatch messageExtBatch) {
+            // PHY OFFSET
+            final long wroteOffset = fileFromOffset + byteBuffer.position();
+
+            /**
+             * 记录ConsumeQueue信息
+             */
+            String key = messageExtBatch.getTopic() + "-" + messageExtBatch.getQueueId();
+            Long queueOffset = CommitLog.this.topicQueueTable.get(key);
+            if (null == queueOffset) {
+                queueOffset = 0L;
+                CommitLog.this.topicQueueTable.put(key, queueOffset);
+            }
+            final long beginQueueOffset = queueOffset;
+
+            final byte[] topicData = messageExtBatch.getTopic().getBytes();
+            final int topicLength = topicData.length;
+
+            StringBuilder msgIdBuilder = new StringBuilder(messageExtBatch.getMessages().size() * 33);
+            int totalMsgLen = 0;
+            this.resetMsgStoreItemMemory(this.msgStoreItemMemory.capacity());
+            for (MessageExtBrokerInner msgInner : messageExtBatch.getMessages()) {
+                final byte[] propertiesData =
+                        msgInner.getPropertiesString() == null ? null : msgInner.getPropertiesString().getBytes();
+                final int propertiesLength = propertiesData == null ? 0 : propertiesData.length;
+                final int bodyLength = msgInner.getBody() == null ? 0 : msgInner.getBody().length;
+                final int msgLen = calMsgLength(bodyLength, topicLength, propertiesLength);
+
+                // 整个批次与单条消息一样受最大长度限制
+                totalMsgLen += msgLen;
+                if (totalMsgLen > this.maxMessageSize) {
+                    CommitLog.LOGGER.warn("message batch size exceeded, batch total size: " + totalMsgLen
+                            + ", maxMessageSize: " + this.maxMessageSize);
+                    return new AppendMessageResult(AppendMessageStatus.MESSAGE_SIZE_EXCEEDED);
+                }
+
+                // 判断是否有足够空余空间，整个批次写入下一个文件
+                if ((totalMsgLen + END_FILE_MIN_BLANK_LENGTH) > maxBlank) {
+                    return this.appendBlank(byteBuffer, maxBlank, wroteOffset, null,
+                            messageExtBatch.getStoreTimestamp(), beginQueueOffset);
+                }
+
+                final long msgOffset = wroteOffset + totalMsgLen - msgLen;
+                this.writeMsgStoreItemMemory(msgInner, msgLen, queueOffset, msgOffset, topicData, propertiesData,
+                        messageExtBatch.getStoreTimestamp());
+
+                String msgId = MessageDecoder.createMessageId(this.msgIdMemory, msgInner.getStoreHostBytes(), msgOffset);
+                if (msgIdBuilder.length() > 0) {
+                    msgIdBuilder.append(',');
+                }
+                msgIdBuilder.append(msgId);
+
+                // 回填存储信息，用于构建ConsumeQueue
+                msgInner.setMsgId(msgId);
+                msgInner.setCommitLogOffset(msgOffset);
+                msgInner.setQueueOffset(queueOffset);
+                msgInner.setStoreSize(msgLen);
+                msgInner.setStoreTimestamp(messageExtBatch.getStoreTimestamp());
+
+                queueOffset++;
+            }
+
+            // 向队列缓冲区写入消息
+            byteBuffer.put(this.msgStoreItemMemory.array(), 0, totalMsgLen);
+
+            AppendMessageResult result =
+                    new AppendMessageResult(AppendMessageStatus.PUT_OK, wroteOffset, totalMsgLen,
+                            msgIdBuilder.toString(), messageExtBatch.getStoreTimestamp(), beginQueueOffset);
+            result.setMsgNum(messageExtBatch.getMessages().size());
+
+            // 更新下一次的ConsumeQueue信息
+            CommitLog.this.topicQueueTable.put(key, queueOffset);
+
+            return result;
+        }
+
+
+        /**
+         * 文件剩余空间不足，写入文件末尾空洞
+         */
+        private AppendMessageResult appendBlank(final ByteBuffer byteBuffer, final int maxBlank,
+                                                final long wroteOffset, final String msgId, final long storeTimestamp,
+                                                final long queueOffset) {
+            this.resetMsgStoreItemMemory(maxBlank);
+            // 1 TOTALSIZE
+            this.msgStoreItemMemory.putInt(maxBlank);
+            // 2 MAGICCODE
+            this.msgStoreItemMemory.putInt(CommitLog.BlankMagicCode);
+            // 3 剩余空间可能是任何值
+            //
+
+            // 此处长度特意设置为maxBlank
+            byteBuffer.put(this.msgStoreItemMemory.array(), 0, maxBlank);
+            return new AppendMessageResult(AppendMessageStatus.END_OF_FILE, wroteOffset, maxBlank, msgId,
+                    storeTimestamp, queueOffset);
+        }
+
+
+        /**
+         * 从msgStoreItemMemory当前位置开始序列化一条消息
+         */
+        private void writeMsgStoreItemMemory(final MessageExtBrokerInner msgInner, final int msgLen,
+                                             final long queueOffset, final long physicOffset,
+                                             final byte[] topicData, final byte[] propertiesData,
+                                             final long storeTimestamp) {
+            final int bodyLength = msgInner.getBody() == null ? 0 : msgInner.getBody().length;
+            final int propertiesLength = propertiesData == null ? 0 : propertiesData.length;
+
             // 1 TOTALSIZE
             this.msgStoreItemMemory.putInt(msgLen);
             // 2 MAGICCODE
@@ -1093,7 +1743,7 @@ public class CommitLog {
             // 6 QUEUEOFFSET
             this.msgStoreItemMemory.putLong(queueOffset);
             // 7 PHYSICALOFFSET
-            this.msgStoreItemMemory.putLong(fileFromOffset + byteBuffer.position());
+            this.msgStoreItemMemory.putLong(physicOffset);
             // 8 SYSFLAG
             this.msgStoreItemMemory.putInt(msgInner.getSysFlag());
             // 9 BORNTIMESTAMP
@@ -1101,7 +1751,7 @@ public class CommitLog {
             // 10 BORNHOST
             this.msgStoreItemMemory.put(msgInner.getBornHostBytes());
             // 11 STORETIMESTAMP
-            this.msgStoreItemMemory.putLong(msgInner.getStoreTimestamp());
+            this.msgStoreItemMemory.putLong(storeTimestamp);
             // 12 STOREHOSTADDRESS
             this.msgStoreItemMemory.put(msgInner.getStoreHostBytes());
             // 13 RECONSUMETIMES
@@ -1113,35 +1763,12 @@ public class CommitLog {
             if (bodyLength > 0)
                 this.msgStoreItemMemory.put(msgInner.getBody());
             // 16 TOPIC
-            this.msgStoreItemMemory.put((byte) topicLength);
+            this.msgStoreItemMemory.put((byte) topicData.length);
             this.msgStoreItemMemory.put(topicData);
             // 17 PROPERTIES
             this.msgStoreItemMemory.putShort((short) propertiesLength);
             if (propertiesLength > 0)
                 this.msgStoreItemMemory.put(propertiesData);
-
-            // 向队列缓冲区写入消息
-            byteBuffer.put(this.msgStoreItemMemory.array(), 0, msgLen);
-
-            AppendMessageResult result =
-                    new AppendMessageResult(AppendMessageStatus.PUT_OK, wroteOffset, msgLen, msgId,
-                            msgInner.getStoreTimestamp(), queueOffset);
-
-            switch (tranType) {
-                case MessageSysFlag.TransactionPreparedType:
-                case MessageSysFlag.TransactionRollbackType:
-                    break;
-                case MessageSysFlag.TransactionNotType:
-                case MessageSysFlag.TransactionCommitType:
-                    // 更新下一次的ConsumeQueue信息
-                    CommitLog.this.topicQueueTable.put(key, ++queueOffset);
-                    break;
-                default:
-                    break;
-            }
-
-            // 返回结果
-            return result;
         }
 
 
@@ -1154,8 +1781,11 @@ public class CommitLog {
 
     public void removeQueueFromTopicQueueTable(final String topic, final int queueId) {
         String key = topic + "-" + queueId;
-        synchronized (this) {
+        this.putMessageLock.lock();
+        try {
             this.topicQueueTable.remove(key);
+        } finally {
+            this.putMessageLock.unlock();
         }
 
         LOGGER.info("removeQueueFromTopicQueueTable OK Topic: {} QueueId: {}", topic, queueId);
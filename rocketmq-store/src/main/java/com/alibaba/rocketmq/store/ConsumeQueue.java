@@ -16,12 +16,15 @@
 package com.alibaba.rocketmq.store;
 
 import com.alibaba.rocketmq.common.constant.LoggerName;
+import com.alibaba.rocketmq.common.filter.impl.PropertyBloom;
+import com.alibaba.rocketmq.store.config.StorePathConfigHelper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.nio.ByteBuffer;
 import java.util.List;
+import java.util.Map;
 
 
 /**
@@ -49,6 +52,8 @@ public class ConsumeQueue {
     // 配置
     private final String storePath;
     private final int mappedFileSize;
+    // 扩展文件，记录消息属性的Bloom位图，未开启时为null
+    private final ConsumeQueueExt consumeQueueExt;
     // 最后一个消息对应的物理Offset
     private long maxPhysicOffset = -1;
     // 逻辑队列的最小Offset，删除物理文件时，计算出来的最小Offset
@@ -76,12 +81,25 @@ public class ConsumeQueue {
         this.mappedFileQueue = new MappedFileQueue(queueDir, mappedFileSize, null);
 
         this.byteBufferIndex = ByteBuffer.allocate(CQStoreUnitSize);
+
+        if (defaultMessageStore != null && defaultMessageStore.getMessageStoreConfig().isConsumeQueueExtEnable()) {
+            this.consumeQueueExt =
+                    new ConsumeQueueExt(topic, queueId, StorePathConfigHelper
+                        .getStorePathConsumeQueueExt(defaultMessageStore.getMessageStoreConfig()
+                            .getStorePathRootDir()), mappedFileSize);
+        }
+        else {
+            this.consumeQueueExt = null;
+        }
     }
 
 
     public boolean load() {
         boolean result = this.mappedFileQueue.load();
         log.info("load consume queue " + this.topic + "-" + this.queueId + " " + (result ? "OK" : "Failed"));
+        if (this.consumeQueueExt != null) {
+            result = result && this.consumeQueueExt.load();
+        }
         return result;
     }
 
@@ -145,6 +163,10 @@ public class ConsumeQueue {
             processOffset += mappedFileOffset;
             this.mappedFileQueue.truncateDirtyFiles(processOffset);
         }
+
+        if (this.consumeQueueExt != null) {
+            this.consumeQueueExt.truncate(this.getMaxOffsetInQueue());
+        }
     }
 
 
@@ -240,6 +262,15 @@ public class ConsumeQueue {
      * 根据物理Offset删除无效逻辑文件
      */
     public void truncateDirtyLogicFiles(long phyOffset) {
+        this.truncateDirtyLogicFiles0(phyOffset);
+
+        if (this.consumeQueueExt != null) {
+            this.consumeQueueExt.truncate(this.getMaxOffsetInQueue());
+        }
+    }
+
+
+    private void truncateDirtyLogicFiles0(long phyOffset) {
         // 逻辑队列每个文件大小
         int logicFileSize = this.mappedFileSize;
 
@@ -342,12 +373,19 @@ public class ConsumeQueue {
 
 
     public boolean commit(final int flushLeastPages) {
-        return this.mappedFileQueue.commit(flushLeastPages);
+        boolean result = this.mappedFileQueue.commit(flushLeastPages);
+        if (this.consumeQueueExt != null) {
+            result = this.consumeQueueExt.commit(flushLeastPages) && result;
+        }
+        return result;
     }
 
 
     public int deleteExpiredFile(long offset) {
         int cnt = this.mappedFileQueue.deleteExpiredFileByOffset(offset, CQStoreUnitSize);
+        if (this.consumeQueueExt != null) {
+            this.consumeQueueExt.deleteExpiredFile(offset);
+        }
         // 无论是否删除文件，都需要纠正下最小值，因为有可能物理文件删除了，
         // 但是逻辑文件一个也删除不了
         this.correctMinOffset(offset);
@@ -394,15 +432,21 @@ public class ConsumeQueue {
     }
 
 
-    public void putMessagePositionInfoWrapper(long offset, int size, long tagsCode, long storeTimestamp,
-                                              long logicOffset) {
+    /**
+     * 写入一条位置信息，失败会重试，写入成功返回true<br>
+     * StoreCheckpoint的逻辑队列时间点由调用方更新，并行构建时单个队列写成功并不代表之前的消息都已写入
+     *
+     * @param propertiesMap
+     *            消息属性，开启扩展文件时用于生成Bloom位图，可以为null
+     */
+    public boolean putMessagePositionInfoWrapper(long offset, int size, long tagsCode, long logicOffset,
+            Map<String, String> propertiesMap) {
         final int MaxRetries = 5;
         boolean canWrite = this.defaultMessageStore.getRunningFlags().isWritable();
         for (int i = 0; i < MaxRetries && canWrite; i++) {
-            boolean result = this.putMessagePositionInfo(offset, size, tagsCode, logicOffset);
+            boolean result = this.putMessagePositionInfo(offset, size, tagsCode, logicOffset, propertiesMap);
             if (result) {
-                this.defaultMessageStore.getStoreCheckpoint().setLogicsMsgTimestamp(storeTimestamp);
-                return;
+                return true;
             }
             // 只有一种情况会失败，创建新的MappedFile时报错或者超时
             else {
@@ -422,11 +466,12 @@ public class ConsumeQueue {
         // XXX: warn and notify me
         log.error("[BUG]consume queue can not write, {} {}", this.topic, this.queueId);
         this.defaultMessageStore.getRunningFlags().makeLogicsQueueError();
+        return false;
     }
 
 
     /**
-     * 存储一个20字节的信息，putMessagePositionInfo只有一个线程调用，所以不需要加锁
+     * 存储一个20字节的信息，同一个队列的putMessagePositionInfo只有一个线程调用（并行构建时按队列分片），所以不需要加锁
      * 
      * @param offset
      *            消息对应的CommitLog offset
@@ -434,10 +479,12 @@ public class ConsumeQueue {
      *            消息在CommitLog存储的大小
      * @param tagsCode
      *            tags 计算出来的长整数
+     * @param propertiesMap
+     *            消息属性，写扩展文件用
      * @return 是否成功
      */
     private boolean putMessagePositionInfo(final long offset, final int size, final long tagsCode,
-                                           final long cqOffset) {
+                                           final long cqOffset, final Map<String, String> propertiesMap) {
         // 在数据恢复时会走到这个流程
         if (offset <= this.maxPhysicOffset) {
             return true;
@@ -479,7 +526,13 @@ public class ConsumeQueue {
 
             // 记录物理队列最大offset
             this.maxPhysicOffset = offset;
-            return mappedFile.appendMessage(this.byteBufferIndex.array());
+            boolean result = mappedFile.appendMessage(this.byteBufferIndex.array());
+            // 扩展文件只用于过滤，写失败时拉消息回退到读CommitLog，不影响ConsumeQueue
+            if (result && this.consumeQueueExt != null
+                    && !this.consumeQueueExt.put(cqOffset, offset, PropertyBloom.bitMap(propertiesMap))) {
+                log.warn("put consume queue ext failed, {}:{} {}", this.topic, this.queueId, cqOffset);
+            }
+            return result;
         }
 
         return false;
@@ -550,6 +603,14 @@ public class ConsumeQueue {
         this.maxPhysicOffset = -1;
         this.minLogicOffset = 0;
         this.mappedFileQueue.destroy();
+        if (this.consumeQueueExt != null) {
+            this.consumeQueueExt.destroy();
+        }
+    }
+
+
+    public ConsumeQueueExt getConsumeQueueExt() {
+        return consumeQueueExt;
     }
 
 
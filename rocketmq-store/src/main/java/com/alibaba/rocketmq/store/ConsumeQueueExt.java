@@ -0,0 +1,167 @@
+/**
+ * Copyright (C) 2010-2013 Alibaba Group Holding Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.rocketmq.store;
+
+import com.alibaba.rocketmq.common.constant.LoggerName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+
+
+/**
+ * ConsumeQueue扩展文件，与ConsumeQueue按下标一一对应<br>
+ * 每个单元记录消息的物理Offset和属性Bloom位图，拉消息时先用位图过滤，不匹配的消息不需要读CommitLog<br>
+ * 扩展文件只是一个过滤提示，缺失或者与ConsumeQueue不一致时按物理Offset识别，回退到读取CommitLog
+ */
+public class ConsumeQueueExt {
+    // 存储单元大小, physical Offset(long, 8) + property bit map(long, 8)
+    public static final int CQExtUnitSize = 16;
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.StoreLoggerName);
+    private final MappedFileQueue mappedFileQueue;
+    private final String topic;
+    private final int queueId;
+    private final int mappedFileSize;
+    // 写单元时用到的ByteBuffer
+    private final ByteBuffer byteBufferUnit = ByteBuffer.allocate(CQExtUnitSize);
+
+
+    /**
+     * @param mappedFileSizeConsumeQueue
+     *            ConsumeQueue的文件大小，扩展文件与ConsumeQueue文件的存储单元个数相同
+     */
+    public ConsumeQueueExt(//
+            final String topic,//
+            final int queueId,//
+            final String storePath,//
+            final int mappedFileSizeConsumeQueue) {
+        this.topic = topic;
+        this.queueId = queueId;
+        this.mappedFileSize = mappedFileSizeConsumeQueue / ConsumeQueue.CQStoreUnitSize * CQExtUnitSize;
+
+        String queueDir = storePath//
+                + File.separator + topic//
+                + File.separator + queueId;//
+
+        this.mappedFileQueue = new MappedFileQueue(queueDir, this.mappedFileSize, null);
+    }
+
+
+    public boolean load() {
+        boolean result = this.mappedFileQueue.load();
+        log.info("load consume queue ext " + this.topic + "-" + this.queueId + " " + (result ? "OK" : "Failed"));
+        return result;
+    }
+
+
+    /**
+     * 与ConsumeQueue保持一致，删除maxIndex及以后的单元
+     */
+    public void truncate(final long maxIndex) {
+        this.mappedFileQueue.truncateDirtyFiles(maxIndex * CQExtUnitSize);
+    }
+
+
+    /**
+     * 写入ConsumeQueue第cqIndex个单元对应的扩展单元，只有ConsumeQueue的写线程调用
+     */
+    public boolean put(final long cqIndex, final long phyOffset, final long bitMap) {
+        final long expectOffset = cqIndex * CQExtUnitSize;
+
+        MappedFile mappedFile = this.mappedFileQueue.getLastMappedFile2();
+        if (mappedFile != null) {
+            long currentOffset = mappedFile.getFileFromOffset() + mappedFile.getWrotePosition();
+            // 恢复时重复分发，已经写过
+            if (expectOffset < currentOffset) {
+                return true;
+            }
+
+            // 扩展文件落后一个文件以上（例如中途开启），直接从当前位置重新开始
+            if (expectOffset - currentOffset > this.mappedFileSize) {
+                log.info("consume queue ext {}-{} fall behind too much, rebuild from {}", this.topic,
+                    this.queueId, cqIndex);
+                this.mappedFileQueue.destroy();
+            }
+        }
+
+        mappedFile = this.mappedFileQueue.getLastMappedFile(expectOffset);
+        if (null == mappedFile) {
+            return false;
+        }
+
+        // 中间缺失的单元填空白，读取时按物理Offset识别为无效
+        final byte[] blank = new byte[CQExtUnitSize];
+        long currentOffset = mappedFile.getFileFromOffset() + mappedFile.getWrotePosition();
+        while (currentOffset < expectOffset) {
+            if (mappedFile.isFull()) {
+                mappedFile = this.mappedFileQueue.getLastMappedFile(currentOffset);
+                if (null == mappedFile) {
+                    return false;
+                }
+            }
+
+            mappedFile.appendMessage(blank);
+            currentOffset += CQExtUnitSize;
+        }
+
+        if (mappedFile.isFull()) {
+            mappedFile = this.mappedFileQueue.getLastMappedFile(expectOffset);
+            if (null == mappedFile) {
+                return false;
+            }
+        }
+
+        this.byteBufferUnit.clear();
+        this.byteBufferUnit.putLong(phyOffset);
+        this.byteBufferUnit.putLong(bitMap);
+        return mappedFile.appendMessage(this.byteBufferUnit.array());
+    }
+
+
+    /**
+     * 返回从cqIndex开始到文件末尾已写入的扩展单元，文件与ConsumeQueue对齐，不会跨文件
+     */
+    public SelectMappedBufferResult getUnitBuffer(final long cqIndex) {
+        final long offset = cqIndex * CQExtUnitSize;
+        long minOffset = this.mappedFileQueue.getMinOffset();
+        if (minOffset < 0 || offset < minOffset || offset >= this.mappedFileQueue.getMaxOffset()) {
+            return null;
+        }
+
+        MappedFile mappedFile = this.mappedFileQueue.findMappedFileByOffset(offset);
+        if (mappedFile != null) {
+            return mappedFile.selectMappedBuffer((int) (offset % this.mappedFileSize));
+        }
+
+        return null;
+    }
+
+
+    public int deleteExpiredFile(final long phyMinOffset) {
+        return this.mappedFileQueue.deleteExpiredFileByOffset(phyMinOffset, CQExtUnitSize);
+    }
+
+
+    public boolean commit(final int flushLeastPages) {
+        return this.mappedFileQueue.commit(flushLeastPages);
+    }
+
+
+    public void destroy() {
+        this.mappedFileQueue.destroy();
+    }
+}
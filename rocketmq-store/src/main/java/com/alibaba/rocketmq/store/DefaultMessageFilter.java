@@ -15,7 +15,15 @@
  */
 package com.alibaba.rocketmq.store;
 
+import com.alibaba.rocketmq.common.constant.LoggerName;
+import com.alibaba.rocketmq.common.filter.impl.PropertyExpr;
+import com.alibaba.rocketmq.common.message.MessageDecoder;
 import com.alibaba.rocketmq.common.protocol.heartbeat.SubscriptionData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
 
 
 /**
@@ -25,6 +33,10 @@ import com.alibaba.rocketmq.common.protocol.heartbeat.SubscriptionData;
  * @since 2013-7-21
  */
 public class DefaultMessageFilter implements MessageFilter {
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.StoreLoggerName);
+    // 编译后的属性过滤表达式，key为group@topic
+    private final ConcurrentHashMap<String, CompiledPropertyExpr> propertyExprTable =
+            new ConcurrentHashMap<String, CompiledPropertyExpr>();
 
     @Override
     public boolean isMessageMatched(SubscriptionData subscriptionData, long tagsCode) {
@@ -32,7 +44,7 @@ public class DefaultMessageFilter implements MessageFilter {
             return true;
         }
 
-        if (subscriptionData.isClassFilterMode())
+        if (subscriptionData.isClassFilterMode() || subscriptionData.isPropertyFilterMode())
             return true;
 
         if (subscriptionData.getSubString().equals(SubscriptionData.SUB_ALL)) {
@@ -42,4 +54,74 @@ public class DefaultMessageFilter implements MessageFilter {
         return subscriptionData.getCodeSet().contains((int) tagsCode);
     }
 
+
+    @Override
+    public boolean isMessageMatched(String group, SubscriptionData subscriptionData, ByteBuffer msgBuffer) {
+        if (null == subscriptionData || !subscriptionData.isPropertyFilterMode()) {
+            return true;
+        }
+
+        PropertyExpr expr = this.findPropertyExpr(group, subscriptionData);
+        if (null == expr) {
+            return false;
+        }
+
+        // 跳过消息体和Topic，定位到属性，与CommitLog的存储格式保持一致
+        // Topic长度不超过Byte.MAX_VALUE，属性长度不超过Short.MAX_VALUE，写入时已校验，按有符号读取即可
+        int bodyLength = msgBuffer.getInt(MessageDecoder.MESSAGE_BODY_LENGTH_POSITION);
+        int topicLengthPos = MessageDecoder.MESSAGE_BODY_LENGTH_POSITION + 4 + bodyLength;
+        int propertiesLengthPos = topicLengthPos + 1 + msgBuffer.get(topicLengthPos);
+        short propertiesLength = msgBuffer.getShort(propertiesLengthPos);
+        return expr.evaluate(msgBuffer, propertiesLengthPos + 2, propertiesLength);
+    }
+
+
+    @Override
+    public boolean isMessageMatchedByBitMap(String group, SubscriptionData subscriptionData, long bitMap) {
+        if (null == subscriptionData || !subscriptionData.isPropertyFilterMode()) {
+            return true;
+        }
+
+        PropertyExpr expr = this.findPropertyExpr(group, subscriptionData);
+        if (null == expr) {
+            return false;
+        }
+
+        return expr.mayMatch(bitMap);
+    }
+
+
+    /**
+     * 订阅关系版本或者表达式变化时重新编译
+     */
+    private PropertyExpr findPropertyExpr(final String group, final SubscriptionData subscriptionData) {
+        final String key = group + "@" + subscriptionData.getTopic();
+        CompiledPropertyExpr compiled = this.propertyExprTable.get(key);
+        if (compiled != null && (compiled.subVersion == subscriptionData.getSubVersion() //
+                || compiled.expr.getExpression().equals(subscriptionData.getSubString()))) {
+            return compiled.expr;
+        }
+
+        try {
+            PropertyExpr expr = PropertyExpr.compile(subscriptionData.getSubString());
+            this.propertyExprTable.put(key, new CompiledPropertyExpr(subscriptionData.getSubVersion(), expr));
+            return expr;
+        }
+        catch (IllegalArgumentException e) {
+            log.warn("compile property filter expression failed, " + key + " " + subscriptionData.getSubString(), e);
+            return null;
+        }
+    }
+
+    static class CompiledPropertyExpr {
+        private final long subVersion;
+        private final PropertyExpr expr;
+
+
+        CompiledPropertyExpr(long subVersion, PropertyExpr expr) {
+            this.subVersion = subVersion;
+            this.expr = expr;
+        }
+    }
+
 }
@@ -20,7 +20,7 @@ import com.alibaba.rocketmq.common.SystemClock;
 import com.alibaba.rocketmq.common.ThreadFactoryImpl;
 import com.alibaba.rocketmq.common.UtilAll;
 import com.alibaba.rocketmq.common.constant.LoggerName;
-import com.alibaba.rocketmq.common.message.MessageConst;
+import com.alibaba.rocketmq.common.filter.impl.PropertyBloom;
 import com.alibaba.rocketmq.common.message.MessageDecoder;
 import com.alibaba.rocketmq.common.message.MessageExt;
 import com.alibaba.rocketmq.common.protocol.heartbeat.SubscriptionData;
@@ -33,6 +33,7 @@ import com.alibaba.rocketmq.store.ha.HAService;
 import com.alibaba.rocketmq.store.index.IndexService;
 import com.alibaba.rocketmq.store.index.QueryOffsetResult;
 import com.alibaba.rocketmq.store.schedule.ScheduleMessageService;
+import com.alibaba.rocketmq.store.timer.TimerMessageService;
 import com.alibaba.rocketmq.store.stats.BrokerStatsManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -52,8 +53,10 @@ import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 import static com.alibaba.rocketmq.store.config.BrokerRole.SLAVE;
 
@@ -86,12 +89,16 @@ public class DefaultMessageStore implements MessageStore {
     private final IndexService indexService;
     // 预分配MappedFile对象服务
     private final AllocateMappedFileService allocateMappedFileService;
+    // CommitLog堆外写缓冲池
+    private final TransientStorePool transientStorePool;
     // 从物理队列解析消息重新发送到逻辑队列
     private final ReputMessageService reputMessageService;
     // HA服务
     private final HAService haService;
     // 定时服务
     private final ScheduleMessageService scheduleMessageService;
+    // 指定投递时间的定时服务
+    private final TimerMessageService timerMessageService;
     // 运行时数据统计
     private final StoreStatsService storeStatsService;
     // 运行过程标志位
@@ -108,6 +115,8 @@ public class DefaultMessageStore implements MessageStore {
     private final ScheduledExecutorService scheduledExecutorService = Executors
             .newSingleThreadScheduledExecutor(new ThreadFactoryImpl("StoreScheduledThread"));
     private final BrokerStatsManager brokerStatsManager;
+    // 消息写入ConsumeQueue后回调，可以为null
+    private final MessageArrivingListener messageArrivingListener;
 
     private final AtomicLong slaveBrokerLagBehindWarnCounter = new AtomicLong(0L);
 
@@ -115,8 +124,17 @@ public class DefaultMessageStore implements MessageStore {
 
     public DefaultMessageStore(final MessageStoreConfig messageStoreConfig,
                                final BrokerStatsManager brokerStatsManager) throws IOException {
+        this(messageStoreConfig, brokerStatsManager, null);
+    }
+
+
+    public DefaultMessageStore(final MessageStoreConfig messageStoreConfig,
+                               final BrokerStatsManager brokerStatsManager,
+                               final MessageArrivingListener messageArrivingListener) throws IOException {
         this.messageStoreConfig = messageStoreConfig;
         this.brokerStatsManager = brokerStatsManager;
+        this.messageArrivingListener = messageArrivingListener;
+        this.transientStorePool = new TransientStorePool(messageStoreConfig);
         this.allocateMappedFileService = new AllocateMappedFileService(this);
         this.commitLog = new CommitLog(this);
         this.consumeQueueTable = new ConcurrentHashMap<String/* topic */, ConcurrentHashMap<Integer/* queueId */, ConsumeQueue>>(32);
@@ -124,7 +142,8 @@ public class DefaultMessageStore implements MessageStore {
         this.flushConsumeQueueService = new FlushConsumeQueueService();
         this.cleanCommitLogService = new CleanCommitLogService();
         this.cleanConsumeQueueService = new CleanConsumeQueueService();
-        this.dispatchMessageService = new DispatchMessageService(this.messageStoreConfig.getPutMsgIndexHighWater());
+        this.dispatchMessageService = new DispatchMessageService(this.messageStoreConfig.getPutMsgIndexHighWater(),
+                        this.messageStoreConfig.getConsumeQueueDispatchStripes());
         this.storeStatsService = new StoreStatsService();
         this.indexService = new IndexService(this);
         this.haService = new HAService(this);
@@ -145,6 +164,20 @@ public class DefaultMessageStore implements MessageStore {
                 this.scheduleMessageService = null;
         }
 
+        // 时间轮只在Master上运行，Slave通过复制得到投递后的消息
+        if (this.messageStoreConfig.isTimerWheelEnable()
+                && this.messageStoreConfig.getBrokerRole() != SLAVE) {
+            this.timerMessageService = new TimerMessageService(this);
+        }
+        else {
+            this.timerMessageService = null;
+        }
+
+        // 预分配MappedFile依赖写缓冲池，所以先初始化
+        if (messageStoreConfig.isTransientStorePoolEnable()) {
+            this.transientStorePool.init();
+        }
+
         // load过程依赖此服务，所以提前启动
         this.allocateMappedFileService.start();
         this.dispatchMessageService.start();
@@ -184,6 +217,10 @@ public class DefaultMessageStore implements MessageStore {
                 result = result && this.scheduleMessageService.load();
             }
 
+            if (null != timerMessageService) {
+                result = result && this.timerMessageService.load();
+            }
+
             // load Commit Log
             result = result && this.commitLog.load();
 
@@ -198,6 +235,11 @@ public class DefaultMessageStore implements MessageStore {
                 // 尝试恢复数据
                 this.recover(lastExitOK);
 
+                // 时间轮异常退出时依赖恢复后的定时消息队列重建
+                if (null != this.timerMessageService) {
+                    this.timerMessageService.recover(lastExitOK);
+                }
+
                 log.info("load over, and the max phy offset = {}", this.getMaxPhyOffset());
             }
         } catch (Exception e) {
@@ -250,7 +292,8 @@ public class DefaultMessageStore implements MessageStore {
         while (it.hasNext()) {
             Entry<String, ConcurrentHashMap<Integer, ConsumeQueue>> next = it.next();
             String topic = next.getKey();
-            if (!topic.equals(ScheduleMessageService.SCHEDULE_TOPIC)) {
+            if (!topic.equals(ScheduleMessageService.SCHEDULE_TOPIC)
+                    && !topic.equals(TimerMessageService.TIMER_TOPIC)) {
                 ConcurrentHashMap<Integer, ConsumeQueue> queueTable = next.getValue();
                 Iterator<Entry<Integer, ConsumeQueue>> itQT = queueTable.entrySet().iterator();
                 while (itQT.hasNext()) {
@@ -319,6 +362,11 @@ public class DefaultMessageStore implements MessageStore {
         this.createTempFile();
         this.addScheduleTask();
         this.shutdown = false;
+
+        // 到期消息要写回CommitLog，必须在存储可写之后启动
+        if (this.timerMessageService != null) {
+            this.timerMessageService.start();
+        }
     }
 
 
@@ -342,6 +390,10 @@ public class DefaultMessageStore implements MessageStore {
                 this.scheduleMessageService.shutdown();
             }
 
+            if (this.timerMessageService != null) {
+                this.timerMessageService.shutdown();
+            }
+
             this.haService.shutdown();
 
             this.storeStatsService.shutdown();
@@ -350,6 +402,9 @@ public class DefaultMessageStore implements MessageStore {
             this.flushConsumeQueueService.shutdown();
             this.commitLog.shutdown();
             this.allocateMappedFileService.shutdown();
+            if (this.messageStoreConfig.isTransientStorePoolEnable()) {
+                this.transientStorePool.destroy();
+            }
             if (this.reputMessageService != null) {
                 this.reputMessageService.shutdown();
             }
@@ -380,10 +435,13 @@ public class DefaultMessageStore implements MessageStore {
     }
 
 
-    public PutMessageResult putMessage(MessageExtBrokerInner msg) {
+    /**
+     * 检查是否可写，不可写时返回相应的状态，可写返回null
+     */
+    private PutMessageStatus checkStoreStatus() {
         if (this.shutdown) {
             log.warn("message store has shutdown, so putMessage is forbidden");
-            return new PutMessageResult(PutMessageStatus.SERVICE_NOT_AVAILABLE, null);
+            return PutMessageStatus.SERVICE_NOT_AVAILABLE;
         }
 
         if (BrokerRole.SLAVE == this.messageStoreConfig.getBrokerRole()) {
@@ -392,7 +450,7 @@ public class DefaultMessageStore implements MessageStore {
                 log.warn("message store is slave mode, so putMessage is forbidden ");
             }
 
-            return new PutMessageResult(PutMessageStatus.SERVICE_NOT_AVAILABLE, null);
+            return PutMessageStatus.SERVICE_NOT_AVAILABLE;
         }
 
         if (!this.runningFlags.isWritable()) {
@@ -402,11 +460,93 @@ public class DefaultMessageStore implements MessageStore {
                         + this.runningFlags.getFlagBits());
             }
 
-            return new PutMessageResult(PutMessageStatus.SERVICE_NOT_AVAILABLE, null);
+            return PutMessageStatus.SERVICE_NOT_AVAILABLE;
         } else {
             this.printTimes.set(0);
         }
 
+        return null;
+    }
+
+
+    public PutMessageResult putMessage(MessageExtBrokerInner msg) {
+        PutMessageResult checkResult = this.checkMessage(msg);
+        if (checkResult != null) {
+            return checkResult;
+        }
+
+        long beginTime = this.getSystemClock().now();
+        PutMessageResult result = this.commitLog.putMessage(msg);
+        this.recordPutMessage(beginTime, msg.getTopic(), 1, result);
+
+        return result;
+    }
+
+
+    public PutMessageResult putMessages(MessageExtBatch messageExtBatch) {
+        PutMessageResult checkResult = this.checkMessages(messageExtBatch);
+        if (checkResult != null) {
+            return checkResult;
+        }
+
+        long beginTime = this.getSystemClock().now();
+        PutMessageResult result = this.commitLog.putMessages(messageExtBatch);
+        this.recordPutMessage(beginTime, messageExtBatch.getTopic(), messageExtBatch.getMessages().size(), result);
+
+        return result;
+    }
+
+
+    @Override
+    public PutMessageFuture asyncPutMessage(final MessageExtBrokerInner msg) {
+        PutMessageResult checkResult = this.checkMessage(msg);
+        if (checkResult != null) {
+            return PutMessageFuture.completed(checkResult);
+        }
+
+        final long beginTime = this.getSystemClock().now();
+        PutMessageFuture future = this.commitLog.asyncPutMessage(msg);
+        future.addCallback(new PutMessageCallback() {
+            @Override
+            public void onComplete(PutMessageResult putMessageResult) {
+                recordPutMessage(beginTime, msg.getTopic(), 1, putMessageResult);
+            }
+        });
+
+        return future;
+    }
+
+
+    @Override
+    public PutMessageFuture asyncPutMessages(final MessageExtBatch messageExtBatch) {
+        PutMessageResult checkResult = this.checkMessages(messageExtBatch);
+        if (checkResult != null) {
+            return PutMessageFuture.completed(checkResult);
+        }
+
+        final long beginTime = this.getSystemClock().now();
+        PutMessageFuture future = this.commitLog.asyncPutMessages(messageExtBatch);
+        future.addCallback(new PutMessageCallback() {
+            @Override
+            public void onComplete(PutMessageResult putMessageResult) {
+                recordPutMessage(beginTime, messageExtBatch.getTopic(), messageExtBatch.getMessages().size(),
+                        putMessageResult);
+            }
+        });
+
+        return future;
+    }
+
+
+    /**
+     * @return 检查不通过时返回失败结果，否则返回null
+     */
+    private PutMessageResult checkMessage(final MessageExtBrokerInner msg) {
+        PutMessageStatus storeStatus = this.checkStoreStatus();
+        if (storeStatus != null) {
+            return new PutMessageResult(storeStatus, null);
+        }
+
         // message topic长度校验
         if (msg.getTopic().length() > Byte.MAX_VALUE) {
             log.warn("putMessage message topic length too long " + msg.getTopic().length());
@@ -419,21 +559,49 @@ public class DefaultMessageStore implements MessageStore {
             return new PutMessageResult(PutMessageStatus.MESSAGE_ILLEGAL, null);
         }
 
-        long beginTime = this.getSystemClock().now();
-        PutMessageResult result = this.commitLog.putMessage(msg);
-        // 性能数据统计
+        return null;
+    }
+
+
+    private PutMessageResult checkMessages(final MessageExtBatch messageExtBatch) {
+        PutMessageStatus storeStatus = this.checkStoreStatus();
+        if (storeStatus != null) {
+            return new PutMessageResult(storeStatus, null);
+        }
+
+        // message topic长度校验
+        if (messageExtBatch.getTopic().length() > Byte.MAX_VALUE) {
+            log.warn("putMessages message topic length too long " + messageExtBatch.getTopic().length());
+            return new PutMessageResult(PutMessageStatus.MESSAGE_ILLEGAL, null);
+        }
+
+        // message properties长度校验
+        for (MessageExtBrokerInner msg : messageExtBatch.getMessages()) {
+            if (msg.getPropertiesString() != null && msg.getPropertiesString().length() > Short.MAX_VALUE) {
+                log.warn("putMessages message properties length too long " + msg.getPropertiesString().length());
+                return new PutMessageResult(PutMessageStatus.MESSAGE_ILLEGAL, null);
+            }
+        }
+
+        return null;
+    }
+
+
+    /**
+     * 性能数据统计，耗时包括等待刷盘与同步双写
+     */
+    private void recordPutMessage(final long beginTime, final String topic, final int msgNum,
+                                  final PutMessageResult result) {
         long eclipseTime = this.getSystemClock().now() - beginTime;
         if (eclipseTime > 1000) {
-            log.warn("putMessage not in lock eclipse time(ms) " + eclipseTime);
+            log.warn("putMessage not in lock eclipse time(ms) " + eclipseTime + ", topic " + topic);
         }
         this.storeStatsService.setPutMessageEntireTimeMax(eclipseTime);
-        this.storeStatsService.getSinglePutMessageTopicTimesTotal(msg.getTopic()).incrementAndGet();
+        this.storeStatsService.getSinglePutMessageTopicTimesTotal(topic).addAndGet(msgNum);
 
         if (null == result || !result.isOk()) {
             this.storeStatsService.getPutMessageFailedTimes().incrementAndGet();
         }
-
-        return result;
     }
 
 
@@ -510,6 +678,13 @@ public class DefaultMessageStore implements MessageStore {
             } else {
                 SelectMappedBufferResult bufferConsumeQueue = consumeQueue.getIndexBuffer(offset);
                 if (bufferConsumeQueue != null) {
+                    // 按属性过滤时先用扩展文件中的Bloom位图排除不匹配的消息
+                    SelectMappedBufferResult bufferConsumeQueueExt = null;
+                    if (subscriptionData != null && subscriptionData.isPropertyFilterMode()
+                            && consumeQueue.getConsumeQueueExt() != null) {
+                        bufferConsumeQueueExt = consumeQueue.getConsumeQueueExt().getUnitBuffer(offset);
+                    }
+
                     try {
                         status = GetMessageStatus.NO_MATCHED_MESSAGE;
 
@@ -526,6 +701,14 @@ public class DefaultMessageStore implements MessageStore {
 
                             maxPhyOffsetPulling = offsetPy;
 
+                            // 消息还在写缓冲中，尚未对读取可见
+                            if (offsetPy + sizePy > maxOffsetPy) {
+                                if (getResult.getBufferTotalSize() == 0) {
+                                    status = GetMessageStatus.OFFSET_FOUND_NULL;
+                                }
+                                break;
+                            }
+
                             // 说明物理文件正在被删除
                             if (nextPhyFileStartOffset != Long.MIN_VALUE) {
                                 if (offsetPy < nextPhyFileStartOffset)
@@ -540,10 +723,39 @@ public class DefaultMessageStore implements MessageStore {
                                 break;
                             }
 
+                            // 扩展单元与ConsumeQueue单元一一对应，物理Offset一致时位图才有效
+                            if (bufferConsumeQueueExt != null) {
+                                int extPos = i / ConsumeQueue.CQStoreUnitSize * ConsumeQueueExt.CQExtUnitSize;
+                                if (extPos + ConsumeQueueExt.CQExtUnitSize <= bufferConsumeQueueExt.getSize()) {
+                                    ByteBuffer extBuffer = bufferConsumeQueueExt.getByteBuffer();
+                                    long bitMap = extBuffer.getLong(extPos + 8);
+                                    if (extBuffer.getLong(extPos) == offsetPy
+                                            && (bitMap & PropertyBloom.WrittenBit) != 0
+                                            && !this.messageFilter.isMessageMatchedByBitMap(group, subscriptionData,
+                                                bitMap)) {
+                                        if (getResult.getBufferTotalSize() == 0) {
+                                            status = GetMessageStatus.NO_MATCHED_MESSAGE;
+                                        }
+                                        continue;
+                                    }
+                                }
+                            }
+
                             // 消息过滤
                             if (this.messageFilter.isMessageMatched(subscriptionData, tagsCode)) {
                                 SelectMappedBufferResult selectResult = this.commitLog.getMessage(offsetPy, sizePy);
                                 if (selectResult != null) {
+                                    // 按属性过滤，直接在CommitLog上求值，不需要解码消息
+                                    if (!this.messageFilter.isMessageMatched(group, subscriptionData,
+                                            selectResult.getByteBuffer())) {
+                                        selectResult.release();
+                                        if (getResult.getBufferTotalSize() == 0) {
+                                            status = GetMessageStatus.NO_MATCHED_MESSAGE;
+                                        }
+                                        nextPhyFileStartOffset = Long.MIN_VALUE;
+                                        continue;
+                                    }
+
                                     this.storeStatsService.getGetMessageTransferredMsgCount().incrementAndGet();
                                     getResult.addMessage(selectResult);
                                     status = GetMessageStatus.FOUND;
@@ -582,6 +794,9 @@ public class DefaultMessageStore implements MessageStore {
                     } finally {
                         // 必须释放资源
                         bufferConsumeQueue.release();
+                        if (bufferConsumeQueueExt != null) {
+                            bufferConsumeQueueExt.release();
+                        }
                     }
                 } else {
                     status = GetMessageStatus.OFFSET_FOUND_NULL;
@@ -725,6 +940,15 @@ public class DefaultMessageStore implements MessageStore {
             if (this.scheduleMessageService != null) {
                 this.scheduleMessageService.buildRunningStats(result);
             }
+
+            if (this.timerMessageService != null) {
+                this.timerMessageService.buildRunningStats(result);
+            }
+        }
+
+        // 主从复制状态
+        {
+            this.haService.buildRunningStats(result);
         }
 
         result.put(RunningStats.commitLogMinOffset.name(),
@@ -732,6 +956,12 @@ public class DefaultMessageStore implements MessageStore {
         result.put(RunningStats.commitLogMaxOffset.name(),
                 String.valueOf(DefaultMessageStore.this.getMaxPhyOffset()));
 
+        if (this.messageStoreConfig.isTransientStorePoolEnable()) {
+            result.put("transientStoreBufferRemain", String.valueOf(this.transientStorePool.remainBufferNumbs()));
+        }
+
+        result.put("dispatchBufferCapacity", String.valueOf(this.dispatchMessageService.ringBuffer.getCapacity()));
+
         return result;
     }
 
@@ -813,16 +1043,22 @@ public class DefaultMessageStore implements MessageStore {
 
     @Override
     public boolean appendToCommitLog(long startOffset, byte[] data) {
+        return this.appendToCommitLog(startOffset, data, 0, data.length);
+    }
+
+
+    @Override
+    public boolean appendToCommitLog(long startOffset, byte[] data, int offset, int length) {
         if (this.shutdown) {
             log.warn("message store has shutdown, so appendToPhyQueue is forbidden");
             return false;
         }
 
-        boolean result = this.commitLog.appendData(startOffset, data);
+        boolean result = this.commitLog.appendData(startOffset, data, offset, length);
         if (result) {
             this.reputMessageService.wakeUp();
         } else {
-            log.error("appendToPhyQueue failed " + startOffset + " " + data.length);
+            log.error("appendToPhyQueue failed " + startOffset + " " + length);
         }
 
         return result;
@@ -837,68 +1073,35 @@ public class DefaultMessageStore implements MessageStore {
 
     @Override
     public QueryMessageResult queryMessage(String topic, String key, int maxNum, long begin, long end) {
-        QueryMessageResult queryMessageResult = new QueryMessageResult();
-
-        long lastQueryMsgTime = end;
-
-        for (int i = 0; i < 3; i++) {
-            QueryOffsetResult queryOffsetResult =
-                    this.indexService.queryOffset(topic, key, maxNum, begin, lastQueryMsgTime);
-            if (queryOffsetResult.getPhyOffsets().isEmpty()) {
-                break;
-            }
-
-            // 从小到达排序
-            Collections.sort(queryOffsetResult.getPhyOffsets());
+        // 索引使用64位Hash，查询结果不需要再读取消息校验Hash冲突
+        QueryOffsetResult queryOffsetResult = this.indexService.queryOffset(topic, key, maxNum, begin, end);
+        return this.selectQueryResult(queryOffsetResult);
+    }
 
-            queryMessageResult.setIndexLastUpdatePhyOffset(queryOffsetResult.getIndexLastUpdatePhyOffset());
-            queryMessageResult.setIndexLastUpdateTimestamp(queryOffsetResult.getIndexLastUpdateTimestamp());
 
-            for (int m = 0; m < queryOffsetResult.getPhyOffsets().size(); m++) {
-                long offset = queryOffsetResult.getPhyOffsets().get(m);
+    /**
+     * 按物理位置从小到大读取索引命中的消息，即按存储时间排序
+     */
+    private QueryMessageResult selectQueryResult(final QueryOffsetResult queryOffsetResult) {
+        QueryMessageResult queryMessageResult = new QueryMessageResult();
 
-                try {
-                    // 在服务器检验Hash冲突
-                    boolean match = true;
-                    MessageExt msg = this.lookMessageByOffset(offset);
-                    if (0 == m) {
-                        lastQueryMsgTime = msg.getStoreTimestamp();
-                    }
+        // 从小到达排序
+        Collections.sort(queryOffsetResult.getPhyOffsets());
 
-                    String[] keyArray = msg.getKeys().split(MessageConst.KEY_SEPARATOR);
-                    if (topic.equals(msg.getTopic())) {
-                        for (String k : keyArray) {
-                            if (k.equals(key)) {
-                                match = true;
-                                break;
-                            }
-                        }
-                    }
+        queryMessageResult.setIndexLastUpdatePhyOffset(queryOffsetResult.getIndexLastUpdatePhyOffset());
+        queryMessageResult.setIndexLastUpdateTimestamp(queryOffsetResult.getIndexLastUpdateTimestamp());
 
-                    if (match) {
-                        SelectMappedBufferResult result = this.commitLog.getData(offset, false);
-                        if (result != null) {
-                            int size = result.getByteBuffer().getInt(0);
-                            result.getByteBuffer().limit(size);
-                            result.setSize(size);
-                            queryMessageResult.addMessage(result);
-                        }
-                    } else {
-                        log.warn("queryMessage hash duplicate, {} {}", topic, key);
-                    }
-                } catch (Exception e) {
-                    log.error("queryMessage exception", e);
+        for (Long offset : queryOffsetResult.getPhyOffsets()) {
+            try {
+                SelectMappedBufferResult result = this.commitLog.getData(offset, false);
+                if (result != null) {
+                    int size = result.getByteBuffer().getInt(0);
+                    result.getByteBuffer().limit(size);
+                    result.setSize(size);
+                    queryMessageResult.addMessage(result);
                 }
-            }
-
-            // 只要查到记录就返回
-            if (queryMessageResult.getBufferTotalSize() > 0) {
-                break;
-            }
-
-            // 都遍历完了， 但是没有找到消息
-            if (lastQueryMsgTime < begin) {
-                break;
+            } catch (Exception e) {
+                log.error("queryMessage exception", e);
             }
         }
 
@@ -906,6 +1109,15 @@ public class DefaultMessageStore implements MessageStore {
     }
 
 
+    @Override
+    public QueryMessageResult queryMessageByProperty(String topic, String propertyName, String value, int maxNum,
+            long begin, long end) {
+        QueryOffsetResult queryOffsetResult =
+                this.indexService.queryOffsetByProperty(topic, propertyName, value, maxNum, begin, end);
+        return this.selectQueryResult(queryOffsetResult);
+    }
+
+
     @Override
     public void updateHaMasterAddress(String newAddr) {
         this.haService.updateMasterAddress(newAddr);
@@ -1149,10 +1361,19 @@ public class DefaultMessageStore implements MessageStore {
     }
 
 
-    public void putMessagePositionInfo(String topic, int queueId, long offset, int size, long tagsCode,
-                                       long storeTimestamp, long logicOffset) {
+    public boolean putMessagePositionInfo(String topic, int queueId, long offset, int size, long tagsCode,
+                                          long logicOffset, Map<String, String> propertiesMap) {
         ConsumeQueue cq = this.findConsumeQueue(topic, queueId);
-        cq.putMessagePositionInfoWrapper(offset, size, tagsCode, storeTimestamp, logicOffset);
+        boolean result = cq.putMessagePositionInfoWrapper(offset, size, tagsCode, logicOffset, propertiesMap);
+        // 消息写入ConsumeQueue后才对消费者可见，此时唤醒等待的拉消息请求
+        if (result && this.messageArrivingListener != null) {
+            try {
+                this.messageArrivingListener.arriving(topic, queueId, logicOffset + 1, tagsCode);
+            } catch (Throwable e) {
+                log.warn("message arriving listener exception, " + topic + ":" + queueId, e);
+            }
+        }
+        return result;
     }
 
 
@@ -1171,6 +1392,11 @@ public class DefaultMessageStore implements MessageStore {
     }
 
 
+    public TransientStorePool getTransientStorePool() {
+        return transientStorePool;
+    }
+
+
     public StoreStatsService getStoreStatsService() {
         return storeStatsService;
     }
@@ -1201,6 +1427,16 @@ public class DefaultMessageStore implements MessageStore {
     }
 
 
+    public TimerMessageService getTimerMessageService() {
+        return timerMessageService;
+    }
+
+
+    public IndexService getIndexService() {
+        return indexService;
+    }
+
+
     public RunningFlags getRunningFlags() {
         return runningFlags;
     }
@@ -1553,93 +1789,251 @@ public class DefaultMessageStore implements MessageStore {
      * 分发消息索引服务
      */
     class DispatchMessageService extends ServiceThread {
-        private volatile List<DispatchRequest> requestsWrite;
-        private volatile List<DispatchRequest> requestsRead;
-
-
-        public DispatchMessageService(int putMsgIndexHighWater) {
-            putMsgIndexHighWater *= 1.5;
-            this.requestsWrite = new ArrayList<DispatchRequest>(putMsgIndexHighWater);
-            this.requestsRead = new ArrayList<DispatchRequest>(putMsgIndexHighWater);
+        // 每次转交给索引服务的最大请求数
+        private static final int INDEX_BATCH_SIZE = 1024;
+        // 队列满时生产者先让出CPU的次数，超过后开始短暂休眠
+        private static final int BACK_PRESSURE_YIELD_TIMES = 100;
+        // 分发线程每消费这么多请求归还一次空闲位置
+        private static final int RELEASE_BATCH_SIZE = 64;
+        private final DispatchRingBuffer ringBuffer;
+        // 分发队列的空闲位置，写CommitLog前在写锁外申请，持有写锁时放入分发队列不会阻塞
+        private final Semaphore freeSlots;
+        // 待转交给索引服务的请求，只有分发线程访问
+        private final List<DispatchRequest> indexRequests = new ArrayList<DispatchRequest>(INDEX_BATCH_SIZE);
+        // 已放入分发队列的消息的物理结束位置
+        private final AtomicLong putPhyOffset = new AtomicLong(0);
+        // 已分发的消息的物理结束位置
+        private volatile long dispatchedPhyOffset = 0;
+        // 按topic+queueId分片的ConsumeQueue构建线程，为null表示由分发线程直接构建
+        private final BuildConsumeQueueService[] buildServices;
+        // 最后一条转交给构建线程的消息的存储时间，只有分发线程访问
+        private long lastDispatchTimestamp = 0;
+
+
+        public DispatchMessageService(int putMsgIndexHighWater, int stripes) {
+            this.ringBuffer = new DispatchRingBuffer(putMsgIndexHighWater);
+            this.freeSlots = new Semaphore(this.ringBuffer.getCapacity());
+            if (stripes > 1) {
+                this.buildServices = new BuildConsumeQueueService[stripes];
+                for (int i = 0; i < stripes; i++) {
+                    this.buildServices[i] =
+                            new BuildConsumeQueueService(i, Math.max(putMsgIndexHighWater / stripes, 1024));
+                }
+            } else {
+                this.buildServices = null;
+            }
         }
 
 
         public boolean hasRemainMessage() {
-            List<DispatchRequest> reqs = this.requestsWrite;
-            if (reqs != null && !reqs.isEmpty()) {
+            if (!this.ringBuffer.isEmpty()) {
                 return true;
             }
 
-            reqs = this.requestsRead;
-            if (reqs != null && !reqs.isEmpty()) {
-                return true;
+            if (this.buildServices != null) {
+                for (BuildConsumeQueueService service : this.buildServices) {
+                    if (!service.isCaughtUp()) {
+                        return true;
+                    }
+                }
             }
 
             return false;
         }
 
 
-        public void putRequest(final DispatchRequest dispatchRequest) {
-            int requestsWriteSize = 0;
-            int putMsgIndexHighWater = DefaultMessageStore.this.getMessageStoreConfig().getPutMsgIndexHighWater();
-            synchronized (this) {
-                this.requestsWrite.add(dispatchRequest);
-                requestsWriteSize = this.requestsWrite.size();
-                if (!this.hasNotified) {
-                    this.hasNotified = true;
-                    this.notify();
+        @Override
+        public void start() {
+            if (this.buildServices != null) {
+                for (BuildConsumeQueueService service : this.buildServices) {
+                    service.start();
                 }
             }
+            super.start();
+        }
 
-            DefaultMessageStore.this.getStoreStatsService().setDispatchMaxBuffer(requestsWriteSize);
 
-            // 这里主动做流控，防止CommitLog写入太快，导致消费队列被冲垮
-            if (requestsWriteSize > putMsgIndexHighWater) {
-                try {
-                    if (log.isDebugEnabled()) {
-                        log.debug("Message index buffer size " + requestsWriteSize + " > high water "
-                                + putMsgIndexHighWater);
-                    }
+        @Override
+        public void shutdown(final boolean interrupt) {
+            // 先停止分发线程，保证已分发的请求都交给构建线程后再停止构建线程
+            super.shutdown(interrupt);
+            if (this.buildServices != null) {
+                for (BuildConsumeQueueService service : this.buildServices) {
+                    service.shutdown(interrupt);
+                }
+            }
+        }
+
 
-                    Thread.sleep(1);
-                } catch (InterruptedException e) {
+        /**
+         * 申请分发队列位置，队列满时在这里等待，做流控，防止CommitLog写入太快，导致消费队列被冲垮；
+         * 调用方不能持有CommitLog写锁，否则等待期间所有写消息线程都被阻塞
+         */
+        public void reserve(final int permits) {
+            if (!this.freeSlots.tryAcquire(permits)) {
+                DefaultMessageStore.this.getStoreStatsService().getDispatchBackPressureTimes().incrementAndGet();
+                if (log.isDebugEnabled()) {
+                    log.debug("Message index buffer is full, capacity " + this.ringBuffer.getCapacity());
                 }
+
+                this.wakeUp();
+                this.freeSlots.acquireUninterruptibly(permits);
             }
         }
 
 
-        private void swapRequests() {
-            List<DispatchRequest> tmp = this.requestsWrite;
-            this.requestsWrite = this.requestsRead;
-            this.requestsRead = tmp;
+        /**
+         * 归还申请了但没有用到的位置，例如写CommitLog失败
+         */
+        public void cancel(final int permits) {
+            if (permits > 0) {
+                this.freeSlots.release(permits);
+            }
+        }
+
+
+        public int getCapacity() {
+            return this.ringBuffer.getCapacity();
+        }
+
+
+        /**
+         * 未预先申请位置的调用方，可能阻塞，不能在持有CommitLog写锁时调用
+         */
+        public void putRequest(final DispatchRequest dispatchRequest) {
+            this.reserve(1);
+            this.putReservedRequest(dispatchRequest);
+        }
+
+
+        /**
+         * 放入已经通过reserve申请过位置的请求，可以在CommitLog写锁内调用
+         */
+        public void putReservedRequest(final DispatchRequest dispatchRequest) {
+            if (!this.ringBuffer.offer(dispatchRequest)) {
+                // 申请过位置时一定能放入，走到这里说明调用方漏了reserve
+                log.error("put dispatch request without reserving, capacity " + this.ringBuffer.getCapacity());
+                this.wakeUp();
+                while (!this.ringBuffer.offer(dispatchRequest)) {
+                    LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+                }
+            }
+
+            final long phyOffset = dispatchRequest.getCommitLogOffset() + dispatchRequest.getMsgSize();
+            for (long current = this.putPhyOffset.get(); phyOffset > current; current = this.putPhyOffset.get()) {
+                if (this.putPhyOffset.compareAndSet(current, phyOffset)) {
+                    break;
+                }
+            }
+
+            DefaultMessageStore.this.getStoreStatsService().setDispatchMaxBuffer(this.ringBuffer.size());
+
+            // 分发线程正在处理时不需要唤醒，避免每条消息都竞争监视器
+            if (!this.hasNotified) {
+                this.wakeUp();
+            }
         }
 
 
         private void doDispatch() {
-            if (!this.requestsRead.isEmpty()) {
-                for (DispatchRequest req : this.requestsRead) {
-
-                    final int tranType = MessageSysFlag.getTransactionValue(req.getSysFlag());
-                    // 1、分发消息位置信息到ConsumeQueue
-                    switch (tranType) {
-                        case MessageSysFlag.TransactionNotType:
-                        case MessageSysFlag.TransactionCommitType:
-                            // 将请求发到具体的Consume Queue
-                            DefaultMessageStore.this.putMessagePositionInfo(req.getTopic(), req.getQueueId(),
-                                    req.getCommitLogOffset(), req.getMsgSize(), req.getTagsCode(),
-                                    req.getStoreTimestamp(), req.getConsumeQueueOffset());
-                            break;
-                        case MessageSysFlag.TransactionPreparedType:
-                        case MessageSysFlag.TransactionRollbackType:
-                            break;
+            final boolean indexEnable = DefaultMessageStore.this.getMessageStoreConfig().isMessageIndexEnable();
+            // 启用写缓冲时，消息写入FileChannel之前读不到，等转存后再构建ConsumeQueue，
+            // 否则被唤醒的拉消息请求读不到消息，会当作文件正在删除而跳过
+            final long transferredOffset = DefaultMessageStore.this.commitLog.getTransferredOffset();
+            DispatchRequest req;
+            int polled = 0;
+            while ((req = this.ringBuffer.peek()) != null) {
+                if (transferredOffset >= 0 && req.getCommitLogOffset() + req.getMsgSize() > transferredOffset) {
+                    break;
+                }
+
+                this.ringBuffer.poll();
+                if (++polled >= RELEASE_BATCH_SIZE) {
+                    this.freeSlots.release(polled);
+                    polled = 0;
+                }
+
+                final int tranType = MessageSysFlag.getTransactionValue(req.getSysFlag());
+                // 1、分发消息位置信息到ConsumeQueue
+                switch (tranType) {
+                    case MessageSysFlag.TransactionNotType:
+                    case MessageSysFlag.TransactionCommitType:
+                        // 将请求发到具体的Consume Queue
+                        if (null == this.buildServices) {
+                            boolean result = DefaultMessageStore.this.putMessagePositionInfo(req.getTopic(),
+                                    req.getQueueId(), req.getCommitLogOffset(), req.getMsgSize(),
+                                    req.getTagsCode(), req.getConsumeQueueOffset(), req.getPropertiesMap());
+                            if (result) {
+                                DefaultMessageStore.this.getStoreCheckpoint().setLogicsMsgTimestamp(
+                                        req.getStoreTimestamp());
+                            }
+                        } else {
+                            this.buildServices[this.stripeOf(req)].putRequest(req);
+                            this.lastDispatchTimestamp = req.getStoreTimestamp();
+                        }
+                        break;
+                    case MessageSysFlag.TransactionPreparedType:
+                    case MessageSysFlag.TransactionRollbackType:
+                        break;
+                }
+                this.dispatchedPhyOffset = req.getCommitLogOffset() + req.getMsgSize();
+
+                // 2、索引在IndexService线程中构建，慢速的索引不影响消息对消费者可见
+                if (indexEnable) {
+                    this.indexRequests.add(req);
+                    if (this.indexRequests.size() >= INDEX_BATCH_SIZE) {
+                        this.transferIndexRequests();
                     }
                 }
+            }
+            this.freeSlots.release(polled);
+
+            this.transferIndexRequests();
 
-                if (DefaultMessageStore.this.getMessageStoreConfig().isMessageIndexEnable()) {
-                    DefaultMessageStore.this.indexService.putRequest(this.requestsRead.toArray());
+            long lagEntries = this.ringBuffer.size();
+            if (this.buildServices != null) {
+                for (BuildConsumeQueueService service : this.buildServices) {
+                    lagEntries += service.ringBuffer.size();
                 }
+                this.updateLogicsMsgTimestamp();
+            }
+
+            long lagBytes = this.putPhyOffset.get() - this.dispatchedPhyOffset;
+            DefaultMessageStore.this.getStoreStatsService().setDispatchLag(lagEntries, lagBytes > 0 ? lagBytes : 0);
+        }
+
+
+        /**
+         * 同一个队列始终落在同一个分片，保证ConsumeQueue按顺序写入
+         */
+        private int stripeOf(final DispatchRequest req) {
+            int hash = req.getTopic().hashCode() * 31 + req.getQueueId();
+            return (hash & Integer.MAX_VALUE) % this.buildServices.length;
+        }
+
+
+        /**
+         * 并行构建时，各分片进度不同，只能把Checkpoint推进到所有分片都已构建完成的时间点，
+         * 即未追平的分片中最后构建完成的消息时间，全部追平时为最后分发的消息时间
+         */
+        private void updateLogicsMsgTimestamp() {
+            long timestamp = this.lastDispatchTimestamp;
+            for (BuildConsumeQueueService service : this.buildServices) {
+                if (!service.isCaughtUp()) {
+                    timestamp = Math.min(timestamp, service.getLastBuildTimestamp());
+                }
+            }
+
+            if (timestamp > 0) {
+                DefaultMessageStore.this.getStoreCheckpoint().setLogicsMsgTimestamp(timestamp);
+            }
+        }
+
 
-                this.requestsRead.clear();
+        private void transferIndexRequests() {
+            if (!this.indexRequests.isEmpty()) {
+                DefaultMessageStore.this.indexService.putRequest(this.indexRequests.toArray());
+                this.indexRequests.clear();
             }
         }
 
@@ -1649,7 +2043,7 @@ public class DefaultMessageStore implements MessageStore {
 
             while (!this.isStopped()) {
                 try {
-                    this.waitForRunning(0);
+                    this.waitForRunning(10);
                     this.doDispatch();
                 } catch (Exception e) {
                     DefaultMessageStore.log.warn(this.getServiceName() + " service has exception. ", e);
@@ -1657,31 +2051,114 @@ public class DefaultMessageStore implements MessageStore {
             }
 
             // 在正常shutdown情况下，要保证所有消息都dispatch
-            try {
-                Thread.sleep(5 * 1000);
-            } catch (InterruptedException e) {
-                DefaultMessageStore.log.warn("DispatchMessageService Exception, ", e);
+            for (int i = 0; i < 50 && this.hasRemainMessage(); i++) {
+                this.doDispatch();
+                if (this.hasRemainMessage()) {
+                    try {
+                        Thread.sleep(100);
+                    } catch (InterruptedException e) {
+                        DefaultMessageStore.log.warn("DispatchMessageService Exception, ", e);
+                    }
+                }
+            }
+
+            DefaultMessageStore.log.info(this.getServiceName() + " service end");
+        }
+
+
+        @Override
+        public String getServiceName() {
+            return DispatchMessageService.class.getSimpleName();
+        }
+    }
+
+    /**
+     * 按队列分片构建ConsumeQueue，只接收分发线程转交的请求
+     */
+    class BuildConsumeQueueService extends ServiceThread {
+        private final DispatchRingBuffer ringBuffer;
+        // 已转交给当前分片的请求数，只有分发线程写
+        private volatile long putCount = 0;
+        // 已构建完成的请求数，只有构建线程写
+        private volatile long buildCount = 0;
+        // 最后构建完成的消息的存储时间
+        private volatile long lastBuildTimestamp = 0;
+
+
+        public BuildConsumeQueueService(int stripeIndex, int capacity) {
+            this.ringBuffer = new DispatchRingBuffer(capacity);
+            this.thread.setName(this.getServiceName() + "_" + stripeIndex);
+        }
+
+
+        public void putRequest(final DispatchRequest dispatchRequest) {
+            int times = 0;
+            while (!this.ringBuffer.offer(dispatchRequest)) {
+                this.wakeUp();
+                if (++times < DispatchMessageService.BACK_PRESSURE_YIELD_TIMES) {
+                    Thread.yield();
+                } else {
+                    LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+                }
             }
+            this.putCount++;
 
-            synchronized (this) {
-                this.swapRequests();
+            if (!this.hasNotified) {
+                this.wakeUp();
             }
+        }
 
-            this.doDispatch();
 
-            DefaultMessageStore.log.info(this.getServiceName() + " service end");
+        public boolean isCaughtUp() {
+            return this.buildCount == this.putCount;
         }
 
 
-        @Override
-        protected void onWaitEnd() {
-            this.swapRequests();
+        public long getLastBuildTimestamp() {
+            return lastBuildTimestamp;
+        }
+
+
+        private void doBuild() {
+            DispatchRequest req;
+            while ((req = this.ringBuffer.poll()) != null) {
+                try {
+                    boolean result = DefaultMessageStore.this.putMessagePositionInfo(req.getTopic(),
+                            req.getQueueId(), req.getCommitLogOffset(), req.getMsgSize(), req.getTagsCode(),
+                            req.getConsumeQueueOffset(), req.getPropertiesMap());
+                    if (result) {
+                        this.lastBuildTimestamp = req.getStoreTimestamp();
+                    }
+                } finally {
+                    // 先更新时间再更新计数，分发线程看到计数时一定能看到对应的时间
+                    this.buildCount++;
+                }
+            }
+        }
+
+
+        public void run() {
+            DefaultMessageStore.log.info(this.getServiceName() + " service started");
+
+            while (!this.isStopped()) {
+                try {
+                    this.waitForRunning(10);
+                    this.doBuild();
+                } catch (Exception e) {
+                    DefaultMessageStore.log.warn(this.getServiceName() + " service has exception. ", e);
+                }
+            }
+
+            // 分发线程已经停止，把剩余的请求构建完
+            this.doBuild();
+
+            DefaultMessageStore.log.info(this.getServiceName() + " service end");
         }
 
 
         @Override
         public String getServiceName() {
-            return DispatchMessageService.class.getSimpleName();
+            return BuildConsumeQueueService.class.getSimpleName();
         }
     }
 
@@ -1811,7 +2288,8 @@ public class DefaultMessageStore implements MessageStore {
             Entry<String, ConcurrentHashMap<Integer, ConsumeQueue>> next = it.next();
             String topic = next.getKey();
             // Topic可以删除
-            if (!topics.contains(topic) && !topic.equals(ScheduleMessageService.SCHEDULE_TOPIC)) {
+            if (!topics.contains(topic) && !topic.equals(ScheduleMessageService.SCHEDULE_TOPIC)
+                    && !topic.equals(TimerMessageService.TIMER_TOPIC)) {
                 ConcurrentHashMap<Integer, ConsumeQueue> queueTable = next.getValue();
                 for (ConsumeQueue cq : queueTable.values()) {
                     cq.destroy();
@@ -15,6 +15,9 @@
  */
 package com.alibaba.rocketmq.store;
 
+import java.util.Map;
+
+
 /**
  * 分发消息位置信息到逻辑队列和索引服务
  * 
@@ -35,6 +38,8 @@ public class DispatchRequest {
      */
     private final int sysFlag;
     private final long preparedTransactionOffset;
+    // Topic配置了属性索引时才设置
+    private Map<String, String> propertiesMap;
 
 
     public DispatchRequest(//
@@ -143,4 +148,14 @@ public class DispatchRequest {
     public long getPreparedTransactionOffset() {
         return preparedTransactionOffset;
     }
+
+
+    public Map<String, String> getPropertiesMap() {
+        return propertiesMap;
+    }
+
+
+    public void setPropertiesMap(Map<String, String> propertiesMap) {
+        this.propertiesMap = propertiesMap;
+    }
 }
@@ -0,0 +1,106 @@
+/**
+ * Copyright (C) 2010-2013 Alibaba Group Holding Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.rocketmq.store;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+
+/**
+ * CommitLog到ConsumeQueue的分发队列，有界的多生产者单消费者环形数组，
+ * 生产者通过CAS申请序号，消费者只有DispatchMessageService一个线程，全程无锁
+ */
+public class DispatchRingBuffer {
+    // 容量，2的幂
+    private final int capacity;
+    private final int mask;
+    // 槽位，null表示尚未发布或者已被消费
+    private final AtomicReferenceArray<DispatchRequest> slots;
+    // 生产者已申请的序号
+    private final AtomicLong tail = new AtomicLong(0);
+    // 消费者已消费的序号，只有消费线程修改
+    private final AtomicLong head = new AtomicLong(0);
+
+
+    public DispatchRingBuffer(final int size) {
+        int cap = 1;
+        while (cap < size) {
+            cap <<= 1;
+        }
+        this.capacity = cap;
+        this.mask = cap - 1;
+        this.slots = new AtomicReferenceArray<DispatchRequest>(cap);
+    }
+
+
+    /**
+     * 多线程调用，队列满时返回false，由调用方决定如何等待
+     */
+    public boolean offer(final DispatchRequest request) {
+        for (;;) {
+            final long currentTail = this.tail.get();
+            if (currentTail - this.head.get() >= this.capacity) {
+                return false;
+            }
+
+            if (this.tail.compareAndSet(currentTail, currentTail + 1)) {
+                this.slots.set((int) (currentTail & this.mask), request);
+                return true;
+            }
+        }
+    }
+
+
+    /**
+     * 只允许消费线程调用，返回下一个请求但不消费，没有已发布的请求时返回null
+     */
+    public DispatchRequest peek() {
+        return this.slots.get((int) (this.head.get() & this.mask));
+    }
+
+
+    /**
+     * 只允许消费线程调用，没有已发布的请求时返回null
+     */
+    public DispatchRequest poll() {
+        final long currentHead = this.head.get();
+        final int index = (int) (currentHead & this.mask);
+        final DispatchRequest request = this.slots.get(index);
+        if (null == request) {
+            return null;
+        }
+
+        this.slots.lazySet(index, null);
+        this.head.lazySet(currentHead + 1);
+        return request;
+    }
+
+
+    public int size() {
+        final long size = this.tail.get() - this.head.get();
+        return size > 0 ? (int) size : 0;
+    }
+
+
+    public boolean isEmpty() {
+        return this.size() == 0;
+    }
+
+
+    public int getCapacity() {
+        return capacity;
+    }
+}
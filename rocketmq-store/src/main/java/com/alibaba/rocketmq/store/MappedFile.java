@@ -38,6 +38,7 @@ import java.security.AccessController;
 import java.security.PrivilegedAction;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 
 /**
@@ -76,6 +77,13 @@ public class MappedFile extends ReferenceResource {
     private final AtomicInteger wrotePosition = new AtomicInteger(0);
     // Flush到什么位置
     private final AtomicInteger committedPosition = new AtomicInteger(0);
+    // 写缓冲中的数据写入FileChannel到什么位置
+    private final AtomicInteger transferredPosition = new AtomicInteger(0);
+    // 堆外写缓冲，启用TransientStorePool时消息先写入这里，再由后台线程写入FileChannel
+    // 文件写满后由刷盘线程归还，文件删除时由清理线程归还，只有先取到的一方归还
+    private final AtomicReference<ByteBuffer> writeBuffer = new AtomicReference<ByteBuffer>();
+    // 写缓冲所属的缓冲池，为null表示直接写mmap
+    private final TransientStorePool transientStorePool;
     // 映射的FileChannel对象
     private FileChannel fileChannel;
     // 最后一条消息存储时间
@@ -84,6 +92,12 @@ public class MappedFile extends ReferenceResource {
 
 
     public MappedFile(final String fileName, final int fileSize) throws IOException {
+        this(fileName, fileSize, null);
+    }
+
+
+    public MappedFile(final String fileName, final int fileSize, final TransientStorePool transientStorePool)
+            throws IOException {
         this.fileName = fileName;
         this.fileSize = fileSize;
         this.file = new File(fileName);
@@ -112,6 +126,12 @@ public class MappedFile extends ReferenceResource {
                 this.fileChannel.close();
             }
         }
+
+        // 缓冲池耗尽时退化为直接写mmap
+        this.transientStorePool = transientStorePool;
+        if (transientStorePool != null) {
+            this.writeBuffer.set(transientStorePool.borrowBuffer());
+        }
     }
 
 
@@ -230,7 +250,8 @@ public class MappedFile extends ReferenceResource {
 
         // 表示有空余空间
         if (currentPos < this.fileSize) {
-            ByteBuffer byteBuffer = this.mappedByteBuffer.slice();
+            ByteBuffer writeBuffer = this.writeBuffer.get();
+            ByteBuffer byteBuffer = writeBuffer != null ? writeBuffer.slice() : this.mappedByteBuffer.slice();
             byteBuffer.position(currentPos);
             AppendMessageResult result = cb.doAppend(this.getFileFromOffset(), byteBuffer, this.fileSize - currentPos,
                     msg);
@@ -260,14 +281,22 @@ public class MappedFile extends ReferenceResource {
      * @return 返回写入了多少数据
      */
     public boolean appendMessage(final byte[] data) {
+        return this.appendMessage(data, 0, data.length);
+    }
+
+
+    /**
+     * 向存储层追加data中从offset开始的length个字节
+     */
+    public boolean appendMessage(final byte[] data, final int offset, final int length) {
         int currentPos = this.wrotePosition.get();
 
         // 表示有空余空间
-        if ((currentPos + data.length) <= this.fileSize) {
+        if ((currentPos + length) <= this.fileSize) {
             ByteBuffer byteBuffer = this.mappedByteBuffer.slice();
             byteBuffer.position(currentPos);
-            byteBuffer.put(data);
-            this.wrotePosition.addAndGet(data.length);
+            byteBuffer.put(data, offset, length);
+            this.wrotePosition.addAndGet(length);
             return true;
         }
 
@@ -285,14 +314,25 @@ public class MappedFile extends ReferenceResource {
     public int commit(final int flushLeastPages) {
         if (this.isAbleToFlush(flushLeastPages)) {
             if (this.hold()) {
-                int value = this.wrotePosition.get();
-                this.mappedByteBuffer.force();
+                int value = this.getReadPosition();
+                try {
+                    // 经由FileChannel写入的数据，只能通过FileChannel刷盘
+                    if (this.transientStorePool != null) {
+                        this.fileChannel.force(false);
+                    }
+                    else {
+                        this.mappedByteBuffer.force();
+                    }
+                }
+                catch (IOException e) {
+                    LOGGER.error("force file channel " + this.fileName + " Failed. ", e);
+                }
                 this.committedPosition.set(value);
                 this.release();
             }
             else {
                 LOGGER.warn("in commit, hold failed, commit offset = " + this.committedPosition.get());
-                this.committedPosition.set(this.wrotePosition.get());
+                this.committedPosition.set(this.getReadPosition());
             }
         }
 
@@ -300,6 +340,97 @@ public class MappedFile extends ReferenceResource {
     }
 
 
+    /**
+     * 将写缓冲中的数据写入FileChannel，未启用写缓冲时直接返回写入位置
+     *
+     * @param transferLeastPages
+     *            至少写几个page
+     * @return 写入FileChannel的位置
+     */
+    public int transfer(final int transferLeastPages) {
+        ByteBuffer writeBuffer = this.writeBuffer.get();
+        if (null == writeBuffer) {
+            return this.wrotePosition.get();
+        }
+
+        if (this.isAbleToTransfer(transferLeastPages)) {
+            if (this.hold()) {
+                int lastTransferredPosition = this.transferredPosition.get();
+                int writePos = this.wrotePosition.get();
+                try {
+                    ByteBuffer byteBuffer = writeBuffer.slice();
+                    byteBuffer.position(lastTransferredPosition);
+                    byteBuffer.limit(writePos);
+                    long position = lastTransferredPosition;
+                    while (byteBuffer.hasRemaining()) {
+                        position += this.fileChannel.write(byteBuffer, position);
+                    }
+                    this.transferredPosition.set(writePos);
+                }
+                catch (IOException e) {
+                    LOGGER.error("transfer write buffer of " + this.fileName + " Failed. ", e);
+                }
+                this.release();
+            }
+            else {
+                LOGGER.warn("in transfer, hold failed, transfer offset = " + this.transferredPosition.get());
+            }
+        }
+
+        // 文件已经全部写入FileChannel，归还写缓冲
+        if (this.transferredPosition.get() == this.fileSize) {
+            this.returnWriteBuffer();
+        }
+
+        return this.transferredPosition.get();
+    }
+
+
+    /**
+     * 归还写缓冲，transfer与cleanup可能并发调用，同一个缓冲区只能归还一次
+     */
+    private void returnWriteBuffer() {
+        ByteBuffer writeBuffer = this.writeBuffer.getAndSet(null);
+        if (writeBuffer != null) {
+            this.transientStorePool.returnBuffer(writeBuffer);
+        }
+    }
+
+
+    private boolean isAbleToTransfer(final int transferLeastPages) {
+        int transferred = this.transferredPosition.get();
+        int write = this.wrotePosition.get();
+
+        if (this.isFull()) {
+            return true;
+        }
+
+        if (transferLeastPages > 0) {
+            return ((write / OS_PAGE_SIZE) - (transferred / OS_PAGE_SIZE)) >= transferLeastPages;
+        }
+
+        return write > transferred;
+    }
+
+
+    /**
+     * 可以被读取的位置，启用写缓冲时只有写入FileChannel的数据才对mmap可见
+     */
+    public int getReadPosition() {
+        return this.writeBuffer.get() == null ? this.wrotePosition.get() : this.transferredPosition.get();
+    }
+
+
+    public int getTransferredPosition() {
+        return transferredPosition.get();
+    }
+
+
+    public void setTransferredPosition(int pos) {
+        this.transferredPosition.set(pos);
+    }
+
+
     public int getCommittedPosition() {
         return committedPosition.get();
     }
@@ -312,7 +443,7 @@ public class MappedFile extends ReferenceResource {
 
     private boolean isAbleToFlush(final int flushLeastPages) {
         int flush = this.committedPosition.get();
-        int write = this.wrotePosition.get();
+        int write = this.getReadPosition();
 
         // 如果当前文件已经写满，应该立刻刷盘
         if (this.isFull()) {
@@ -335,7 +466,7 @@ public class MappedFile extends ReferenceResource {
 
     public SelectMappedBufferResult selectMappedBuffer(int pos, int size) {
         // 有消息
-        if ((pos + size) <= this.wrotePosition.get()) {
+        if ((pos + size) <= this.getReadPosition()) {
             // 从MappedBuffer读
             if (this.hold()) {
                 ByteBuffer byteBuffer = this.mappedByteBuffer.slice();
@@ -364,11 +495,12 @@ public class MappedFile extends ReferenceResource {
      * 读逻辑分区
      */
     public SelectMappedBufferResult selectMappedBuffer(int pos) {
-        if (pos < this.wrotePosition.get() && pos >= 0) {
+        int readPosition = this.getReadPosition();
+        if (pos < readPosition && pos >= 0) {
             if (this.hold()) {
                 ByteBuffer byteBuffer = this.mappedByteBuffer.slice();
                 byteBuffer.position(pos);
-                int size = this.wrotePosition.get() - pos;
+                int size = readPosition - pos;
                 ByteBuffer byteBufferNew = byteBuffer.slice();
                 byteBufferNew.limit(size);
                 return new SelectMappedBufferResult(this.fileFromOffset + pos, byteBufferNew, size, this);
@@ -398,6 +530,7 @@ public class MappedFile extends ReferenceResource {
         }
 
         clean(this.mappedByteBuffer);
+        this.returnWriteBuffer();
         TOTAL_MAPPED_VIRTUAL_MEMORY.addAndGet(this.fileSize * (-1));
         TOTAL_MAPPED_FILES.decrementAndGet();
         LOGGER.info("unmap file[REF:" + currentRef + "] " + this.fileName + " OK");
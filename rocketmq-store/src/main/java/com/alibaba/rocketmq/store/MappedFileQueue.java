@@ -54,6 +54,8 @@ public class MappedFileQueue {
     private final AllocateMappedFileService allocateMappedFileService;
     // 刷盘刷到哪里
     private long committedWhere = 0;
+    // 写缓冲数据写入FileChannel到哪里
+    private volatile long transferredWhere = 0;
     // 最后一条消息存储时间
     private volatile long storeTimestamp = 0;
 
@@ -117,6 +119,7 @@ public class MappedFileQueue {
                 if (offset >= file.getFileFromOffset()) {
                     file.setWrotePosition((int) (offset % this.mappedFileSize));
                     file.setCommittedPosition((int) (offset % this.mappedFileSize));
+                    file.setTransferredPosition((int) (offset % this.mappedFileSize));
                 } else {
                     // 将文件删除掉
                     file.destroy(1000);
@@ -221,6 +224,7 @@ public class MappedFileQueue {
                     MappedFile mappedFile = new MappedFile(file.getPath(), mappedFileSize);
                     mappedFile.setWrotePosition(this.mappedFileSize);
                     mappedFile.setCommittedPosition(this.mappedFileSize);
+                    mappedFile.setTransferredPosition(this.mappedFileSize);
                     this.mappedFiles.add(mappedFile);
                     log.info("load " + file.getPath() + " OK");
                 } catch (IOException e) {
@@ -346,13 +350,16 @@ public class MappedFileQueue {
     }
 
 
+    /**
+     * 可以被读取的最大Offset，启用写缓冲时不包含尚未写入FileChannel的数据
+     */
     public long getMaxOffset() {
         try {
             this.readWriteLock.readLock().lock();
             if (!this.mappedFiles.isEmpty()) {
                 int lastIndex = this.mappedFiles.size() - 1;
                 MappedFile mappedFile = this.mappedFiles.get(lastIndex);
-                return mappedFile.getFileFromOffset() + mappedFile.getWrotePosition();
+                return mappedFile.getFileFromOffset() + mappedFile.getReadPosition();
             }
         } catch (Exception e) {
             log.error("getMinOffset has exception.", e);
@@ -364,6 +371,27 @@ public class MappedFileQueue {
     }
 
 
+    /**
+     * 已经写入的最大Offset，包含写缓冲中的数据
+     */
+    public long getMaxWroteOffset() {
+        try {
+            this.readWriteLock.readLock().lock();
+            if (!this.mappedFiles.isEmpty()) {
+                int lastIndex = this.mappedFiles.size() - 1;
+                MappedFile mappedFile = this.mappedFiles.get(lastIndex);
+                return mappedFile.getFileFromOffset() + mappedFile.getWrotePosition();
+            }
+        } catch (Exception e) {
+            log.error("getMaxWroteOffset has exception.", e);
+        } finally {
+            this.readWriteLock.readLock().unlock();
+        }
+
+        return 0;
+    }
+
+
     /**
      * 恢复时调用
      */
@@ -545,6 +573,23 @@ public class MappedFileQueue {
     }
 
 
+    /**
+     * 将写缓冲中的数据写入FileChannel，返回值表示是否全部写入完成
+     */
+    public boolean transfer(final int transferLeastPages) {
+        boolean result = true;
+        MappedFile mappedFile = this.findMappedFileByOffset(this.transferredWhere, true);
+        if (mappedFile != null) {
+            int offset = mappedFile.transfer(transferLeastPages);
+            long where = mappedFile.getFileFromOffset() + offset;
+            result = (where == this.transferredWhere);
+            this.transferredWhere = where;
+        }
+
+        return result;
+    }
+
+
     public MappedFile findMappedFileByOffset(final long offset, final boolean returnFirstOnNotFound) {
         try {
             this.readWriteLock.readLock().lock();
@@ -673,6 +718,7 @@ public class MappedFileQueue {
         }
         this.mappedFiles.clear();
         this.committedWhere = 0;
+        this.transferredWhere = 0;
 
         // delete parent directory
         File file = new File(storePath);
@@ -693,6 +739,16 @@ public class MappedFileQueue {
     }
 
 
+    public long getTransferredWhere() {
+        return transferredWhere;
+    }
+
+
+    public void setTransferredWhere(long transferredWhere) {
+        this.transferredWhere = transferredWhere;
+    }
+
+
     public long getStoreTimestamp() {
         return storeTimestamp;
     }
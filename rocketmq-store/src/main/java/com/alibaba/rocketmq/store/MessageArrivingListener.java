@@ -0,0 +1,34 @@
+/**
+ * Copyright (C) 2010-2013 Alibaba Group Holding Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.rocketmq.store;
+
+/**
+ * 消息到达监听器，消息位置信息写入ConsumeQueue后回调，此时消息对消费者可见<br>
+ * 回调在ConsumeQueue构建线程中执行，实现不能阻塞
+ */
+public interface MessageArrivingListener {
+    /**
+     * @param topic
+     *            消息所属Topic
+     * @param queueId
+     *            消息所属队列
+     * @param maxOffset
+     *            写入后逻辑队列的最大offset，即新消息的offset加1
+     * @param tagsCode
+     *            消息tags计算出来的长整数
+     */
+    public void arriving(final String topic, final int queueId, final long maxOffset, final long tagsCode);
+}
@@ -0,0 +1,39 @@
+/**
+ * Copyright (C) 2010-2013 Alibaba Group Holding Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.rocketmq.store;
+
+import java.util.List;
+
+
+/**
+ * 存储内部使用的批量消息，批次内消息属于同一Topic同一队列，在一次加锁中连续写入CommitLog，
+ * 批次本身的Topic、队列、时间戳、主机等字段与批次内每条消息一致
+ */
+public class MessageExtBatch extends MessageExtBrokerInner {
+    private static final long serialVersionUID = -2353110995348498537L;
+
+    private final List<MessageExtBrokerInner> messages;
+
+
+    public MessageExtBatch(final List<MessageExtBrokerInner> messages) {
+        this.messages = messages;
+    }
+
+
+    public List<MessageExtBrokerInner> getMessages() {
+        return messages;
+    }
+}
@@ -17,6 +17,8 @@ package com.alibaba.rocketmq.store;
 
 import com.alibaba.rocketmq.common.protocol.heartbeat.SubscriptionData;
 
+import java.nio.ByteBuffer;
+
 
 /**
  * 消息过滤接口
@@ -26,4 +28,21 @@ import com.alibaba.rocketmq.common.protocol.heartbeat.SubscriptionData;
  */
 public interface MessageFilter {
     public boolean isMessageMatched(final SubscriptionData subscriptionData, final long tagsCode);
+
+
+    /**
+     * 按消息属性过滤
+     *
+     * @param msgBuffer
+     *            CommitLog中的一条消息，只能按绝对位置读取
+     */
+    public boolean isMessageMatched(final String group, final SubscriptionData subscriptionData,
+            final ByteBuffer msgBuffer);
+
+
+    /**
+     * 按ConsumeQueue扩展文件中的属性Bloom位图预判，返回false表示消息一定不匹配
+     */
+    public boolean isMessageMatchedByBitMap(final String group, final SubscriptionData subscriptionData,
+            final long bitMap);
 }
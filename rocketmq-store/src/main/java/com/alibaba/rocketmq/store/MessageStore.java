@@ -62,6 +62,24 @@ public interface MessageStore {
     public PutMessageResult putMessage(final MessageExtBrokerInner msg);
 
 
+    /**
+     * 批量存储同一Topic同一队列的消息，一次写入，逻辑队列offset连续
+     */
+    public PutMessageResult putMessages(final MessageExtBatch messageExtBatch);
+
+
+    /**
+     * 异步存储消息，同步刷盘、同步双写条件满足后完成，调用线程不等待
+     */
+    public PutMessageFuture asyncPutMessage(final MessageExtBrokerInner msg);
+
+
+    /**
+     * 异步批量存储消息
+     */
+    public PutMessageFuture asyncPutMessages(final MessageExtBatch messageExtBatch);
+
+
     /**
      * 读取消息，如果types为null，则不做过滤
      */
@@ -157,6 +175,12 @@ public interface MessageStore {
     public boolean appendToCommitLog(final long startOffset, final byte[] data);
 
 
+    /**
+     * 数据复制使用：将data中从offset开始的length个字节追加到CommitLog，避免Slave再复制一次数据
+     */
+    public boolean appendToCommitLog(final long startOffset, final byte[] data, final int offset, final int length);
+
+
     /**
      * 手动触发删除文件
      */
@@ -170,6 +194,13 @@ public interface MessageStore {
             final long begin, final long end);
 
 
+    /**
+     * 根据消息属性查询消息，属性需要在messageIndexProperties中配置，结果按存储时间排序
+     */
+    public QueryMessageResult queryMessageByProperty(final String topic, final String propertyName,
+            final String value, final int maxNum, final long begin, final long end);
+
+
     public void updateHaMasterAddress(final String newAddr);
 
 
@@ -0,0 +1,112 @@
+/**
+ * Copyright (C) 2010-2013 Alibaba Group Holding Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.rocketmq.store;
+
+import com.alibaba.rocketmq.common.constant.LoggerName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * 异步写消息结果，同步刷盘与同步双写条件满足后完成
+ */
+public class PutMessageFuture {
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.StoreLoggerName);
+
+    private final CountDownLatch countDownLatch = new CountDownLatch(1);
+    private volatile PutMessageResult putMessageResult;
+    // 完成前注册的回调，完成后置为null
+    private List<PutMessageCallback> callbacks = new ArrayList<PutMessageCallback>(1);
+
+
+    public static PutMessageFuture completed(final PutMessageResult putMessageResult) {
+        PutMessageFuture future = new PutMessageFuture();
+        future.complete(putMessageResult);
+        return future;
+    }
+
+
+    /**
+     * 只有第一次调用生效
+     */
+    public void complete(final PutMessageResult putMessageResult) {
+        List<PutMessageCallback> toNotify;
+        synchronized (this) {
+            if (null == this.callbacks) {
+                return;
+            }
+            this.putMessageResult = putMessageResult;
+            toNotify = this.callbacks;
+            this.callbacks = null;
+        }
+
+        this.countDownLatch.countDown();
+        for (PutMessageCallback callback : toNotify) {
+            this.invoke(callback);
+        }
+    }
+
+
+    /**
+     * 已经完成时在当前线程直接执行回调
+     */
+    public void addCallback(final PutMessageCallback callback) {
+        synchronized (this) {
+            if (this.callbacks != null) {
+                this.callbacks.add(callback);
+                return;
+            }
+        }
+
+        this.invoke(callback);
+    }
+
+
+    private void invoke(final PutMessageCallback callback) {
+        try {
+            callback.onComplete(this.putMessageResult);
+        } catch (Throwable e) {
+            log.error("execute put message callback exception", e);
+        }
+    }
+
+
+    public boolean isDone() {
+        return this.countDownLatch.getCount() == 0;
+    }
+
+
+    public PutMessageResult get() throws InterruptedException {
+        this.countDownLatch.await();
+        return this.putMessageResult;
+    }
+
+
+    /**
+     * @return 超时返回null
+     */
+    public PutMessageResult get(final long timeoutMillis) throws InterruptedException {
+        if (this.countDownLatch.await(timeoutMillis, TimeUnit.MILLISECONDS)) {
+            return this.putMessageResult;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,48 @@
+/**
+ * Copyright (C) 2010-2013 Alibaba Group Holding Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.rocketmq.store;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+
+/**
+ * 基于CAS的自旋锁，只适用于持锁时间短、写线程数不超过CPU核数的场景，
+ * 写线程多于CPU核数时，持锁线程可能被换出，其他线程会空转，此时应使用PutMessageReentrantLock
+ */
+public class PutMessageSpinLock implements PutMessageLock {
+    // 连续自旋超过该次数后让出CPU，避免持锁线程被换出时无限空转
+    private static final int SPIN_TIMES_BEFORE_YIELD = 64;
+    // true表示可以加锁，false表示已经被占用
+    private final AtomicBoolean putMessageSpinLock = new AtomicBoolean(true);
+
+
+    @Override
+    public void lock() {
+        int spinTimes = 0;
+        while (!this.putMessageSpinLock.compareAndSet(true, false)) {
+            if (++spinTimes >= SPIN_TIMES_BEFORE_YIELD) {
+                spinTimes = 0;
+                Thread.yield();
+            }
+        }
+    }
+
+
+    @Override
+    public void unlock() {
+        this.putMessageSpinLock.compareAndSet(false, true);
+    }
+}
@@ -55,6 +55,14 @@ public class StoreStatsService extends ServiceThread {
     private final AtomicLong getMessageTimesTotalMiss = new AtomicLong(0);
     // putMessage，耗时分布
     private final AtomicLong[] putMessageDistributeTime = new AtomicLong[7];
+    // putMessage，持锁时间分布，当前这一秒
+    private final AtomicLong[] putMessageLockHeldTime = new AtomicLong[7];
+    // putMessage，持锁时间分布，上一秒的采样
+    private volatile long[] lastSecondPutMessageLockHeldTime = new long[7];
+    // putMessage，上一秒最大持锁时间（单位微秒）
+    private volatile long lastSecondPutMessageLockHeldTimeMax = 0;
+    // putMessage，当前这一秒最大持锁时间（单位微秒）
+    private final AtomicLong putMessageLockHeldTimeMax = new AtomicLong(0);
     // put最近10分钟采样
     private final LinkedList<CallSnapshot> putTimesList = new LinkedList<CallSnapshot>();
     // get最近10分钟采样
@@ -73,6 +81,16 @@ public class StoreStatsService extends ServiceThread {
     private ReentrantLock lockGet = new ReentrantLock();
     // DispatchMessageService，缓冲区最大值
     private volatile long dispatchMaxBuffer = 0;
+    // DispatchMessageService，尚未构建ConsumeQueue的消息条数
+    private volatile long dispatchLagEntries = 0;
+    // DispatchMessageService，尚未构建ConsumeQueue的消息字节数
+    private volatile long dispatchLagBytes = 0;
+    // DispatchMessageService，缓冲区满导致写消息等待的次数
+    private final AtomicLong dispatchBackPressureTimes = new AtomicLong(0);
+    // 堆外写缓冲中尚未写入FileChannel的字节数
+    private volatile long transientStoreTransferLag = 0;
+    // 堆外写缓冲中尚未写入FileChannel的字节数，最大值
+    private volatile long transientStoreTransferLagMax = 0;
     // 针对采样线程加锁
     private ReentrantLock lockSampling = new ReentrantLock();
     private long lastPrintTimestamp = System.currentTimeMillis();
@@ -82,6 +100,10 @@ public class StoreStatsService extends ServiceThread {
         for (int i = 0; i < this.putMessageDistributeTime.length; i++) {
             putMessageDistributeTime[i] = new AtomicLong(0);
         }
+
+        for (int i = 0; i < this.putMessageLockHeldTime.length; i++) {
+            putMessageLockHeldTime[i] = new AtomicLong(0);
+        }
     }
 
 
@@ -128,6 +150,63 @@ public class StoreStatsService extends ServiceThread {
     }
 
 
+    /**
+     * 记录写消息持锁时间
+     *
+     * @param value 持锁时间（单位微秒）
+     */
+    public void recordPutMessageLockHeldTime(long value) {
+        // 10微秒以内
+        if (value < 10) {
+            this.putMessageLockHeldTime[0].incrementAndGet();
+        }
+        // 几十微秒
+        else if (value < 100) {
+            this.putMessageLockHeldTime[1].incrementAndGet();
+        }
+        // 几百微秒
+        else if (value < 1000) {
+            this.putMessageLockHeldTime[2].incrementAndGet();
+        }
+        // 几毫秒
+        else if (value < 10000) {
+            this.putMessageLockHeldTime[3].incrementAndGet();
+        }
+        // 几十毫秒
+        else if (value < 100000) {
+            this.putMessageLockHeldTime[4].incrementAndGet();
+        }
+        // 几百毫秒
+        else if (value < 1000000) {
+            this.putMessageLockHeldTime[5].incrementAndGet();
+        }
+        // 大等于1秒
+        else {
+            this.putMessageLockHeldTime[6].incrementAndGet();
+        }
+
+        for (long max = this.putMessageLockHeldTimeMax.get(); value > max; max =
+                this.putMessageLockHeldTimeMax.get()) {
+            if (this.putMessageLockHeldTimeMax.compareAndSet(max, value)) {
+                break;
+            }
+        }
+    }
+
+
+    private String getPutMessageLockHeldTimeStringInfo() {
+        final String[] ranges = { "[0,10us)", "[10us,100us)", "[100us,1ms)", "[1ms,10ms)", "[10ms,100ms)",
+                                  "[100ms,1s)", "[1s,+)" };
+        final long[] lastSecond = this.lastSecondPutMessageLockHeldTime;
+        final StringBuilder sb = new StringBuilder(256);
+        for (int i = 0; i < lastSecond.length; i++) {
+            sb.append(ranges[i]).append(":").append(lastSecond[i]).append(" ");
+        }
+
+        return sb.toString();
+    }
+
+
     public long getGetMessageEntireTimeMax() {
         return getMessageEntireTimeMax;
     }
@@ -153,6 +232,47 @@ public class StoreStatsService extends ServiceThread {
     }
 
 
+    public long getDispatchLagEntries() {
+        return dispatchLagEntries;
+    }
+
+
+    public long getDispatchLagBytes() {
+        return dispatchLagBytes;
+    }
+
+
+    public void setDispatchLag(long entries, long bytes) {
+        this.dispatchLagEntries = entries;
+        this.dispatchLagBytes = bytes;
+    }
+
+
+    public AtomicLong getDispatchBackPressureTimes() {
+        return dispatchBackPressureTimes;
+    }
+
+
+    public long getTransientStoreTransferLag() {
+        return transientStoreTransferLag;
+    }
+
+
+    public long getTransientStoreTransferLagMax() {
+        return transientStoreTransferLagMax;
+    }
+
+
+    /**
+     * 只由写缓冲转存线程调用，不需要加锁
+     */
+    public void setTransientStoreTransferLag(long value) {
+        this.transientStoreTransferLag = value;
+        this.transientStoreTransferLagMax =
+                value > this.transientStoreTransferLagMax ? value : this.transientStoreTransferLagMax;
+    }
+
+
     @Override
     public String toString() {
         final StringBuilder sb = new StringBuilder(1024);
@@ -167,7 +287,14 @@ public class StoreStatsService extends ServiceThread {
         sb.append("\tputMessageSizeTotal: ").append(this.getPutMessageSizeTotal()).append("\r\n");
         sb.append("\tputMessageDistributeTime: ").append(this.getPutMessageDistributeTimeStringInfo(totalTimes)).append("\r\n");
         sb.append("\tputMessageAverageSize: ").append(this.getPutMessageSizeTotal() / totalTimes.doubleValue()).append("\r\n");
+        sb.append("\tputMessageLockHeldTime: ").append(this.getPutMessageLockHeldTimeStringInfo()).append("\r\n");
+        sb.append("\tputMessageLockHeldTimeMax: ").append(this.lastSecondPutMessageLockHeldTimeMax).append("\r\n");
         sb.append("\tdispatchMaxBuffer: ").append(this.dispatchMaxBuffer).append("\r\n");
+        sb.append("\tdispatchLagEntries: ").append(this.dispatchLagEntries).append("\r\n");
+        sb.append("\tdispatchLagBytes: ").append(this.dispatchLagBytes).append("\r\n");
+        sb.append("\tdispatchBackPressureTimes: ").append(this.dispatchBackPressureTimes.get()).append("\r\n");
+        sb.append("\ttransientStoreTransferLag: ").append(this.transientStoreTransferLag).append("\r\n");
+        sb.append("\ttransientStoreTransferLagMax: ").append(this.transientStoreTransferLagMax).append("\r\n");
         sb.append("\tgetMessageEntireTimeMax: ").append(this.getMessageEntireTimeMax).append("\r\n");
         sb.append("\tputTps: ").append(this.getPutTps()).append("\r\n");
         sb.append("\tgetFoundTps: ").append(this.getGetFoundTps()).append("\r\n");
@@ -437,7 +564,14 @@ public class StoreStatsService extends ServiceThread {
         result.put("putMessageSizeTotal", String.valueOf(this.getPutMessageSizeTotal()));
         result.put("putMessageDistributeTime", String.valueOf(this.getPutMessageDistributeTimeStringInfo(totalTimes)));
         result.put("putMessageAverageSize", String.valueOf((this.getPutMessageSizeTotal() / totalTimes.doubleValue())));
+        result.put("putMessageLockHeldTime", this.getPutMessageLockHeldTimeStringInfo());
+        result.put("putMessageLockHeldTimeMax", String.valueOf(this.lastSecondPutMessageLockHeldTimeMax));
         result.put("dispatchMaxBuffer", String.valueOf(this.dispatchMaxBuffer));
+        result.put("dispatchLagEntries", String.valueOf(this.dispatchLagEntries));
+        result.put("dispatchLagBytes", String.valueOf(this.dispatchLagBytes));
+        result.put("dispatchBackPressureTimes", String.valueOf(this.dispatchBackPressureTimes.get()));
+        result.put("transientStoreTransferLag", String.valueOf(this.transientStoreTransferLag));
+        result.put("transientStoreTransferLagMax", String.valueOf(this.transientStoreTransferLagMax));
         result.put("getMessageEntireTimeMax", String.valueOf(this.getMessageEntireTimeMax));
         result.put("putTps", String.valueOf(this.getPutTps()));
         result.put("getFoundTps", String.valueOf(this.getGetFoundTps()));
@@ -495,6 +629,13 @@ public class StoreStatsService extends ServiceThread {
                 this.transferredMsgCountList.removeFirst();
             }
 
+            long[] lockHeldTime = new long[this.putMessageLockHeldTime.length];
+            for (int i = 0; i < lockHeldTime.length; i++) {
+                lockHeldTime[i] = this.putMessageLockHeldTime[i].getAndSet(0);
+            }
+            this.lastSecondPutMessageLockHeldTime = lockHeldTime;
+            this.lastSecondPutMessageLockHeldTimeMax = this.putMessageLockHeldTimeMax.getAndSet(0);
+
         }
         finally {
             this.lockSampling.unlock();
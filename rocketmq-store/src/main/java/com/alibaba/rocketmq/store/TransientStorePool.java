@@ -0,0 +1,116 @@
+/**
+ * Copyright (C) 2010-2013 Alibaba Group Holding Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.rocketmq.store;
+
+import com.alibaba.rocketmq.common.constant.LoggerName;
+import com.alibaba.rocketmq.store.config.MessageStoreConfig;
+import com.alibaba.rocketmq.store.util.LibC;
+import com.sun.jna.NativeLong;
+import com.sun.jna.Pointer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sun.nio.ch.DirectBuffer;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+
+
+/**
+ * 堆外写缓冲池，CommitLog消息先追加到预分配并锁定在内存中的DirectByteBuffer，
+ * 再由后台线程写入FileChannel，避免写消息时在持锁状态下发生缺页或者脏页回写
+ */
+public class TransientStorePool {
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.StoreLoggerName);
+
+    // 缓冲区个数
+    private final int poolSize;
+    // 每个缓冲区大小，与CommitLog文件大小一致
+    private final int fileSize;
+    // 可用的缓冲区
+    private final Deque<ByteBuffer> availableBuffers;
+    // 分配过的所有缓冲区，包括借出未归还的，只在init与destroy中访问
+    private final List<ByteBuffer> allocatedBuffers;
+    private final MessageStoreConfig storeConfig;
+
+
+    public TransientStorePool(final MessageStoreConfig storeConfig) {
+        this.storeConfig = storeConfig;
+        this.poolSize = storeConfig.getTransientStorePoolSize();
+        this.fileSize = storeConfig.getMappedFileSizeCommitLog();
+        this.availableBuffers = new ConcurrentLinkedDeque<ByteBuffer>();
+        this.allocatedBuffers = new ArrayList<ByteBuffer>(this.poolSize);
+    }
+
+
+    /**
+     * 预分配缓冲区并锁定内存，代价较高，只在启动时调用
+     */
+    public void init() {
+        for (int i = 0; i < this.poolSize; i++) {
+            ByteBuffer byteBuffer = ByteBuffer.allocateDirect(this.fileSize);
+
+            final long address = ((DirectBuffer) byteBuffer).address();
+            Pointer pointer = new Pointer(address);
+            int ret = LibC.INSTANCE.mlock(pointer, new NativeLong(this.fileSize));
+            log.info("transient store pool mlock {} {} ret = {}", address, this.fileSize, ret);
+
+            this.allocatedBuffers.add(byteBuffer);
+            this.availableBuffers.offer(byteBuffer);
+        }
+    }
+
+
+    /**
+     * 解锁所有分配过的缓冲区，关闭时可能还有缓冲区借出未归还
+     */
+    public void destroy() {
+        for (ByteBuffer byteBuffer : this.allocatedBuffers) {
+            final long address = ((DirectBuffer) byteBuffer).address();
+            Pointer pointer = new Pointer(address);
+            LibC.INSTANCE.munlock(pointer, new NativeLong(this.fileSize));
+        }
+    }
+
+
+    public void returnBuffer(ByteBuffer byteBuffer) {
+        byteBuffer.position(0);
+        byteBuffer.limit(this.fileSize);
+        this.availableBuffers.offerFirst(byteBuffer);
+    }
+
+
+    /**
+     * 借出一个缓冲区，如果没有可用的，返回null，此时调用方退化为直接写mmap
+     */
+    public ByteBuffer borrowBuffer() {
+        ByteBuffer buffer = this.availableBuffers.pollFirst();
+        if (this.availableBuffers.size() < this.poolSize * 0.4) {
+            log.warn("transient store pool only remain {} sheets.", this.availableBuffers.size());
+        }
+        return buffer;
+    }
+
+
+    public int remainBufferNumbs() {
+        if (this.storeConfig.isTransientStorePoolEnable()) {
+            return this.availableBuffers.size();
+        }
+        return Integer.MAX_VALUE;
+    }
+}
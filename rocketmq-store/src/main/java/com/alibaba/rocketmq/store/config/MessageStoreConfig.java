@@ -17,6 +17,7 @@ package com.alibaba.rocketmq.store.config;
 
 import com.alibaba.rocketmq.common.annotation.ImportantField;
 import com.alibaba.rocketmq.store.ConsumeQueue;
+import com.alibaba.rocketmq.store.timer.TimerLog;
 
 import java.io.File;
 
@@ -67,8 +68,10 @@ public class MessageStoreConfig {
     // 文件保留时间（单位小时）
     @ImportantField
     private int fileReservedTime = 72;
-    // 写消息索引到ConsumeQueue，缓冲区高水位，超过则开始流控
+    // 写消息索引到ConsumeQueue，分发缓冲区容量（向上取2的幂），写满则开始流控
     private int putMsgIndexHighWater = 600000;
+    // 并行构建ConsumeQueue的线程数，按topic+queueId分片，同一队列始终由同一线程构建，1表示由分发线程直接构建
+    private int consumeQueueDispatchStripes = 1;
     // 最大消息大小，默认512K
     private int maxMessageSize = 1024 * 512;
     // 重启时，是否校验CRC
@@ -106,16 +109,29 @@ public class MessageStoreConfig {
     private int maxHashSlotNum = 5000000;
     private int maxIndexNum = 5000000 * 4;
     private int maxMsgsNumBatch = 64;
+    // 按消息属性建立索引，格式 Topic:属性名,属性名;Topic:属性名
+    // Topic为*表示所有Topic，例如 *:UNIQ_KEY;TopicA:TENANT
+    private String messageIndexProperties = "";
     // 是否使用安全的消息索引功能，即可靠模式。
     // 可靠模式下，异常宕机恢复慢
     // 非可靠模式下，异常宕机恢复快
     @ImportantField
     private boolean messageIndexSafe = false;
+    // 是否写ConsumeQueue扩展文件，记录每条消息用户属性和TAGS的Bloom位图，按属性过滤时先用位图排除不匹配的消息
+    private boolean consumeQueueExtEnable = false;
     // HA功能
     private int haListenPort = 10912;
     private int haSendHeartbeatInterval = 1000 * 5;
     private int haHousekeepingInterval = 1000 * 20;
     private int haTransferBatchSize = 1024 * 32;
+    // 流水线复制：Master通过FileChannel.transferTo直接从CommitLog文件发送大窗口数据，同时允许多个窗口未被应答
+    private boolean haTransferPipelineEnable = false;
+    // 流水线复制时每个窗口的大小，不能超过Slave接收缓冲区（4M）
+    private int haTransferWindowSize = 1024 * 1024;
+    // 流水线复制时最多有多少个窗口未被Slave应答
+    private int haTransferMaxInflightWindows = 4;
+    // HA连接的Socket收发缓冲区大小，跨机房复制时应按带宽时延积调大
+    private int haSocketBufferSize = 1024 * 64;
     // 如果不设置，则从NameServer获取Master HA服务地址
     @ImportantField
     private String haMasterAddress = null;
@@ -130,12 +146,36 @@ public class MessageStoreConfig {
     // 定时消息相关
     private String messageDelayLevel = "1s 5s 10s 30s 1m 2m 3m 4m 5m 6m 7m 8m 9m 10m 20m 30m 1h 2h";
     private long flushDelayOffsetInterval = 1000 * 10;
+    // 是否支持指定投递时间的定时消息
+    private boolean timerWheelEnable = true;
+    // 小时级时间轮的槽数，超出范围的定时器每轮回一次重新挂到小时轮上
+    private int timerWheelHourSlots = 24 * 7;
+    // 定时器日志每个文件的大小，必须是单元大小的整数倍
+    private int mappedFileSizeTimerLog = 36 * 1024 * 1024;
+    // 到期消息批量写回CommitLog时每批最多多少条
+    private int timerDeliverBatchSize = 32;
     // 磁盘空间超过90%警戒水位，自动开始删除文件
     @ImportantField
     private boolean cleanFileForciblyEnable = true;
 
     private boolean warmMappedFileEnable = false;
 
+    // 是否启用堆外写缓冲池，仅在异步刷盘的Master上生效
+    @ImportantField
+    private boolean transientStorePoolEnable = false;
+    // 堆外写缓冲池中缓冲区个数，每个缓冲区大小与CommitLog文件相同
+    private int transientStorePoolSize = 5;
+    // 写缓冲数据写入FileChannel的间隔时间（单位毫秒）
+    private int transferIntervalCommitLog = 200;
+    // 写缓冲数据写入FileChannel，至少写几个PAGE
+    private int transferCommitLogLeastPages = 4;
+    // 写缓冲数据写入FileChannel，彻底写入间隔时间
+    private int transferCommitLogThoroughInterval = 200;
+    // 写消息时使用ReentrantLock，默认开启；
+    // 只有写消息线程数不超过CPU核数、且刷盘和主从同步都为异步时，才建议关闭，改用自旋锁
+    @ImportantField
+    private boolean useReentrantLockWhenPutMessage = true;
+
 
     public int getMappedFileSizeCommitLog() {
         return mappedFileSizeCommitLog;
@@ -189,6 +229,16 @@ public class MessageStoreConfig {
     }
 
 
+    public int getConsumeQueueDispatchStripes() {
+        return consumeQueueDispatchStripes;
+    }
+
+
+    public void setConsumeQueueDispatchStripes(int consumeQueueDispatchStripes) {
+        this.consumeQueueDispatchStripes = consumeQueueDispatchStripes;
+    }
+
+
     public int getCleanResourceInterval() {
         return cleanResourceInterval;
     }
@@ -410,6 +460,16 @@ public class MessageStoreConfig {
     }
 
 
+    public boolean isConsumeQueueExtEnable() {
+        return consumeQueueExtEnable;
+    }
+
+
+    public void setConsumeQueueExtEnable(boolean consumeQueueExtEnable) {
+        this.consumeQueueExtEnable = consumeQueueExtEnable;
+    }
+
+
     public int getMaxHashSlotNum() {
         return maxHashSlotNum;
     }
@@ -440,6 +500,16 @@ public class MessageStoreConfig {
     }
 
 
+    public String getMessageIndexProperties() {
+        return messageIndexProperties;
+    }
+
+
+    public void setMessageIndexProperties(String messageIndexProperties) {
+        this.messageIndexProperties = messageIndexProperties;
+    }
+
+
     public int getHaListenPort() {
         return haListenPort;
     }
@@ -498,6 +568,46 @@ public class MessageStoreConfig {
     }
 
 
+    public boolean isHaTransferPipelineEnable() {
+        return haTransferPipelineEnable;
+    }
+
+
+    public void setHaTransferPipelineEnable(boolean haTransferPipelineEnable) {
+        this.haTransferPipelineEnable = haTransferPipelineEnable;
+    }
+
+
+    public int getHaTransferWindowSize() {
+        return haTransferWindowSize;
+    }
+
+
+    public void setHaTransferWindowSize(int haTransferWindowSize) {
+        this.haTransferWindowSize = haTransferWindowSize;
+    }
+
+
+    public int getHaTransferMaxInflightWindows() {
+        return haTransferMaxInflightWindows;
+    }
+
+
+    public void setHaTransferMaxInflightWindows(int haTransferMaxInflightWindows) {
+        this.haTransferMaxInflightWindows = haTransferMaxInflightWindows;
+    }
+
+
+    public int getHaSocketBufferSize() {
+        return haSocketBufferSize;
+    }
+
+
+    public void setHaSocketBufferSize(int haSocketBufferSize) {
+        this.haSocketBufferSize = haSocketBufferSize;
+    }
+
+
     public int getHaSlaveFallBehindMax() {
         return haSlaveFallBehindMax;
     }
@@ -619,4 +729,109 @@ public class MessageStoreConfig {
     public void setFlushLeastPagesWhenWarmMappedFile(int flushLeastPagesWhenWarmMappedFile) {
         this.flushLeastPagesWhenWarmMappedFile = flushLeastPagesWhenWarmMappedFile;
     }
+
+
+    /**
+     * 同步刷盘或者Slave的数据必须直接写入mmap，所以只有异步刷盘的Master才能启用堆外写缓冲池
+     */
+    public boolean isTransientStorePoolEnable() {
+        return transientStorePoolEnable && FlushDiskType.ASYNC_FLUSH == getFlushDiskType() && isMaster();
+    }
+
+
+    public void setTransientStorePoolEnable(boolean transientStorePoolEnable) {
+        this.transientStorePoolEnable = transientStorePoolEnable;
+    }
+
+
+    public int getTransientStorePoolSize() {
+        return transientStorePoolSize;
+    }
+
+
+    public void setTransientStorePoolSize(int transientStorePoolSize) {
+        this.transientStorePoolSize = transientStorePoolSize;
+    }
+
+
+    public int getTransferIntervalCommitLog() {
+        return transferIntervalCommitLog;
+    }
+
+
+    public void setTransferIntervalCommitLog(int transferIntervalCommitLog) {
+        this.transferIntervalCommitLog = transferIntervalCommitLog;
+    }
+
+
+    public int getTransferCommitLogLeastPages() {
+        return transferCommitLogLeastPages;
+    }
+
+
+    public void setTransferCommitLogLeastPages(int transferCommitLogLeastPages) {
+        this.transferCommitLogLeastPages = transferCommitLogLeastPages;
+    }
+
+
+    public int getTransferCommitLogThoroughInterval() {
+        return transferCommitLogThoroughInterval;
+    }
+
+
+    public void setTransferCommitLogThoroughInterval(int transferCommitLogThoroughInterval) {
+        this.transferCommitLogThoroughInterval = transferCommitLogThoroughInterval;
+    }
+
+
+    public boolean isUseReentrantLockWhenPutMessage() {
+        return useReentrantLockWhenPutMessage;
+    }
+
+
+    public void setUseReentrantLockWhenPutMessage(boolean useReentrantLockWhenPutMessage) {
+        this.useReentrantLockWhenPutMessage = useReentrantLockWhenPutMessage;
+    }
+
+
+    public boolean isTimerWheelEnable() {
+        return timerWheelEnable;
+    }
+
+
+    public void setTimerWheelEnable(boolean timerWheelEnable) {
+        this.timerWheelEnable = timerWheelEnable;
+    }
+
+
+    public int getTimerWheelHourSlots() {
+        return timerWheelHourSlots;
+    }
+
+
+    public void setTimerWheelHourSlots(int timerWheelHourSlots) {
+        this.timerWheelHourSlots = timerWheelHourSlots;
+    }
+
+
+    public int getMappedFileSizeTimerLog() {
+        // 此处需要向上取整
+        int factor = (int) Math.ceil(this.mappedFileSizeTimerLog / (TimerLog.UnitSize * 1.0));
+        return factor * TimerLog.UnitSize;
+    }
+
+
+    public void setMappedFileSizeTimerLog(int mappedFileSizeTimerLog) {
+        this.mappedFileSizeTimerLog = mappedFileSizeTimerLog;
+    }
+
+
+    public int getTimerDeliverBatchSize() {
+        return timerDeliverBatchSize;
+    }
+
+
+    public void setTimerDeliverBatchSize(int timerDeliverBatchSize) {
+        this.timerDeliverBatchSize = timerDeliverBatchSize;
+    }
 }
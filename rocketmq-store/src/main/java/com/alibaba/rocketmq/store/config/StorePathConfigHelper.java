@@ -25,6 +25,11 @@ public class StorePathConfigHelper {
     }
 
 
+    public static String getStorePathConsumeQueueExt(final String rootDir) {
+        return rootDir + File.separator + "consumequeue_ext";
+    }
+
+
     public static String getStorePathIndex(final String rootDir) {
         return rootDir + File.separator + "index";
     }
@@ -45,6 +50,21 @@ public class StorePathConfigHelper {
     }
 
 
+    public static String getTimerProgressStorePath(final String rootDir) {
+        return rootDir + File.separator + "config" + File.separator + "timerProgress.json";
+    }
+
+
+    public static String getTimerLogStorePath(final String rootDir) {
+        return rootDir + File.separator + "timer" + File.separator + "timerlog";
+    }
+
+
+    public static String getTimerWheelStorePath(final String rootDir) {
+        return rootDir + File.separator + "timer" + File.separator + "timerwheel";
+    }
+
+
     public static String getTranStateTableStorePath(final String rootDir) {
         return rootDir + File.separator + "transaction" + File.separator + "statetable";
     }
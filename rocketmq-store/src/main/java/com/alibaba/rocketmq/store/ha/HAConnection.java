@@ -18,7 +18,9 @@ package com.alibaba.rocketmq.store.ha;
 import com.alibaba.rocketmq.common.ServiceThread;
 import com.alibaba.rocketmq.common.constant.LoggerName;
 import com.alibaba.rocketmq.remoting.common.RemotingUtil;
+import com.alibaba.rocketmq.store.MappedFile;
 import com.alibaba.rocketmq.store.SelectMappedBufferResult;
+import com.alibaba.rocketmq.store.config.MessageStoreConfig;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -38,6 +40,8 @@ import java.util.zip.CRC32;
  */
 public class HAConnection {
     private static final Logger log = LoggerFactory.getLogger(LoggerName.StoreLoggerName);
+    // Slave接收缓冲区为4M，一个窗口加上Header不能超过它
+    private static final int MaxTransferWindowSize = 1024 * 1024 * 4 - 20;
     private final HAService haService;
     private final SocketChannel socketChannel;
     private final String clientAddr;
@@ -47,7 +51,15 @@ public class HAConnection {
     private volatile long slaveRequestOffset = -1;
     // Slave收到数据后，应答Offset
     private volatile long slaveAckOffset = -1;
+    // 收到Slave应答时通知写线程，流水线复制时用于等待窗口释放
+    private final WaitNotifyObject ackNotifyObject = new WaitNotifyObject();
+    // 累计向Slave发送的数据量，只由写线程更新
+    private volatile long transferredBytes = 0;
+    // 最近一秒的发送速率
+    private volatile long transferBytesPerSecond = 0;
     private CRC32 checksum = new CRC32();
+    // 计算校验和时从mmap分段读取数据，避免每个窗口都分配一次数组
+    private final byte[] checksumBuffer = new byte[1024 * 64];
 
 
     public HAConnection(final HAService haService, final SocketChannel socketChannel) throws IOException {
@@ -57,8 +69,9 @@ public class HAConnection {
         this.socketChannel.configureBlocking(false);
         this.socketChannel.socket().setSoLinger(false, -1);
         this.socketChannel.socket().setTcpNoDelay(true);
-        this.socketChannel.socket().setReceiveBufferSize(1024 * 64);
-        this.socketChannel.socket().setSendBufferSize(1024 * 64);
+        int socketBufferSize = haService.getDefaultMessageStore().getMessageStoreConfig().getHaSocketBufferSize();
+        this.socketChannel.socket().setReceiveBufferSize(socketBufferSize);
+        this.socketChannel.socket().setSendBufferSize(socketBufferSize);
         this.writeSocketService = new WriteSocketService(this.socketChannel);
         this.readSocketService = new ReadSocketService(this.socketChannel);
         this.haService.getConnectionCount().incrementAndGet();
@@ -98,12 +111,28 @@ public class HAConnection {
         return socketChannel;
     }
 
+
+    public String getClientAddr() {
+        return clientAddr;
+    }
+
+
+    public long getSlaveAckOffset() {
+        return slaveAckOffset;
+    }
+
+
+    public long getTransferredBytes() {
+        return transferredBytes;
+    }
+
+
+    public long getTransferBytesPerSecond() {
+        return transferBytesPerSecond;
+    }
+
     /**
-     * Calculate CRC32 checksum of given buffer.
-     *
-     * <p>
-     *     <strong>Warn: <code>buffer</code> is assumed to has position = 0, limit = capacity = data-size.</strong>
-     * </p>
+     * Calculate CRC32 checksum of the remaining bytes of given buffer, position of <code>buffer</code> is unchanged.
      *
      * @param buffer ByteBuffer instance.
      * @return CRC32 checksum of <code>buffer</code>.
@@ -111,12 +140,14 @@ public class HAConnection {
     private long getChecksum(ByteBuffer buffer) {
         checksum.reset();
         if (buffer.hasArray()) {
-            checksum.update(buffer.array());
+            checksum.update(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
         } else {
-            byte[] data = new byte[buffer.limit()];
-            buffer.get(data);
-            checksum.update(data);
-            buffer.rewind();
+            ByteBuffer data = buffer.slice();
+            while (data.hasRemaining()) {
+                int length = Math.min(data.remaining(), this.checksumBuffer.length);
+                data.get(this.checksumBuffer, 0, length);
+                checksum.update(this.checksumBuffer, 0, length);
+            }
         }
         return checksum.getValue();
     }
@@ -230,6 +261,7 @@ public class HAConnection {
 
                             // 通知前端线程
                             HAConnection.this.haService.notifyTransferSome(HAConnection.this.slaveAckOffset);
+                            HAConnection.this.ackNotifyObject.wakeUp();
                         }
                     }
                     else if (readSize == 0) {
@@ -270,9 +302,13 @@ public class HAConnection {
         private final int HEADER_SIZE = 8 + 4 + 8; //nextTransferFrom + data length + CRC32 checksum of data.
         private final ByteBuffer byteBufferHeader = ByteBuffer.allocate(HEADER_SIZE);
         private long nextTransferFromWhere = -1;
+        // 第一次传输的位置，Slave应答到达这里之前，已发送的数据都算作未应答
+        private long firstTransferFromWhere = -1;
         private SelectMappedBufferResult selectMappedBufferResult;
         private boolean lastWriteOver = true;
         private long lastWriteTimestamp = System.currentTimeMillis();
+        private long lastStatsTimestamp = System.currentTimeMillis();
+        private long lastStatsTransferredBytes = 0;
 
 
         public WriteSocketService(final SocketChannel socketChannel) throws IOException {
@@ -314,6 +350,8 @@ public class HAConnection {
                             this.nextTransferFromWhere = HAConnection.this.slaveRequestOffset;
                         }
 
+                        this.firstTransferFromWhere = this.nextTransferFromWhere;
+
                         log.info("master transfer data from " + this.nextTransferFromWhere + " to slave["
                                 + HAConnection.this.clientAddr + "], and slave request "
                                 + HAConnection.this.slaveRequestOffset);
@@ -347,6 +385,14 @@ public class HAConnection {
                             continue;
                     }
 
+                    // 流水线复制，未应答的窗口达到上限时等待Slave应答
+                    MessageStoreConfig config =
+                            HAConnection.this.haService.getDefaultMessageStore().getMessageStoreConfig();
+                    if (config.isHaTransferPipelineEnable() && this.isInflightFull(config)) {
+                        HAConnection.this.ackNotifyObject.waitForRunning(100);
+                        continue;
+                    }
+
                     // 传输数据,
                     // selectResult会赋值给this.selectMapedBufferResult，出现异常也会清理掉
                     SelectMappedBufferResult selectResult =
@@ -354,10 +400,9 @@ public class HAConnection {
                                 this.nextTransferFromWhere);
                     if (selectResult != null) {
                         int size = selectResult.getSize();
-                        if (size > HAConnection.this.haService.getDefaultMessageStore()
-                            .getMessageStoreConfig().getHaTransferBatchSize()) {
-                            size = HAConnection.this.haService.getDefaultMessageStore()
-                                    .getMessageStoreConfig().getHaTransferBatchSize();
+                        int windowSize = this.getWindowSize(config);
+                        if (size > windowSize) {
+                            size = windowSize;
                         }
 
                         long thisOffset = this.nextTransferFromWhere;
@@ -385,6 +430,9 @@ public class HAConnection {
                     HAConnection.log.error(this.getServiceName() + " service has exception.", e);
                     break;
                 }
+                finally {
+                    this.updateTransferStats();
+                }
             }
 
             // 清理资源
@@ -414,6 +462,54 @@ public class HAConnection {
         }
 
 
+        private int getWindowSize(final MessageStoreConfig config) {
+            if (config.isHaTransferPipelineEnable()) {
+                return Math.min(config.getHaTransferWindowSize(), MaxTransferWindowSize);
+            }
+
+            return config.getHaTransferBatchSize();
+        }
+
+
+        private boolean isInflightFull(final MessageStoreConfig config) {
+            long ackOffset = Math.max(HAConnection.this.slaveAckOffset, this.firstTransferFromWhere);
+            long inflight = this.nextTransferFromWhere - ackOffset;
+            return inflight >= (long) this.getWindowSize(config) * config.getHaTransferMaxInflightWindows();
+        }
+
+
+        private void updateTransferStats() {
+            long now = HAConnection.this.haService.getDefaultMessageStore().getSystemClock().now();
+            long interval = now - this.lastStatsTimestamp;
+            if (interval >= 1000) {
+                long bytes = HAConnection.this.transferredBytes;
+                HAConnection.this.transferBytesPerSecond = (bytes - this.lastStatsTransferredBytes) * 1000 / interval;
+                this.lastStatsTransferredBytes = bytes;
+                this.lastStatsTimestamp = now;
+            }
+        }
+
+
+        /**
+         * 流水线复制时通过FileChannel.transferTo直接从CommitLog文件发送，不经过用户态缓冲
+         */
+        private int writeBody(final ByteBuffer body) throws IOException {
+            if (HAConnection.this.haService.getDefaultMessageStore().getMessageStoreConfig()
+                .isHaTransferPipelineEnable()) {
+                MappedFile mappedFile = this.selectMappedBufferResult.getMappedFile();
+                long position =
+                        this.selectMappedBufferResult.getStartOffset() - mappedFile.getFileFromOffset()
+                                + body.position();
+                int writeSize =
+                        (int) mappedFile.getFileChannel().transferTo(position, body.remaining(), this.socketChannel);
+                body.position(body.position() + writeSize);
+                return writeSize;
+            }
+
+            return this.socketChannel.write(body);
+        }
+
+
         /**
          * 表示是否传输完成
          */
@@ -446,8 +542,9 @@ public class HAConnection {
             // Write Body
             if (!this.byteBufferHeader.hasRemaining()) {
                 while (this.selectMappedBufferResult.getByteBuffer().hasRemaining()) {
-                    int writeSize = this.socketChannel.write(this.selectMappedBufferResult.getByteBuffer());
+                    int writeSize = this.writeBody(this.selectMappedBufferResult.getByteBuffer());
                     if (writeSize > 0) {
+                        HAConnection.this.transferredBytes += writeSize;
                         writeSizeZeroTimes = 0;
                         this.lastWriteTimestamp =
                                 HAConnection.this.haService.getDefaultMessageStore().getSystemClock().now();
@@ -17,6 +17,7 @@ package com.alibaba.rocketmq.store.ha;
 
 import com.alibaba.rocketmq.common.ServiceThread;
 import com.alibaba.rocketmq.common.constant.LoggerName;
+import com.alibaba.rocketmq.common.running.RunningStats;
 import com.alibaba.rocketmq.remoting.common.RemotingUtil;
 import com.alibaba.rocketmq.store.CommitLog.GroupCommitRequest;
 import com.alibaba.rocketmq.store.DefaultMessageStore;
@@ -33,6 +34,7 @@ import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
@@ -177,6 +179,23 @@ public class HAService {
     }
 
 
+    /**
+     * 每个Slave的复制状态：应答Offset，落后Master的字节数，最近一秒的发送速率（字节/秒）
+     */
+    public void buildRunningStats(HashMap<String, String> stats) {
+        long masterPutWhere = this.defaultMessageStore.getCommitLog().getMaxOffset();
+        synchronized (this.connectionList) {
+            for (HAConnection conn : this.connectionList) {
+                long ackOffset = conn.getSlaveAckOffset();
+                long lag = ackOffset < 0 ? -1 : masterPutWhere - ackOffset;
+                String value = String.format("%d,%d,%d", ackOffset, lag, conn.getTransferBytesPerSecond());
+                String key = String.format("%s_%s", RunningStats.haSlaveStats.name(), conn.getClientAddr());
+                stats.put(key, value);
+            }
+        }
+    }
+
+
     public WaitNotifyObject getWaitNotifyObject() {
         return waitNotifyObject;
     }
@@ -207,6 +226,20 @@ public class HAService {
         }
 
 
+        @Override
+        public void shutdown(final boolean interrupt) {
+            super.shutdown(interrupt);
+            // 关闭监听端口，否则同一进程内重启存储时无法再次绑定
+            try {
+                this.serverSocketChannel.close();
+                this.selector.close();
+            }
+            catch (IOException e) {
+                log.error("AcceptSocketService shutdown exception", e);
+            }
+        }
+
+
         @Override
         public void run() {
             log.info(this.getServiceName() + " service started");
@@ -299,9 +332,12 @@ public class HAService {
             if (!this.requestsRead.isEmpty()) {
                 for (GroupCommitRequest req : this.requestsRead) {
                     boolean transferOK = HAService.this.push2SlaveMaxOffset.get() >= req.getNextOffset();
-                    for (int i = 0; !transferOK && i < 5; i++) {
-                        this.notifyTransferObject.waitForRunning(1000);
+                    // 每个请求最多等到自己的超时时间，Slave异常时积压的请求不会依次各等一轮
+                    long waitTime = req.getDeadline() - System.currentTimeMillis();
+                    while (!transferOK && waitTime > 0) {
+                        this.notifyTransferObject.waitForRunning(Math.min(waitTime, 1000));
                         transferOK = HAService.this.push2SlaveMaxOffset.get() >= req.getNextOffset();
+                        waitTime = req.getDeadline() - System.currentTimeMillis();
                     }
 
                     if (!transferOK) {
@@ -471,7 +507,7 @@ public class HAService {
 
         private boolean dispatchReadRequest() {
             final int MSG_HEADER_SIZE = 8 + 4 + 8; // phyoffset + size + checksum
-            int readSocketPos = this.byteBufferRead.position();
+            boolean dispatched = false;
 
             while (true) {
                 int diff = this.byteBufferRead.position() - this.dispatchPosition;
@@ -493,25 +529,20 @@ public class HAService {
 
                     // 可以凑够一个请求
                     if (diff >= (MSG_HEADER_SIZE + bodySize)) {
-                        byte[] bodyData = new byte[bodySize];
-                        this.byteBufferRead.position(this.dispatchPosition + MSG_HEADER_SIZE);
-                        this.byteBufferRead.get(bodyData);
+                        // 直接从接收缓冲区校验并追加到CommitLog，只复制一次
+                        int bodyPosition = this.dispatchPosition + MSG_HEADER_SIZE;
                         HAService.this.checksum.reset();
-                        HAService.this.checksum.update(bodyData);
+                        HAService.this.checksum.update(this.byteBufferRead.array(), bodyPosition, bodySize);
                         if (checksum == HAService.this.checksum.getValue()) {
                             // TODO 结果是否需要处理，暂时不处理
-                            boolean appendResult = HAService.this.defaultMessageStore
-                                    .appendToCommitLog(masterPhyOffset, bodyData);
+                            boolean appendResult = HAService.this.defaultMessageStore.appendToCommitLog(
+                                masterPhyOffset, this.byteBufferRead.array(), bodyPosition, bodySize);
                             if (!appendResult) {
                                 log.error("Append replicated data failed!");
                             }
 
-                            this.byteBufferRead.position(readSocketPos);
                             this.dispatchPosition += MSG_HEADER_SIZE + bodySize;
-
-                            if (!reportSlaveMaxOffsetPlus()) {
-                                return false;
-                            }
+                            dispatched = true;
                             continue;
                         } else {
                             log.error("Replication data checksum mis-match!");
@@ -530,6 +561,11 @@ public class HAService {
                 break;
             }
 
+            // 本次读到的数据全部追加后合并汇报一次Offset
+            if (dispatched) {
+                return reportSlaveMaxOffsetPlus();
+            }
+
             return true;
         }
 
@@ -558,7 +594,8 @@ public class HAService {
 
                     SocketAddress socketAddress = RemotingUtil.string2SocketAddress(addr);
                     if (socketAddress != null) {
-                        this.socketChannel = RemotingUtil.connect(socketAddress);
+                        this.socketChannel = RemotingUtil.connect(socketAddress, 1000 * 5,
+                            HAService.this.defaultMessageStore.getMessageStoreConfig().getHaSocketBufferSize());
                         if (this.socketChannel != null) {
                             this.socketChannel.register(this.selector, SelectionKey.OP_READ);
                         }
@@ -658,6 +695,20 @@ public class HAService {
             log.info(this.getServiceName() + " service end");
         }
 
+        @Override
+        public void shutdown() {
+            super.shutdown();
+            // 关闭与Master的连接，Master端的HAConnection随之退出
+            this.closeMaster();
+            try {
+                this.selector.close();
+            }
+            catch (IOException e) {
+                log.warn("HAClient close selector exception. ", e);
+            }
+        }
+
+
         @Override
         public String getServiceName() {
             return HAClient.class.getSimpleName();
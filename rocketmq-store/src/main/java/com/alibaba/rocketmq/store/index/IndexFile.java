@@ -20,6 +20,7 @@ import com.alibaba.rocketmq.store.MappedFile;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
@@ -29,7 +30,9 @@ import java.util.List;
 
 
 /**
- * 存储具体消息索引信息的文件
+ * 存储具体消息索引信息的文件<br>
+ * 文件格式 <Header> <Hash Slots> <Index Entries> <Bloom Filter><br>
+ * 索引项 <64位Key Hash> <CommitLog Offset> <Time Diff> <Prev Index>，旧格式文件为32位Hash且没有Bloom Filter，只读
  *
  * @author shijia.wxr<vintage.wang@gmail.com>
  * @since 2013-7-21
@@ -37,10 +40,22 @@ import java.util.List;
 public class IndexFile {
     private static final Logger log = LoggerFactory.getLogger(LoggerName.StoreLoggerName);
     private static int HASH_SLOT_SIZE = 4;
-    private static int INDEX_SIZE = 20;
+    private static int INDEX_SIZE = 24;
+    private static int LEGACY_INDEX_SIZE = 20;
     private static int INVALID_INDEX = 0;
+    // 每个Key占用的Bloom Filter位数，误判率约1%
+    private static int BLOOM_BITS_PER_KEY = 10;
+    // 每个Key的位都落在同一个64字节的块内，判断一次只访问一个缓存行
+    private static int BLOOM_BLOCK_BITS = 512;
+    private static int BLOOM_HASH_NUM = 6;
     private final int hashSlotNum;
     private final int indexNum;
+    // 旧格式文件
+    private final boolean legacyFormat;
+    private final int hashSize;
+    private final int indexSize;
+    private final int bloomBlockNum;
+    private final int bloomBeginPos;
     private final MappedFile mappedFile;
     private final FileChannel fileChannel;
     private final MappedByteBuffer mappedByteBuffer;
@@ -49,13 +64,24 @@ public class IndexFile {
 
     public IndexFile(final String fileName, final int hashSlotNum, final int indexNum,
                      final long endPhyOffset, final long endTimestamp) throws IOException {
-        int fileTotalSize =
-                IndexHeader.INDEX_HEADER_SIZE + (hashSlotNum * HASH_SLOT_SIZE) + (indexNum * INDEX_SIZE);
+        this(fileName, hashSlotNum, indexNum, endPhyOffset, endTimestamp, false);
+    }
+
+
+    public IndexFile(final String fileName, final int hashSlotNum, final int indexNum,
+                     final long endPhyOffset, final long endTimestamp, final boolean legacyFormat) throws IOException {
+        this.hashSlotNum = hashSlotNum;
+        this.indexNum = indexNum;
+        this.legacyFormat = legacyFormat;
+        this.hashSize = legacyFormat ? 4 : 8;
+        this.indexSize = legacyFormat ? LEGACY_INDEX_SIZE : INDEX_SIZE;
+        this.bloomBlockNum = legacyFormat ? 0 : bloomBlockNum(indexNum);
+        this.bloomBeginPos = IndexHeader.INDEX_HEADER_SIZE + hashSlotNum * HASH_SLOT_SIZE + indexNum * this.indexSize;
+
+        int fileTotalSize = this.bloomBeginPos + this.bloomBlockNum * (BLOOM_BLOCK_BITS / 8);
         this.mappedFile = new MappedFile(fileName, fileTotalSize);
         this.fileChannel = this.mappedFile.getFileChannel();
         this.mappedByteBuffer = this.mappedFile.getMappedByteBuffer();
-        this.hashSlotNum = hashSlotNum;
-        this.indexNum = indexNum;
 
         ByteBuffer byteBuffer = this.mappedByteBuffer.slice();
         this.indexHeader = new IndexHeader(byteBuffer);
@@ -72,6 +98,27 @@ public class IndexFile {
     }
 
 
+    private static int bloomBlockNum(final int indexNum) {
+        return (int) (((long) indexNum * BLOOM_BITS_PER_KEY + BLOOM_BLOCK_BITS - 1) / BLOOM_BLOCK_BITS);
+    }
+
+
+    /**
+     * 升级前创建的索引文件，根据文件大小判断
+     */
+    public static boolean isLegacyFile(final File file, final int hashSlotNum, final int indexNum) {
+        long legacySize =
+                IndexHeader.INDEX_HEADER_SIZE + ((long) hashSlotNum * HASH_SLOT_SIZE)
+                        + ((long) indexNum * LEGACY_INDEX_SIZE);
+        return file.length() == legacySize;
+    }
+
+
+    public boolean isLegacyFormat() {
+        return legacyFormat;
+    }
+
+
     public String getFileName() {
         return this.mappedFile.getFileName();
     }
@@ -97,7 +144,8 @@ public class IndexFile {
      * 当前索引文件是否写满
      */
     public boolean isWriteFull() {
-        return this.indexHeader.getIndexCount() >= this.indexNum;
+        // 旧格式文件不再写入
+        return this.legacyFormat || this.indexHeader.getIndexCount() >= this.indexNum;
     }
 
 
@@ -110,9 +158,9 @@ public class IndexFile {
      * 如果返回false，表示需要创建新的索引文件
      */
     public boolean putKey(final String key, final long phyOffset, final long storeTimestamp) {
-        if (this.indexHeader.getIndexCount() < this.indexNum) {
-            int keyHash = indexKeyHashMethod(key);
-            int slotPos = keyHash % this.hashSlotNum;
+        if (!this.legacyFormat && this.indexHeader.getIndexCount() < this.indexNum) {
+            long keyHash = indexKeyHash64(key);
+            int slotPos = this.slotPos(keyHash);
             int absSlotPos = IndexHeader.INDEX_HEADER_SIZE + slotPos * HASH_SLOT_SIZE;
 
             FileLock fileLock = null;
@@ -142,14 +190,17 @@ public class IndexFile {
                         + this.indexHeader.getIndexCount() * INDEX_SIZE;
 
                 // 写入真正索引
-                this.mappedByteBuffer.putInt(absIndexPos, keyHash);
-                this.mappedByteBuffer.putLong(absIndexPos + 4, phyOffset);
-                this.mappedByteBuffer.putInt(absIndexPos + 4 + 8, (int) timeDiff);
-                this.mappedByteBuffer.putInt(absIndexPos + 4 + 8 + 4, slotValue);
+                this.mappedByteBuffer.putLong(absIndexPos, keyHash);
+                this.mappedByteBuffer.putLong(absIndexPos + 8, phyOffset);
+                this.mappedByteBuffer.putInt(absIndexPos + 8 + 8, (int) timeDiff);
+                this.mappedByteBuffer.putInt(absIndexPos + 8 + 8 + 4, slotValue);
 
                 // 更新哈希槽
                 this.mappedByteBuffer.putInt(absSlotPos, this.indexHeader.getIndexCount());
 
+                // 索引项写入后再更新Bloom Filter
+                this.bloomPut(keyHash);
+
                 // 第一次写入
                 if (this.indexHeader.getIndexCount() <= 1) {
                     this.indexHeader.setBeginPhyOffset(phyOffset);
@@ -173,7 +224,7 @@ public class IndexFile {
                     }
                 }
             }
-        } else {
+        } else if (!this.legacyFormat) {
             log.warn("putKey index count " + this.indexHeader.getIndexCount() + " index max num " + this.indexNum);
         }
 
@@ -207,7 +258,7 @@ public class IndexFile {
     }
 
 
-    // 返回值是大于0
+    // 返回值是大于0，只用于旧格式文件
     public int indexKeyHashMethod(final String key) {
         int keyHash = key.hashCode();
         int keyHashPositive = Math.abs(keyHash);
@@ -217,14 +268,73 @@ public class IndexFile {
     }
 
 
+    /**
+     * 64位Hash，FNV-1a后再做一次混淆，使槽位与Bloom Filter使用的各段位都分布均匀<br>
+     * 同一文件内两个不同Key的Hash相同的概率可以忽略，查询时不需要再读消息校验
+     */
+    public static long indexKeyHash64(final String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+
+    private int slotPos(final long keyHash) {
+        if (this.legacyFormat) {
+            return (int) keyHash % this.hashSlotNum;
+        }
+        return (int) ((keyHash & Long.MAX_VALUE) % this.hashSlotNum);
+    }
+
+
+    private void bloomPut(final long keyHash) {
+        int blockPos = this.bloomBlockPos(keyHash);
+        long bits = keyHash * 0x9E3779B97F4A7C15L;
+        for (int i = 0; i < BLOOM_HASH_NUM; i++, bits >>>= 9) {
+            int bit = (int) (bits & (BLOOM_BLOCK_BITS - 1));
+            int pos = blockPos + (bit >>> 6) * 8;
+            this.mappedByteBuffer.putLong(pos, this.mappedByteBuffer.getLong(pos) | (1L << (bit & 63)));
+        }
+    }
+
+
+    private boolean bloomMightContain(final long keyHash) {
+        int blockPos = this.bloomBlockPos(keyHash);
+        long bits = keyHash * 0x9E3779B97F4A7C15L;
+        for (int i = 0; i < BLOOM_HASH_NUM; i++, bits >>>= 9) {
+            int bit = (int) (bits & (BLOOM_BLOCK_BITS - 1));
+            if ((this.mappedByteBuffer.getLong(blockPos + (bit >>> 6) * 8) & (1L << (bit & 63))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    private int bloomBlockPos(final long keyHash) {
+        // 高位选块，与槽位取模的结果无关
+        int block = (int) ((keyHash >>> 33) % this.bloomBlockNum);
+        return this.bloomBeginPos + block * (BLOOM_BLOCK_BITS / 8);
+    }
+
+
     /**
      * 前提：入参时间区间在调用前已经匹配了当前索引文件的起始结束时间
      */
     public void selectPhyOffset(final List<Long> phyOffsets, final String key, final int maxNum, final long begin,
                                 final long end, boolean lock) {
         if (this.mappedFile.hold()) {
-            int keyHash = indexKeyHashMethod(key);
-            int slotPos = keyHash % this.hashSlotNum;
+            long keyHash = this.legacyFormat ? indexKeyHashMethod(key) : indexKeyHash64(key);
+            int slotPos = this.slotPos(keyHash);
             int absSlotPos = IndexHeader.INDEX_HEADER_SIZE + slotPos * HASH_SLOT_SIZE;
 
             FileLock fileLock = null;
@@ -234,6 +344,11 @@ public class IndexFile {
                     // HASH_SLOT_SIZE, true);
                 }
 
+                // 不包含此Key的文件不再访问哈希槽和索引链
+                if (!this.legacyFormat && !this.bloomMightContain(keyHash)) {
+                    return;
+                }
+
                 int slotValue = this.mappedByteBuffer.getInt(absSlotPos);
                 // if (fileLock != null) {
                 // fileLock.release();
@@ -250,12 +365,14 @@ public class IndexFile {
                         }
 
                         int absIndexPos = IndexHeader.INDEX_HEADER_SIZE + this.hashSlotNum * HASH_SLOT_SIZE
-                                + nextIndexToRead * INDEX_SIZE;
-
-                        int keyHashRead = this.mappedByteBuffer.getInt(absIndexPos);
-                        long phyOffsetRead = this.mappedByteBuffer.getLong(absIndexPos + 4);
-                        int timeDiff = this.mappedByteBuffer.getInt(absIndexPos + 4 + 8);
-                        int prevIndexRead = this.mappedByteBuffer.getInt(absIndexPos + 4 + 8 + 4);
+                                + nextIndexToRead * this.indexSize;
+
+                        long keyHashRead =
+                                this.legacyFormat ? this.mappedByteBuffer.getInt(absIndexPos)
+                                        : this.mappedByteBuffer.getLong(absIndexPos);
+                        long phyOffsetRead = this.mappedByteBuffer.getLong(absIndexPos + this.hashSize);
+                        int timeDiff = this.mappedByteBuffer.getInt(absIndexPos + this.hashSize + 8);
+                        int prevIndexRead = this.mappedByteBuffer.getInt(absIndexPos + this.hashSize + 8 + 4);
 
                         // 读到了未知数据
                         if (timeDiff < 0) {
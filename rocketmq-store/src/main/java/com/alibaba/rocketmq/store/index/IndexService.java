@@ -19,6 +19,8 @@ import com.alibaba.rocketmq.common.ServiceThread;
 import com.alibaba.rocketmq.common.UtilAll;
 import com.alibaba.rocketmq.common.constant.LoggerName;
 import com.alibaba.rocketmq.common.message.MessageConst;
+import com.alibaba.rocketmq.common.message.MessageDecoder;
+import com.alibaba.rocketmq.common.message.MessageExt;
 import com.alibaba.rocketmq.common.sysflag.MessageSysFlag;
 import com.alibaba.rocketmq.store.DefaultMessageStore;
 import com.alibaba.rocketmq.store.DispatchRequest;
@@ -30,7 +32,10 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReadWriteLock;
@@ -55,6 +60,10 @@ public class IndexService extends ServiceThread {
     // 读写锁（针对indexFileList）
     private final ReadWriteLock readWriteLock = new ReentrantReadWriteLock();
     private LinkedBlockingQueue<Object[]> requestQueue = new LinkedBlockingQueue<Object[]>(300000);
+    // 属性索引配置，配置变化时重新解析
+    private volatile String indexPropertiesConfig = "";
+    private volatile Map<String, List<String>> indexPropertiesTable = new HashMap<String, List<String>>();
+    private volatile List<String> indexPropertiesForAllTopics = Collections.emptyList();
 
 
     public IndexService(final DefaultMessageStore store) {
@@ -73,7 +82,8 @@ public class IndexService extends ServiceThread {
             Arrays.sort(files);
             for (File file : files) {
                 try {
-                    IndexFile f = new IndexFile(file.getPath(), this.hashSlotNum, this.indexNum, 0, 0);
+                    boolean legacy = IndexFile.isLegacyFile(file, this.hashSlotNum, this.indexNum);
+                    IndexFile f = new IndexFile(file.getPath(), this.hashSlotNum, this.indexNum, 0, 0, legacy);
                     f.load();
 
                     if (!lastExitOK) {
@@ -83,7 +93,7 @@ public class IndexService extends ServiceThread {
                         }
                     }
 
-                    log.info("load index file OK, " + f.getFileName());
+                    log.info("load index file OK, " + f.getFileName() + (legacy ? ", legacy format" : ""));
                     this.indexFileList.add(f);
                 } catch (IOException e) {
                     log.error("load file " + file + " error", e);
@@ -179,6 +189,26 @@ public class IndexService extends ServiceThread {
 
 
     public QueryOffsetResult queryOffset(String topic, String key, int maxNum, long begin, long end) {
+        return this.queryOffset(topic, key, this.buildKey(topic, key), maxNum, begin, end);
+    }
+
+
+    /**
+     * 按属性值查询，旧格式文件中没有属性索引
+     */
+    public QueryOffsetResult queryOffsetByProperty(String topic, String propertyName, String value, int maxNum,
+            long begin, long end) {
+        return this.queryOffset(topic, null, this.buildPropertyKey(topic, propertyName, value), maxNum, begin,
+            end);
+    }
+
+
+    /**
+     * @param key
+     *            按消息Key查询时不为空，用于校验旧格式文件的查询结果
+     */
+    private QueryOffsetResult queryOffset(String topic, String key, String indexKey, int maxNum, long begin,
+            long end) {
         List<Long> phyOffsets = new ArrayList<Long>(maxNum);
         // TODO 可能需要返回给最终用户
         long indexLastUpdateTimestamp = 0;
@@ -196,8 +226,13 @@ public class IndexService extends ServiceThread {
                     }
 
                     if (f.isTimeMatched(begin, end)) {
-                        // 最后一个文件需要加锁
-                        f.selectPhyOffset(phyOffsets, this.buildKey(topic, key), maxNum, begin, end, lastFile);
+                        if (!f.isLegacyFormat()) {
+                            // 最后一个文件需要加锁
+                            f.selectPhyOffset(phyOffsets, indexKey, maxNum, begin, end, lastFile);
+                        }
+                        else if (key != null) {
+                            this.selectLegacyPhyOffset(f, phyOffsets, topic, key, maxNum, begin, end);
+                        }
                     }
 
                     // 再往前遍历时间更不符合
@@ -220,11 +255,102 @@ public class IndexService extends ServiceThread {
     }
 
 
+    /**
+     * 旧格式文件使用32位Hash，冲突较多，需要读取消息校验Key
+     */
+    private void selectLegacyPhyOffset(final IndexFile f, final List<Long> phyOffsets, final String topic,
+            final String key, final int maxNum, final long begin, final long end) {
+        List<Long> candidates = new ArrayList<Long>();
+        f.selectPhyOffset(candidates, this.buildKey(topic, key), maxNum - phyOffsets.size(), begin, end, false);
+        for (Long offset : candidates) {
+            MessageExt msg = this.defaultMessageStore.lookMessageByOffset(offset);
+            if (msg != null && topic.equals(msg.getTopic()) && msg.getKeys() != null
+                    && Arrays.asList(msg.getKeys().split(MessageConst.KEY_SEPARATOR)).contains(key)) {
+                phyOffsets.add(offset);
+            }
+            else {
+                log.warn("queryOffset hash duplicate in legacy index file, {} {}", topic, key);
+            }
+        }
+    }
+
+
     private String buildKey(final String topic, final String key) {
         return topic + "#" + key;
     }
 
 
+    /**
+     * 属性名与值之间使用属性分隔符，与消息Key的索引不会重复
+     */
+    private String buildPropertyKey(final String topic, final String propertyName, final String value) {
+        return topic + "#" + propertyName + MessageDecoder.NAME_VALUE_SEPARATOR + value;
+    }
+
+
+    /**
+     * Topic需要建立索引的属性
+     */
+    public List<String> getIndexProperties(final String topic) {
+        String config = this.defaultMessageStore.getMessageStoreConfig().getMessageIndexProperties();
+        if (!this.indexPropertiesConfig.equals(config)) {
+            this.parseIndexProperties(config);
+        }
+
+        List<String> properties = this.indexPropertiesTable.get(topic);
+        return properties != null ? properties : this.indexPropertiesForAllTopics;
+    }
+
+
+    public boolean hasPropertyIndex(final String topic) {
+        return !this.getIndexProperties(topic).isEmpty();
+    }
+
+
+    private synchronized void parseIndexProperties(final String config) {
+        if (null == config || this.indexPropertiesConfig.equals(config)) {
+            return;
+        }
+
+        Map<String, List<String>> table = new HashMap<String, List<String>>();
+        List<String> allTopics = new ArrayList<String>();
+        for (String definition : config.split(";")) {
+            int index = definition.indexOf(':');
+            if (index <= 0) {
+                continue;
+            }
+
+            String topic = definition.substring(0, index).trim();
+            List<String> properties = "*".equals(topic) ? allTopics : table.get(topic);
+            if (null == properties) {
+                properties = new ArrayList<String>();
+                table.put(topic, properties);
+            }
+
+            for (String name : definition.substring(index + 1).split(",")) {
+                name = name.trim();
+                if (name.length() > 0 && !properties.contains(name)) {
+                    properties.add(name);
+                }
+            }
+        }
+
+        // 单独配置的Topic同样建立所有Topic都需要的索引
+        for (List<String> properties : table.values()) {
+            for (String name : allTopics) {
+                if (!properties.contains(name)) {
+                    properties.add(name);
+                }
+            }
+        }
+
+        this.indexPropertiesTable = table;
+        this.indexPropertiesForAllTopics = allTopics;
+        this.indexPropertiesConfig = config;
+        log.info("index properties changed to [{}]", config);
+    }
+
+
     /**
      * 向队列中添加请求，队列满情况下，丢弃请求
      */
@@ -287,19 +413,25 @@ public class IndexService extends ServiceThread {
                     for (String key : keySet) {
                         // TODO 是否需要TRIM
                         if (key.length() > 0) {
-                            for (boolean ok =
-                                         indexFile.putKey(buildKey(topic, key), msg.getCommitLogOffset(),
-                                                 msg.getStoreTimestamp()); !ok; ) {
-                                log.warn("index file full, so create another one, " + indexFile.getFileName());
-                                indexFile = retryGetAndCreateIndexFile();
-                                if (null == indexFile) {
-                                    breakdown = true;
-                                    break MSG_WHILE;
-                                }
-
-                                ok =
-                                        indexFile.putKey(buildKey(topic, key), msg.getCommitLogOffset(),
-                                                msg.getStoreTimestamp());
+                            indexFile = this.putKey(indexFile, buildKey(topic, key), msg);
+                            if (null == indexFile) {
+                                breakdown = true;
+                                break MSG_WHILE;
+                            }
+                        }
+                    }
+                }
+
+                // 属性索引
+                Map<String, String> propertiesMap = msg.getPropertiesMap();
+                if (propertiesMap != null) {
+                    for (String name : this.getIndexProperties(topic)) {
+                        String value = propertiesMap.get(name);
+                        if (value != null && value.length() > 0) {
+                            indexFile = this.putKey(indexFile, buildPropertyKey(topic, name, value), msg);
+                            if (null == indexFile) {
+                                breakdown = true;
+                                break MSG_WHILE;
                             }
                         }
                     }
@@ -317,6 +449,26 @@ public class IndexService extends ServiceThread {
     }
 
 
+    /**
+     * 写入索引，文件写满时创建新文件
+     *
+     * @return 当前写入的文件，无法创建索引文件时返回null
+     */
+    private IndexFile putKey(IndexFile indexFile, final String indexKey, final DispatchRequest msg) {
+        for (boolean ok = indexFile.putKey(indexKey, msg.getCommitLogOffset(), msg.getStoreTimestamp()); !ok; ) {
+            log.warn("index file full, so create another one, " + indexFile.getFileName());
+            indexFile = retryGetAndCreateIndexFile();
+            if (null == indexFile) {
+                return null;
+            }
+
+            ok = indexFile.putKey(indexKey, msg.getCommitLogOffset(), msg.getStoreTimestamp());
+        }
+
+        return indexFile;
+    }
+
+
     public IndexFile retryGetAndCreateIndexFile() {
         IndexFile indexFile = null;
 
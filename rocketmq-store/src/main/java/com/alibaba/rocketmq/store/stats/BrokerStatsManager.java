@@ -82,6 +82,11 @@ public class BrokerStatsManager {
     }
 
 
+    public void incTopicPutNums(final String topic, final int num, final int times) {
+        this.statsTable.get(TOPIC_PUT_NUMS).addValue(topic, num, times);
+    }
+
+
     public void incTopicPutSize(final String topic, final int size) {
         this.statsTable.get(TOPIC_PUT_SIZE).addValue(topic, size, 1);
     }
@@ -103,6 +108,12 @@ public class BrokerStatsManager {
     }
 
 
+    public void incBrokerPutNums(final int incValue) {
+        this.statsTable.get(BROKER_PUT_NUMS).getAndCreateStatsItem(this.clusterName).getValue()
+            .addAndGet(incValue);
+    }
+
+
     public void incBrokerGetNums(final int incValue) {
         this.statsTable.get(BROKER_GET_NUMS).getAndCreateStatsItem(this.clusterName).getValue()
             .addAndGet(incValue);
@@ -0,0 +1,194 @@
+/**
+ * Copyright (C) 2010-2013 Alibaba Group Holding Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.rocketmq.store.timer;
+
+import com.alibaba.rocketmq.common.constant.LoggerName;
+import com.alibaba.rocketmq.store.MappedFile;
+import com.alibaba.rocketmq.store.MappedFileQueue;
+import com.alibaba.rocketmq.store.SelectMappedBufferResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+
+/**
+ * 定时器日志，定长单元顺序追加，同一时间轮槽内的定时器通过prevPos串成链表<br>
+ * 单元格式 <Append Second> <Deliver Second> <CommitLog Offset> <Size> <Prev Pos>
+ */
+public class TimerLog {
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.StoreLoggerName);
+    // 追加时时间轮的当前秒(8) + 投递秒(8) + CommitLog offset(8) + 消息大小(4) + 链表前一个单元位置(8)
+    public static final int UnitSize = 8 + 8 + 8 + 4 + 8;
+    private final MappedFileQueue mappedFileQueue;
+    private final int mappedFileSize;
+    private final ByteBuffer byteBufferUnit = ByteBuffer.allocate(UnitSize);
+
+
+    public TimerLog(final String storePath, final int mappedFileSize) {
+        this.mappedFileSize = mappedFileSize;
+        this.mappedFileQueue = new MappedFileQueue(storePath, mappedFileSize, null);
+    }
+
+
+    public boolean load() {
+        boolean result = this.mappedFileQueue.load();
+        log.info("load timer log " + (result ? "OK" : "Failed"));
+        return result;
+    }
+
+
+    /**
+     * 正常退出时恢复写入位置，追加秒为0的单元表示后面没有数据
+     */
+    public void recover() {
+        final List<MappedFile> mappedFiles = this.mappedFileQueue.getMappedFiles();
+        if (!mappedFiles.isEmpty()) {
+            int index = mappedFiles.size() - 3;
+            if (index < 0)
+                index = 0;
+
+            MappedFile mappedFile = mappedFiles.get(index);
+            ByteBuffer byteBuffer = mappedFile.sliceByteBuffer();
+            long processOffset = mappedFile.getFileFromOffset();
+            long mappedFileOffset = 0;
+            while (true) {
+                for (int i = 0; i < this.mappedFileSize; i += UnitSize) {
+                    long appendSecond = byteBuffer.getLong(i);
+                    if (appendSecond > 0) {
+                        mappedFileOffset = i + UnitSize;
+                    }
+                    else {
+                        break;
+                    }
+                }
+
+                // 走到文件末尾，切换至下一个文件
+                if (mappedFileOffset == this.mappedFileSize && index + 1 < mappedFiles.size()) {
+                    index++;
+                    mappedFile = mappedFiles.get(index);
+                    byteBuffer = mappedFile.sliceByteBuffer();
+                    processOffset = mappedFile.getFileFromOffset();
+                    mappedFileOffset = 0;
+                }
+                else {
+                    break;
+                }
+            }
+
+            processOffset += mappedFileOffset;
+            this.mappedFileQueue.setCommittedWhere(processOffset);
+            this.mappedFileQueue.truncateDirtyFiles(processOffset);
+            log.info("recover timer log over, max offset " + processOffset);
+        }
+    }
+
+
+    /**
+     * @return 写入的位置，失败返回-1
+     */
+    public long append(final long appendSecond, final long deliverSecond, final long offsetPy, final int sizePy,
+            final long prevPos) {
+        MappedFile mappedFile = this.mappedFileQueue.getLastMappedFile(0);
+        if (null == mappedFile) {
+            log.error("create timer log mapped file error");
+            return -1;
+        }
+
+        long pos = mappedFile.getFileFromOffset() + mappedFile.getWrotePosition();
+        this.byteBufferUnit.clear();
+        this.byteBufferUnit.putLong(appendSecond);
+        this.byteBufferUnit.putLong(deliverSecond);
+        this.byteBufferUnit.putLong(offsetPy);
+        this.byteBufferUnit.putInt(sizePy);
+        this.byteBufferUnit.putLong(prevPos);
+        if (!mappedFile.appendMessage(this.byteBufferUnit.array())) {
+            log.error("append timer log error, pos " + pos);
+            return -1;
+        }
+
+        return pos;
+    }
+
+
+    /**
+     * 读取pos位置的单元追加到records
+     *
+     * @return 链表中前一个单元的位置，没有则返回-1，读取失败返回-2
+     */
+    public long read(final long pos, final TimerWheel.TimerRecords records) {
+        MappedFile mappedFile = this.mappedFileQueue.findMappedFileByOffset(pos);
+        if (null == mappedFile) {
+            return -2;
+        }
+
+        SelectMappedBufferResult result = mappedFile.selectMappedBuffer((int) (pos % this.mappedFileSize), UnitSize);
+        if (null == result) {
+            return -2;
+        }
+
+        try {
+            ByteBuffer byteBuffer = result.getByteBuffer();
+            byteBuffer.getLong();
+            long deliverSecond = byteBuffer.getLong();
+            long offsetPy = byteBuffer.getLong();
+            int sizePy = byteBuffer.getInt();
+            long prevPos = byteBuffer.getLong();
+            records.add(deliverSecond, offsetPy, sizePy);
+            return prevPos;
+        }
+        finally {
+            result.release();
+        }
+    }
+
+
+    public void flush() {
+        // 每次只刷一个文件，直到刷盘位置不再变化
+        for (int i = 0; i < 4 && !this.mappedFileQueue.commit(0); i++) {
+        }
+    }
+
+
+    /**
+     * 追加时间早于appendSecond的单元都已经处理过，删除只包含这些单元的文件
+     */
+    public int deleteExpiredFile(final long appendSecond) {
+        return this.mappedFileQueue.deleteExpiredFileByOffset(appendSecond, UnitSize);
+    }
+
+
+    public long getMinOffset() {
+        return this.mappedFileQueue.getMinOffset();
+    }
+
+
+    public long getMaxOffset() {
+        return this.mappedFileQueue.getMaxOffset();
+    }
+
+
+    public void destroy() {
+        this.mappedFileQueue.destroy();
+    }
+
+
+    public void shutdown() {
+        this.flush();
+        this.mappedFileQueue.shutdown(1000 * 3);
+    }
+}
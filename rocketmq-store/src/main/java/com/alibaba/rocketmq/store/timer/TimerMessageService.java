@@ -0,0 +1,588 @@
+/**
+ * Copyright (C) 2010-2013 Alibaba Group Holding Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.rocketmq.store.timer;
+
+import com.alibaba.rocketmq.common.ConfigManager;
+import com.alibaba.rocketmq.common.ServiceThread;
+import com.alibaba.rocketmq.common.TopicFilterType;
+import com.alibaba.rocketmq.common.constant.LoggerName;
+import com.alibaba.rocketmq.common.message.MessageAccessor;
+import com.alibaba.rocketmq.common.message.MessageConst;
+import com.alibaba.rocketmq.common.message.MessageDecoder;
+import com.alibaba.rocketmq.common.message.MessageExt;
+import com.alibaba.rocketmq.common.running.RunningStats;
+import com.alibaba.rocketmq.common.sysflag.MessageSysFlag;
+import com.alibaba.rocketmq.store.ConsumeQueue;
+import com.alibaba.rocketmq.store.DefaultMessageStore;
+import com.alibaba.rocketmq.store.MessageExtBatch;
+import com.alibaba.rocketmq.store.MessageExtBrokerInner;
+import com.alibaba.rocketmq.store.PutMessageResult;
+import com.alibaba.rocketmq.store.PutMessageStatus;
+import com.alibaba.rocketmq.store.SelectMappedBufferResult;
+import com.alibaba.rocketmq.store.config.MessageStoreConfig;
+import com.alibaba.rocketmq.store.config.StorePathConfigHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+
+/**
+ * 指定投递时间的定时消息服务<br>
+ * 消息先写入TIMER_TOPIC，由入队线程挂到磁盘上的时间轮，到期后批量写回真实Topic
+ */
+public class TimerMessageService extends ConfigManager {
+    public static final String TIMER_TOPIC = "TIMER_TOPIC_XXXX";
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.StoreLoggerName);
+    // 超过小时级时间轮一圈的定时器一定已经被处理过
+    private static final long SECONDS_PER_HOUR = 3600;
+    // 存储顶层对象
+    private final DefaultMessageStore defaultMessageStore;
+    private final TimerLog timerLog;
+    private final TimerWheel timerWheel;
+    private final EnqueueService enqueueService;
+    private final DeliverService deliverService;
+    // 这一秒之前到期的定时器都已经写回CommitLog
+    private volatile long deliveredSecond = -1;
+    // 定时消息队列处理到哪里
+    private volatile long queueOffset = 0;
+    // 上次正常退出时时间轮的位置，小于0表示没有记录
+    private long wheelSecond = -1;
+    // 时间轮文件与配置一致
+    private boolean wheelMatched = false;
+
+
+    public TimerMessageService(final DefaultMessageStore defaultMessageStore) {
+        this.defaultMessageStore = defaultMessageStore;
+        MessageStoreConfig config = defaultMessageStore.getMessageStoreConfig();
+        this.timerLog =
+                new TimerLog(StorePathConfigHelper.getTimerLogStorePath(config.getStorePathRootDir()),
+                    config.getMappedFileSizeTimerLog());
+        this.timerWheel =
+                new TimerWheel(StorePathConfigHelper.getTimerWheelStorePath(config.getStorePathRootDir()),
+                    config.getTimerWheelHourSlots(), this.timerLog);
+        this.enqueueService = new EnqueueService();
+        this.deliverService = new DeliverService();
+    }
+
+
+    /**
+     * 投递时间向上取整到秒，保证不早于指定时间投递
+     */
+    public static long deliverSecond(final long deliverTimestamp) {
+        return (deliverTimestamp + 999) / 1000;
+    }
+
+
+    public boolean load() {
+        boolean result = super.load();
+        result = result && this.timerLog.load();
+        if (result) {
+            try {
+                this.wheelMatched = this.timerWheel.load();
+            }
+            catch (IOException e) {
+                log.error("load timer wheel exception", e);
+                result = false;
+            }
+        }
+        return result;
+    }
+
+
+    /**
+     * 必须在Consume Queue恢复之后调用，异常退出时根据定时消息队列重建时间轮
+     */
+    public void recover(final boolean lastExitOK) {
+        if (this.deliveredSecond < 0) {
+            this.deliveredSecond = this.defaultMessageStore.getSystemClock().now() / 1000;
+        }
+
+        if (lastExitOK && this.wheelMatched) {
+            this.timerLog.recover();
+            // 投递失败时deliveredSecond落后于时间轮，不能用它回拨时间轮，否则回拨的槽里下一轮的定时器会提前投递
+            this.timerWheel.setCurrentSecond(Math.max(this.wheelSecond, this.deliveredSecond));
+        }
+        else {
+            this.rebuild();
+        }
+    }
+
+
+    /**
+     * 队列中尚未入队的定时器全部加入，已入队的只加入没有投递过的，最多重复投递，不会丢失
+     */
+    private void rebuild() {
+        long beginTime = System.currentTimeMillis();
+        ConsumeQueue cq = this.defaultMessageStore.findConsumeQueue(TIMER_TOPIC, 0);
+
+        // 尚未入队的定时器可能已经过期，时间轮从其中最早的一秒开始
+        long startSecond = this.deliveredSecond;
+        long offset = Math.max(this.queueOffset, cq.getMinOffsetInQueue());
+        while (true) {
+            SelectMappedBufferResult bufferCQ = cq.getIndexBuffer(offset);
+            if (null == bufferCQ) {
+                break;
+            }
+
+            try {
+                for (int i = 0; i < bufferCQ.getSize(); i += ConsumeQueue.CQStoreUnitSize, offset++) {
+                    bufferCQ.getByteBuffer().getLong();
+                    bufferCQ.getByteBuffer().getInt();
+                    long tagsCode = bufferCQ.getByteBuffer().getLong();
+                    startSecond = Math.min(startSecond, deliverSecond(tagsCode));
+                }
+            }
+            finally {
+                bufferCQ.release();
+            }
+        }
+
+        this.timerLog.destroy();
+        this.timerWheel.reset(startSecond);
+
+        long count = 0;
+        offset = cq.getMinOffsetInQueue();
+        while (true) {
+            SelectMappedBufferResult bufferCQ = cq.getIndexBuffer(offset);
+            if (null == bufferCQ) {
+                break;
+            }
+
+            try {
+                for (int i = 0; i < bufferCQ.getSize(); i += ConsumeQueue.CQStoreUnitSize, offset++) {
+                    long offsetPy = bufferCQ.getByteBuffer().getLong();
+                    int sizePy = bufferCQ.getByteBuffer().getInt();
+                    long tagsCode = bufferCQ.getByteBuffer().getLong();
+                    long deliverSecond = deliverSecond(tagsCode);
+                    if (offset >= this.queueOffset || deliverSecond >= this.deliveredSecond) {
+                        if (this.timerWheel.add(deliverSecond, offsetPy, sizePy) == TimerWheel.AddOK) {
+                            count++;
+                        }
+                        else {
+                            log.error("rebuild timer wheel, add timer failed, offset " + offsetPy);
+                        }
+                    }
+                }
+            }
+            finally {
+                bufferCQ.release();
+            }
+        }
+
+        this.deliveredSecond = startSecond;
+        this.queueOffset = offset;
+        log.warn("rebuild timer wheel from second " + startSecond + ", " + count + " timers, queue offset "
+                + offset + ", eclipse time(ms) " + (System.currentTimeMillis() - beginTime));
+    }
+
+
+    public void start() {
+        this.enqueueService.start();
+        this.deliverService.start();
+    }
+
+
+    public void shutdown() {
+        this.enqueueService.shutdown();
+        this.deliverService.shutdown();
+        this.flush();
+        this.timerWheel.shutdown();
+        this.timerLog.shutdown();
+    }
+
+
+    private void flush() {
+        this.timerLog.flush();
+        this.timerWheel.flush();
+        this.persist();
+    }
+
+
+    public void buildRunningStats(HashMap<String, String> stats) {
+        long maxOffset = this.defaultMessageStore.getMaxOffsetInQueue(TIMER_TOPIC, 0);
+        String value = String.format("%d,%d,%d", this.deliveredSecond, this.queueOffset, maxOffset);
+        stats.put(RunningStats.timerMessageProgress.name(), value);
+    }
+
+
+    public String encode() {
+        return this.encode(false);
+    }
+
+
+    public String encode(final boolean prettyFormat) {
+        TimerProgressSerializeWrapper wrapper = new TimerProgressSerializeWrapper();
+        wrapper.setDeliveredSecond(this.deliveredSecond);
+        wrapper.setQueueOffset(this.queueOffset);
+        wrapper.setWheelSecond(this.timerWheel.getCurrentSecond());
+        return wrapper.toJson(prettyFormat);
+    }
+
+
+    @Override
+    public void decode(String jsonString) {
+        if (jsonString != null) {
+            TimerProgressSerializeWrapper wrapper =
+                    TimerProgressSerializeWrapper.fromJson(jsonString, TimerProgressSerializeWrapper.class);
+            if (wrapper != null) {
+                this.deliveredSecond = wrapper.getDeliveredSecond();
+                this.queueOffset = wrapper.getQueueOffset();
+                this.wheelSecond = wrapper.getWheelSecond();
+            }
+        }
+    }
+
+
+    public long getDeliveredSecond() {
+        return deliveredSecond;
+    }
+
+
+    public long getQueueOffset() {
+        return queueOffset;
+    }
+
+
+    @Override
+    public String configFilePath() {
+        return StorePathConfigHelper.getTimerProgressStorePath(this.defaultMessageStore.getMessageStoreConfig()
+            .getStorePathRootDir());
+    }
+
+
+    /**
+     * 将到期消息写回真实Topic，同一队列的消息按批写入
+     *
+     * @return 写入失败的定时器，消息已经不存在的直接丢弃
+     */
+    private TimerWheel.TimerRecords deliver(final TimerWheel.TimerRecords records) {
+        TimerWheel.TimerRecords failed = new TimerWheel.TimerRecords();
+        LinkedHashMap<String, DeliverBatch> batchTable = new LinkedHashMap<String, DeliverBatch>();
+        for (int i = 0; i < records.size(); i++) {
+            MessageExt msgExt =
+                    this.defaultMessageStore.lookMessageByOffset(records.getOffsetPy(i), records.getSizePy(i));
+            if (null == msgExt) {
+                log.warn("timer message not found, maybe commit log deleted, offset " + records.getOffsetPy(i));
+                continue;
+            }
+
+            MessageExtBrokerInner msgInner;
+            try {
+                msgInner = this.messageTimeup(msgExt);
+            }
+            catch (Exception e) {
+                // 缺少REAL_TOPIC、REAL_QID等属性，无法投递到正确的队列，直接跳过
+                log.error("timer message timeup error, drop it. msgExt=" + msgExt, e);
+                continue;
+            }
+
+            String key = msgInner.getTopic() + "-" + msgInner.getQueueId();
+            // 事务消息不支持批量写入
+            if (MessageSysFlag.getTransactionValue(msgInner.getSysFlag()) != MessageSysFlag.TransactionNotType) {
+                key = key + "-" + i;
+            }
+
+            DeliverBatch batch = batchTable.get(key);
+            if (null == batch) {
+                batch = new DeliverBatch();
+                batchTable.put(key, batch);
+            }
+            batch.add(msgInner, i);
+        }
+
+        int batchSize = Math.max(1, this.defaultMessageStore.getMessageStoreConfig().getTimerDeliverBatchSize());
+        for (DeliverBatch batch : batchTable.values()) {
+            for (int from = 0; from < batch.messages.size(); from += batchSize) {
+                int to = Math.min(from + batchSize, batch.messages.size());
+                if (!this.putMessages(batch.messages.subList(from, to))) {
+                    for (int j = from; j < to; j++) {
+                        failed.add(records, batch.indexes.get(j));
+                    }
+                }
+            }
+        }
+
+        return failed;
+    }
+
+
+    private boolean putMessages(final List<MessageExtBrokerInner> messages) {
+        MessageExtBrokerInner first = messages.get(0);
+        if (messages.size() > 1) {
+            MessageExtBatch messageExtBatch = new MessageExtBatch(messages);
+            messageExtBatch.setTopic(first.getTopic());
+            messageExtBatch.setQueueId(first.getQueueId());
+            messageExtBatch.setSysFlag(first.getSysFlag());
+            messageExtBatch.setBornTimestamp(first.getBornTimestamp());
+            messageExtBatch.setBornHost(first.getBornHost());
+            messageExtBatch.setStoreHost(first.getStoreHost());
+            messageExtBatch.setWaitStoreMsgOK(false);
+
+            PutMessageResult result = this.defaultMessageStore.putMessages(messageExtBatch);
+            if (result != null && result.isOk()) {
+                return true;
+            }
+
+            // 批次超过最大长度时逐条写入
+            if (null == result || result.getPutMessageStatus() != PutMessageStatus.MESSAGE_ILLEGAL) {
+                log.error("timer messages time up, but reput them failed, topic: {}, result: {}",
+                    first.getTopic(), result);
+                return false;
+            }
+        }
+
+        boolean ok = true;
+        for (MessageExtBrokerInner msgInner : messages) {
+            PutMessageResult result = this.defaultMessageStore.putMessage(msgInner);
+            if (null == result || !result.isOk()) {
+                log.error("timer message time up, but reput it failed, topic: {}, result: {}",
+                    msgInner.getTopic(), result);
+                ok = false;
+            }
+        }
+        return ok;
+    }
+
+
+    private MessageExtBrokerInner messageTimeup(final MessageExt msgExt) {
+        MessageExtBrokerInner msgInner = new MessageExtBrokerInner();
+        msgInner.setBody(msgExt.getBody());
+        msgInner.setFlag(msgExt.getFlag());
+        MessageAccessor.setProperties(msgInner, msgExt.getProperties());
+        MessageAccessor.clearProperty(msgInner, MessageConst.PROPERTY_DELIVER_TIME);
+
+        TopicFilterType topicFilterType = MessageExt.parseTopicFilterType(msgExt.getSysFlag());
+        long tagsCodeValue = MessageExtBrokerInner.tagsString2tagsCode(topicFilterType, msgInner.getTags());
+        msgInner.setTagsCode(tagsCodeValue);
+
+        msgInner.setSysFlag(msgExt.getSysFlag());
+        msgInner.setBornTimestamp(msgExt.getBornTimestamp());
+        msgInner.setBornHost(msgExt.getBornHost());
+        msgInner.setStoreHost(msgExt.getStoreHost());
+        msgInner.setReconsumeTimes(msgExt.getReconsumeTimes());
+
+        msgInner.setWaitStoreMsgOK(false);
+        msgInner.setPropertiesString(MessageDecoder.messageProperties2String(msgInner.getProperties()));
+
+        // 恢复Topic
+        msgInner.setTopic(msgInner.getProperty(MessageConst.PROPERTY_REAL_TOPIC));
+
+        // 恢复QueueId
+        String queueIdStr = msgInner.getProperty(MessageConst.PROPERTY_REAL_QUEUE_ID);
+        int queueId = Integer.parseInt(queueIdStr);
+        msgInner.setQueueId(queueId);
+
+        return msgInner;
+    }
+
+    static class DeliverBatch {
+        private final List<MessageExtBrokerInner> messages = new ArrayList<MessageExtBrokerInner>();
+        // 消息在到期定时器中的下标
+        private final List<Integer> indexes = new ArrayList<Integer>();
+
+
+        void add(final MessageExtBrokerInner msgInner, final int index) {
+            this.messages.add(msgInner);
+            this.indexes.add(index);
+        }
+    }
+
+    /**
+     * 从定时消息队列读取新消息挂到时间轮上，已经到期的直接投递
+     */
+    class EnqueueService extends ServiceThread {
+
+        @Override
+        public void run() {
+            log.info(this.getServiceName() + " service started");
+
+            while (!this.isStopped()) {
+                try {
+                    if (!this.enqueue()) {
+                        this.waitForRunning(100);
+                    }
+                }
+                catch (Exception e) {
+                    log.warn(this.getServiceName() + " service has exception. ", e);
+                    this.waitForRunning(1000);
+                }
+            }
+
+            log.info(this.getServiceName() + " service end");
+        }
+
+
+        /**
+         * @return 是否处理了新消息
+         */
+        private boolean enqueue() {
+            ConsumeQueue cq = TimerMessageService.this.defaultMessageStore.findConsumeQueue(TIMER_TOPIC, 0);
+            long offset = TimerMessageService.this.queueOffset;
+            SelectMappedBufferResult bufferCQ = cq.getIndexBuffer(offset);
+            if (null == bufferCQ) {
+                // 队列文件被删除，纠正为当前队列的最小值
+                long cqMinOffset = cq.getMinOffsetInQueue();
+                if (offset < cqMinOffset) {
+                    log.error("timer CQ offset invalid. offset=" + offset + ", cqMinOffset=" + cqMinOffset);
+                    TimerMessageService.this.queueOffset = cqMinOffset;
+                    return true;
+                }
+                return false;
+            }
+
+            // 连续到期的定时器攒成一批投递
+            TimerWheel.TimerRecords expired = new TimerWheel.TimerRecords();
+            long expiredFrom = offset;
+            try {
+                for (int i = 0; i < bufferCQ.getSize(); i += ConsumeQueue.CQStoreUnitSize, offset++) {
+                    long offsetPy = bufferCQ.getByteBuffer().getLong();
+                    int sizePy = bufferCQ.getByteBuffer().getInt();
+                    long tagsCode = bufferCQ.getByteBuffer().getLong();
+                    long deliverSecond = deliverSecond(tagsCode);
+
+                    int result = TimerMessageService.this.timerWheel.add(deliverSecond, offsetPy, sizePy);
+                    if (TimerWheel.AddExpired == result) {
+                        if (expired.isEmpty()) {
+                            expiredFrom = offset;
+                        }
+                        expired.add(deliverSecond, offsetPy, sizePy);
+                        continue;
+                    }
+
+                    if (!expired.isEmpty()) {
+                        if (!TimerMessageService.this.deliver(expired).isEmpty()) {
+                            TimerMessageService.this.queueOffset = expiredFrom;
+                            this.waitForRunning(1000);
+                            return true;
+                        }
+                        expired = new TimerWheel.TimerRecords();
+                    }
+
+                    if (TimerWheel.AddFailed == result) {
+                        TimerMessageService.this.queueOffset = offset;
+                        this.waitForRunning(1000);
+                        return true;
+                    }
+
+                    TimerMessageService.this.queueOffset = offset + 1;
+                }
+
+                if (!expired.isEmpty()) {
+                    if (!TimerMessageService.this.deliver(expired).isEmpty()) {
+                        TimerMessageService.this.queueOffset = expiredFrom;
+                        this.waitForRunning(1000);
+                        return true;
+                    }
+                }
+
+                TimerMessageService.this.queueOffset = offset;
+                return true;
+            }
+            finally {
+                bufferCQ.release();
+            }
+        }
+
+
+        @Override
+        public String getServiceName() {
+            return EnqueueService.class.getSimpleName();
+        }
+    }
+
+    /**
+     * 时间轮每秒前进一格，将到期的定时器写回CommitLog，并定期持久化进度
+     */
+    class DeliverService extends ServiceThread {
+        private long lastFlushTimestamp = System.currentTimeMillis();
+
+
+        @Override
+        public void run() {
+            log.info(this.getServiceName() + " service started");
+
+            while (!this.isStopped()) {
+                try {
+                    long now = TimerMessageService.this.defaultMessageStore.getSystemClock().now();
+                    if (TimerMessageService.this.timerWheel.getCurrentSecond() <= now / 1000) {
+                        this.tick();
+                    }
+                    else {
+                        this.waitForRunning(1000 - now % 1000);
+                    }
+
+                    this.flushIfNecessary(now);
+                }
+                catch (Exception e) {
+                    log.warn(this.getServiceName() + " service has exception. ", e);
+                    this.waitForRunning(1000);
+                }
+            }
+
+            log.info(this.getServiceName() + " service end");
+        }
+
+
+        private void tick() {
+            long second = TimerMessageService.this.timerWheel.getCurrentSecond();
+            TimerWheel.TimerRecords records = TimerMessageService.this.timerWheel.expire();
+            if (records.isEmpty()) {
+                TimerMessageService.this.deliveredSecond = second + 1;
+                return;
+            }
+
+            TimerWheel.TimerRecords failed = TimerMessageService.this.deliver(records);
+            if (failed.isEmpty()) {
+                TimerMessageService.this.deliveredSecond = second + 1;
+            }
+            else {
+                // 挂到下一秒重试，进度停在最早失败的定时器，异常退出后重建时不会丢失
+                TimerMessageService.this.timerWheel.reattach(failed);
+                TimerMessageService.this.deliveredSecond = Math.min(failed.getMinDeliverSecond(), second);
+                this.waitForRunning(1000);
+            }
+        }
+
+
+        private void flushIfNecessary(final long now) {
+            long interval = TimerMessageService.this.defaultMessageStore.getMessageStoreConfig()
+                .getFlushDelayOffsetInterval();
+            if (now - this.lastFlushTimestamp >= interval) {
+                this.lastFlushTimestamp = now;
+                TimerMessageService.this.flush();
+
+                long hourSlots =
+                        TimerMessageService.this.defaultMessageStore.getMessageStoreConfig()
+                            .getTimerWheelHourSlots();
+                long expiredAppendSecond =
+                        TimerMessageService.this.timerWheel.getCurrentSecond() - (hourSlots + 1)
+                                * SECONDS_PER_HOUR;
+                TimerMessageService.this.timerLog.deleteExpiredFile(expiredAppendSecond);
+            }
+        }
+
+
+        @Override
+        public String getServiceName() {
+            return DeliverService.class.getSimpleName();
+        }
+    }
+}
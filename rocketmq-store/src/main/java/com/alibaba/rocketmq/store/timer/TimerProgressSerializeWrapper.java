@@ -0,0 +1,61 @@
+/**
+ * Copyright (C) 2010-2013 Alibaba Group Holding Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.rocketmq.store.timer;
+
+import com.alibaba.rocketmq.remoting.protocol.RemotingSerializable;
+
+
+/**
+ * 定时消息进度，序列化包装
+ */
+public class TimerProgressSerializeWrapper extends RemotingSerializable {
+    // 这一秒之前到期的定时器都已经写回CommitLog
+    private long deliveredSecond = -1;
+    // 定时消息队列处理到哪里
+    private long queueOffset = 0;
+    // 时间轮下一个要处理的秒，投递失败时deliveredSecond会落后于它
+    private long wheelSecond = -1;
+
+
+    public long getDeliveredSecond() {
+        return deliveredSecond;
+    }
+
+
+    public void setDeliveredSecond(long deliveredSecond) {
+        this.deliveredSecond = deliveredSecond;
+    }
+
+
+    public long getQueueOffset() {
+        return queueOffset;
+    }
+
+
+    public void setQueueOffset(long queueOffset) {
+        this.queueOffset = queueOffset;
+    }
+
+
+    public long getWheelSecond() {
+        return wheelSecond;
+    }
+
+
+    public void setWheelSecond(long wheelSecond) {
+        this.wheelSecond = wheelSecond;
+    }
+}
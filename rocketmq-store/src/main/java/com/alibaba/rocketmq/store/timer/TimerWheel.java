@@ -0,0 +1,367 @@
+/**
+ * Copyright (C) 2010-2013 Alibaba Group Holding Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.rocketmq.store.timer;
+
+import com.alibaba.rocketmq.common.constant.LoggerName;
+import com.alibaba.rocketmq.store.MappedFile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Arrays;
+
+
+/**
+ * 两级时间轮，秒级时间轮覆盖当前一小时，小时级时间轮覆盖timerWheelHourSlots小时<br>
+ * 每个槽只在文件中记录链表头在TimerLog中的位置，定时器本身只存在于TimerLog，不占用堆内存<br>
+ * 整点时小时级时间轮对应的槽降级到秒级时间轮，超出小时级时间轮范围的定时器每轮回一次重新挂回原槽
+ */
+public class TimerWheel {
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.StoreLoggerName);
+    public static final int SecondSlots = 3600;
+    // 槽内记录链表头位置 + 1，0表示空槽
+    private static final int SlotSize = 8;
+
+    public static final int AddOK = 0;
+    // 投递时间已过，由调用方直接投递
+    public static final int AddExpired = 1;
+    public static final int AddFailed = 2;
+
+    private final String wheelPath;
+    private final int hourSlots;
+    private final TimerLog timerLog;
+    private RandomAccessFile randomAccessFile;
+    private FileChannel fileChannel;
+    private MappedByteBuffer mappedByteBuffer;
+    // 下一个要处理的秒，之前的槽都已经取出
+    private volatile long currentSecond;
+
+
+    public TimerWheel(final String wheelPath, final int hourSlots, final TimerLog timerLog) {
+        this.wheelPath = wheelPath;
+        this.hourSlots = hourSlots;
+        this.timerLog = timerLog;
+    }
+
+
+    /**
+     * @return 时间轮文件存在且与当前配置一致时返回true，否则创建新文件并返回false
+     */
+    public boolean load() throws IOException {
+        File file = new File(this.wheelPath);
+        MappedFile.ensureDirOK(file.getParent());
+        long fileSize = (long) (SecondSlots + this.hourSlots) * SlotSize;
+        boolean matched = file.exists() && file.length() == fileSize;
+        if (file.exists() && !matched) {
+            log.warn("timer wheel file size " + file.length() + " not matched " + fileSize + ", recreate it");
+            if (!file.delete()) {
+                log.error("delete timer wheel file failed, " + this.wheelPath);
+            }
+        }
+
+        this.randomAccessFile = new RandomAccessFile(file, "rw");
+        this.fileChannel = this.randomAccessFile.getChannel();
+        this.mappedByteBuffer = this.fileChannel.map(MapMode.READ_WRITE, 0, fileSize);
+        return matched;
+    }
+
+
+    /**
+     * 清空所有槽，从currentSecond开始计时
+     */
+    public synchronized void reset(final long currentSecond) {
+        for (int i = 0; i < SecondSlots + this.hourSlots; i++) {
+            this.setSlot(i, -1);
+        }
+        this.currentSecond = currentSecond;
+    }
+
+
+    public long getCurrentSecond() {
+        return currentSecond;
+    }
+
+
+    public synchronized void setCurrentSecond(final long currentSecond) {
+        this.currentSecond = currentSecond;
+    }
+
+
+    /**
+     * 添加一个定时器
+     *
+     * @return AddOK，投递时间已过返回AddExpired，写TimerLog失败返回AddFailed
+     */
+    public synchronized int add(final long deliverSecond, final long offsetPy, final int sizePy) {
+        if (deliverSecond < this.currentSecond) {
+            return AddExpired;
+        }
+
+        return this.link(deliverSecond, deliverSecond, offsetPy, sizePy) ? AddOK : AddFailed;
+    }
+
+
+    /**
+     * 投递失败的定时器重新挂到下一个要处理的槽上
+     */
+    public synchronized boolean reattach(final TimerRecords records) {
+        boolean result = true;
+        for (int i = 0; i < records.size(); i++) {
+            long deliverSecond = records.getDeliverSecond(i);
+            result = result && this.link(Math.max(deliverSecond, this.currentSecond), deliverSecond,
+                records.getOffsetPy(i), records.getSizePy(i));
+        }
+        return result;
+    }
+
+
+    /**
+     * 取出当前秒到期的定时器并前进一秒，整点时先将小时级时间轮本小时的槽降级<br>
+     * 槽里还没到期的定时器（时间轮位置回退过时会出现下一轮的定时器）重新挂回，不提前投递
+     */
+    public synchronized TimerRecords expire() {
+        long second = this.currentSecond;
+        if (second % SecondSlots == 0) {
+            this.cascade(second / SecondSlots);
+        }
+
+        TimerRecords detached = this.detach((int) (second % SecondSlots));
+        TimerRecords records = detached;
+        if (detached.getMaxDeliverSecond() > second) {
+            records = new TimerRecords();
+            for (int i = 0; i < detached.size(); i++) {
+                long deliverSecond = detached.getDeliverSecond(i);
+                if (deliverSecond > second
+                        && this.link(deliverSecond, deliverSecond, detached.getOffsetPy(i), detached.getSizePy(i))) {
+                    continue;
+                }
+
+                if (deliverSecond > second) {
+                    // 写TimerLog失败时宁可提前投递也不能丢失
+                    log.error("relink timer failed, deliver it now, deliver second " + deliverSecond
+                            + ", current second " + second + ", offset " + detached.getOffsetPy(i));
+                }
+                records.add(detached, i);
+            }
+            log.warn("{} timers in slot of second {} are not due yet, relink them",
+                detached.size() - records.size(), second);
+        }
+
+        this.currentSecond = second + 1;
+        return records;
+    }
+
+
+    private void cascade(final long hour) {
+        TimerRecords records = this.detach(SecondSlots + (int) (hour % this.hourSlots));
+        for (int i = 0; i < records.size(); i++) {
+            long deliverSecond = records.getDeliverSecond(i);
+            // 本小时到期的进入秒级时间轮，之后轮次的重新挂回小时级时间轮
+            if (!this.link(Math.max(deliverSecond, this.currentSecond), deliverSecond, records.getOffsetPy(i),
+                records.getSizePy(i))) {
+                log.error("cascade timer failed, deliver second " + deliverSecond + ", offset "
+                        + records.getOffsetPy(i));
+            }
+        }
+
+        if (records.size() > 0) {
+            log.info("cascade {} timers of hour {}", records.size(), hour);
+        }
+    }
+
+
+    /**
+     * @param slotSecond
+     *            决定挂在哪个槽上
+     * @param deliverSecond
+     *            记录的投递时间
+     */
+    private boolean link(final long slotSecond, final long deliverSecond, final long offsetPy, final int sizePy) {
+        int slot;
+        if (slotSecond - this.currentSecond < SecondSlots) {
+            slot = (int) (slotSecond % SecondSlots);
+        }
+        else {
+            slot = SecondSlots + (int) ((slotSecond / SecondSlots) % this.hourSlots);
+        }
+
+        long pos = this.timerLog.append(this.currentSecond, deliverSecond, offsetPy, sizePy, this.getSlot(slot));
+        if (pos < 0) {
+            return false;
+        }
+
+        this.setSlot(slot, pos);
+        return true;
+    }
+
+
+    /**
+     * 取出槽上所有定时器，按加入的先后顺序返回
+     */
+    private TimerRecords detach(final int slot) {
+        TimerRecords records = new TimerRecords();
+        long pos = this.getSlot(slot);
+        if (pos < 0) {
+            return records;
+        }
+
+        long minOffset = this.timerLog.getMinOffset();
+        long maxOffset = this.timerLog.getMaxOffset();
+        while (pos >= 0) {
+            if (pos < minOffset || pos >= maxOffset) {
+                log.error("timer log pos " + pos + " out of range [" + minOffset + ", " + maxOffset + "), slot "
+                        + slot);
+                break;
+            }
+
+            long prevPos = this.timerLog.read(pos, records);
+            // 链表只能指向更早写入的单元
+            if (prevPos < -1 || prevPos >= pos) {
+                log.error("read timer log failed, pos " + pos + ", prev pos " + prevPos);
+                break;
+            }
+            pos = prevPos;
+        }
+
+        this.setSlot(slot, -1);
+        records.reverse();
+        return records;
+    }
+
+
+    private long getSlot(final int slot) {
+        return this.mappedByteBuffer.getLong(slot * SlotSize) - 1;
+    }
+
+
+    private void setSlot(final int slot, final long pos) {
+        this.mappedByteBuffer.putLong(slot * SlotSize, pos + 1);
+    }
+
+
+    public void flush() {
+        this.mappedByteBuffer.force();
+    }
+
+
+    public void shutdown() {
+        this.flush();
+
+        MappedFile.clean(this.mappedByteBuffer);
+
+        try {
+            this.fileChannel.close();
+        }
+        catch (IOException e) {
+            log.error("close timer wheel file failed", e);
+        }
+    }
+
+    /**
+     * 一组定时器，按列存放避免为每个定时器创建对象
+     */
+    public static class TimerRecords {
+        private long[] deliverSeconds = new long[16];
+        private long[] offsetPys = new long[16];
+        private int[] sizePys = new int[16];
+        private int size = 0;
+
+
+        public void add(final long deliverSecond, final long offsetPy, final int sizePy) {
+            if (this.size == this.deliverSeconds.length) {
+                int capacity = this.size * 2;
+                this.deliverSeconds = Arrays.copyOf(this.deliverSeconds, capacity);
+                this.offsetPys = Arrays.copyOf(this.offsetPys, capacity);
+                this.sizePys = Arrays.copyOf(this.sizePys, capacity);
+            }
+
+            this.deliverSeconds[this.size] = deliverSecond;
+            this.offsetPys[this.size] = offsetPy;
+            this.sizePys[this.size] = sizePy;
+            this.size++;
+        }
+
+
+        public void add(final TimerRecords records, final int index) {
+            this.add(records.getDeliverSecond(index), records.getOffsetPy(index), records.getSizePy(index));
+        }
+
+
+        private void reverse() {
+            for (int i = 0, j = this.size - 1; i < j; i++, j--) {
+                long deliverSecond = this.deliverSeconds[i];
+                this.deliverSeconds[i] = this.deliverSeconds[j];
+                this.deliverSeconds[j] = deliverSecond;
+
+                long offsetPy = this.offsetPys[i];
+                this.offsetPys[i] = this.offsetPys[j];
+                this.offsetPys[j] = offsetPy;
+
+                int sizePy = this.sizePys[i];
+                this.sizePys[i] = this.sizePys[j];
+                this.sizePys[j] = sizePy;
+            }
+        }
+
+
+        public long getMaxDeliverSecond() {
+            long max = Long.MIN_VALUE;
+            for (int i = 0; i < this.size; i++) {
+                max = Math.max(max, this.deliverSeconds[i]);
+            }
+            return max;
+        }
+
+
+        public long getMinDeliverSecond() {
+            long min = Long.MAX_VALUE;
+            for (int i = 0; i < this.size; i++) {
+                min = Math.min(min, this.deliverSeconds[i]);
+            }
+            return min;
+        }
+
+
+        public long getDeliverSecond(final int index) {
+            return deliverSeconds[index];
+        }
+
+
+        public long getOffsetPy(final int index) {
+            return offsetPys[index];
+        }
+
+
+        public int getSizePy(final int index) {
+            return sizePys[index];
+        }
+
+
+        public int size() {
+            return size;
+        }
+
+
+        public boolean isEmpty() {
+            return 0 == size;
+        }
+    }
+}
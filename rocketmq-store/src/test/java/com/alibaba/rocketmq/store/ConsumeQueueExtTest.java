@@ -0,0 +1,219 @@
+package com.alibaba.rocketmq.store;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+
+public class ConsumeQueueExtTest {
+    private static final String StorePath = "." + File.separator + "unit_test_store" + File.separator
+            + "consume_queue_ext";
+    // 每个文件8个单元
+    private static final int UnitsPerFile = 8;
+    private static final int MappedFileSizeConsumeQueue = ConsumeQueue.CQStoreUnitSize * UnitsPerFile;
+    private static final long BitMap = 0x8000000000000001L;
+
+
+    private static ConsumeQueueExt newConsumeQueueExt() {
+        return new ConsumeQueueExt("TopicA", 0, StorePath, MappedFileSizeConsumeQueue);
+    }
+
+
+    /**
+     * 读取cqIndex对应的单元，返回{物理Offset, 位图}，单元不存在时返回null
+     */
+    private static long[] readUnit(ConsumeQueueExt ext, long cqIndex) {
+        SelectMappedBufferResult result = ext.getUnitBuffer(cqIndex);
+        if (null == result) {
+            return null;
+        }
+        try {
+            ByteBuffer buffer = result.getByteBuffer();
+            return new long[] { buffer.getLong(0), buffer.getLong(8) };
+        } finally {
+            result.release();
+        }
+    }
+
+
+    private static int unitCount(ConsumeQueueExt ext, long cqIndex) {
+        SelectMappedBufferResult result = ext.getUnitBuffer(cqIndex);
+        if (null == result) {
+            return 0;
+        }
+        result.release();
+        return result.getSize() / ConsumeQueueExt.CQExtUnitSize;
+    }
+
+
+    @Before
+    public void setUp() {
+        // 清理上次失败遗留的文件
+        ConsumeQueueExt ext = newConsumeQueueExt();
+        ext.load();
+        ext.destroy();
+    }
+
+
+    @Test
+    public void test_put_pads_blank_units() {
+        ConsumeQueueExt ext = newConsumeQueueExt();
+        assertTrue(ext.load());
+
+        assertTrue(ext.put(0, 100, BitMap));
+        // 下标1、2缺失，填空白单元
+        assertTrue(ext.put(3, 400, BitMap));
+        assertEquals(4, unitCount(ext, 0));
+        assertEquals(0, readUnit(ext, 1)[0]);
+        assertEquals(0, readUnit(ext, 2)[1]);
+        assertEquals(400, readUnit(ext, 3)[0]);
+
+        // 重复分发的单元不会覆盖
+        assertTrue(ext.put(3, 999, BitMap));
+        assertEquals(400, readUnit(ext, 3)[0]);
+
+        // 空白单元跨越文件边界
+        assertTrue(ext.put(10, 1100, BitMap));
+        assertEquals(UnitsPerFile - 4, unitCount(ext, 4));
+        assertEquals(0, readUnit(ext, 7)[0]);
+        assertEquals(3, unitCount(ext, 8));
+        assertEquals(0, readUnit(ext, 9)[1]);
+        assertEquals(1100, readUnit(ext, 10)[0]);
+        assertEquals(BitMap, readUnit(ext, 10)[1]);
+
+        ext.destroy();
+    }
+
+
+    @Test
+    public void test_rebuild_when_fall_behind() {
+        ConsumeQueueExt ext = newConsumeQueueExt();
+        assertTrue(ext.load());
+        assertTrue(ext.put(0, 100, BitMap));
+
+        // 落后一个文件以上，删除旧文件，从新下标所在的文件重新开始
+        assertTrue(ext.put(UnitsPerFile * 2 + 4, 2100, BitMap));
+        assertNull(ext.getUnitBuffer(0));
+        assertNull(ext.getUnitBuffer(UnitsPerFile));
+        assertEquals(5, unitCount(ext, UnitsPerFile * 2));
+        assertEquals(0, readUnit(ext, UnitsPerFile * 2)[0]);
+        assertEquals(2100, readUnit(ext, UnitsPerFile * 2 + 4)[0]);
+
+        // 落后不超过一个文件时补空白单元
+        assertTrue(ext.put(UnitsPerFile * 3 + 2, 2700, BitMap));
+        assertEquals(UnitsPerFile, unitCount(ext, UnitsPerFile * 2));
+        assertEquals(3, unitCount(ext, UnitsPerFile * 3));
+        assertEquals(2700, readUnit(ext, UnitsPerFile * 3 + 2)[0]);
+
+        ext.destroy();
+    }
+
+
+    @Test
+    public void test_truncate_after_load() {
+        ConsumeQueueExt ext = newConsumeQueueExt();
+        assertTrue(ext.load());
+        for (int i = 0; i < 12; i++) {
+            assertTrue(ext.put(i, i * 100, BitMap));
+        }
+        ext.commit(0);
+
+        // 重新加载后所有文件都被当作写满
+        ext = newConsumeQueueExt();
+        assertTrue(ext.load());
+        assertEquals(UnitsPerFile, unitCount(ext, UnitsPerFile));
+
+        // ConsumeQueue比扩展文件长，缺少的单元按空白处理
+        ext.truncate(14);
+        assertEquals(6, unitCount(ext, UnitsPerFile));
+        assertEquals(1100, readUnit(ext, 11)[0]);
+        assertEquals(0, readUnit(ext, 12)[1]);
+        assertEquals(0, readUnit(ext, 13)[1]);
+
+        // ConsumeQueue比扩展文件短，删除多出的单元
+        ext.truncate(10);
+        assertEquals(2, unitCount(ext, UnitsPerFile));
+        assertNull(ext.getUnitBuffer(10));
+        assertEquals(UnitsPerFile, unitCount(ext, 0));
+
+        // 截断后从截断位置继续写
+        assertTrue(ext.put(10, 5000, BitMap));
+        assertEquals(3, unitCount(ext, UnitsPerFile));
+        assertEquals(5000, readUnit(ext, 10)[0]);
+
+        // 截断到文件边界
+        ext.truncate(UnitsPerFile);
+        assertNull(ext.getUnitBuffer(UnitsPerFile));
+        assertTrue(ext.put(UnitsPerFile, 800, BitMap));
+        assertEquals(800, readUnit(ext, UnitsPerFile)[0]);
+
+        ext.destroy();
+    }
+
+
+    @Test
+    public void test_unit_alignment() {
+        ConsumeQueueExt ext = newConsumeQueueExt();
+        assertTrue(ext.load());
+        for (int i = 0; i < UnitsPerFile * 2 + 3; i++) {
+            assertTrue(ext.put(i, i * 100, BitMap));
+        }
+
+        // 拉消息时第i字节的ConsumeQueue单元对应扩展单元的位置为i/20*16
+        for (int start = 0; start < UnitsPerFile * 2 + 3; start++) {
+            SelectMappedBufferResult result = ext.getUnitBuffer(start);
+            assertNotNull(result);
+            int cqUnitsInFile = UnitsPerFile - start % UnitsPerFile;
+            for (int i = 0; i < cqUnitsInFile * ConsumeQueue.CQStoreUnitSize; i += ConsumeQueue.CQStoreUnitSize) {
+                int extPos = i / ConsumeQueue.CQStoreUnitSize * ConsumeQueueExt.CQExtUnitSize;
+                long cqIndex = start + i / ConsumeQueue.CQStoreUnitSize;
+                if (extPos + ConsumeQueueExt.CQExtUnitSize <= result.getSize()) {
+                    assertEquals(cqIndex * 100, result.getByteBuffer().getLong(extPos));
+                } else {
+                    // 扩展单元还没写入
+                    assertTrue(cqIndex >= UnitsPerFile * 2 + 3);
+                }
+            }
+            result.release();
+        }
+
+        ext.destroy();
+    }
+
+
+    @Test
+    public void test_delete_expired_file_with_blank_units() {
+        ConsumeQueueExt ext = newConsumeQueueExt();
+        assertTrue(ext.load());
+        // 第一个文件的最后一个单元为空白
+        for (int i = 0; i < 6; i++) {
+            assertTrue(ext.put(i, 1000 + i, BitMap));
+        }
+        for (int i = UnitsPerFile + 1; i < UnitsPerFile * 2 + 1; i++) {
+            assertTrue(ext.put(i, 1000 + i, BitMap));
+        }
+
+        // 空白单元的物理Offset为0，所在文件被当作过期删除，只是少了过滤提示
+        assertEquals(1, ext.deleteExpiredFile(1));
+        assertNull(ext.getUnitBuffer(0));
+        assertEquals(1000 + UnitsPerFile + 1, readUnit(ext, UnitsPerFile + 1)[0]);
+
+        // 最后一个单元仍然有效的文件保留
+        assertEquals(0, ext.deleteExpiredFile(1000 + UnitsPerFile * 2 - 1));
+        assertEquals(1, ext.deleteExpiredFile(1000 + UnitsPerFile * 2));
+        assertNull(ext.getUnitBuffer(UnitsPerFile + 1));
+
+        // 正在写的文件不删除
+        assertEquals(0, ext.deleteExpiredFile(Long.MAX_VALUE));
+        assertEquals(1000 + UnitsPerFile * 2, readUnit(ext, UnitsPerFile * 2)[0]);
+
+        ext.destroy();
+    }
+}
@@ -1,5 +1,10 @@
 package com.alibaba.rocketmq.store;
 
+import com.alibaba.rocketmq.common.filter.FilterAPI;
+import com.alibaba.rocketmq.common.message.MessageAccessor;
+import com.alibaba.rocketmq.common.message.MessageDecoder;
+import com.alibaba.rocketmq.common.message.MessageExt;
+import com.alibaba.rocketmq.common.protocol.heartbeat.SubscriptionData;
 import com.alibaba.rocketmq.store.config.FlushDiskType;
 import com.alibaba.rocketmq.store.config.MessageStoreConfig;
 import org.junit.AfterClass;
@@ -9,8 +14,15 @@ import org.junit.Test;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 
@@ -170,4 +182,471 @@ public class DefaultMessageStoreTest {
         master.destroy();
         System.out.println("================================================================");
     }
+
+
+    @Test
+    public void test_async_group_commit() throws Exception {
+        final int totalMsgs = 1000;
+        QUEUE_TOTAL = 1;
+
+        // 构造消息体
+        MessageBody = StoreMessage.getBytes();
+
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setMappedFileSizeCommitLog(1024 * 8);
+        // 开启GroupCommit功能
+        messageStoreConfig.setFlushDiskType(FlushDiskType.SYNC_FLUSH);
+
+        MessageStore master = new DefaultMessageStore(messageStoreConfig, null);
+        assertTrue(master.load());
+        master.start();
+
+        // 同一线程连续提交，不等待刷盘
+        final CountDownLatch latch = new CountDownLatch(totalMsgs);
+        final AtomicInteger putOK = new AtomicInteger(0);
+        List<PutMessageFuture> futures = new ArrayList<PutMessageFuture>(totalMsgs);
+        for (int i = 0; i < totalMsgs; i++) {
+            PutMessageFuture future = master.asyncPutMessage(buildMessage());
+            future.addCallback(new PutMessageCallback() {
+                @Override
+                public void onComplete(PutMessageResult putMessageResult) {
+                    if (PutMessageStatus.PUT_OK == putMessageResult.getPutMessageStatus()) {
+                        putOK.incrementAndGet();
+                    }
+                    latch.countDown();
+                }
+            });
+            futures.add(future);
+        }
+
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertTrue(putOK.get() == totalMsgs);
+        for (PutMessageFuture future : futures) {
+            assertTrue(future.isDone());
+            assertTrue(future.get().isOk());
+        }
+
+        // 关闭存储服务
+        master.shutdown();
+
+        // 删除文件
+        master.destroy();
+    }
+
+
+    public MessageExtBatch buildMessageBatch(int batchSize) {
+        List<MessageExtBrokerInner> msgs = new ArrayList<MessageExtBrokerInner>(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            MessageExtBrokerInner msg = buildMessage();
+            msg.setQueueId(0);
+            msg.setSysFlag(0);
+            msgs.add(msg);
+        }
+
+        MessageExtBatch batch = new MessageExtBatch(msgs);
+        batch.setTopic("AAA");
+        batch.setQueueId(0);
+        batch.setSysFlag(0);
+        batch.setBornTimestamp(System.currentTimeMillis());
+        batch.setStoreHost(StoreHost);
+        batch.setBornHost(BornHost);
+        return batch;
+    }
+
+
+    @Test
+    public void test_put_messages_batch() throws Exception {
+        final int batchSize = 10;
+        final int totalBatches = 1000;
+
+        // 构造消息体
+        MessageBody = StoreMessage.getBytes();
+
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        // 每个物理映射文件 8K，批次会跨越文件边界
+        messageStoreConfig.setMappedFileSizeCommitLog(1024 * 8);
+        messageStoreConfig.setMappedFileSizeConsumeQueue(1024 * 4);
+        messageStoreConfig.setMaxHashSlotNum(100);
+        messageStoreConfig.setMaxIndexNum(100 * 10);
+
+        MessageStore master = new DefaultMessageStore(messageStoreConfig, null);
+        assertTrue(master.load());
+        master.start();
+
+        for (int i = 0; i < totalBatches; i++) {
+            PutMessageResult result = master.putMessages(buildMessageBatch(batchSize));
+            assertTrue(result.isOk());
+            assertTrue(result.getAppendMessageResult().getMsgNum() == batchSize);
+            // 同一批次的逻辑队列offset连续
+            assertTrue(result.getAppendMessageResult().getLogicOffset() == (long) i * batchSize);
+            assertTrue(result.getAppendMessageResult().getMsgId().split(",").length == batchSize);
+        }
+
+        // 关闭存储服务
+        master.shutdown();
+
+        // 删除文件
+        master.destroy();
+    }
+
+
+    @Test
+    public void test_parallel_build_consume_queue() throws Exception {
+        final int totalMsgs = 1000;
+        QUEUE_TOTAL = 8;
+        QueueId.set(0);
+
+        // 构造消息体
+        MessageBody = StoreMessage.getBytes();
+
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setMappedFileSizeCommitLog(1024 * 8);
+        messageStoreConfig.setMappedFileSizeConsumeQueue(1024 * 4);
+        messageStoreConfig.setMaxHashSlotNum(100);
+        messageStoreConfig.setMaxIndexNum(100 * 10);
+        // 4个线程并行构建ConsumeQueue
+        messageStoreConfig.setConsumeQueueDispatchStripes(4);
+
+        MessageStore master = new DefaultMessageStore(messageStoreConfig, null);
+        assertTrue(master.load());
+        master.start();
+
+        for (int i = 0; i < totalMsgs; i++) {
+            MessageExtBrokerInner msg = buildMessage();
+            msg.setSysFlag(0);
+            assertTrue(master.putMessage(msg).isOk());
+        }
+
+        // 等待所有队列构建完成
+        long expected = totalMsgs / QUEUE_TOTAL;
+        for (int i = 0; i < 100; i++) {
+            boolean done = true;
+            for (int queueId = 0; queueId < QUEUE_TOTAL; queueId++) {
+                done &= master.getMaxOffsetInQueue("AAA", queueId) == expected;
+            }
+            if (done) {
+                break;
+            }
+            Thread.sleep(100);
+        }
+
+        // 每个队列的消息按顺序写入
+        for (int queueId = 0; queueId < QUEUE_TOTAL; queueId++) {
+            assertTrue(master.getMaxOffsetInQueue("AAA", queueId) == expected);
+            long lastPhyOffset = -1;
+            for (long offset = 0; offset < expected; offset++) {
+                long phyOffset = master.getCommitLogOffsetInQueue("AAA", queueId, offset);
+                assertTrue(phyOffset > lastPhyOffset);
+                lastPhyOffset = phyOffset;
+            }
+        }
+
+        // 关闭存储服务
+        master.shutdown();
+
+        // 删除文件
+        master.destroy();
+    }
+
+
+    @Test
+    public void test_dispatch_back_pressure() throws Exception {
+        final int threads = 8;
+        final int batchesPerThread = 50;
+        final int batchSize = 5;
+        QUEUE_TOTAL = 4;
+        QueueId.set(0);
+
+        // 构造消息体
+        MessageBody = StoreMessage.getBytes();
+
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setMappedFileSizeCommitLog(1024 * 64);
+        messageStoreConfig.setMappedFileSizeConsumeQueue(1024 * 4);
+        messageStoreConfig.setMaxHashSlotNum(100);
+        messageStoreConfig.setMaxIndexNum(100 * 10);
+        // 分发队列很小，写消息线程会频繁等待分发
+        messageStoreConfig.setPutMsgIndexHighWater(8);
+
+        final MessageStore master = new DefaultMessageStore(messageStoreConfig, null);
+        assertTrue(master.load());
+        master.start();
+
+        // 超过分发队列容量的批次无法写入
+        assertTrue(master.putMessages(buildMessageBatch(9)).getPutMessageStatus() == PutMessageStatus.MESSAGE_ILLEGAL);
+
+        final AtomicInteger failed = new AtomicInteger(0);
+        final CountDownLatch latch = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < batchesPerThread; i++) {
+                            MessageExtBrokerInner msg = buildMessage();
+                            msg.setSysFlag(0);
+                            if (!master.putMessage(msg).isOk()) {
+                                failed.incrementAndGet();
+                            }
+                            if (!master.putMessages(buildMessageBatch(batchSize)).isOk()) {
+                                failed.incrementAndGet();
+                            }
+                        }
+                    } finally {
+                        latch.countDown();
+                    }
+                }
+            }.start();
+        }
+
+        assertTrue(latch.await(60, TimeUnit.SECONDS));
+        assertTrue(failed.get() == 0);
+
+        // 所有消息都分发到ConsumeQueue
+        final long totalMsgs = (long) threads * batchesPerThread * (1 + batchSize);
+        long built = 0;
+        for (int i = 0; i < 100; i++) {
+            built = 0;
+            for (int queueId = 0; queueId < QUEUE_TOTAL; queueId++) {
+                built += master.getMaxOffsetInQueue("AAA", queueId);
+            }
+            if (built == totalMsgs) {
+                break;
+            }
+            Thread.sleep(100);
+        }
+        assertTrue(built == totalMsgs);
+
+        // 关闭存储服务
+        master.shutdown();
+
+        // 删除文件
+        master.destroy();
+    }
+
+
+    @Test
+    public void test_arriving_listener_after_transfer() throws Exception {
+        final int totalMsgs = 500;
+        QUEUE_TOTAL = 4;
+        QueueId.set(0);
+
+        // 构造消息体
+        MessageBody = StoreMessage.getBytes();
+
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setMappedFileSizeCommitLog(1024 * 8);
+        messageStoreConfig.setMappedFileSizeConsumeQueue(1024 * 4);
+        messageStoreConfig.setMaxHashSlotNum(100);
+        messageStoreConfig.setMaxIndexNum(100 * 10);
+        // 消息先写入写缓冲，转存到FileChannel之后才可读
+        messageStoreConfig.setTransientStorePoolEnable(true);
+
+        // 唤醒时消息必须已经可读，且只通知消息所在的队列
+        final AtomicReference<MessageStore> storeRef = new AtomicReference<MessageStore>();
+        final AtomicInteger notReadable = new AtomicInteger(0);
+        final long[] arrivedOffsets = new long[QUEUE_TOTAL];
+        MessageStore master = new DefaultMessageStore(messageStoreConfig, null, new MessageArrivingListener() {
+            @Override
+            public void arriving(String topic, int queueId, long maxOffset, long tagsCode) {
+                GetMessageResult result = storeRef.get().getMessage("GROUP_A", topic, queueId, maxOffset - 1, 1, null);
+                if (result.getStatus() != GetMessageStatus.FOUND) {
+                    notReadable.incrementAndGet();
+                }
+                result.release();
+                synchronized (arrivedOffsets) {
+                    if ("AAA".equals(topic) && arrivedOffsets[queueId] + 1 == maxOffset) {
+                        arrivedOffsets[queueId] = maxOffset;
+                    }
+                }
+            }
+        });
+        storeRef.set(master);
+        assertTrue(master.load());
+        master.start();
+
+        for (int i = 0; i < totalMsgs; i++) {
+            MessageExtBrokerInner msg = buildMessage();
+            msg.setSysFlag(0);
+            assertTrue(master.putMessage(msg).isOk());
+        }
+
+        long expected = totalMsgs / QUEUE_TOTAL;
+        for (int queueId = 0; queueId < QUEUE_TOTAL; queueId++) {
+            for (int i = 0; i < 100 && master.getMaxOffsetInQueue("AAA", queueId) < expected; i++) {
+                Thread.sleep(100);
+            }
+            assertEquals(expected, master.getMaxOffsetInQueue("AAA", queueId));
+        }
+
+        assertEquals(0, notReadable.get());
+        synchronized (arrivedOffsets) {
+            for (int queueId = 0; queueId < QUEUE_TOTAL; queueId++) {
+                assertEquals(expected, arrivedOffsets[queueId]);
+            }
+        }
+
+        // 关闭存储服务
+        master.shutdown();
+
+        // 删除文件
+        master.destroy();
+    }
+
+
+    private MessageExtBrokerInner buildMessageWithProperty(String key, String value) {
+        MessageExtBrokerInner msg = buildMessage();
+        msg.setQueueId(0);
+        msg.setSysFlag(0);
+        MessageAccessor.putProperty(msg, key, value);
+        msg.setPropertiesString(MessageDecoder.messageProperties2String(msg.getProperties()));
+        return msg;
+    }
+
+
+    private static void waitForDispatch(MessageStore master, String topic, long expected) throws Exception {
+        for (int i = 0; i < 100 && master.getMaxOffsetInQueue(topic, 0) < expected; i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(expected, master.getMaxOffsetInQueue(topic, 0));
+    }
+
+
+    /**
+     * 拉取队列0中所有匹配订阅的消息，返回消息的逻辑队列offset
+     */
+    private static List<Long> pullMatched(MessageStore master, String topic, SubscriptionData subscriptionData) {
+        List<Long> offsets = new ArrayList<Long>();
+        long offset = 0;
+        while (offset < master.getMaxOffsetInQueue(topic, 0)) {
+            GetMessageResult result = master.getMessage("GROUP_A", topic, 0, offset, 32, subscriptionData);
+            for (ByteBuffer buffer : result.getMessageBufferList()) {
+                MessageExt msg = MessageDecoder.decode(buffer);
+                offsets.add(msg.getQueueOffset());
+            }
+            result.release();
+            assertTrue(result.getNextBeginOffset() > offset);
+            offset = result.getNextBeginOffset();
+        }
+        return offsets;
+    }
+
+
+    @Test
+    public void test_property_filter_with_consume_queue_ext() throws Exception {
+        final int totalMsgs = 40;
+
+        // 构造消息体
+        MessageBody = StoreMessage.getBytes();
+
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setMappedFileSizeCommitLog(1024 * 64);
+        // 每个ConsumeQueue文件16个单元，扩展文件跨越多个文件
+        messageStoreConfig.setMappedFileSizeConsumeQueue(ConsumeQueue.CQStoreUnitSize * 16);
+        messageStoreConfig.setMaxHashSlotNum(100);
+        messageStoreConfig.setMaxIndexNum(100 * 10);
+        messageStoreConfig.setConsumeQueueExtEnable(true);
+
+        DefaultMessageStore master = new DefaultMessageStore(messageStoreConfig, null);
+        assertTrue(master.load());
+        master.start();
+        for (int i = 0; i < totalMsgs; i++) {
+            assertTrue(master.putMessage(buildMessageWithProperty("color", i % 4 == 0 ? "red" : "blue")).isOk());
+        }
+        waitForDispatch(master, "AAA", totalMsgs);
+        master.shutdown();
+
+        // 重启后恢复，扩展文件按ConsumeQueue截断
+        master = new DefaultMessageStore(messageStoreConfig, null);
+        assertTrue(master.load());
+        master.start();
+        // 模拟扩展文件落后于ConsumeQueue，缺失的单元补空白
+        master.findConsumeQueue("AAA", 0).getConsumeQueueExt().truncate(25);
+        for (int i = totalMsgs; i < totalMsgs * 2; i++) {
+            assertTrue(master.putMessage(buildMessageWithProperty("color", i % 4 == 0 ? "red" : "blue")).isOk());
+        }
+        waitForDispatch(master, "AAA", totalMsgs * 2);
+
+        // 不匹配的消息被跳过，匹配的消息一条不少
+        List<Long> expected = new ArrayList<Long>();
+        for (long i = 0; i < totalMsgs * 2; i += 4) {
+            expected.add(i);
+        }
+        assertEquals(expected, pullMatched(master, "AAA", FilterAPI.buildSubscriptionData("GROUP_A", "AAA",
+            "color=red")));
+        assertEquals(totalMsgs * 2 - expected.size(),
+            pullMatched(master, "AAA", FilterAPI.buildSubscriptionData("GROUP_A", "AAA", "color!=red")).size());
+        assertTrue(pullMatched(master, "AAA", FilterAPI.buildSubscriptionData("GROUP_A", "AAA", "color=green"))
+            .isEmpty());
+
+        // 关闭存储服务
+        master.shutdown();
+
+        // 删除文件
+        master.destroy();
+    }
+
+
+    @Test
+    public void test_property_filter_offsets() throws Exception {
+        final int totalMsgs = 64;
+        // 最长的Topic，长度字节取最大值
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < Byte.MAX_VALUE; i++) {
+            sb.append('T');
+        }
+        final String topic = sb.toString();
+
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setMappedFileSizeCommitLog(1024 * 64);
+        messageStoreConfig.setMaxHashSlotNum(100);
+        messageStoreConfig.setMaxIndexNum(100 * 10);
+
+        DefaultMessageStore master = new DefaultMessageStore(messageStoreConfig, null);
+        assertTrue(master.load());
+        master.start();
+        for (int i = 0; i < totalMsgs; i++) {
+            MessageExtBrokerInner msg = buildMessage();
+            msg.setTopic(topic);
+            msg.setQueueId(0);
+            msg.setSysFlag(0);
+            // 消息体长度各不相同，空消息体与跨越多个字节的长度都要覆盖
+            msg.setBody(new byte[i % 8 == 0 ? 0 : i * 131]);
+            if (i % 3 != 0) {
+                MessageAccessor.putProperty(msg, "color", i % 2 == 0 ? "red" : "blue");
+            }
+            // 属性较多，属性长度超过一个字节
+            for (int k = 0; k < i % 5; k++) {
+                MessageAccessor.putProperty(msg, "extra" + k, sb.substring(0, 50));
+            }
+            msg.setPropertiesString(MessageDecoder.messageProperties2String(msg.getProperties()));
+            assertTrue(master.putMessage(msg).isOk());
+        }
+        waitForDispatch(master, topic, totalMsgs);
+
+        List<Long> red = new ArrayList<Long>();
+        List<Long> notRed = new ArrayList<Long>();
+        List<Long> redWithExtra = new ArrayList<Long>();
+        for (long i = 0; i < totalMsgs; i++) {
+            boolean isRed = i % 3 != 0 && i % 2 == 0;
+            (isRed ? red : notRed).add(i);
+            if (isRed && i % 5 > 3) {
+                redWithExtra.add(i);
+            }
+        }
+        assertEquals(red, pullMatched(master, topic, FilterAPI.buildSubscriptionData("GROUP_A", topic, "color=red")));
+        // 没有该属性的消息也满足!=
+        assertEquals(notRed,
+            pullMatched(master, topic, FilterAPI.buildSubscriptionData("GROUP_A", topic, "color!=red")));
+        assertEquals(redWithExtra, pullMatched(master, topic,
+            FilterAPI.buildSubscriptionData("GROUP_A", topic, "color=red && extra3=" + sb.substring(0, 50))));
+        assertEquals(totalMsgs,
+            pullMatched(master, topic, FilterAPI.buildSubscriptionData("GROUP_A", topic, "TAGS=TAG1")).size());
+
+        // 关闭存储服务
+        master.shutdown();
+
+        // 删除文件
+        master.destroy();
+    }
 }
@@ -0,0 +1,77 @@
+package com.alibaba.rocketmq.store;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertTrue;
+
+
+public class DispatchRingBufferTest {
+
+    private static DispatchRequest buildRequest(long commitLogOffset) {
+        return new DispatchRequest("TopicTest", 0, commitLogOffset, 100, 0, System.currentTimeMillis(),
+                commitLogOffset / 100, null, 0, 0);
+    }
+
+
+    @Test
+    public void test_offer_poll() {
+        DispatchRingBuffer ringBuffer = new DispatchRingBuffer(6);
+        // 容量向上取2的幂
+        assertTrue(ringBuffer.getCapacity() == 8);
+        assertTrue(ringBuffer.poll() == null);
+
+        for (int i = 0; i < 8; i++) {
+            assertTrue(ringBuffer.offer(buildRequest(i * 100)));
+        }
+
+        // 队列已满
+        assertTrue(!ringBuffer.offer(buildRequest(800)));
+        assertTrue(ringBuffer.size() == 8);
+
+        // 先进先出
+        for (int i = 0; i < 8; i++) {
+            DispatchRequest request = ringBuffer.poll();
+            assertTrue(request.getCommitLogOffset() == i * 100);
+        }
+
+        assertTrue(ringBuffer.isEmpty());
+        assertTrue(ringBuffer.offer(buildRequest(800)));
+        assertTrue(ringBuffer.poll().getCommitLogOffset() == 800);
+    }
+
+
+    @Test
+    public void test_multi_producer() throws InterruptedException {
+        final DispatchRingBuffer ringBuffer = new DispatchRingBuffer(1024);
+        final int producers = 4;
+        final int perProducer = 100000;
+
+        Thread[] threads = new Thread[producers];
+        for (int i = 0; i < producers; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < perProducer; j++) {
+                        while (!ringBuffer.offer(buildRequest(j))) {
+                            Thread.yield();
+                        }
+                    }
+                }
+            });
+            threads[i].start();
+        }
+
+        int consumed = 0;
+        while (consumed < producers * perProducer) {
+            if (ringBuffer.poll() != null) {
+                consumed++;
+            }
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertTrue(ringBuffer.isEmpty());
+    }
+}
@@ -3,12 +3,14 @@
  */
 package com.alibaba.rocketmq.store;
 
+import com.alibaba.rocketmq.store.config.MessageStoreConfig;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Ignore;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 import static org.junit.Assert.assertTrue;
 
@@ -66,6 +68,89 @@ public class MappedFileTest {
     }
 
 
+    @Test
+    public void test_write_buffer_transfer() throws IOException {
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setMappedFileSizeCommitLog(1024 * 64);
+        messageStoreConfig.setTransientStorePoolEnable(true);
+        messageStoreConfig.setTransientStorePoolSize(1);
+        TransientStorePool transientStorePool = new TransientStorePool(messageStoreConfig);
+        transientStorePool.init();
+
+        MappedFile mappedFile =
+                new MappedFile("./unit_test_store/MappedFileTest/001", 1024 * 64, transientStorePool);
+        assertTrue(transientStorePool.remainBufferNumbs() == 0);
+
+        mappedFile.appendMessage(StoreMessage, new AppendMessageCallback() {
+            @Override
+            public AppendMessageResult doAppend(long fileFromOffset, ByteBuffer byteBuffer, int maxBlank, Object msg) {
+                byte[] data = ((String) msg).getBytes();
+                byteBuffer.put(data);
+                return new AppendMessageResult(AppendMessageStatus.PUT_OK, fileFromOffset + byteBuffer.position()
+                        - data.length, data.length, null, 0, 0);
+            }
+        });
+
+        // 写缓冲中的数据在写入FileChannel之前不可读
+        assertTrue(mappedFile.getWrotePosition() == StoreMessage.length());
+        assertTrue(mappedFile.getReadPosition() == 0);
+        assertTrue(mappedFile.selectMappedBuffer(0) == null);
+
+        assertTrue(mappedFile.transfer(0) == StoreMessage.length());
+        assertTrue(mappedFile.commit(0) == StoreMessage.length());
+
+        SelectMappedBufferResult selectMappedBufferResult = mappedFile.selectMappedBuffer(0);
+        byte[] data = new byte[StoreMessage.length()];
+        selectMappedBufferResult.getByteBuffer().get(data);
+        selectMappedBufferResult.release();
+        assertTrue(new String(data).equals(StoreMessage));
+
+        // 文件删除后写缓冲归还缓冲池
+        mappedFile.shutdown(1000);
+        assertTrue(mappedFile.destroy(1000));
+        assertTrue(transientStorePool.remainBufferNumbs() == 1);
+        transientStorePool.destroy();
+    }
+
+
+    @Test
+    public void test_write_buffer_returned_once() throws IOException {
+        final int fileSize = 1024 * 64;
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setMappedFileSizeCommitLog(fileSize);
+        messageStoreConfig.setTransientStorePoolEnable(true);
+        messageStoreConfig.setTransientStorePoolSize(1);
+        TransientStorePool transientStorePool = new TransientStorePool(messageStoreConfig);
+        transientStorePool.init();
+
+        MappedFile mappedFile =
+                new MappedFile("./unit_test_store/MappedFileTest/002", fileSize, transientStorePool);
+        mappedFile.appendMessage(new byte[fileSize], new AppendMessageCallback() {
+            @Override
+            public AppendMessageResult doAppend(long fileFromOffset, ByteBuffer byteBuffer, int maxBlank, Object msg) {
+                byte[] data = (byte[]) msg;
+                byteBuffer.put(data);
+                return new AppendMessageResult(AppendMessageStatus.PUT_OK, fileFromOffset, data.length, null, 0, 0);
+            }
+        });
+
+        // 文件写满并全部写入FileChannel后归还写缓冲
+        assertTrue(mappedFile.transfer(0) == fileSize);
+        assertTrue(transientStorePool.remainBufferNumbs() == 1);
+        assertTrue(mappedFile.getReadPosition() == fileSize);
+
+        // 删除文件时不能再次归还同一个缓冲区
+        mappedFile.shutdown(1000);
+        assertTrue(mappedFile.destroy(1000));
+        assertTrue(transientStorePool.remainBufferNumbs() == 1);
+        assertTrue(transientStorePool.borrowBuffer() != null);
+        assertTrue(transientStorePool.borrowBuffer() == null);
+
+        // 借出未归还的缓冲区也要解锁
+        transientStorePool.destroy();
+    }
+
+
     /**
      * 当前测试用例由于对mmap操作错误，会导致JVM CRASHED
      */
@@ -0,0 +1,251 @@
+package com.alibaba.rocketmq.store.ha;
+
+import com.alibaba.rocketmq.common.running.RunningStats;
+import com.alibaba.rocketmq.store.DefaultMessageStore;
+import com.alibaba.rocketmq.store.MessageExtBrokerInner;
+import com.alibaba.rocketmq.store.PutMessageCallback;
+import com.alibaba.rocketmq.store.PutMessageResult;
+import com.alibaba.rocketmq.store.PutMessageStatus;
+import com.alibaba.rocketmq.store.config.BrokerRole;
+import com.alibaba.rocketmq.store.config.MessageStoreConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+
+public class HAServiceTest {
+    private static final String StorePath = "./unit_test_store/ha_service";
+    private static final String Topic = "HATopic";
+    private static final int MasterHaPort = 31912;
+    private static final int SlaveHaPort = 31913;
+
+    private DefaultMessageStore master;
+    private DefaultMessageStore slave;
+
+
+    @Before
+    public void setUp() {
+        deleteFile(new File(StorePath));
+    }
+
+
+    @After
+    public void tearDown() {
+        if (slave != null) {
+            slave.shutdown();
+            slave.destroy();
+        }
+        if (master != null) {
+            master.shutdown();
+            master.destroy();
+        }
+        deleteFile(new File(StorePath));
+    }
+
+
+    private static void deleteFile(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                deleteFile(f);
+            }
+        }
+        file.delete();
+    }
+
+
+    private static DefaultMessageStore startStore(String name, BrokerRole brokerRole, int haListenPort,
+            boolean pipeline) throws Exception {
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setStorePathRootDir(StorePath + File.separator + name);
+        messageStoreConfig.setStorePathCommitLog(StorePath + File.separator + name + File.separator + "commitlog");
+        messageStoreConfig.setMappedFileSizeCommitLog(1024 * 64);
+        messageStoreConfig.setMappedFileSizeConsumeQueue(1024 * 4);
+        messageStoreConfig.setMessageIndexEnable(false);
+        messageStoreConfig.setBrokerRole(brokerRole);
+        messageStoreConfig.setHaListenPort(haListenPort);
+        // Slave连上后尽快汇报第一次Offset
+        messageStoreConfig.setHaSendHeartbeatInterval(500);
+        // 小窗口，保证同时有多个窗口在途
+        messageStoreConfig.setHaTransferPipelineEnable(pipeline);
+        messageStoreConfig.setHaTransferWindowSize(1024 * 4);
+        messageStoreConfig.setHaTransferMaxInflightWindows(2);
+
+        DefaultMessageStore store = new DefaultMessageStore(messageStoreConfig, null);
+        assertTrue(store.load());
+        store.start();
+        return store;
+    }
+
+
+    private void startMasterAndSlave(boolean pipeline) throws Exception {
+        master = startStore("master", BrokerRole.SYNC_MASTER, MasterHaPort, pipeline);
+        slave = startStore("slave", BrokerRole.SLAVE, SlaveHaPort, pipeline);
+        slave.updateHaMasterAddress("127.0.0.1:" + MasterHaPort);
+
+        // 等待Slave连上并汇报第一次Offset，之前的同步双写会因为没有传输而超时
+        for (int i = 0; i < 100 && slaveAckOffset() < 0; i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(0, slaveAckOffset());
+    }
+
+
+    /**
+     * 从运行时统计中取Slave的应答Offset，没有连接时返回-2
+     */
+    private long slaveAckOffset() {
+        String prefix = RunningStats.haSlaveStats.name() + "_";
+        HashMap<String, String> stats = new HashMap<String, String>();
+        master.getHaService().buildRunningStats(stats);
+        for (Map.Entry<String, String> entry : stats.entrySet()) {
+            if (entry.getKey().startsWith(prefix)) {
+                return Long.parseLong(entry.getValue().split(",")[0]);
+            }
+        }
+        return -2;
+    }
+
+
+    private static MessageExtBrokerInner buildMessage() throws Exception {
+        MessageExtBrokerInner msg = new MessageExtBrokerInner();
+        msg.setTopic(Topic);
+        msg.setQueueId(0);
+        msg.setBody(new byte[1024]);
+        msg.setBornTimestamp(System.currentTimeMillis());
+        msg.setBornHost(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0));
+        msg.setStoreHost(new InetSocketAddress(InetAddress.getLocalHost(), 8123));
+        return msg;
+    }
+
+
+    private void assertSlaveCaughtUp(long totalMsgs) throws Exception {
+        long masterMaxOffset = master.getMaxPhyOffset();
+        assertEquals(masterMaxOffset, master.getHaService().getPush2SlaveMaxOffset().get());
+        assertEquals(masterMaxOffset, slaveAckOffset());
+        assertEquals(masterMaxOffset, slave.getMaxPhyOffset());
+
+        // Slave根据复制的数据重建ConsumeQueue
+        for (int i = 0; i < 100 && slave.getMaxOffsetInQueue(Topic, 0) < totalMsgs; i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(totalMsgs, slave.getMaxOffsetInQueue(Topic, 0));
+    }
+
+
+    private void doTestAckOffsetProgress(boolean pipeline) throws Exception {
+        final int totalMsgs = 200;
+        startMasterAndSlave(pipeline);
+
+        long lastAckOffset = 0;
+        long beginTime = System.currentTimeMillis();
+        for (int i = 0; i < totalMsgs; i++) {
+            PutMessageResult result = master.putMessage(buildMessage());
+            assertEquals(PutMessageStatus.PUT_OK, result.getPutMessageStatus());
+
+            // 同步双写返回时，Slave的应答Offset已经越过这条消息，且不会回退
+            long ackOffset = master.getHaService().getPush2SlaveMaxOffset().get();
+            long wroteEnd = result.getAppendMessageResult().getWroteOffset()
+                    + result.getAppendMessageResult().getWroteBytes();
+            assertTrue(ackOffset >= wroteEnd);
+            assertTrue(ackOffset >= lastAckOffset);
+            lastAckOffset = ackOffset;
+        }
+        // 由Slave应答唤醒，而不是等GroupTransferService每秒一次的超时检查
+        assertTrue(System.currentTimeMillis() - beginTime < totalMsgs * 100);
+
+        assertSlaveCaughtUp(totalMsgs);
+    }
+
+
+    private void doTestInflightWakeups(boolean pipeline) throws Exception {
+        final int threads = 4;
+        final int msgsPerThread = 250;
+        startMasterAndSlave(pipeline);
+
+        // 多个线程连续异步提交，不等待Slave应答，大量请求同时等待复制
+        final CountDownLatch latch = new CountDownLatch(threads * msgsPerThread);
+        final ConcurrentHashMap<PutMessageStatus, AtomicInteger> statusCount =
+                new ConcurrentHashMap<PutMessageStatus, AtomicInteger>();
+        for (PutMessageStatus status : PutMessageStatus.values()) {
+            statusCount.put(status, new AtomicInteger(0));
+        }
+        final PutMessageCallback callback = new PutMessageCallback() {
+            @Override
+            public void onComplete(PutMessageResult putMessageResult) {
+                statusCount.get(putMessageResult.getPutMessageStatus()).incrementAndGet();
+                latch.countDown();
+            }
+        };
+
+        // 发送线程中的异常留给主线程断言，不能只打印
+        final AtomicReference<Exception> producerException = new AtomicReference<Exception>();
+        Thread[] producers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            producers[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < msgsPerThread; i++) {
+                            master.asyncPutMessage(buildMessage()).addCallback(callback);
+                        }
+                    }
+                    catch (Exception e) {
+                        producerException.compareAndSet(null, e);
+                    }
+                }
+            });
+            producers[t].start();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        assertNull(producerException.get());
+
+        // 每个请求都被Slave应答唤醒，没有一个等到超时
+        assertTrue(latch.await(30, TimeUnit.SECONDS));
+        assertEquals(threads * msgsPerThread, statusCount.get(PutMessageStatus.PUT_OK).get());
+        assertEquals(0, statusCount.get(PutMessageStatus.FLUSH_SLAVE_TIMEOUT).get());
+
+        assertSlaveCaughtUp(threads * msgsPerThread);
+    }
+
+
+    @Test
+    public void test_ack_offset_progress() throws Exception {
+        doTestAckOffsetProgress(false);
+    }
+
+
+    @Test
+    public void test_ack_offset_progress_pipeline() throws Exception {
+        doTestAckOffsetProgress(true);
+    }
+
+
+    @Test
+    public void test_sync_master_wakeups_inflight() throws Exception {
+        doTestInflightWakeups(false);
+    }
+
+
+    @Test
+    public void test_sync_master_wakeups_inflight_pipeline() throws Exception {
+        doTestInflightWakeups(true);
+    }
+}
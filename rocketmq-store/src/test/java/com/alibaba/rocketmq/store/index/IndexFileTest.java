@@ -74,4 +74,33 @@ public class IndexFileTest {
             assertTrue(false);
         }
     }
+
+
+    @Test
+    public void test_get_absent_key() {
+        try {
+            IndexFile indexFile = new IndexFile("300", hashSlotNum, indexNum, 0, 0);
+            for (long i = 0; i < 100; i++) {
+                assertTrue(indexFile.putKey(Long.toString(i), i, System.currentTimeMillis()));
+            }
+
+            // 64位Hash没有冲突，只返回Key对应的消息
+            List<Long> phyOffsets = new ArrayList<Long>();
+            indexFile.selectPhyOffset(phyOffsets, "60", 10, 0, Long.MAX_VALUE, true);
+            assertTrue(phyOffsets.size() == 1 && phyOffsets.get(0) == 60);
+
+            // 不存在的Key被Bloom Filter或者Hash比较过滤
+            phyOffsets.clear();
+            for (long i = 100; i < 1000; i++) {
+                indexFile.selectPhyOffset(phyOffsets, Long.toString(i), 10, 0, Long.MAX_VALUE, true);
+            }
+            assertTrue(phyOffsets.isEmpty());
+
+            indexFile.destroy(0);
+        }
+        catch (Exception e) {
+            e.printStackTrace();
+            assertTrue(false);
+        }
+    }
 }
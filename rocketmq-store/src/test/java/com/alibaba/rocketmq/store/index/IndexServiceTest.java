@@ -0,0 +1,243 @@
+package com.alibaba.rocketmq.store.index;
+
+import com.alibaba.rocketmq.common.message.MessageAccessor;
+import com.alibaba.rocketmq.common.message.MessageDecoder;
+import com.alibaba.rocketmq.store.AppendMessageResult;
+import com.alibaba.rocketmq.store.DefaultMessageStore;
+import com.alibaba.rocketmq.store.MessageExtBrokerInner;
+import com.alibaba.rocketmq.store.PutMessageResult;
+import com.alibaba.rocketmq.store.QueryMessageResult;
+import com.alibaba.rocketmq.store.config.MessageStoreConfig;
+import com.alibaba.rocketmq.store.config.StorePathConfigHelper;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class IndexServiceTest {
+    private static final String StorePath = "." + File.separator + "unit_test_store" + File.separator + "index_service";
+
+
+    private static MessageStoreConfig buildConfig() {
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setStorePathRootDir(StorePath);
+        messageStoreConfig.setStorePathCommitLog(StorePath + File.separator + "commitlog");
+        messageStoreConfig.setMappedFileSizeCommitLog(1024 * 64);
+        messageStoreConfig.setMappedFileSizeConsumeQueue(1024 * 4);
+        messageStoreConfig.setMaxHashSlotNum(100);
+        messageStoreConfig.setMaxIndexNum(100 * 10);
+        return messageStoreConfig;
+    }
+
+
+    private static MessageExtBrokerInner buildMessage(String topic, String orderId) throws Exception {
+        MessageExtBrokerInner msg = new MessageExtBrokerInner();
+        msg.setTopic(topic);
+        msg.setTags("TAG1");
+        msg.setBody("property index".getBytes());
+        MessageAccessor.putProperty(msg, "orderId", orderId);
+        msg.setPropertiesString(MessageDecoder.messageProperties2String(msg.getProperties()));
+        msg.setQueueId(0);
+        msg.setBornTimestamp(System.currentTimeMillis());
+        msg.setStoreHost(new InetSocketAddress(InetAddress.getLocalHost(), 8123));
+        msg.setBornHost(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0));
+        return msg;
+    }
+
+
+    /**
+     * 按升级前的格式写索引文件：32位Hash，每个索引项20字节，没有Bloom Filter
+     */
+    private static void writeLegacyIndexFile(File file, int hashSlotNum, int indexNum, String topic,
+            List<String> keys, List<AppendMessageResult> results) throws Exception {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            int fileSize = IndexHeader.INDEX_HEADER_SIZE + hashSlotNum * 4 + indexNum * 20;
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+            long beginTimestamp = results.get(0).getStoreTimestamp();
+            int indexCount = 1;
+            for (int i = 0; i < keys.size(); i++) {
+                int keyHash = Math.abs((topic + "#" + keys.get(i)).hashCode());
+                int absSlotPos = IndexHeader.INDEX_HEADER_SIZE + (keyHash % hashSlotNum) * 4;
+                int absIndexPos = IndexHeader.INDEX_HEADER_SIZE + hashSlotNum * 4 + indexCount * 20;
+                buffer.putInt(absIndexPos, keyHash);
+                buffer.putLong(absIndexPos + 4, results.get(i).getWroteOffset());
+                buffer.putInt(absIndexPos + 4 + 8,
+                    (int) ((results.get(i).getStoreTimestamp() - beginTimestamp) / 1000));
+                buffer.putInt(absIndexPos + 4 + 8 + 4, buffer.getInt(absSlotPos));
+                buffer.putInt(absSlotPos, indexCount++);
+            }
+
+            AppendMessageResult last = results.get(results.size() - 1);
+            buffer.putLong(0, beginTimestamp);
+            buffer.putLong(8, last.getStoreTimestamp());
+            buffer.putLong(16, results.get(0).getWroteOffset());
+            buffer.putLong(24, last.getWroteOffset());
+            buffer.putInt(32, keys.size());
+            buffer.putInt(36, indexCount);
+            buffer.force();
+        }
+        finally {
+            raf.close();
+        }
+    }
+
+
+    @Test
+    public void test_parse_index_properties() throws Exception {
+        MessageStoreConfig messageStoreConfig = buildConfig();
+        DefaultMessageStore store = new DefaultMessageStore(messageStoreConfig, null);
+        IndexService indexService = store.getIndexService();
+
+        // 未配置时不建属性索引
+        assertFalse(indexService.hasPropertyIndex("TopicA"));
+
+        // 单独配置的Topic同样带上*的属性，非法的配置项被忽略
+        messageStoreConfig.setMessageIndexProperties("*:orderId; TopicA: userId , orderId ,;bad;:x;TopicB:");
+        assertEquals(Arrays.asList("userId", "orderId"), indexService.getIndexProperties("TopicA"));
+        assertEquals(Arrays.asList("orderId"), indexService.getIndexProperties("TopicB"));
+        assertEquals(Arrays.asList("orderId"), indexService.getIndexProperties("TopicC"));
+        assertTrue(indexService.hasPropertyIndex("TopicC"));
+
+        // 配置运行期修改后重新解析
+        messageStoreConfig.setMessageIndexProperties("TopicA:userId");
+        assertEquals(Arrays.asList("userId"), indexService.getIndexProperties("TopicA"));
+        assertEquals(Collections.<String>emptyList(), indexService.getIndexProperties("TopicC"));
+        assertFalse(indexService.hasPropertyIndex("TopicC"));
+
+        store.destroy();
+    }
+
+
+    @Test
+    public void test_query_by_property() throws Exception {
+        MessageStoreConfig messageStoreConfig = buildConfig();
+        messageStoreConfig.setMessageIndexProperties("TopicA:orderId");
+        DefaultMessageStore store = new DefaultMessageStore(messageStoreConfig, null);
+        assertTrue(store.load());
+        store.start();
+
+        for (int i = 0; i < 10; i++) {
+            assertTrue(store.putMessage(buildMessage("TopicA", "order" + (i % 2))).isOk());
+            // 未配置属性索引的Topic
+            assertTrue(store.putMessage(buildMessage("TopicB", "order" + (i % 2))).isOk());
+        }
+
+        // 索引异步构建
+        QueryMessageResult result = null;
+        for (int i = 0; i < 50; i++) {
+            result = store.queryMessageByProperty("TopicA", "orderId", "order1", 64, 0, Long.MAX_VALUE);
+            if (result.getMessageBufferList().size() == 5) {
+                break;
+            }
+            result.release();
+            Thread.sleep(100);
+        }
+        assertEquals(5, result.getMessageBufferList().size());
+        result.release();
+
+        result = store.queryMessageByProperty("TopicB", "orderId", "order1", 64, 0, Long.MAX_VALUE);
+        assertEquals(0, result.getMessageBufferList().size());
+        result.release();
+
+        result = store.queryMessageByProperty("TopicA", "orderId", "order2", 64, 0, Long.MAX_VALUE);
+        assertEquals(0, result.getMessageBufferList().size());
+        result.release();
+
+        store.shutdown();
+        store.destroy();
+    }
+
+
+    @Test
+    public void test_query_legacy_index_file() throws Exception {
+        MessageStoreConfig messageStoreConfig = buildConfig();
+        // 先写入消息但不建索引，再按旧格式补写索引文件，模拟升级前的数据
+        messageStoreConfig.setMessageIndexEnable(false);
+        DefaultMessageStore store = new DefaultMessageStore(messageStoreConfig, null);
+        assertTrue(store.load());
+        store.start();
+
+        // "Aa"与"BB"的hashCode相同，旧格式索引中两个Key的索引项在同一条链上
+        List<String> keys = Arrays.asList("Aa", "BB", "key2");
+        List<AppendMessageResult> results = new ArrayList<AppendMessageResult>();
+        for (String key : keys) {
+            MessageExtBrokerInner msg = buildMessage("TopicA", "order");
+            msg.setKeys(key);
+            msg.setPropertiesString(MessageDecoder.messageProperties2String(msg.getProperties()));
+            PutMessageResult putMessageResult = store.putMessage(msg);
+            assertTrue(putMessageResult.isOk());
+            results.add(putMessageResult.getAppendMessageResult());
+        }
+        store.shutdown();
+
+        File indexDir = new File(StorePathConfigHelper.getStorePathIndex(StorePath));
+        indexDir.mkdirs();
+        // 文件名按时间排序，旧文件排在前面
+        File legacyFile = new File(indexDir, "20000101000000000");
+        writeLegacyIndexFile(legacyFile, messageStoreConfig.getMaxHashSlotNum(),
+            messageStoreConfig.getMaxIndexNum(), "TopicA", keys, results);
+        assertTrue(IndexFile.isLegacyFile(legacyFile, messageStoreConfig.getMaxHashSlotNum(),
+            messageStoreConfig.getMaxIndexNum()));
+
+        // 升级后重启，旧文件只读，新消息的索引写入新格式文件
+        messageStoreConfig.setMessageIndexEnable(true);
+        store = new DefaultMessageStore(messageStoreConfig, null);
+        assertTrue(store.load());
+        store.start();
+
+        // Hash冲突的索引项通过读取消息校验Key过滤
+        QueryMessageResult result = store.queryMessage("TopicA", "Aa", 64, 0, Long.MAX_VALUE);
+        assertEquals(1, result.getMessageBufferList().size());
+        assertEquals("Aa", MessageDecoder.decode(result.getMessageBufferList().get(0)).getKeys());
+        result.release();
+
+        result = store.queryMessage("TopicA", "key2", 64, 0, Long.MAX_VALUE);
+        assertEquals(1, result.getMessageBufferList().size());
+        result.release();
+
+        // 其他Topic的同名Key查不到
+        result = store.queryMessage("TopicB", "key2", 64, 0, Long.MAX_VALUE);
+        assertEquals(0, result.getMessageBufferList().size());
+        result.release();
+
+        MessageExtBrokerInner msg = buildMessage("TopicA", "order");
+        msg.setKeys("Aa");
+        msg.setPropertiesString(MessageDecoder.messageProperties2String(msg.getProperties()));
+        assertTrue(store.putMessage(msg).isOk());
+        for (int i = 0; i < 50; i++) {
+            result = store.queryMessage("TopicA", "Aa", 64, 0, Long.MAX_VALUE);
+            if (result.getMessageBufferList().size() == 2) {
+                break;
+            }
+            result.release();
+            Thread.sleep(100);
+        }
+        assertEquals(2, result.getMessageBufferList().size());
+        result.release();
+
+        // 新格式文件不会被当作旧文件
+        File[] indexFiles = indexDir.listFiles();
+        assertEquals(2, indexFiles.length);
+        for (File file : indexFiles) {
+            assertEquals(file.equals(legacyFile), IndexFile.isLegacyFile(file,
+                messageStoreConfig.getMaxHashSlotNum(), messageStoreConfig.getMaxIndexNum()));
+        }
+
+        store.shutdown();
+        store.destroy();
+    }
+}
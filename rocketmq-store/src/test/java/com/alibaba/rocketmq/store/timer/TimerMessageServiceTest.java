@@ -0,0 +1,147 @@
+package com.alibaba.rocketmq.store.timer;
+
+import com.alibaba.rocketmq.common.MixAll;
+import com.alibaba.rocketmq.common.message.MessageExt;
+import com.alibaba.rocketmq.store.DefaultMessageStore;
+import com.alibaba.rocketmq.store.MessageExtBrokerInner;
+import com.alibaba.rocketmq.store.config.MessageStoreConfig;
+import com.alibaba.rocketmq.store.config.StorePathConfigHelper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+import static org.junit.Assert.assertTrue;
+
+
+public class TimerMessageServiceTest {
+    private static final String StorePath = "./unit_test_store/timer_service";
+    private static final String Topic = "TimerTopic";
+
+    private DefaultMessageStore messageStore;
+
+
+    @Before
+    public void setUp() {
+        deleteFile(new File(StorePath));
+    }
+
+
+    @After
+    public void tearDown() {
+        if (messageStore != null) {
+            messageStore.shutdown();
+            messageStore.destroy();
+        }
+        deleteFile(new File(StorePath));
+    }
+
+
+    private static void deleteFile(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                deleteFile(f);
+            }
+        }
+        file.delete();
+    }
+
+
+    private DefaultMessageStore startStore() throws Exception {
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setStorePathRootDir(StorePath);
+        messageStoreConfig.setStorePathCommitLog(StorePath + File.separator + "commitlog");
+        messageStoreConfig.setMappedFileSizeCommitLog(1024 * 64);
+        messageStoreConfig.setMappedFileSizeConsumeQueue(1024 * 4);
+        messageStoreConfig.setMappedFileSizeTimerLog(TimerLog.UnitSize * 1024);
+        messageStoreConfig.setTimerWheelHourSlots(4);
+        messageStoreConfig.setMessageIndexEnable(false);
+
+        DefaultMessageStore store = new DefaultMessageStore(messageStoreConfig, null);
+        assertTrue(store.load());
+        store.start();
+        return store;
+    }
+
+
+    private MessageExtBrokerInner buildMessage(long deliverTimestamp) throws Exception {
+        MessageExtBrokerInner msg = new MessageExtBrokerInner();
+        msg.setTopic(Topic);
+        msg.setQueueId(0);
+        msg.setBody("timer message".getBytes());
+        msg.setDeliverTimestamp(deliverTimestamp);
+        msg.setBornTimestamp(System.currentTimeMillis());
+        msg.setBornHost(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0));
+        msg.setStoreHost(new InetSocketAddress(InetAddress.getLocalHost(), 8123));
+        return msg;
+    }
+
+
+    private void waitForEnqueued(long count) throws Exception {
+        for (int i = 0; i < 50 && messageStore.getTimerMessageService().getQueueOffset() < count; i++) {
+            Thread.sleep(100);
+        }
+        assertTrue(messageStore.getTimerMessageService().getQueueOffset() == count);
+    }
+
+
+    /**
+     * 正常重启前模拟一次投递失败，进度落后于时间轮，然后检查重启后下一轮的定时器不会提前投递
+     *
+     * @param keepWheelSecond
+     *            false表示进度文件是旧格式，没有记录时间轮位置
+     */
+    private void restartWithDeliveryBehind(boolean keepWheelSecond) throws Exception {
+        long now = System.currentTimeMillis();
+        long deliverTimestamp = now + 2000;
+        // 一小时之内到期，在秒级时间轮上
+        long nextRoundTimestamp = now + (TimerWheel.SecondSlots - 60) * 1000L;
+
+        messageStore = startStore();
+        assertTrue(messageStore.putMessage(buildMessage(deliverTimestamp)).isOk());
+        assertTrue(messageStore.putMessage(buildMessage(nextRoundTimestamp)).isOk());
+        waitForEnqueued(2);
+        messageStore.shutdown();
+
+        // 进度停在下一轮定时器所在槽的上一轮之前
+        String progressPath = StorePathConfigHelper.getTimerProgressStorePath(StorePath);
+        TimerProgressSerializeWrapper wrapper =
+                TimerProgressSerializeWrapper.fromJson(MixAll.file2String(progressPath),
+                    TimerProgressSerializeWrapper.class);
+        assertTrue(wrapper.getWheelSecond() >= TimerMessageService.deliverSecond(now));
+        wrapper.setDeliveredSecond(TimerMessageService.deliverSecond(nextRoundTimestamp) - TimerWheel.SecondSlots - 5);
+        if (!keepWheelSecond) {
+            wrapper.setWheelSecond(-1);
+        }
+        MixAll.string2File(wrapper.toJson(), progressPath);
+
+        messageStore = startStore();
+        for (int i = 0; i < 50 && messageStore.getMaxOffsetInQueue(Topic, 0) < 1; i++) {
+            Thread.sleep(100);
+        }
+        assertTrue(messageStore.getMaxOffsetInQueue(Topic, 0) == 1);
+        MessageExt msg = messageStore.lookMessageByOffset(messageStore.getCommitLogOffsetInQueue(Topic, 0, 0));
+        assertTrue(msg.getDeliverTimestamp() == 0);
+        assertTrue(msg.getStoreTimestamp() >= deliverTimestamp);
+
+        // 时间轮回拨的槽已经全部经过
+        Thread.sleep(1000 * 6);
+        assertTrue(messageStore.getMaxOffsetInQueue(Topic, 0) == 1);
+    }
+
+
+    @Test
+    public void test_restart_with_delivery_behind() throws Exception {
+        this.restartWithDeliveryBehind(true);
+    }
+
+
+    @Test
+    public void test_restart_with_old_progress() throws Exception {
+        this.restartWithDeliveryBehind(false);
+    }
+}
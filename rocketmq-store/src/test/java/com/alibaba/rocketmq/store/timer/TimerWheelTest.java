@@ -0,0 +1,117 @@
+package com.alibaba.rocketmq.store.timer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertTrue;
+
+
+public class TimerWheelTest {
+    private static final String StorePath = "./unit_test_store/timer/";
+    private static final int HourSlots = 4;
+    private static final long StartSecond = 2 * TimerWheel.SecondSlots;
+
+    private TimerLog timerLog;
+    private TimerWheel timerWheel;
+
+
+    @Before
+    public void setUp() throws Exception {
+        timerLog = new TimerLog(StorePath + "timerlog", TimerLog.UnitSize * 1024);
+        timerLog.load();
+        timerWheel = new TimerWheel(StorePath + "timerwheel", HourSlots, timerLog);
+        timerWheel.load();
+        timerWheel.reset(StartSecond);
+    }
+
+
+    @After
+    public void tearDown() {
+        timerWheel.shutdown();
+        timerLog.shutdown();
+        timerLog.destroy();
+        new java.io.File(StorePath + "timerwheel").delete();
+    }
+
+
+    /**
+     * 一直前进到second，返回这一秒到期的定时器
+     */
+    private TimerWheel.TimerRecords expireTo(long second) {
+        TimerWheel.TimerRecords records = null;
+        while (timerWheel.getCurrentSecond() <= second) {
+            records = timerWheel.expire();
+            if (timerWheel.getCurrentSecond() <= second) {
+                assertTrue(records.isEmpty());
+            }
+        }
+        return records;
+    }
+
+
+    @Test
+    public void test_add_expire() {
+        assertTrue(timerWheel.add(StartSecond - 1, 100, 10) == TimerWheel.AddExpired);
+        assertTrue(timerWheel.add(StartSecond + 5, 100, 10) == TimerWheel.AddOK);
+        assertTrue(timerWheel.add(StartSecond + 5, 200, 20) == TimerWheel.AddOK);
+
+        TimerWheel.TimerRecords records = expireTo(StartSecond + 5);
+        // 同一秒内先加入的先投递
+        assertTrue(records.size() == 2);
+        assertTrue(records.getOffsetPy(0) == 100);
+        assertTrue(records.getOffsetPy(1) == 200);
+        assertTrue(records.getSizePy(1) == 20);
+        assertTrue(records.getDeliverSecond(0) == StartSecond + 5);
+    }
+
+
+    @Test
+    public void test_cascade() {
+        long nextHour = StartSecond + TimerWheel.SecondSlots + 10;
+        // 超出小时级时间轮一圈，需要轮回一次
+        long nextRound = StartSecond + HourSlots * TimerWheel.SecondSlots + 1;
+        assertTrue(timerWheel.add(nextHour, 300, 30) == TimerWheel.AddOK);
+        assertTrue(timerWheel.add(nextRound, 400, 40) == TimerWheel.AddOK);
+
+        TimerWheel.TimerRecords records = expireTo(nextHour);
+        assertTrue(records.size() == 1);
+        assertTrue(records.getOffsetPy(0) == 300);
+
+        records = expireTo(nextRound);
+        assertTrue(records.size() == 1);
+        assertTrue(records.getOffsetPy(0) == 400);
+        assertTrue(records.getDeliverSecond(0) == nextRound);
+    }
+
+
+    @Test
+    public void test_reattach() {
+        assertTrue(timerWheel.add(StartSecond, 500, 50) == TimerWheel.AddOK);
+        TimerWheel.TimerRecords records = timerWheel.expire();
+        assertTrue(records.size() == 1);
+
+        // 投递失败后挂到下一秒重试，保留原投递时间
+        assertTrue(timerWheel.reattach(records));
+        records = timerWheel.expire();
+        assertTrue(records.size() == 1);
+        assertTrue(records.getOffsetPy(0) == 500);
+        assertTrue(records.getDeliverSecond(0) == StartSecond);
+        assertTrue(timerWheel.expire().isEmpty());
+    }
+
+
+    @Test
+    public void test_expire_after_rewind() {
+        long nextRound = StartSecond + TimerWheel.SecondSlots - 10;
+        assertTrue(timerWheel.add(nextRound, 600, 60) == TimerWheel.AddOK);
+
+        // 时间轮回拨后经过同一个槽，下一轮的定时器重新挂回，不提前投递
+        timerWheel.setCurrentSecond(nextRound - TimerWheel.SecondSlots);
+        assertTrue(timerWheel.expire().isEmpty());
+
+        TimerWheel.TimerRecords records = expireTo(nextRound);
+        assertTrue(records.size() == 1);
+        assertTrue(records.getOffsetPy(0) == 600);
+    }
+}
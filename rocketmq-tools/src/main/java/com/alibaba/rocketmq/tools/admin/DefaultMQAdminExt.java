@@ -123,6 +123,13 @@ public class DefaultMQAdminExt extends ClientConfig implements MQAdminExt {
     }
 
 
+    @Override
+    public QueryResult queryMessageByProperty(String topic, String propertyName, String value, int maxNum,
+            long begin, long end) throws MQClientException, InterruptedException {
+        return defaultMQAdminExtImpl.queryMessageByProperty(topic, propertyName, value, maxNum, begin, end);
+    }
+
+
     @Override
     public void start() throws MQClientException {
         defaultMQAdminExtImpl.start();
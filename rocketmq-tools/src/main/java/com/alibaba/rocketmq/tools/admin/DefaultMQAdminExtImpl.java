@@ -359,6 +359,14 @@ public class DefaultMQAdminExtImpl implements MQAdminExt, MQAdminExtInner {
     }
 
 
+    @Override
+    public QueryResult queryMessageByProperty(String topic, String propertyName, String value, int maxNum,
+            long begin, long end) throws MQClientException, InterruptedException {
+        return this.mqClientInstance.getMQAdminImpl().queryMessageByProperty(topic, propertyName, value, maxNum,
+            begin, end);
+    }
+
+
     @Override
     public ConsumerConnection examineConsumerConnectionInfo(String consumerGroup)
             throws InterruptedException, MQBrokerException, RemotingException, MQClientException {
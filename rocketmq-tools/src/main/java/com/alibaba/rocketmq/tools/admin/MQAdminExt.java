@@ -16,6 +16,7 @@
 package com.alibaba.rocketmq.tools.admin;
 
 import com.alibaba.rocketmq.client.MQAdmin;
+import com.alibaba.rocketmq.client.QueryResult;
 import com.alibaba.rocketmq.client.exception.MQBrokerException;
 import com.alibaba.rocketmq.client.exception.MQClientException;
 import com.alibaba.rocketmq.common.TopicConfig;
@@ -712,4 +713,27 @@ public interface MQAdminExt extends MQAdmin {
 
     void addCommitLogStorePath(String brokerAddress, String storePathCommitLog)
             throws RemotingException, InterruptedException, MQBrokerException;
+
+
+    /**
+     * 根据消息属性查询消息，属性需要在Broker的messageIndexProperties中配置
+     *
+     * @param topic
+     *            消息所属Topic
+     * @param propertyName
+     *            属性名
+     * @param value
+     *            属性值
+     * @param maxNum
+     *            每个Broker查询最大条数
+     * @param begin
+     *            起始时间戳
+     * @param end
+     *            结束时间戳
+     * @return 按存储时间排序的查询结果
+     * @throws MQClientException
+     * @throws InterruptedException
+     */
+    public QueryResult queryMessageByProperty(final String topic, final String propertyName, final String value,
+            final int maxNum, final long begin, final long end) throws MQClientException, InterruptedException;
 }
@@ -69,6 +69,7 @@ public class MQAdminStartup {
         subCommandList.add(new BrokerStatusSubCommand());
         subCommandList.add(new QueryMsgByIdSubCommand());
         subCommandList.add(new QueryMsgByKeySubCommand());
+        subCommandList.add(new QueryMsgByPropertySubCommand());
         subCommandList.add(new QueryMsgByOffsetSubCommand());
         subCommandList.add(new PrintMessageSubCommand());
 
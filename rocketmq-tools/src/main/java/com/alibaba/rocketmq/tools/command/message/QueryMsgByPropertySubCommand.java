@@ -0,0 +1,119 @@
+/**
+ * Copyright (C) 2010-2013 Alibaba Group Holding Limited
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.alibaba.rocketmq.tools.command.message;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+
+import com.alibaba.rocketmq.client.QueryResult;
+import com.alibaba.rocketmq.client.exception.MQClientException;
+import com.alibaba.rocketmq.common.UtilAll;
+import com.alibaba.rocketmq.common.message.MessageExt;
+import com.alibaba.rocketmq.remoting.RPCHook;
+import com.alibaba.rocketmq.tools.admin.DefaultMQAdminExt;
+import com.alibaba.rocketmq.tools.command.SubCommand;
+
+
+/**
+ * 根据消息属性查询消息，属性需要在Broker的messageIndexProperties中配置
+ */
+public class QueryMsgByPropertySubCommand implements SubCommand {
+
+    @Override
+    public String commandName() {
+        return "queryMsgByProperty";
+    }
+
+
+    @Override
+    public String commandDesc() {
+        return "Query Message by indexed property";
+    }
+
+
+    @Override
+    public Options buildCommandlineOptions(Options options) {
+        Option opt = new Option("t", "topic", true, "topic name");
+        opt.setRequired(true);
+        options.addOption(opt);
+
+        opt = new Option("p", "propertyName", true, "Property name");
+        opt.setRequired(true);
+        options.addOption(opt);
+
+        opt = new Option("v", "propertyValue", true, "Property value");
+        opt.setRequired(true);
+        options.addOption(opt);
+
+        opt = new Option("b", "beginTimestamp", true, "Begin timestamp(ms), default 0");
+        opt.setRequired(false);
+        options.addOption(opt);
+
+        opt = new Option("e", "endTimestamp", true, "End timestamp(ms), default now");
+        opt.setRequired(false);
+        options.addOption(opt);
+
+        return options;
+    }
+
+
+    void queryByProperty(final DefaultMQAdminExt admin, final String topic, final String propertyName,
+            final String value, final long begin, final long end) throws MQClientException, InterruptedException {
+        admin.start();
+
+        QueryResult queryResult = admin.queryMessageByProperty(topic, propertyName, value, 64, begin, end);
+        System.out.printf("%-50s %4s %20s %24s\n",//
+            "#Message ID",//
+            "#QID",//
+            "#Offset",//
+            "#Store Time");
+        for (MessageExt msg : queryResult.getMessageList()) {
+            System.out.printf("%-50s %4d %20d %24s\n", msg.getMsgId(), msg.getQueueId(), msg.getQueueOffset(),
+                UtilAll.timeMillisToHumanString2(msg.getStoreTimestamp()));
+        }
+    }
+
+
+    @Override
+    public void execute(CommandLine commandLine, Options options, RPCHook rpcHook) {
+        DefaultMQAdminExt defaultMQAdminExt = new DefaultMQAdminExt(rpcHook);
+
+        defaultMQAdminExt.setInstanceName(Long.toString(System.currentTimeMillis()));
+
+        try {
+            final String topic = commandLine.getOptionValue('t').trim();
+            final String propertyName = commandLine.getOptionValue('p').trim();
+            final String value = commandLine.getOptionValue('v').trim();
+            long begin = 0;
+            if (commandLine.hasOption('b')) {
+                begin = Long.parseLong(commandLine.getOptionValue('b').trim());
+            }
+            long end = System.currentTimeMillis();
+            if (commandLine.hasOption('e')) {
+                end = Long.parseLong(commandLine.getOptionValue('e').trim());
+            }
+
+            this.queryByProperty(defaultMQAdminExt, topic, propertyName, value, begin, end);
+        }
+        catch (Exception e) {
+            e.printStackTrace();
+        }
+        finally {
+            defaultMQAdminExt.shutdown();
+        }
+    }
+}